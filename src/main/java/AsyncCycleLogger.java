@@ -0,0 +1,429 @@
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+* The asynchronous logger of the diagnostics of each cycle of queries to
+* cAdvisor: the thread which queries cAdvisor only puts each entry (a
+* category, a key, a value and an optional object to render) in a
+* pre-allocated ring buffer, and this thread formats and writes it, so the
+* collector never blocks on, nor formats for, the output. If the ring
+* buffer is full the entry is dropped (and the drops are reported).
+*
+* Each category has its own rate limit (a token bucket of entries per
+* second), e.g., to print only a sample of the container dumps. Optionally,
+* the final metrics of each cycle are also appended to a compact binary
+* file of cycle records:
+*
+* <pre>
+*   cycle:     long epochMilli, long machineMemCapacity, int numContainers,
+*              numContainers x container
+*   container: docker-id (see BinaryDockerIds), int loadFactor
+* </pre>
+*
+* The producers (the thread which queries cAdvisor, or the score and
+* publish stages of its pipeline) are serialized by the monitor of this
+* logger, which only guards putting the entry in the ring buffer.
+*
+* @author  Jose E. Nunez
+* @version 0.0.1
+* @since   2019-06-09
+*/
+public final class AsyncCycleLogger extends Thread {
+
+  /**
+  * The categories of the entries, each one with its own rate limit.
+  */
+  public enum Category {
+    /** The machine stats returned by cAdvisor. */
+    MACHINE("machine"),
+    /** The dump of the new samples of a container. */
+    CONTAINER("container"),
+    /** The load factor of a container. */
+    LOAD_FACTOR("loadFactor"),
+    /** The creation or deletion of a container. */
+    EVENT("event"),
+    /** The metrics of a stage of the pipeline of the cycles. */
+    PIPELINE("pipeline"),
+    /** A change of state of the circuit breaker of a cAdvisor host. */
+    BREAKER("breaker"),
+    /** The latency of a push of the weights to HAProxy. */
+    PUSH("push"),
+    /** A tuning of the relative weights from the latency in HAProxy. */
+    TUNING("tuning"),
+    /** The ejection or re-admission of an outlier container. */
+    OUTLIER("outlier"),
+    /** A change of the spec of a container (like its memory limit). */
+    SPEC("spec"),
+    /** The final metrics of a cycle (only for the binary cycle records). */
+    CYCLE("cycle");
+
+    /**
+     * The name of the category in the logs and in the properties.
+     */
+    private final String propName;
+
+    /**
+    * Constructor.
+    *
+    * @param name the name of the category in the logs and the properties
+    */
+    Category(final String name) {
+      propName = name;
+    }
+
+    /**
+    * Get the name of the category in the logs and in the properties.
+    *
+    * @return the name of the category
+    */
+    public String propName() {
+      return propName;
+    }
+  }
+
+  /**
+  * An entry of the ring buffer (reused).
+  */
+  private static final class Entry {
+
+    /**
+     * The category of the entry.
+     */
+    private Category category;
+
+    /**
+     * When the entry was logged.
+     */
+    private long epochMilli;
+
+    /**
+     * The key of the entry (like a docker-id).
+     */
+    private String key;
+
+    /**
+     * The value of the entry (like a load factor).
+     */
+    private long value;
+
+    /**
+     * An object to render in the thread of the logger (can be null).
+     */
+    private Object payload;
+  }
+
+  /**
+   * The delay while there is nothing to write, in millisecs.
+   */
+  private static final int IDLE_DELAY_MILLISEC = 10;
+
+  /**
+   * The ring buffer of entries (its length is a power of 2).
+   */
+  private final Entry[] ring;
+
+  /**
+   * The sequence number of the next entry to put (only written by the
+   * producers).
+   */
+  private volatile long head = 0;
+
+  /**
+   * The sequence number of the next entry to write (only written by this
+   * thread).
+   */
+  private volatile long tail = 0;
+
+  /**
+   * The number of entries dropped because the ring buffer was full (only
+   * written by the producers).
+   */
+  private volatile long numDropped = 0;
+
+  /**
+   * The rate limit of each category, in entries per second (negative: no
+   * limit, 0: disabled).
+   */
+  private final double[] ratesPerSecond;
+
+  /**
+   * The tokens available to each category (only used by the producers).
+   */
+  private final double[] tokens;
+
+  /**
+   * When the tokens of each category were refilled (only used by the
+   * producers).
+   */
+  private final long[] lastRefillNanos;
+
+  /**
+   * Where to write the text entries.
+   */
+  private final PrintStream textOutput;
+
+  /**
+   * The file of binary cycle records (null: don't write them).
+   */
+  private final String cycleRecordFile;
+
+  /**
+   * The stream of binary cycle records (only used by this thread).
+   */
+  private DataOutputStream cycleRecords = null;
+
+  /**
+  * Constructor.
+  *
+  * @param config the settings of the agent, with the "logRingSize", the
+  *               rate limits of the categories
+  *               ("logRate.[category]=[entries per second]") and the
+  *               "cycleRecordFile"
+  * @param output where to write the text entries
+  */
+  public AsyncCycleLogger(final ConfigLbDockerCAdvisor config,
+                          final PrintStream output) {
+    super("AsyncCycleLogger: writer of the diagnostics of the cycles");
+    setDaemon(true);
+
+    int ringSize = Integer.highestOneBit(Math.max(config.logRingSize(), 2));
+    ring = new Entry[ringSize];
+    for (int idx = 0; idx < ringSize; idx++) {
+      ring[idx] = new Entry();
+    }
+
+    Category[] categories = Category.values();
+    ratesPerSecond = new double[categories.length];
+    tokens = new double[categories.length];
+    lastRefillNanos = new long[categories.length];
+
+    Map<String, String> rates = config.getPropertiesWithPrefix("logRate.");
+    for (Category category: categories) {
+      double rate = -1;
+      String configuredRate = rates.get(category.propName());
+      if (configuredRate != null) {
+        try {
+          rate = Double.parseDouble(configuredRate);
+        } catch (NumberFormatException ex) {
+          ex.printStackTrace();
+        }
+      }
+      ratesPerSecond[category.ordinal()] = rate;
+      tokens[category.ordinal()] = Math.max(rate, 1);
+      lastRefillNanos[category.ordinal()] = System.nanoTime();
+    }
+
+    textOutput = output;
+    cycleRecordFile = config.cycleRecordFile().isEmpty()
+                          ? null : config.cycleRecordFile();
+  }
+
+  /**
+  * Takes a token of a category, if its rate limit allows it (only called
+  * by a producer, holding the monitor of this logger).
+  *
+  * @param category the category
+  * @return true if an entry of this category can be logged now
+  */
+  private boolean takeToken(final Category category) {
+    int idx = category.ordinal();
+    double rate = ratesPerSecond[idx];
+    if (rate < 0) {
+      return true;
+    } else if (rate == 0) {
+      return false;
+    }
+
+    // refill the bucket, up to a burst of one second of entries
+    long now = System.nanoTime();
+    tokens[idx] = Math.min(Math.max(rate, 1),
+                           tokens[idx]
+                           + rate * (now - lastRefillNanos[idx]) / 1e9);
+    lastRefillNanos[idx] = now;
+
+    if (tokens[idx] < 1) {
+      return false;
+    }
+    tokens[idx] -= 1;
+    return true;
+  }
+
+  /**
+  * Logs an entry, without blocking nor formatting anything.
+  *
+  * @param category the category of the entry
+  * @param key the key of the entry (like a docker-id)
+  * @param value the value of the entry (like a load factor)
+  * @param payload an object to render in the thread of the logger (can be
+  *                null)
+  * @return true if the entry was logged (not dropped by the rate limit of
+  *         its category, nor because the ring buffer is full)
+  */
+  public synchronized boolean log(final Category category,
+                                  final String key, long value,
+                                  final Object payload) {
+    if (category != Category.CYCLE && !takeToken(category)) {
+      return false;
+    }
+    return put(category, key, value, payload);
+  }
+
+  /**
+  * Logs the final metrics of a cycle in the binary cycle records (if
+  * enabled).
+  *
+  * @param lbResultStats the final metrics published (not modified later)
+  * @param machineMemCapacity the memory capacity of the machine
+  */
+  public synchronized void logCycle(
+                              final List<LbCAdvisorResultStat> lbResultStats,
+                              long machineMemCapacity
+  ) {
+    if (cycleRecordFile != null) {
+      put(Category.CYCLE, null, machineMemCapacity, lbResultStats);
+    }
+  }
+
+  /**
+  * Puts an entry in the ring buffer (only called by a producer, holding the
+  * monitor of this logger).
+  *
+  * @param category the category of the entry
+  * @param key the key of the entry
+  * @param value the value of the entry
+  * @param payload an object to render in the thread of the logger
+  * @return true if the entry was put, false if the ring buffer is full
+  */
+  private boolean put(final Category category, final String key, long value,
+                      final Object payload) {
+    long seq = head;
+    if (seq - tail >= ring.length) {
+      numDropped++;
+      return false;
+    }
+
+    Entry entry = ring[(int) seq & (ring.length - 1)];
+    entry.category = category;
+    entry.epochMilli = System.currentTimeMillis();
+    entry.key = key;
+    entry.value = value;
+    entry.payload = payload;
+
+    // the volatile write publishes the entry to the thread of the logger
+    head = seq + 1;
+    return true;
+  }
+
+  /**
+  * Writes an entry (in the thread of the logger).
+  *
+  * @param entry the entry
+  */
+  protected void write(final Entry entry) {
+    if (entry.category == Category.CYCLE) {
+      writeCycleRecord(entry);
+      return;
+    }
+
+    StringBuilder line = new StringBuilder(128);
+    line.append("ts=").append(entry.epochMilli)
+        .append(" cat=").append(entry.category.propName());
+    if (entry.key != null) {
+      line.append(" key=").append(entry.key)
+          .append(" value=").append(entry.value);
+    }
+    if (entry.payload != null) {
+      line.append('\n').append(entry.payload);
+    }
+    textOutput.println(line);
+  }
+
+  /**
+  * Appends a binary cycle record (in the thread of the logger).
+  *
+  * @param entry the entry with the final metrics of the cycle
+  */
+  @SuppressWarnings("unchecked")
+  protected void writeCycleRecord(final Entry entry) {
+    List<LbCAdvisorResultStat> lbResultStats =
+        (List<LbCAdvisorResultStat>) entry.payload;
+
+    try {
+      if (cycleRecords == null) {
+        cycleRecords = new DataOutputStream(new BufferedOutputStream(
+            new FileOutputStream(cycleRecordFile, true), 64 * 1024));
+      }
+
+      cycleRecords.writeLong(entry.epochMilli);
+      cycleRecords.writeLong(entry.value);
+      cycleRecords.writeInt(lbResultStats.size());
+      for (LbCAdvisorResultStat lbResultStat: lbResultStats) {
+        BinaryDockerIds.write(cycleRecords, lbResultStat.dockerId());
+        cycleRecords.writeInt(lbResultStat.lbFinalStat());
+      }
+    } catch (IOException ex) {
+      ex.printStackTrace();
+    }
+  }
+
+  /**
+  * Flushes the outputs (in the thread of the logger, when it is idle).
+  */
+  protected void flushOutputs() {
+    textOutput.flush();
+    if (cycleRecords != null) {
+      try {
+        cycleRecords.flush();
+      } catch (IOException ex) {
+        ex.printStackTrace();
+      }
+    }
+  }
+
+  /**
+  * run() method of the class: writes the entries for ever.
+  */
+  @Override
+  public void run() {
+    long reportedDropped = 0;
+
+    while (true) {
+      long seq = tail;
+      if (seq == head) {
+        long dropped = numDropped;
+        if (dropped != reportedDropped) {
+          textOutput.println("WARN: the log ring buffer was full: dropped "
+                             + (dropped - reportedDropped) + " entries");
+          reportedDropped = dropped;
+        }
+        flushOutputs();
+        LockSupport.parkNanos(
+            TimeUnit.MILLISECONDS.toNanos(IDLE_DELAY_MILLISEC)
+        );
+        continue;
+      }
+
+      Entry entry = ring[(int) seq & (ring.length - 1)];
+      try {
+        write(entry);
+      } catch (RuntimeException ex) {
+        ex.printStackTrace();
+      }
+      entry.payload = null;
+      entry.key = null;
+
+      // the volatile write frees the entry for the producers
+      tail = seq + 1;
+    }
+  }
+
+}
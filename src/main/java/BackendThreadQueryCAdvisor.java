@@ -4,8 +4,12 @@ import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 // Apache HttpClient
 import org.apache.http.Header;
@@ -20,10 +24,8 @@ import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
 import org.apache.http.util.EntityUtils;
 
-// JSON-simple
-import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
-import org.json.simple.parser.ParseException;
+// JSonPath
+import com.jayway.jsonpath.InvalidJsonException;
 
 
 /**
@@ -47,6 +49,32 @@ public final class BackendThreadQueryCAdvisor extends Thread {
    */
   private final int minimumDelayBetweenFullCyclesQueries = 5 * 1000;
 
+  /**
+   * The fetch stage of a work.
+   */
+  protected static final int STAGE_FETCH = 0;
+
+  /**
+   * The parse stage of a work.
+   */
+  protected static final int STAGE_PARSE = 1;
+
+  /**
+   * The score stage of a work.
+   */
+  protected static final int STAGE_SCORE = 2;
+
+  /**
+   * The publish stage of a work.
+   */
+  protected static final int STAGE_PUBLISH = 3;
+
+  /**
+   * The names of the stages, in the Java Flight Recorder events.
+   */
+  private static final String[] STAGE_NAMES =
+      {"fetch", "parse", "score", "publish"};
+
   /**
    * The cAdvisor server address (hostname or IP address).
    */
@@ -57,6 +85,12 @@ public final class BackendThreadQueryCAdvisor extends Thread {
    */
   private final int portCAdvisor;
 
+  /**
+   * The cAdvisor host as "host:port", in the final metrics of its docker
+   * containers (so that several cAdvisors on one address are distinct).
+   */
+  private final String hostKey;
+
   /**
    * An HTTP proxy through which to communicate with the cAdvisor HTTP server.
    */
@@ -79,12 +113,164 @@ public final class BackendThreadQueryCAdvisor extends Thread {
                                          "metric_weights.properties";
 
   /**
-   * The memory of the last values of some timed metrics from cAdvisor that
-   * are accumulative counters (per docker-container-id, which acts as the
-   * hash key).
+   * From which properties file this program should read the declarative
+   * schema of the timed metrics from cAdvisor.
+   * @see MetricSchema
+   */
+  private final String fnPropertiesMetricSchema =
+                                         "metric_schema.properties";
+
+  /**
+   * The scorer which summarizes the metrics of each docker container into
+   * its overall load factor (it also remembers the last values of the
+   * accumulative counters of each container).
+   */
+  private final DockerLoadFactorScorer loadFactorScorer;
+
+  /**
+   * The tuner of the relative weights from the latency of the backend
+   * servers (null: the configured weights are kept).
+   */
+  private LatencyWeightTuner weightTuner = null;
+
+  /**
+   * The ejector of the outlier containers of this host (null: none is
+   * ejected).
+   */
+  private OutlierEjector outlierEjector = null;
+
+  /**
+   * The damper of the load factors of this host before they are published
+   * (null: they are published as scored).
+   */
+  private LoadFactorDamper loadFactorDamper = null;
+
+  /**
+   * The parser of the responses from cAdvisor straight into sampleWindows,
+   * in the allocation-free mode (null: parse them into JSON trees).
+   */
+  private StreamingDockerStatsParser streamingParser = null;
+
+  /**
+   * The reusable holder of the new samples of the containers, in the
+   * allocation-free mode.
+   */
+  private ContainerSampleWindows sampleWindows = null;
+
+  /**
+   * The sequence number of the next work processed in this thread, without
+   * the pipeline (which numbers its own works).
+   */
+  private long nextSeq = 0;
+
+  /**
+   * The local collector of the samples of the containers from their cgroups,
+   * instead of querying cAdvisor (null: query cAdvisor).
+   */
+  private CgroupV2Collector cgroupCollector = null;
+
+  /**
+   * The interval between the samples taken by cgroupCollector between the
+   * full cycles, in nanosecs (0: only one sample per full cycle).
+   */
+  private long cgroupSampleNanos = 0;
+
+  /**
+   * The asynchronous logger of the diagnostics of each cycle (null: don't
+   * log them).
+   */
+  private AsyncCycleLogger cycleLogger = null;
+
+  /**
+   * The recorder of the raw responses from cAdvisor, for replaying them
+   * offline later (null: don't record them).
    */
-  private final HashMap<String, MemoryLastValueAccumCounters>
-      memPreviousStatValuesOfContainers;
+  private volatile CAdvisorResponseRecorder responseRecorder = null;
+
+  /**
+   * The consumers of the final metrics for the load balancer calculated in
+   * each cycle (like the SNMP agent).
+   */
+  private final List<LbResultStatsSink> resultStatsSinks =
+      new CopyOnWriteArrayList<LbResultStatsSink>();
+
+  /**
+   * The creation and deletion events of docker containers from the event
+   * stream of cAdvisor, to be processed between the full cycles of queries.
+   */
+  private final BlockingQueue<CAdvisorContainerEvent> containerEvents =
+      new LinkedBlockingQueue<CAdvisorContainerEvent>();
+
+  /**
+   * The last final metrics for the load balancer scored (an unmodifiable
+   * list), where the events of the containers are applied. (Only used by
+   * the score stage.)
+   */
+  private List<LbCAdvisorResultStat> scoredLbResultStats =
+      Collections.emptyList();
+
+  /**
+   * The memory capacity of the machine in the last full cycle of queries.
+   * (Only used by the score stage.)
+   */
+  private long lastMachineMemCapacity = -1;
+
+  /**
+   * How long the spec of the machine is cached, in nanosecs: it is only
+   * queried again from cAdvisor after then.
+   */
+  private long machineSpecTtlNanos = TimeUnit.MINUTES.toNanos(10);
+
+  /**
+   * When the spec of the machine cached expires, in nanosecs (set by the
+   * fetch stage, and reset by the score stage if it couldn't be parsed).
+   */
+  private volatile long machineSpecExpiresNanos = 0;
+
+  /**
+   * Whether the spec of the machine was ever fetched.
+   */
+  private volatile boolean machineSpecFetched = false;
+
+  /**
+   * The timeout to connect to cAdvisor, and to wait for its responses, in
+   * millisecs.
+   */
+  private int timeoutMillis = 10000;
+
+  /**
+   * The circuit breaker of the queries to cAdvisor (null: always query it).
+   */
+  private CAdvisorCircuitBreaker circuitBreaker = null;
+
+  /**
+   * When the last full cycle was scored, as an epoch in millisecs (only used
+   * by the score stage).
+   */
+  private long lastScoredEpochMilli = 0;
+
+  /**
+   * How long the last good final metrics are served while the full cycles
+   * fail, in millisecs, before applying the policy of the stale ones.
+   */
+  private int staleWeightsMaxMillis = 300000;
+
+  /**
+   * Whether to drop the final metrics, once stale, instead of serving them.
+   */
+  private boolean dropStaleWeights = false;
+
+  /**
+   * The staged pipeline where the cycles are fetched, parsed, scored and
+   * published by their own threads (null: all of them run in this thread).
+   */
+  private CyclePipeline pipeline = null;
+
+  /**
+   * The store of the history of the samples and load factors (null: none),
+   * flushed when this thread stops.
+   */
+  private MetricHistoryStore metricHistory = null;
 
   /**
   * Constructor. Saves the basic values to construct the Apache HttpClient to
@@ -117,6 +303,7 @@ public final class BackendThreadQueryCAdvisor extends Thread {
 
     this.srvCAdvisor = hostCAdvisor;
     this.portCAdvisor = portNumCAdvisor;
+    this.hostKey = hostCAdvisor + ":" + portNumCAdvisor;
     this.httpProxy = httpProxyToCAdvisor;   // may be null: not to use one
     if (delayBetweenQueryCyclesMillisec
             > minimumDelayBetweenFullCyclesQueries) {
@@ -130,8 +317,285 @@ public final class BackendThreadQueryCAdvisor extends Thread {
     weightsMetrics = new ConfigRelativeWeightsMetrics();
     weightsMetrics.loadWeightsFromPropFile(fnPropertiesRelWeightsMetrics);
 
-    memPreviousStatValuesOfContainers =
-      new HashMap<String, MemoryLastValueAccumCounters>();
+    // the schema of the metrics is compiled only once, at start-up
+    MetricSchema metricSchema =
+        MetricSchema.loadFromPropFile(fnPropertiesMetricSchema);
+    loadFactorScorer =
+        new DockerLoadFactorScorer(metricSchema.compile(weightsMetrics));
+  }
+
+  /**
+  * Sets the recorder of the raw responses from cAdvisor.
+  *
+  * @param recorder the recorder to append the responses to (null: don't
+  *                 record them)
+  */
+  public void setResponseRecorder(final CAdvisorResponseRecorder recorder) {
+    responseRecorder = recorder;
+  }
+
+  /**
+  * Sets whether the responses from cAdvisor are parsed in a single pass
+  * straight into reusable primitive arrays and scored there, so that a
+  * steady-state cycle allocates next to nothing (except the body of the
+  * response and the final metrics published), instead of being parsed
+  * into JSON trees and lists of samples. (It must be set before starting
+  * this thread.)
+  *
+  * @param allocationFree whether to use the allocation-free mode
+  */
+  public void setAllocationFreeCycle(boolean allocationFree) {
+    if (allocationFree) {
+      streamingParser = new StreamingDockerStatsParser(loadFactorScorer);
+      sampleWindows =
+          new ContainerSampleWindows(loadFactorScorer.getParsePlan()
+                                                     .numMetrics());
+    } else {
+      streamingParser = null;
+      sampleWindows = null;
+    }
+  }
+
+  /**
+  * Sets a local collector of the samples of the containers from their
+  * cgroups, so that cAdvisor is not queried at all; it is sampled every
+  * sampleMillis between the full cycles, and all those samples are scored
+  * in each full cycle. (It must be set before starting this thread.)
+  *
+  * @param collector the collector (null: query cAdvisor)
+  * @param sampleMillis the interval between the samples, in millisecs (0:
+  *                     only one sample per full cycle)
+  */
+  public void setCgroupCollector(final CgroupV2Collector collector,
+                                 int sampleMillis) {
+    cgroupCollector = collector;
+    cgroupSampleNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0,
+                                                               sampleMillis));
+    if (collector != null && sampleWindows == null) {
+      sampleWindows =
+          new ContainerSampleWindows(loadFactorScorer.getParsePlan()
+                                                     .numMetrics());
+    }
+  }
+
+  /**
+  * Sets the keys of the labels which give the service of a container, in
+  * order of priority. (It must be set before starting this thread.)
+  *
+  * @param labelKeys the keys of the labels, like
+  *                  "com.docker.swarm.service.name"
+  */
+  public void setServiceLabelKeys(final String[] labelKeys) {
+    loadFactorScorer.getRegistry().serviceLabelKeys(labelKeys);
+  }
+
+  /**
+  * Sets how long the specs of the machine and of the containers are cached:
+  * until then, the "/api/v1.3/machine" of cAdvisor is not queried again, and
+  * the spec of the containers is not parsed again from its responses. (It
+  * must be set before starting this thread.)
+  *
+  * @param refreshSeconds the time to live of the specs cached, in seconds
+  */
+  public void setSpecRefresh(long refreshSeconds) {
+    machineSpecTtlNanos = TimeUnit.SECONDS.toNanos(refreshSeconds);
+    loadFactorScorer.getRegistry()
+                    .specTtlMillis(TimeUnit.SECONDS.toMillis(refreshSeconds));
+  }
+
+  /**
+  * Sets the timeout of the queries to cAdvisor. (It must be set before
+  * starting this thread.)
+  *
+  * @param queryTimeoutMillis the timeout to connect to cAdvisor, and to
+  *                           wait for its responses, in millisecs
+  */
+  public void setTimeout(int queryTimeoutMillis) {
+    timeoutMillis = queryTimeoutMillis;
+  }
+
+  /**
+  * Sets the circuit breaker of the queries to cAdvisor. (It must be set
+  * before starting this thread.)
+  *
+  * @param breaker the circuit breaker of this host
+  */
+  public void setCircuitBreaker(final CAdvisorCircuitBreaker breaker) {
+    circuitBreaker = breaker;
+  }
+
+  /**
+  * Get the circuit breaker of the queries to cAdvisor.
+  *
+  * @return the circuit breaker, or null if there is none
+  */
+  public CAdvisorCircuitBreaker getCircuitBreaker() {
+    return circuitBreaker;
+  }
+
+  /**
+  * Sets the policy of the last good final metrics while the full cycles
+  * fail. (It must be set before starting this thread.)
+  *
+  * @param maxMillis how long they are served, in millisecs
+  * @param dropWhenStale whether to drop them after then (else they keep
+  *                      being served)
+  */
+  public void setStaleWeights(int maxMillis, boolean dropWhenStale) {
+    staleWeightsMaxMillis = maxMillis;
+    dropStaleWeights = dropWhenStale;
+  }
+
+  /**
+  * Sets the store of the history of the samples of each container and of
+  * their load factors. (It must be set before starting this thread.)
+  *
+  * @param history the store (null: don't keep the history)
+  */
+  public void setMetricHistory(final MetricHistoryStore history) {
+    metricHistory = history;
+    loadFactorScorer.setMetricHistory(history);
+  }
+
+  /**
+  * Sets the normalizer of the metrics relative to the fleet, before they
+  * are weighted (it may be shared by the threads of several hosts).
+  *
+  * @param normalizer the normalizer (null: weight the metrics in their own
+  *                   units)
+  */
+  public void setFleetNormalizer(final FleetMetricNormalizer normalizer) {
+    loadFactorScorer.setFleetNormalizer(normalizer);
+  }
+
+  /**
+  * Sets the tuner of the relative weights from the latency of the backend
+  * servers, which fits the metrics of the containers after each cycle (it
+  * may be shared by the threads of several hosts).
+  *
+  * @param tuner the tuner (null: keep the configured weights)
+  */
+  public void setWeightTuner(final LatencyWeightTuner tuner) {
+    weightTuner = tuner;
+  }
+
+  /**
+  * Sets the ejector of the outlier containers of this host, which drains
+  * them after each cycle. (It must be set before starting this thread.)
+  *
+  * @param ejector the ejector (null: don't eject the outliers)
+  */
+  public void setOutlierEjector(final OutlierEjector ejector) {
+    outlierEjector = ejector;
+  }
+
+  /**
+  * Sets the damper of the load factors of this host, which smooths them
+  * after each cycle, before they are published. (It must be set before
+  * starting this thread.)
+  *
+  * @param damper the damper (null: publish the load factors as scored)
+  */
+  public void setLoadFactorDamper(final LoadFactorDamper damper) {
+    loadFactorDamper = damper;
+  }
+
+  /**
+  * Get the compiled schema of the metrics of the samples of the containers.
+  *
+  * @return the compiled schema of the metrics
+  */
+  public MetricParsePlan getParsePlan() {
+    return loadFactorScorer.getParsePlan();
+  }
+
+  /**
+  * Runs the cycles in a staged pipeline, where the fetch, parse, score and
+  * publish stages have their own threads and are connected by bounded
+  * queues, instead of in this thread. (It must be set before starting
+  * this thread.)
+  *
+  * @param queueCapacity the capacity of the input queue of each stage
+  * @param numParseThreads the number of threads of the parse stage
+  */
+  public void setPipelined(int queueCapacity, int numParseThreads) {
+    pipeline = new CyclePipeline(queueCapacity, numParseThreads,
+                                 work -> processStage(STAGE_FETCH, work),
+                                 work -> processStage(STAGE_PARSE, work),
+                                 work -> processStage(STAGE_SCORE, work),
+                                 work -> processStage(STAGE_PUBLISH, work));
+  }
+
+  /**
+  * Get the staged pipeline of the cycles, with the metrics of its stages.
+  *
+  * @return the pipeline, or null if the cycles run in this thread
+  */
+  public CyclePipeline getPipeline() {
+    return pipeline;
+  }
+
+  /**
+  * Sets the asynchronous logger of the diagnostics of each cycle (it must
+  * be set before starting this thread).
+  *
+  * @param logger the logger (null: don't log the diagnostics)
+  */
+  public void setCycleLogger(final AsyncCycleLogger logger) {
+    cycleLogger = logger;
+    loadFactorScorer.getRegistry().cycleLogger(logger);
+  }
+
+  /**
+  * Logs a diagnostic of the cycle, if there is a logger (it never blocks).
+  *
+  * @param category the category of the entry
+  * @param key the key of the entry (like a docker-id)
+  * @param value the value of the entry (like a load factor)
+  * @param payload an object to render in the thread of the logger
+  */
+  protected void logDiagnostic(final AsyncCycleLogger.Category category,
+                               final String key, long value,
+                               final Object payload) {
+    if (cycleLogger != null) {
+      cycleLogger.log(category, key, value, payload);
+    }
+  }
+
+  /**
+  * Adds a consumer of the final metrics for the load balancer calculated in
+  * each cycle of queries to cAdvisor.
+  *
+  * @param sink the consumer to publish the final metrics to
+  */
+  public void addResultStatsSink(final LbResultStatsSink sink) {
+    resultStatsSinks.add(sink);
+  }
+
+  /**
+  * Passes the creation or deletion of a docker container, from the event
+  * stream of cAdvisor, to this thread, which processes it at once, without
+  * waiting for the next full cycle of queries.
+  *
+  * @param event the creation or deletion event of the container
+  */
+  public void offerContainerEvent(final CAdvisorContainerEvent event) {
+    containerEvents.offer(event);
+  }
+
+  /**
+  * Records a raw response body from cAdvisor, if there is a recorder.
+  *
+  * @param kind which REST query this body answered
+  * @param fetchEpochMilli when this body was fetched from cAdvisor
+  * @param body the raw body returned by cAdvisor
+  */
+  protected void recordResponse(byte kind, long fetchEpochMilli,
+                                final String body) {
+    CAdvisorResponseRecorder recorder = responseRecorder;
+    if (recorder != null) {
+      recorder.record(kind, fetchEpochMilli, body);
+    }
   }
 
 
@@ -196,6 +660,9 @@ public final class BackendThreadQueryCAdvisor extends Thread {
     RequestConfig config = RequestConfig.custom()
             .setAuthenticationEnabled(false)
             .setProxy(httpProxy)
+            .setConnectTimeout(timeoutMillis)
+            .setConnectionRequestTimeout(timeoutMillis)
+            .setSocketTimeout(timeoutMillis)
             .build();
     httpGet.setConfig(config);
 
@@ -303,9 +770,20 @@ public final class BackendThreadQueryCAdvisor extends Thread {
   *     HTTP server.
   *
   * @param response The HTTP response object that the HTTP server has answered
-  * @return the String of the body in that HTTP response
+  * @return the String of the body in that HTTP response, or null if there is
+  *         none or it is an error
   */
   protected String getResponseStringBody(final CloseableHttpResponse response) {
+    if (response == null) {
+      return null;
+    }
+    int statusCode = response.getStatusLine().getStatusCode();
+    if (statusCode < 200 || statusCode >= 300) {
+      System.err.println("WARN: cAdvisor at " + hostKey + " answered "
+                         + response.getStatusLine());
+      EntityUtils.consumeQuietly(response.getEntity());
+      return null;
+    }
     HttpEntity entity = response.getEntity();
     if (entity != null) {
       try {
@@ -320,11 +798,13 @@ public final class BackendThreadQueryCAdvisor extends Thread {
   }
 
   /**
-  * Get the machine metric statistics from cAdvisor, by
-  *     GET-ing the cAdvisor's "/api/v1.3/machine" REST API.
+  * Get the raw body of the cAdvisor's "/api/v1.3/machine" REST API.
+  *
+  * @return the body of the response, or null if there is none
   */
-  protected Object getMachineStats() throws IOException {
+  protected String getMachineStatsBody() throws IOException {
     // false means: don't dump http headers nor response body for debugging
+    long fetchEpochMilli = System.currentTimeMillis();
     CloseableHttpResponse respMachStats = simpleHttpGetRequest(
                                       buildCAdvisorUrl("/api/v1.3/machine"),
                                       false
@@ -333,277 +813,620 @@ public final class BackendThreadQueryCAdvisor extends Thread {
     String strMachStats = getResponseStringBody(respMachStats);
 
     if (strMachStats != null) {
-      JSONParser parser = new JSONParser();
-      Object obj = null;
-      try {
-        obj = parser.parse(strMachStats);
-      } catch (ParseException e) {
-        e.printStackTrace();
-      }
-      return obj;
-    } else {
-      return null;
+      recordResponse(CAdvisorCaptureRecord.KIND_MACHINE, fetchEpochMilli,
+                     strMachStats);
     }
+    return strMachStats;
   }
 
-
   /**
-  * Get the Docker metric statistics from cAdvisor, by
-  *     GET-ing the cAdvisor's "/api/v1.3/docker" REST API.
+  * Get the raw body of a cAdvisor's "/api/v1.3/docker" REST API, either for
+  * all the docker containers or for a single one ("/api/v1.3/docker/[id]").
+  *
+  * @param apiQueryCAdvisor the path to be requested to cAdvisor
+  * @param recordIt whether to record the response (only the responses for
+  *                 all the docker containers are replayable as cycles)
+  * @return the body of the response, or null if there is none
   */
-  protected List<DockerContainerPlusStats> getDockerStats()
-      throws IOException {
+  protected String getDockerStatsBody(final String apiQueryCAdvisor,
+                                      boolean recordIt) throws IOException {
     // false means: don't dump http headers nor response body for debugging
+    long fetchEpochMilli = System.currentTimeMillis();
     CloseableHttpResponse respDockerStats = simpleHttpGetRequest(
-                                      buildCAdvisorUrl("/api/v1.3/docker"),
+                                      buildCAdvisorUrl(apiQueryCAdvisor),
                                       false
                                     );
 
     String respBody = getResponseStringBody(respDockerStats);
 
-    if (respBody != null) {
+    if (respBody != null && recordIt) {
       // System.out.println(respBody);
+      recordResponse(CAdvisorCaptureRecord.KIND_DOCKER, fetchEpochMilli,
+                     respBody);
+    }
+    return respBody;
+  }
 
-      ConvertDockerBodyFromCAdvisor converter =
-          new ConvertDockerBodyFromCAdvisor(respBody);
-
-      List<String> dockerIds = converter.getDockerId();
-      List<Long> memLimits = converter.getCAdvisorMemLimit();
+  /**
+  * Processes a work (a full cycle, or the event of a container): it is
+  * submitted to the pipeline, if there is one, or else it is processed in
+  * this thread.
+  *
+  * @param work the work
+  * @throws IOException cAdvisor couldn't be queried
+  * @throws InterruptedException the thread was interrupted while blocked
+  *                              on the pipeline
+  */
+  protected void processWork(final CycleWork work)
+      throws IOException, InterruptedException {
+    if (pipeline != null) {
+      pipeline.submit(work);
+      return;
+    }
+    work.seq(nextSeq++);
+    processStage(STAGE_FETCH, work);
+    processStage(STAGE_PARSE, work);
+    processStage(STAGE_SCORE, work);
+    processStage(STAGE_PUBLISH, work);
+  }
 
-      // like zip()-ing both lists dockerIds and memLimits
-      assert (dockerIds.size() == memLimits.size());
+  /**
+  * Runs a stage of a work, traced by the Java Flight Recorder events of the
+  * stage and, for a full cycle, of the whole cycle (begun by its fetch stage
+  * and committed by its publish stage). When the events are disabled, only
+  * the stage runs.
+  *
+  * @param stage the stage (STAGE_FETCH, STAGE_PARSE, STAGE_SCORE or
+  *              STAGE_PUBLISH)
+  * @param work the work
+  * @throws IOException the container of an event couldn't be queried
+  */
+  protected void processStage(int stage, final CycleWork work)
+      throws IOException {
+    if (stage == STAGE_FETCH && work.event() == null) {
+      JfrCycleEvent cycleEvent = new JfrCycleEvent();
+      if (cycleEvent.isEnabled()) {
+        cycleEvent.begin();
+        work.jfrCycle(cycleEvent);
+      }
+    }
 
-      ArrayList<DockerContainerPlusStats> dockerDescripts =
-          new ArrayList<DockerContainerPlusStats>(dockerIds.size());
+    JfrCycleStageEvent stageEvent = new JfrCycleStageEvent();
+    stageEvent.begin();
+    JfrCycleEvent cycleEvent = work.jfrCycle();
+    long startNanos = (cycleEvent != null) ? System.nanoTime() : 0;
+    try {
+      switch (stage) {
+        case STAGE_FETCH:
+          fetchWork(work);
+          break;
+        case STAGE_PARSE:
+          parseWork(work);
+          break;
+        case STAGE_SCORE:
+          scoreWork(work);
+          break;
+        default:
+          publishWork(work);
+          break;
+      }
+    } finally {
+      stageEvent.end();
+      if (stageEvent.shouldCommit()) {
+        stageEvent.host = hostKey;
+        stageEvent.stage = STAGE_NAMES[stage];
+        stageEvent.seq = work.seq();
+        stageEvent.containerEvent = (work.event() != null);
+        stageEvent.bodyBytes =
+            (work.dockerBody() != null) ? work.dockerBody().length() : 0;
+        stageEvent.containers =
+            (work.lbResultStats() != null) ? work.lbResultStats().size() : 0;
+        stageEvent.commit();
+      }
+      if (cycleEvent != null) {
+        traceCycleStage(cycleEvent, stage, work,
+                        System.nanoTime() - startNanos);
+      }
+    }
+  }
 
-      for (int idx = 0; idx < dockerIds.size(); idx++) {
-        String currDockerId = dockerIds.get(idx);
-        List<LbCAdvisorInputStat> dockerStats =
-            converter.getCAdvisorCpuMemStats(currDockerId);
+  /**
+  * Adds the time of a stage of a full cycle to its Java Flight Recorder
+  * event, which is committed after the publish stage.
+  *
+  * @param cycleEvent the event of the full cycle
+  * @param stage the stage
+  * @param work the work of the full cycle
+  * @param elapsedNanos the time spent in the stage, in nanosecs
+  */
+  protected void traceCycleStage(final JfrCycleEvent cycleEvent, int stage,
+                                 final CycleWork work, long elapsedNanos) {
+    switch (stage) {
+      case STAGE_FETCH:
+        cycleEvent.fetchTime = elapsedNanos;
+        break;
+      case STAGE_PARSE:
+        cycleEvent.parseTime = elapsedNanos;
+        break;
+      case STAGE_SCORE:
+        cycleEvent.scoreTime = elapsedNanos;
+        break;
+      default:
+        cycleEvent.publishTime = elapsedNanos;
+        cycleEvent.end();
+        if (cycleEvent.shouldCommit()) {
+          cycleEvent.host = hostKey;
+          cycleEvent.seq = work.seq();
+          cycleEvent.fetchSkipped = work.fetchSkipped();
+          cycleEvent.bodyBytes =
+              (work.dockerBody() != null) ? work.dockerBody().length() : 0;
+          cycleEvent.containers = (work.lbResultStats() != null)
+                                      ? work.lbResultStats().size() : 0;
+          cycleEvent.commit();
+        }
+        work.jfrCycle(null);
+        break;
+    }
+  }
 
-        DockerContainerPlusStats dockerDescription =
-            new DockerContainerPlusStats()
-                 .dockerId(currDockerId)
-                 .memLimit(memLimits.get(idx))
-                 .dockerStats(dockerStats);
+  /**
+  * Processes a work, reporting the failure of any of its stages instead of
+  * stopping the cycles (like the pipeline does), so that a sick cAdvisor
+  * can't kill this thread.
+  *
+  * @param work the work
+  * @throws InterruptedException the thread was interrupted while blocked
+  *                              on the pipeline
+  */
+  protected void processWorkOrReport(final CycleWork work)
+      throws InterruptedException {
+    try {
+      processWork(work);
+    } catch (IOException | RuntimeException ex) {
+      ex.printStackTrace();
+    }
+  }
 
-        dockerDescripts.add(idx, dockerDescription);
+  /**
+  * The fetch stage: GETs the raw bodies of the responses from cAdvisor. (A
+  * full cycle which fails to query cAdvisor goes on without them, and the
+  * score stage counts it as a failure in the circuit breaker.)
+  *
+  * @param work the work
+  * @throws IOException the container of an event couldn't be queried
+  */
+  protected void fetchWork(final CycleWork work) throws IOException {
+    CAdvisorContainerEvent event = work.event();
+    if (event == null) {
+      if (cgroupCollector != null) {
+        // the score stage collects the samples from the cgroups
+        return;
       }
-
-      return dockerDescripts;
-    } else {
-      return null;
+      long nowNanos = System.nanoTime();
+      if (circuitBreaker != null && !circuitBreaker.allowRequest(nowNanos)) {
+        work.fetchSkipped(true);
+        return;
+      }
+      try {
+        // the spec of the machine doesn't change: query it once per TTL
+        if (!machineSpecFetched || nowNanos - machineSpecExpiresNanos >= 0) {
+          machineSpecExpiresNanos = nowNanos + machineSpecTtlNanos;
+          machineSpecFetched = false;
+          work.machineBody(getMachineStatsBody());
+          machineSpecFetched = (work.machineBody() != null);
+        }
+        work.dockerBody(getDockerStatsBody("/api/v1.3/docker", true));
+      } catch (IOException ex) {
+        System.err.println("WARN: querying cAdvisor at " + hostKey + ": "
+                           + ex);
+      }
+    } else if (event.creation()) {
+      work.dockerBody(getDockerStatsBody(
+                          "/api/v1.3/docker/" + event.dockerId(), false
+                      ));
     }
   }
 
   /**
-  * Get the simplified, overall load factor of a Docker container.
-  * (Greater values of this simplified, overall measure means greater current
-  * load in the Docker container, so the less probable, relatively, it should
-  * be chosen for the next service requests.)
+  * The parse stage: builds the JSON trees of the responses. (It only
+  * touches the work, so it can run in several threads.)
   *
-  * @param dockerDescript the docker container and its statistics
-  * @param machineMemCapacity the memory capacity of this machine
-  * @param containerLastStatValues the last, previous values for some
-  *                                accumulative stats for this container
-  * @return a non-negative int value with the simplified, overall load factor
-  *         of this Docker container (an int in "DISPLAY-HINT d-3" in IETF
-  *         RFC 2579)
-  */
-
-  // the current version snmp4j doesn't seem to support CounterBasedGauge64 in
-  // IETF RFC 2856, and this is why we need to return an int instead of
-  // returning a long
-  protected int overallLoadFactor(
-                    final DockerContainerPlusStats dockerDescript,
-                    long machineMemCapacity,
-                    MemoryLastValueAccumCounters containerLastStatValues
-  ) {
-    // TODO:
-    // We only take the average of the samples in the time-period returned by
-    // cAdvisor. Probably a more powerful method could be using an ARIMA
-    // [AutoRegressive Integrated Moving Average] estimate.
-    // (E.g., using https://github.com/signaflo/java-timeseries#features)
-
-    List<LbCAdvisorInputStat> dockerStats = dockerDescript.dockerStats();
-
-    double avgCpuLoadAvg = 0.0;
-    double avgMemUsage = 0.0;
-    double accumRxDropped = 0.0;
-    double accumIoTime = 0.0;
-    double accumReadTime = 0.0;
-    double accumWriteTime = 0.0;
-    double accumWeightedIoTime = 0.0;
-
-    avgCpuLoadAvg = dockerStats.stream()
-                    .mapToDouble(LbCAdvisorInputStat::cpuLoadAvg).average()
-                    .getAsDouble();
-
-    avgMemUsage = dockerStats.stream()
-                    .mapToLong(LbCAdvisorInputStat::memUsage).average()
-                    .getAsDouble();
-    // we need to normalize the avgMemUsage
-    long minDockerMemCapacity = 1;
-    if (machineMemCapacity > 0 && dockerDescript.memLimit() != null) {
-      minDockerMemCapacity = Math.min(machineMemCapacity,
-                                        dockerDescript.memLimit().longValue());
-    } else if (machineMemCapacity > 0) {
-      minDockerMemCapacity = machineMemCapacity;
-    } else if (dockerDescript.memLimit() != null) {
-      minDockerMemCapacity = dockerDescript.memLimit().longValue();
-    }
-    avgMemUsage /= (minDockerMemCapacity / 100.0);  // normalize to 100%
-
-    LbCAdvisorInputStat latestStat = dockerStats.get(dockerStats.size() - 1);
-    LbCAdvisorInputStat oldestStat = dockerStats.get(0);
-
-    if (containerLastStatValues.lastRxDropped() == 0) {
-      accumRxDropped = latestStat.rxDropped() - oldestStat.rxDropped();
-    } else {
-      accumRxDropped = latestStat.rxDropped()
-                       - containerLastStatValues.lastRxDropped();
+  * @param work the work
+  */
+  protected void parseWork(final CycleWork work) {
+    if (work.machineBody() != null) {
+      work.machineStats(new ConvertMachineBodyFromCAdvisor(work.machineBody()));
     }
-    containerLastStatValues.lastRxDropped(latestStat.rxDropped());
 
-    if (containerLastStatValues.lastIoTime() == 0) {
-      accumIoTime = latestStat.ioTime() - oldestStat.ioTime();
-    } else {
-      accumIoTime = latestStat.ioTime() - containerLastStatValues.lastIoTime();
+    // in the allocation-free mode, the docker stats of the full cycles are
+    // parsed in place by the score stage
+    if (work.dockerBody() != null
+        && (streamingParser == null || work.event() != null)) {
+      try {
+        work.dockerStats(new ConvertDockerBodyFromCAdvisor(work.dockerBody()));
+      } catch (InvalidJsonException ex) {
+        System.err.println("WARN: invalid JSON from cAdvisor at " + hostKey
+                           + ": " + ex.getMessage());
+      }
     }
-    containerLastStatValues.lastIoTime(latestStat.ioTime());
+  }
 
-    if (containerLastStatValues.lastReadTime() == 0) {
-      accumReadTime = latestStat.readTime() - oldestStat.readTime();
-    } else {
-      accumReadTime = latestStat.readTime()
-                      - containerLastStatValues.lastReadTime();
+  /**
+  * The score stage: scores the docker containers, leaving the final metrics
+  * to publish in the work. (It owns the state of the scorer, so it runs in
+  * a single thread.)
+  *
+  * @param work the work
+  */
+  protected void scoreWork(final CycleWork work) {
+    if (work.event() != null) {
+      scoreContainerEvent(work);
+      return;
     }
-    containerLastStatValues.lastReadTime(latestStat.readTime());
 
-    if (containerLastStatValues.lastWriteTime() == 0) {
-      accumWriteTime = latestStat.writeTime() - oldestStat.writeTime();
-    } else {
-      accumWriteTime = latestStat.writeTime()
-                       - containerLastStatValues.lastWriteTime();
+    // the cycles without a new spec of the machine use the one cached
+    long machineMemCapacity = lastMachineMemCapacity;
+    ConvertMachineBodyFromCAdvisor machineStats = work.machineStats();
+    if (machineStats != null) {
+      long memCapacity = machineStats.getMemoryCapacity();
+      if (memCapacity <= 0) {
+        // query it again in the next full cycle
+        machineSpecFetched = false;
+      } else if (memCapacity != machineMemCapacity) {
+        logDiagnostic(AsyncCycleLogger.Category.MACHINE, "memory_capacity",
+                      memCapacity, machineStats.getMachineStats());
+        machineMemCapacity = memCapacity;
+      }
+    }
+    if (cgroupCollector != null) {
+      machineMemCapacity = cgroupCollector.machineMemCapacity();
+    }
+    lastMachineMemCapacity = machineMemCapacity;
+    work.machineMemCapacity(machineMemCapacity);
+
+    List<LbCAdvisorResultStat> lbResultStats = null;
+    if (cgroupCollector != null) {
+      lbResultStats = scoreCgroupStats(machineMemCapacity);
+    } else if (work.dockerBody() != null) {
+      lbResultStats =
+          (streamingParser != null)
+              ? scoreDockerStatsInPlace(work.dockerBody(), machineMemCapacity)
+              : scoreDockerStats(work.dockerStats(), machineMemCapacity);
+    } else if (!work.fetchSkipped()) {
+      System.err.println("ERROR: Couldn't retrieve cAdvisor statistics\n");
     }
-    containerLastStatValues.lastWriteTime(latestStat.writeTime());
 
-    if (containerLastStatValues.lastWeightedIoTime() == 0) {
-      accumWeightedIoTime = latestStat.weightedIoTime()
-                            - oldestStat.weightedIoTime();
-    } else {
-      accumWeightedIoTime = latestStat.weightedIoTime()
-                            - containerLastStatValues.lastWeightedIoTime();
+    if (lbResultStats != null) {
+      if (weightTuner != null) {
+        weightTuner.observe(loadFactorScorer);
+      }
+      if (outlierEjector != null) {
+        outlierEjector.eject(lbResultStats, loadFactorScorer,
+                             System.currentTimeMillis());
+      }
+      if (loadFactorDamper != null) {
+        loadFactorDamper.damp(lbResultStats);
+      }
+      lastScoredEpochMilli = System.currentTimeMillis();
+      if (circuitBreaker != null && circuitBreaker.recordSuccess()) {
+        logBreakerChange();
+      }
+      scoredLbResultStats = Collections.unmodifiableList(lbResultStats);
+      work.lbResultStats(scoredLbResultStats);
+      return;
+    }
+
+    if (!work.fetchSkipped() && circuitBreaker != null
+        && circuitBreaker.recordFailure(System.nanoTime())) {
+      logBreakerChange();
     }
-    containerLastStatValues.lastWeightedIoTime(latestStat.weightedIoTime());
+    serveStaleLbResultStats(work);
+  }
 
+  /**
+  * Serves again the last good final metrics in a full cycle which failed,
+  * or whose queries were skipped by the open circuit breaker, so that the
+  * sinks keep them; once they are older than staleWeightsMaxMillis, they are
+  * dropped instead if so configured. (It is part of the score stage.)
+  *
+  * @param work the work of the full cycle
+  */
+  protected void serveStaleLbResultStats(final CycleWork work) {
+    if (scoredLbResultStats.isEmpty()) {
+      return;
+    }
+    if (dropStaleWeights && System.currentTimeMillis() - lastScoredEpochMilli
+                            > staleWeightsMaxMillis) {
+      System.err.println("WARN: dropping the stale final metrics of cAdvisor"
+                         + " at " + hostKey);
+      scoredLbResultStats = Collections.emptyList();
+    }
+    work.lbResultStats(scoredLbResultStats);
+  }
 
-    double doubleVal = (
-        weightsMetrics.rwCpuLoadAvg() * avgCpuLoadAvg
+  /**
+  * Reports a change of state of the circuit breaker.
+  */
+  protected void logBreakerChange() {
+    System.err.println("WARN: the circuit breaker of cAdvisor at " + hostKey
+                       + " is " + circuitBreaker.state());
+    logDiagnostic(AsyncCycleLogger.Category.BREAKER, hostKey,
+                  circuitBreaker.backoffMillis(), circuitBreaker);
+  }
 
-        + weightsMetrics.rwMemUsage() * avgMemUsage
+  /**
+  * Scores the docker containers in the JSON tree of a response from
+  * cAdvisor.
+  *
+  * @param dockerStats the parsed response (null if it couldn't be parsed)
+  * @param machineMemCapacity the memory capacity of this machine
+  * @return the final metrics, one per docker container, or null if there
+  *         are none
+  */
+  protected List<LbCAdvisorResultStat> scoreDockerStats(
+                     final ConvertDockerBodyFromCAdvisor dockerStats,
+                     long machineMemCapacity
+  ) {
+    if (dockerStats == null) {
+      System.err.println("ERROR: Couldn't parse cAdvisor statistics\n");
+      return null;
+    }
 
-        + weightsMetrics.rwRxDropped() * accumRxDropped
+    // only the samples newer than the ones already scored are parsed
+    List<DockerContainerPlusStats> dockerDescripts =
+        dockerStats.getDockerContainersPlusStats(
+            loadFactorScorer.getParsePlan(),
+            loadFactorScorer.getRegistry(),
+            loadFactorScorer::lastProcessedEpochMilli
+        );
+    if (dockerDescripts == null) {
+      System.err.println("ERROR: Couldn't parse cAdvisor statistics\n");
+      return null;
+    }
 
-        + weightsMetrics.rwIoTime() * accumIoTime
+    for (DockerContainerPlusStats dockerDescript: dockerDescripts) {
+      assert (dockerDescript != null);
 
-        + weightsMetrics.rwReadTime() * accumReadTime
+      // the dump of the new samples is rendered in the thread of the logger
+      logDiagnostic(AsyncCycleLogger.Category.CONTAINER,
+                    dockerDescript.dockerId(),
+                    (dockerDescript.dockerStats() != null)
+                        ? dockerDescript.dockerStats().size() : 0,
+                    dockerDescript);
+    }
 
-        + weightsMetrics.rwWriteTime() * accumWriteTime
+    // the containers are scored together (their metrics may be normalized
+    // relative to each other); these overall load factors are the values
+    // used for load-balancing
+    List<LbCAdvisorResultStat> lbResultStats =
+        loadFactorScorer.scoreContainers(dockerDescripts, machineMemCapacity);
 
-        + weightsMetrics.rwWeightedIoTime() * accumWeightedIoTime
-    );
+    for (LbCAdvisorResultStat lbResultStat: lbResultStats) {
+      lbResultStat.host(hostKey);
+      logDiagnostic(AsyncCycleLogger.Category.LOAD_FACTOR,
+                    lbResultStat.dockerId(), lbResultStat.lbFinalStat(), null);
+    }
+    return lbResultStats;
+  }
 
-    // convert the double value above to an int value in the format
-    // "DISPLAY-HINT d-3"
-    // Note: long values are not supported yet since the TEXTUAL-CONVENTION
-    // CounterBasedGauge64 in IETF RFC 285 doesn't seem to be supported by
-    // the current version of snmp4j
-
-    int intVal = (int) (doubleVal * 1000);  // * 1000 = DISPLAY-HINT d-3
-    if (intVal < 0) {
-      System.err.println(
-          String.format("WARN: The overall, summarized load factor for a "
-                        + "Docker container returned a negative value: %d. "
-                        + "Truncating it to zero (0) for Gauge32 "
-                        + "in RFC 2578 doesn't support negatives.", intVal)
-      );
-      return 0;
-    } else {
-      return intVal;
+  /**
+  * Scores the docker containers of a response from cAdvisor in the
+  * allocation-free mode: the response is parsed straight into the reusable
+  * sampleWindows, and scored there.
+  *
+  * @param respBody the body of the "/api/v1.3/docker" response
+  * @param machineMemCapacity the memory capacity of this machine
+  * @return the final metrics, one per docker container, or null if the
+  *         response couldn't be parsed
+  */
+  protected List<LbCAdvisorResultStat> scoreDockerStatsInPlace(
+                     final String respBody, long machineMemCapacity
+  ) {
+    try {
+      streamingParser.parse(respBody, sampleWindows);
+    } catch (IllegalArgumentException | IndexOutOfBoundsException ex) {
+      ex.printStackTrace();
+      return null;
     }
+    loadFactorScorer.scoreWindows(sampleWindows, machineMemCapacity);
+    return windowsLbResultStats();
   }
 
   /**
-  * getCAdvisorStats(): calls all the methods which query cAdvisor and parse
-  *     the metric results.
+  * Scores the docker containers from their cgroups: the samples taken since
+  * the last full cycle are collected into the reusable sampleWindows, and
+  * scored there.
+  *
+  * @param machineMemCapacity the memory capacity of this machine
+  * @return the final metrics, one per docker container
   */
-  public void getCAdvisorStats() throws IOException {
+  protected List<LbCAdvisorResultStat> scoreCgroupStats(
+                     long machineMemCapacity
+  ) {
+    cgroupCollector.collect(sampleWindows, loadFactorScorer.getRegistry());
+    loadFactorScorer.scoreWindows(sampleWindows, machineMemCapacity);
+    return windowsLbResultStats();
+  }
 
-    long machineMemCapacity = -1;
-    Object machineStats = getMachineStats();
-    if (machineStats != null) {
-      System.out.println("DEBUG: Parsed MachineStats\n" + machineStats);
-      if (machineStats instanceof JSONObject) {
-        Object memCapacity =
-            ((JSONObject) machineStats).get("memory_capacity");
-        if (memCapacity != null && memCapacity instanceof Number) {
-          machineMemCapacity = ((Number) memCapacity).longValue();
-        }
-      }
-    }
+  /**
+  * Gets the final metrics of the docker containers just scored in
+  * sampleWindows.
+  *
+  * @return the final metrics, one per docker container
+  */
+  protected List<LbCAdvisorResultStat> windowsLbResultStats() {
+    ContainerRegistry registry = loadFactorScorer.getRegistry();
+    int numContainers = sampleWindows.numContainers();
+    List<LbCAdvisorResultStat> lbResultStats =
+        new ArrayList<LbCAdvisorResultStat>(numContainers);
 
-    List<DockerContainerPlusStats> dockerDescripts = getDockerStats();
-    if (dockerDescripts == null) {
-      System.err.println("ERROR: Couldn't retrieve cAdvisor statistics\n");
+    for (int idx = 0; idx < numContainers; idx++) {
+      int handle = sampleWindows.handle(idx);
+      int currDockerLoadFactor = loadFactorScorer.lastLoadFactor(handle);
+
+      logDiagnostic(AsyncCycleLogger.Category.LOAD_FACTOR,
+                    registry.dockerId(handle), currDockerLoadFactor, null);
+
+      lbResultStats.add(new LbCAdvisorResultStat()
+                             .dockerId(registry.dockerId(handle))
+                             .lbFinalStat(currDockerLoadFactor)
+                             .host(hostKey)
+                             .service(registry.serviceName(handle)));
     }
+    return lbResultStats;
+  }
+
+  /**
+  * Scores the creation or deletion of a docker container out of the full
+  * cycles of queries: a deleted container is removed from the last final
+  * metrics, and a created one, queried alone, is scored and inserted in
+  * them. (It is part of the score stage.)
+  *
+  * @param work the work with the event of the container
+  */
+  protected void scoreContainerEvent(final CycleWork work) {
+
+    String dockerId = work.event().dockerId();
+    work.machineMemCapacity(lastMachineMemCapacity);
 
     List<LbCAdvisorResultStat> lbResultStats =
-        new ArrayList<LbCAdvisorResultStat>(dockerDescripts.size());
+        new ArrayList<LbCAdvisorResultStat>(scoredLbResultStats.size() + 1);
+    int existingIdx = -1;
+    for (LbCAdvisorResultStat lbResultStat: scoredLbResultStats) {
+      if (lbResultStat.dockerId().equals(dockerId)) {
+        existingIdx = lbResultStats.size();
+      }
+      lbResultStats.add(lbResultStat);
+    }
 
-    for (int idx = 0; idx < dockerDescripts.size(); idx++) {
+    if (!work.event().creation()) {
+      if (existingIdx >= 0) {
+        lbResultStats.remove(existingIdx);
+        loadFactorScorer.forgetContainer(dockerId);
+        logDiagnostic(AsyncCycleLogger.Category.EVENT, dockerId, 0,
+                      "deleted");
+        scoredLbResultStats = Collections.unmodifiableList(lbResultStats);
+        work.lbResultStats(scoredLbResultStats);
+      }
+      return;
+    }
 
-      DockerContainerPlusStats dockerDescript = dockerDescripts.get(idx);
-      assert (dockerDescript != null);
+    if (work.dockerStats() == null) {
+      return;
+    }
+    List<DockerContainerPlusStats> dockerDescripts =
+        work.dockerStats().getDockerContainersPlusStats(
+            loadFactorScorer.getParsePlan(),
+            loadFactorScorer.getRegistry(),
+            loadFactorScorer::lastProcessedEpochMilli
+        );
+    if (dockerDescripts == null) {
+      return;
+    }
 
-      System.out.println(dockerDescript);
-
-      String currDockerId = dockerDescript.dockerId();
-
-      // this overallLoadFactor() is the value used for load-balancing
-      MemoryLastValueAccumCounters memPreviousStatValues =
-          memPreviousStatValuesOfContainers.get(currDockerId);
-      if (memPreviousStatValues == null) {
-        // TODO: in the above condition, we need to take care as well of the
-        //       case when the values of the previous-stats are found, but
-        //       they are too old, in which case it could be wise to discard
-        //       such old previous stat-values. Ie., the class
-        //       MemoryLastValueAccumCounters must save as well the
-        //       timestamp of when those previous stat-values where taken.
-        memPreviousStatValues = new MemoryLastValueAccumCounters();
-        memPreviousStatValuesOfContainers.put(currDockerId,
-                                              memPreviousStatValues);
+    for (DockerContainerPlusStats dockerDescript: dockerDescripts) {
+      if (!dockerId.equals(dockerDescript.dockerId())) {
+        continue;
       }
+
       int currDockerLoadFactor =
-          overallLoadFactor(dockerDescript, machineMemCapacity,
-                            memPreviousStatValues);
+          loadFactorScorer.scoreContainer(dockerDescript,
+                                          lastMachineMemCapacity);
 
-      System.out.format("Overall load factor of container %s: %d\n",
-                        currDockerId, currDockerLoadFactor);
+      logDiagnostic(AsyncCycleLogger.Category.EVENT, dockerId,
+                    currDockerLoadFactor, "created");
 
       LbCAdvisorResultStat lbResultStat =
             new LbCAdvisorResultStat()
-                 .dockerId(currDockerId)
-                 .lbFinalStat(currDockerLoadFactor);
+                 .dockerId(dockerId)
+                 .lbFinalStat(currDockerLoadFactor)
+                 .host(hostKey)
+                 .service(loadFactorScorer.getRegistry()
+                              .serviceName(dockerDescript.handle()));
+
+      if (existingIdx >= 0) {
+        lbResultStats.set(existingIdx, lbResultStat);
+      } else {
+        lbResultStats.add(lbResultStat);
+      }
+      scoredLbResultStats = Collections.unmodifiableList(lbResultStats);
+      work.lbResultStats(scoredLbResultStats);
+    }
+  }
 
-      lbResultStats.add(idx, lbResultStat);
+  /**
+  * The publish stage: publishes the final metrics of the work to all the
+  * sinks, and, after each full cycle, the metrics of the pipeline.
+  *
+  * @param work the work
+  */
+  protected void publishWork(final CycleWork work) {
+    if (work.lbResultStats() != null) {
+      publishLbResultStats(work.lbResultStats(), work.machineMemCapacity());
     }
 
-    // TODO: we need to pass the just calculated list of result metrics for
-    //       the load balancer, in "lbResultStats", to the SNMP agent module
-    //       (that is the one which exports those metrics to the load
-    //       balancer).
+    if (pipeline != null && work.event() == null) {
+      pipeline.sampleOccupancy();
+      for (CyclePipelineStage stage: pipeline.stages()) {
+        logDiagnostic(AsyncCycleLogger.Category.PIPELINE, stage.name(),
+                      stage.occupancyPerMille(), stage);
+      }
+    }
+  }
+
+  /**
+  * Publishes the final metrics for the load balancer to all the sinks.
+  *
+  * @param lbResultStats the final metrics, one per docker container (an
+  *                      unmodifiable list)
+  * @param machineMemCapacity the memory capacity of this machine
+  */
+  protected void publishLbResultStats(
+                     final List<LbCAdvisorResultStat> lbResultStats,
+                     long machineMemCapacity
+  ) {
+    if (cycleLogger != null) {
+      cycleLogger.logCycle(lbResultStats, machineMemCapacity);
+    }
+
+    for (LbResultStatsSink sink: resultStatsSinks) {
+      sink.publish(lbResultStats);
+    }
+  }
 
+  /**
+  * Waits until the next full cycle of queries to cAdvisor, processing the
+  * events of docker containers in the meantime.
+  *
+  * @throws InterruptedException the thread was interrupted while waiting
+  */
+  protected void waitForNextCycle() throws InterruptedException {
+    long deadline = System.nanoTime()
+                    + TimeUnit.MILLISECONDS.toNanos(
+                          delayBetweenFullCyclesQueriesMillisec
+                      );
+
+    // the local collector is sampled between the full cycles
+    long nextSample = System.nanoTime() + cgroupSampleNanos;
+    boolean sampling = (cgroupCollector != null && cgroupSampleNanos > 0);
+
+    long remaining;
+    while ((remaining = deadline - System.nanoTime()) > 0) {
+      if (sampling) {
+        long untilSample = nextSample - System.nanoTime();
+        if (untilSample <= 0) {
+          cgroupCollector.sample();
+          nextSample = System.nanoTime() + cgroupSampleNanos;
+          continue;
+        }
+        remaining = Math.min(remaining, untilSample);
+      }
+      CAdvisorContainerEvent event =
+          containerEvents.poll(remaining, TimeUnit.NANOSECONDS);
+      if (event != null) {
+        processWorkOrReport(new CycleWork().event(event));
+      }
+    }
   }
 
   /**
@@ -613,18 +1436,25 @@ public final class BackendThreadQueryCAdvisor extends Thread {
   */
   @Override
   public void run() {
+    if (pipeline != null) {
+      pipeline.start();
+    }
     try {
       while (true) {
-        getCAdvisorStats();
-        Thread.sleep(delayBetweenFullCyclesQueriesMillisec);
+        processWorkOrReport(new CycleWork());
+        waitForNextCycle();
       }
     } catch (InterruptedException e) {
       // Thrown when a thread is waiting, sleeping, or otherwise occupied,
       // and the thread is interrupted, either before or during the activity.
       e.printStackTrace();
-    } catch (IOException e) {
-      e.printStackTrace();
+    } finally {
+      if (pipeline != null) {
+        pipeline.stop();
+      }
+      if (metricHistory != null) {
+        metricHistory.flush();
+      }
     }
   }
 }
-
@@ -0,0 +1,86 @@
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+
+/**
+* The compact binary encoding of the docker-ids in the binary records and
+* snapshots of this agent: a 64-hex-char docker-id is written as a kind
+* byte 0 and its 32 bytes, and any other id as a kind byte 1, a short
+* length and its UTF-8 bytes.
+*
+* @author  Jose E. Nunez
+* @version 0.0.1
+* @since   2019-06-30
+*/
+public final class BinaryDockerIds {
+
+  /**
+   * The hexadecimal digits, to decode the docker-ids.
+   */
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+  /**
+  * This is a utility class.
+  */
+  private BinaryDockerIds() {
+  }
+
+  /**
+  * Writes a docker-id.
+  *
+  * @param output where to write it
+  * @param dockerId the docker-id
+  * @throws IOException it couldn't be written
+  */
+  public static void write(final DataOutput output, final String dockerId)
+      throws IOException {
+    boolean isHex = (dockerId.length() == 64);
+    for (int i = 0; isHex && i < dockerId.length(); i++) {
+      isHex = Character.digit(dockerId.charAt(i), 16) >= 0;
+    }
+
+    if (isHex) {
+      output.writeByte(0);
+      for (int i = 0; i < 64; i += 2) {
+        output.writeByte(
+            Character.digit(dockerId.charAt(i), 16) << 4
+            | Character.digit(dockerId.charAt(i + 1), 16)
+        );
+      }
+    } else {
+      byte[] idBytes = dockerId.getBytes(StandardCharsets.UTF_8);
+      output.writeByte(1);
+      output.writeShort(idBytes.length);
+      output.write(idBytes);
+    }
+  }
+
+  /**
+  * Reads a docker-id.
+  *
+  * @param input where to read it from
+  * @return the docker-id (the 64-hex-char ones in lowercase)
+  * @throws IOException it couldn't be read, or its kind is unknown
+  */
+  public static String read(final DataInput input) throws IOException {
+    int kind = input.readByte();
+    if (kind == 0) {
+      char[] hexChars = new char[64];
+      for (int i = 0; i < 64; i += 2) {
+        int value = input.readUnsignedByte();
+        hexChars[i] = HEX_DIGITS[value >>> 4];
+        hexChars[i + 1] = HEX_DIGITS[value & 0xf];
+      }
+      return new String(hexChars);
+    } else if (kind == 1) {
+      byte[] idBytes = new byte[input.readUnsignedShort()];
+      input.readFully(idBytes);
+      return new String(idBytes, StandardCharsets.UTF_8);
+    }
+    throw new IOException("Unknown kind of docker-id: " + kind);
+  }
+
+}
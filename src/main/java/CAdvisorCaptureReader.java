@@ -0,0 +1,89 @@
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+
+/**
+* Reads back the records of a segment written by the
+* CAdvisorResponseRecorder.
+*
+* @author  Jose E. Nunez
+* @version 0.0.1
+* @since   2019-04-21
+*/
+public class CAdvisorCaptureReader implements Closeable {
+
+  /**
+   * The segment being read.
+   */
+  private final DataInputStream segment;
+
+  /**
+   * How many uncompressed bytes have been read from this segment.
+   */
+  private long bytesRead = 0;
+
+  /**
+  * Constructor.
+  *
+  * @param segmentFile the segment file to read
+  * @throws IOException the segment couldn't be opened
+  */
+  public CAdvisorCaptureReader(final File segmentFile) throws IOException {
+    segment = new DataInputStream(
+                  new BufferedInputStream(
+                      new GZIPInputStream(
+                          new FileInputStream(segmentFile), 64 * 1024
+                      )
+                  )
+              );
+  }
+
+  /**
+  * Reads the next record of the segment.
+  *
+  * @return the next record, or null at the end of the segment (or at a
+  *         truncated last record, e.g., if the recorder was killed)
+  * @throws IOException the segment couldn't be read
+  */
+  public CAdvisorCaptureRecord next() throws IOException {
+    try {
+      byte kind = segment.readByte();
+      long fetchEpochMilli = segment.readLong();
+      int bodyLength = segment.readInt();
+      byte[] bodyBytes = new byte[bodyLength];
+      segment.readFully(bodyBytes);
+
+      bytesRead += 1 + 8 + 4 + bodyLength;
+
+      return new CAdvisorCaptureRecord()
+                   .kind(kind)
+                   .fetchEpochMilli(fetchEpochMilli)
+                   .body(new String(bodyBytes, StandardCharsets.UTF_8));
+    } catch (EOFException e) {
+      return null;
+    }
+  }
+
+  /**
+  * Get how many uncompressed bytes have been read from this segment.
+  *
+  * @return the number of bytes read so far
+  */
+  public long getBytesRead() {
+    return bytesRead;
+  }
+
+  @Override
+  public void close() throws IOException {
+    segment.close();
+  }
+
+}
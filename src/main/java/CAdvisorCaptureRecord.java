@@ -0,0 +1,57 @@
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.experimental.Accessors;
+
+
+/**
+* One raw response body from cAdvisor as captured by the
+* CAdvisorResponseRecorder: which REST query it answered, when it was
+* fetched, and the body itself.
+*
+* @author  Jose E. Nunez
+* @version 0.0.1
+* @since   2019-04-21
+*/
+public class CAdvisorCaptureRecord {
+
+  /**
+   * The kind of record of a "/api/v1.3/machine" response body.
+   */
+  public static final byte KIND_MACHINE = 'M';
+
+  /**
+   * The kind of record of a "/api/v1.3/docker" response body.
+   */
+  public static final byte KIND_DOCKER = 'D';
+
+  /**
+   * Which cAdvisor REST query this body answered (KIND_MACHINE or
+   * KIND_DOCKER).
+   *
+   * @param kind New value for the kind of this record.
+   * @return The current value of the kind of this record.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private byte kind = 0;
+
+  /**
+   * When this body was fetched from cAdvisor, in Unix epoch format (in
+   * milliseconds).
+   *
+   * @param fetchEpochMilli New value for the fetch time of this record.
+   * @return The current value of the fetch time of this record.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private long fetchEpochMilli = 0;
+
+  /**
+   * The raw [JSON] body returned by cAdvisor.
+   *
+   * @param body New value for the body of this record.
+   * @return The current value of the body of this record.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private String body = null;
+
+}
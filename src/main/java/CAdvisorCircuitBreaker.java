@@ -0,0 +1,269 @@
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+* The circuit breaker of the queries to a cAdvisor host: after a number of
+* consecutive failed full cycles (cAdvisor down, timing out, or answering
+* garbage) it opens, and the host isn't queried again until a backoff
+* elapses; then a single probe cycle is let through (half-open), which
+* closes the breaker if it succeeds, or opens it again with twice the
+* backoff (up to a maximum) if it fails. Each backoff is jittered, so that
+* the agents of a fleet don't probe a recovering host all at once.
+*
+* While the breaker isn't closed, the last good final metrics of the host
+* keep being served (see staleWeightsPolicy in lb_docker_cadvisor.properties).
+*
+* It is thread-safe: the fetch stage asks it whether to query the host, and
+* the score stage tells it whether each full cycle succeeded.
+*
+* @author  Jose E. Nunez
+* @version 0.0.1
+* @since   2019-07-07
+*/
+public final class CAdvisorCircuitBreaker {
+
+  /**
+  * The states of the breaker.
+  */
+  public enum State {
+    /** The host is queried in every full cycle. */
+    CLOSED(1),
+    /** The host isn't queried until the backoff elapses. */
+    OPEN(2),
+    /** A single probe cycle is querying the host. */
+    HALF_OPEN(3);
+
+    /**
+     * The code of the state, in the SNMP table of the breakers.
+     */
+    private final int code;
+
+    /**
+    * Constructor.
+    *
+    * @param stateCode the code of the state
+    */
+    State(int stateCode) {
+      code = stateCode;
+    }
+
+    /**
+    * Get the code of the state, in the SNMP table of the breakers.
+    *
+    * @return the code of the state
+    */
+    public int code() {
+      return code;
+    }
+  }
+
+  /**
+   * The cAdvisor host, as "host:port".
+   */
+  private final String host;
+
+  /**
+   * The number of consecutive failed full cycles which opens the breaker.
+   */
+  private final int failureThreshold;
+
+  /**
+   * The backoff after the breaker opens for the first time, in nanosecs.
+   */
+  private final long initialBackoffNanos;
+
+  /**
+   * The maximum backoff, in nanosecs.
+   */
+  private final long maxBackoffNanos;
+
+  /**
+   * The state of the breaker.
+   */
+  private State state = State.CLOSED;
+
+  /**
+   * The number of consecutive failed full cycles.
+   */
+  private int consecutiveFailures = 0;
+
+  /**
+   * The backoff of the last time the breaker opened, before its jitter, in
+   * nanosecs (0: it hasn't opened since it closed).
+   */
+  private long backoffNanos = 0;
+
+  /**
+   * When the breaker, open, lets the next probe cycle through, in nanosecs.
+   */
+  private long retryAtNanos = 0;
+
+  /**
+   * When the last full cycle succeeded, as an epoch in millisecs (0: none
+   * yet).
+   */
+  private long lastSuccessEpochMilli = 0;
+
+  /**
+   * The total number of failed full cycles.
+   */
+  private long numFailures = 0;
+
+  /**
+   * The number of times the breaker opened.
+   */
+  private long numOpenings = 0;
+
+  /**
+  * Constructor.
+  *
+  * @param hostKey the cAdvisor host, as "host:port"
+  * @param config the settings of this agent, with the threshold and the
+  *               backoffs of the breaker
+  */
+  public CAdvisorCircuitBreaker(final String hostKey,
+                                final ConfigLbDockerCAdvisor config) {
+    host = hostKey;
+    failureThreshold = Math.max(1, config.breakerFailureThreshold());
+    initialBackoffNanos =
+        TimeUnit.MILLISECONDS.toNanos(config.breakerInitialBackoffMillis());
+    maxBackoffNanos =
+        Math.max(initialBackoffNanos,
+                 TimeUnit.MILLISECONDS.toNanos(
+                     config.breakerMaxBackoffMillis()));
+  }
+
+  /**
+  * Whether a full cycle may query the host now. If the breaker is open and
+  * its backoff elapsed, it becomes half-open, and this cycle is its probe.
+  *
+  * @param nowNanos the current System.nanoTime()
+  * @return true if the host may be queried
+  */
+  public synchronized boolean allowRequest(long nowNanos) {
+    switch (state) {
+      case CLOSED:
+        return true;
+      case OPEN:
+        if (nowNanos - retryAtNanos >= 0) {
+          state = State.HALF_OPEN;
+          return true;
+        }
+        return false;
+      default:
+        // only one probe at a time
+        return false;
+    }
+  }
+
+  /**
+  * Records that a full cycle succeeded: the breaker closes.
+  *
+  * @return true if the breaker was not closed
+  */
+  public synchronized boolean recordSuccess() {
+    boolean changed = (state != State.CLOSED);
+    state = State.CLOSED;
+    consecutiveFailures = 0;
+    backoffNanos = 0;
+    lastSuccessEpochMilli = System.currentTimeMillis();
+    return changed;
+  }
+
+  /**
+  * Records that a full cycle failed: the breaker opens if the failures
+  * reached the threshold, or if it was its probe cycle.
+  *
+  * @param nowNanos the current System.nanoTime()
+  * @return true if the breaker opened
+  */
+  public synchronized boolean recordFailure(long nowNanos) {
+    numFailures++;
+    consecutiveFailures++;
+    if (state == State.HALF_OPEN
+        || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+      backoffNanos = (backoffNanos == 0)
+                         ? initialBackoffNanos
+                         : Math.min(backoffNanos * 2, maxBackoffNanos);
+      // "equal jitter": between half and all of the backoff
+      long jitter = ThreadLocalRandom.current().nextLong(backoffNanos / 2 + 1);
+      retryAtNanos = nowNanos + backoffNanos / 2 + jitter;
+      state = State.OPEN;
+      numOpenings++;
+      return true;
+    }
+    return false;
+  }
+
+  /**
+  * Get the cAdvisor host of the breaker.
+  *
+  * @return the host, as "host:port"
+  */
+  public String host() {
+    return host;
+  }
+
+  /**
+  * Get the state of the breaker.
+  *
+  * @return the state
+  */
+  public synchronized State state() {
+    return state;
+  }
+
+  /**
+  * Get the number of consecutive failed full cycles.
+  *
+  * @return the number of consecutive failures
+  */
+  public synchronized int consecutiveFailures() {
+    return consecutiveFailures;
+  }
+
+  /**
+  * Get the total number of failed full cycles.
+  *
+  * @return the number of failures
+  */
+  public synchronized long numFailures() {
+    return numFailures;
+  }
+
+  /**
+  * Get the number of times the breaker opened.
+  *
+  * @return the number of openings
+  */
+  public synchronized long numOpenings() {
+    return numOpenings;
+  }
+
+  /**
+  * Get when the last full cycle succeeded.
+  *
+  * @return the epoch of the last success, in millisecs (0: none yet)
+  */
+  public synchronized long lastSuccessEpochMilli() {
+    return lastSuccessEpochMilli;
+  }
+
+  /**
+  * Get the current backoff of the breaker, before its jitter.
+  *
+  * @return the backoff, in millisecs (0: it is closed)
+  */
+  public synchronized long backoffMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(backoffNanos);
+  }
+
+  @Override
+  public synchronized String toString() {
+    return host + " " + state + " failures=" + consecutiveFailures
+           + " backoffMillis=" + TimeUnit.NANOSECONDS.toMillis(backoffNanos);
+  }
+
+}
@@ -0,0 +1,35 @@
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.experimental.Accessors;
+
+
+/**
+* An event from the cAdvisor event stream about a docker container which was
+* created or deleted.
+*
+* @author  Jose E. Nunez
+* @version 0.0.1
+* @since   2019-05-12
+*/
+public class CAdvisorContainerEvent {
+
+  /**
+   * The dockerId of the container.
+   *
+   * @param dockerId New value for the dockerId of this event.
+   * @return The current value of the dockerId of this event.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private String dockerId = null;
+
+  /**
+   * Whether the container was created (true) or deleted (false).
+   *
+   * @param creation New value for whether the container was created.
+   * @return Whether the container was created.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private boolean creation = false;
+
+}
@@ -0,0 +1,254 @@
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+
+// Apache HttpClient
+import org.apache.http.HttpEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+
+// JSON-simple
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+
+/**
+* Subscribes to the event stream of cAdvisor ("/api/v1.3/events") and passes
+* the creation and deletion of docker containers at once to the thread which
+* queries cAdvisor, so that a new container is scored, or a stopped one is
+* removed, without waiting for the next full cycle of queries.
+*
+* @author  Jose E. Nunez
+* @version 0.0.1
+* @since   2019-05-12
+*/
+public final class CAdvisorEventSubscriber extends Thread {
+
+  /**
+   * The delay before reconnecting to the event stream of cAdvisor, in
+   * millisecs.
+   */
+  private final int reconnectDelayMillisec = 5 * 1000;
+
+  /**
+   * The cAdvisor server address (hostname or IP address).
+   */
+  private final String srvCAdvisor;
+
+  /**
+   * The cAdvisor server port number.
+   */
+  private final int portCAdvisor;
+
+  /**
+   * The thread querying cAdvisor, to which the container events are passed.
+   */
+  private final BackendThreadQueryCAdvisor queryCAdvisor;
+
+  /**
+   * Whether the subscriber was shut down.
+   */
+  private volatile boolean stopped = false;
+
+  /**
+   * The response of the event stream being read (null if none), closed to
+   * shut down the subscriber.
+   */
+  private volatile CloseableHttpResponse currentResponse = null;
+
+  /**
+  * Constructor.
+  *
+  * @param hostCAdvisor The hostname name or IP address to the cAdvisor server
+  * @param portNumCAdvisor The port number of the cAdvisor server
+  * @param backendQueryCAdvisor the thread querying cAdvisor
+  */
+  public CAdvisorEventSubscriber(
+                    final String hostCAdvisor,
+                    int portNumCAdvisor,
+                    final BackendThreadQueryCAdvisor backendQueryCAdvisor
+  ) {
+    super("CAdvisorEventSubscriber: subscriber to the cAdvisor events");
+    setDaemon(true);
+
+    srvCAdvisor = hostCAdvisor;
+    portCAdvisor = portNumCAdvisor;
+    queryCAdvisor = backendQueryCAdvisor;
+  }
+
+  /**
+  * Creates the URI of the event stream of cAdvisor, with the creation and
+  * deletion events of all the containers.
+  *
+  * @return the URI of the event stream
+  * @throws URISyntaxException the URI couldn't be built
+  */
+  protected URI buildEventStreamUrl() throws URISyntaxException {
+    return new URIBuilder()
+                 .setScheme("http")
+                 .setHost(srvCAdvisor)
+                 .setPort(portCAdvisor)
+                 .setPath("/api/v1.3/events/")
+                 .setParameter("stream", "true")
+                 .setParameter("subcontainers", "true")
+                 .setParameter("creation_events", "true")
+                 .setParameter("deletion_events", "true")
+                 .build();
+  }
+
+  /**
+  * Gets the docker-id from a cAdvisor container name, like
+  * "/docker/[id]" or "/system.slice/docker-[id].scope".
+  *
+  * @param containerName the container name in the cAdvisor event
+  * @return the docker-id, or null if it is not a docker container
+  */
+  protected static String dockerIdFromContainerName(
+                                          final String containerName
+  ) {
+    String lastComponent =
+        containerName.substring(containerName.lastIndexOf('/') + 1);
+
+    if (containerName.startsWith("/docker/")) {
+      // lastComponent is the docker-id itself
+    } else if (lastComponent.startsWith("docker-")
+               && lastComponent.endsWith(".scope")) {
+      lastComponent = lastComponent.substring("docker-".length(),
+                                              lastComponent.length()
+                                              - ".scope".length());
+    } else {
+      return null;
+    }
+
+    return (lastComponent.length() == 64
+            && lastComponent.chars().allMatch(c -> Character.digit(c, 16) >= 0))
+               ? lastComponent : null;
+  }
+
+  /**
+  * Parses an event from cAdvisor, and passes it to the thread querying
+  * cAdvisor if it is the creation or deletion of a docker container.
+  *
+  * @param parser the JSON parser to use
+  * @param line one JSON event, like {"container_name": "/docker/[id]",
+  *             "timestamp": "...", "event_type": "containerCreation", ...}
+  */
+  protected void processEvent(final JSONParser parser, final String line) {
+    Object event;
+    try {
+      event = parser.parse(line);
+    } catch (ParseException e) {
+      e.printStackTrace();
+      return;
+    }
+    if (!(event instanceof JSONObject)) {
+      return;
+    }
+
+    Object eventType = ((JSONObject) event).get("event_type");
+    Object containerName = ((JSONObject) event).get("container_name");
+    if (!(containerName instanceof String)) {
+      return;
+    }
+
+    boolean creation;
+    if ("containerCreation".equals(eventType)) {
+      creation = true;
+    } else if ("containerDeletion".equals(eventType)) {
+      creation = false;
+    } else {
+      return;
+    }
+
+    String dockerId = dockerIdFromContainerName((String) containerName);
+    if (dockerId != null) {
+      queryCAdvisor.offerContainerEvent(new CAdvisorContainerEvent()
+                                          .dockerId(dockerId)
+                                          .creation(creation));
+    }
+  }
+
+  /**
+  * Reads the event stream of cAdvisor until it is closed.
+  *
+  * @throws IOException the event stream couldn't be read
+  * @throws URISyntaxException the URI couldn't be built
+  */
+  protected void readEventStream() throws IOException, URISyntaxException {
+    try (CloseableHttpClient httpClient = HttpClients.custom().build();
+         CloseableHttpResponse response =
+             httpClient.execute(new HttpGet(buildEventStreamUrl()))) {
+
+      currentResponse = response;
+      if (stopped) {
+        return;
+      }
+      HttpEntity entity = response.getEntity();
+      if (entity == null) {
+        return;
+      }
+
+      // cAdvisor writes one JSON event per line
+      BufferedReader reader =
+          new BufferedReader(new InputStreamReader(entity.getContent(),
+                                                   StandardCharsets.UTF_8));
+      JSONParser parser = new JSONParser();
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (!line.trim().isEmpty()) {
+          processEvent(parser, line);
+        }
+      }
+    }
+  }
+
+  /**
+  * Shuts down the subscriber, closing the event stream being read (e.g.,
+  * when its cAdvisor host is handed to another member of the cluster).
+  */
+  public void shutdown() {
+    stopped = true;
+    interrupt();
+    CloseableHttpResponse response = currentResponse;
+    if (response != null) {
+      try {
+        response.close();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+
+  /**
+  * run() method of the class: (re)subscribes to the event stream of
+  * cAdvisor for ever.
+  */
+  @Override
+  public void run() {
+    try {
+      while (!stopped) {
+        try {
+          readEventStream();
+        } catch (IOException | URISyntaxException e) {
+          if (!stopped) {
+            System.err.println("ERROR: cAdvisor event stream: " + e);
+          }
+        }
+        Thread.sleep(reconnectDelayMillisec);
+      }
+    } catch (InterruptedException e) {
+      if (!stopped) {
+        e.printStackTrace();
+      }
+    }
+  }
+
+}
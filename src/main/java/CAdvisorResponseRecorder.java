@@ -0,0 +1,175 @@
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPOutputStream;
+
+
+/**
+* Appends each raw response body from cAdvisor, with its fetch timestamp, to
+* a gzip-compressed segment file, so that a collection cycle can be replayed
+* offline later (see ReplayCAdvisorCaptures).
+*
+* <p>Each record in a segment is: the kind of record (one byte), the fetch
+* epoch in milliseconds (a long), the length of the UTF-8 body (an int), and
+* the UTF-8 body. A new segment is started when the current one has grown
+* over the maximum segment size.
+*
+* @author  Jose E. Nunez
+* @version 0.0.1
+* @since   2019-04-21
+*/
+public class CAdvisorResponseRecorder implements Closeable {
+
+  /**
+   * The prefix of the file names of the segments.
+   */
+  public static final String SEGMENT_PREFIX = "cadvisor-capture-";
+
+  /**
+   * The suffix of the file names of the segments.
+   */
+  public static final String SEGMENT_SUFFIX = ".seg.gz";
+
+  /**
+   * The directory where to write the segments.
+   */
+  private final File captureDir;
+
+  /**
+   * The maximum size of the uncompressed records in a segment before
+   * starting a new segment.
+   */
+  private final long maxSegmentBytes;
+
+  /**
+   * The current segment being appended to (null if none is open).
+   */
+  private DataOutputStream currentSegment = null;
+
+  /**
+   * How many uncompressed bytes have been appended to the current segment.
+   */
+  private long currentSegmentBytes = 0;
+
+  /**
+   * The sequence number of the next segment of this recorder, in its file
+   * name after the epoch (so that several segments started in the same
+   * millisecond have distinct names, in the order they were started).
+   */
+  private int nextSegmentSeq = 0;
+
+  /**
+  * Constructor.
+  *
+  * @param captureDirectory the directory where to write the segments
+  * @param maxSegmentSize the maximum size of the uncompressed records in a
+  *                       segment before starting a new segment
+  */
+  public CAdvisorResponseRecorder(final String captureDirectory,
+                                  long maxSegmentSize) {
+    captureDir = new File(captureDirectory);
+    maxSegmentBytes = maxSegmentSize;
+  }
+
+  /**
+  * Opens a new segment in the capture directory.
+  *
+  * @throws IOException the segment couldn't be created
+  */
+  protected void openNewSegment() throws IOException {
+    if (!captureDir.isDirectory() && !captureDir.mkdirs()) {
+      throw new IOException("Can't create capture directory " + captureDir);
+    }
+
+    // an existing segment is never truncated: on a clash (e.g., with the
+    // segments of a previous run started in the same millisecond), the next
+    // sequence number is tried
+    OutputStream segmentFile = null;
+    while (segmentFile == null) {
+      File segment = new File(captureDir,
+                              SEGMENT_PREFIX + System.currentTimeMillis()
+                              + String.format("-%06d", nextSegmentSeq++)
+                              + SEGMENT_SUFFIX);
+      try {
+        segmentFile = Files.newOutputStream(segment.toPath(),
+                                            StandardOpenOption.CREATE_NEW);
+      } catch (FileAlreadyExistsException e) {
+        segmentFile = null;
+      }
+    }
+
+    // syncFlush: each flush() leaves a complete record readable on disk
+    try {
+      currentSegment = new DataOutputStream(
+                           new BufferedOutputStream(
+                               new GZIPOutputStream(segmentFile, 64 * 1024,
+                                                    true)
+                           )
+                       );
+    } catch (IOException e) {
+      segmentFile.close();
+      throw e;
+    }
+    currentSegmentBytes = 0;
+  }
+
+  /**
+  * Appends a raw response body from cAdvisor to the current segment.
+  * (Errors are reported but not raised, so that a failing recorder never
+  * stops the collection from cAdvisor.)
+  *
+  * @param kind which REST query this body answered
+  *             (CAdvisorCaptureRecord.KIND_*)
+  * @param fetchEpochMilli when this body was fetched from cAdvisor
+  * @param body the raw body returned by cAdvisor
+  */
+  public synchronized void record(byte kind, long fetchEpochMilli,
+                                  final String body) {
+    if (body == null) {
+      return;
+    }
+
+    try {
+      if (currentSegment == null || currentSegmentBytes >= maxSegmentBytes) {
+        close();
+        openNewSegment();
+      }
+
+      byte[] bodyBytes = body.getBytes(StandardCharsets.UTF_8);
+
+      currentSegment.writeByte(kind);
+      currentSegment.writeLong(fetchEpochMilli);
+      currentSegment.writeInt(bodyBytes.length);
+      currentSegment.write(bodyBytes);
+      currentSegment.flush();
+
+      currentSegmentBytes += 1 + 8 + 4 + bodyBytes.length;
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+  * Closes the current segment, if any.
+  */
+  @Override
+  public synchronized void close() {
+    if (currentSegment != null) {
+      try {
+        currentSegment.close();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+      currentSegment = null;
+    }
+  }
+
+}
@@ -1,45 +1,194 @@
 
 import java.io.File;
 import java.io.IOException;
+import java.net.InetAddress;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+import javax.management.InvalidAttributeValueException;
+
+import org.snmp4j.CommandResponderEvent;
+import org.snmp4j.PDU;
 import org.snmp4j.TransportMapping;
 import org.snmp4j.agent.BaseAgent;
 import org.snmp4j.agent.CommandProcessor;
 import org.snmp4j.agent.DuplicateRegistrationException;
 import org.snmp4j.agent.MOGroup;
 import org.snmp4j.agent.ManagedObject;
+import org.snmp4j.agent.RequestHandler;
+import org.snmp4j.agent.mo.snmp.CoexistenceInfo;
 import org.snmp4j.agent.mo.snmp.RowStatus;
 import org.snmp4j.agent.mo.snmp.SnmpCommunityMIB;
 import org.snmp4j.agent.mo.snmp.SnmpCommunityMIB.SnmpCommunityEntryRow;
 import org.snmp4j.agent.mo.snmp.SnmpNotificationMIB;
 import org.snmp4j.agent.mo.snmp.SnmpTargetMIB;
 import org.snmp4j.agent.mo.snmp.StorageType;
+import org.snmp4j.agent.mo.snmp.TransportDomains;
 import org.snmp4j.agent.mo.snmp.VacmMIB;
+import org.snmp4j.agent.request.SnmpRequest;
 import org.snmp4j.agent.security.MutableVACM;
 import org.snmp4j.mp.MPv3;
+import org.snmp4j.mp.MessageProcessingModel;
 import org.snmp4j.security.SecurityLevel;
 import org.snmp4j.security.SecurityModel;
 import org.snmp4j.security.USM;
 import org.snmp4j.smi.Address;
 import org.snmp4j.smi.GenericAddress;
+import org.snmp4j.smi.Gauge32;
 import org.snmp4j.smi.Integer32;
 import org.snmp4j.smi.OID;
 import org.snmp4j.smi.OctetString;
+import org.snmp4j.smi.TcpAddress;
+import org.snmp4j.smi.TransportIpAddress;
+import org.snmp4j.smi.UdpAddress;
 import org.snmp4j.smi.Variable;
+import org.snmp4j.smi.VariableBinding;
 import org.snmp4j.transport.TransportMappings;
 
 
-public class CAdvisorSnmpAgent extends BaseAgent {
+public class CAdvisorSnmpAgent extends BaseAgent
+    implements LbResultStatsSink {
 
   private String snmpCommunity = "public";
   private String address;
 
+  // the comma-separated addresses of the notification targets, and whether
+  // to send them INFORMs instead of traps
+  private String notificationTargets = "";
+  private boolean notificationInform = false;
+
+  // the table of the final metrics for the load balancer
+  private final MngdObjDockersLbFinalStat lbFinalStatTable =
+      new MngdObjDockersLbFinalStat();
+  // the final metrics last exported in the tables (null: none yet)
+  private List<LbCAdvisorResultStat> publishedLbResultStats = null;
+
+  // the tables of the aggregates of the final metrics by host and by
+  // service, updated incrementally
+  private final MngdObjLbAggregateTable hostAggregateTable =
+      new MngdObjLbAggregateTable(SnmpMOIdentifiers.HOST_AGGREGATE_TABLE_OID,
+          new LoadFactorAggregates(LbCAdvisorResultStat::host));
+  private final MngdObjLbAggregateTable serviceAggregateTable =
+      new MngdObjLbAggregateTable(
+          SnmpMOIdentifiers.SERVICE_AGGREGATE_TABLE_OID,
+          new LoadFactorAggregates(LbCAdvisorResultStat::service));
+
+  // the table of the metrics of the stages of the pipeline of the cycles
+  // (null: the cycles don't run in a pipeline)
+  private MngdObjPipelineStages pipelineStagesTable = null;
+
+  // the circuit breakers of the cAdvisor hosts, by host, and their table
+  private final Map<String, CAdvisorCircuitBreaker> circuitBreakers =
+      new ConcurrentSkipListMap<String, CAdvisorCircuitBreaker>();
+  private final MngdObjCircuitBreakers circuitBreakersTable =
+      new MngdObjCircuitBreakers(circuitBreakers.values());
+
+  // detects which containers' load factor needs to be notified
+  private LoadFactorCrossingDetector crossingDetector = null;
+
+  // the notifications not sent yet, by docker-id: at most one per container
+  // is pending, the one with its latest load factor
+  private final Map<String, VariableBinding[]> pendingNotifications =
+      new LinkedHashMap<String, VariableBinding[]>();
+
+  // sends the notifications, so that the thread querying cAdvisor never
+  // waits for them (INFORMs are sent synchronously by snmp4j)
+  private final ExecutorService notificationSender =
+      Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable,
+                                   "CAdvisorSnmpAgent: notification sender");
+        thread.setDaemon(true);
+        return thread;
+      });
+
+  /**
+   * The processor of the requests to the agent, each traced by a Java
+   * Flight Recorder event (which costs nothing when it is disabled).
+   */
+  private static final class TracedCommandProcessor extends CommandProcessor {
+
+    /**
+     * Constructor.
+     *
+     * @param contextEngineID the engine ID of the agent
+     */
+    TracedCommandProcessor(OctetString contextEngineID) {
+      super(contextEngineID);
+    }
+
+    @Override
+    protected void processRequest(CommandResponderEvent request,
+                                  CoexistenceInfo cinfo,
+                                  RequestHandler<SnmpRequest> handler) {
+      JfrSnmpRequestEvent event = new JfrSnmpRequestEvent();
+      event.begin();
+      try {
+        super.processRequest(request, cinfo, handler);
+      } finally {
+        event.end();
+        if (event.shouldCommit()) {
+          PDU pdu = request.getPDU();
+          event.pduType = PDU.getTypeString(pdu.getType());
+          event.peerAddress = String.valueOf(request.getPeerAddress());
+          event.numVariableBindings = pdu.size();
+          event.firstOid =
+              (pdu.size() > 0) ? pdu.get(0).getOid().toDottedString() : "";
+          event.commit();
+        }
+      }
+    }
+  }
+
   public CAdvisorSnmpAgent(String address) throws IOException {
     super(new File("conf.agent"), new File("bootCounter.agent"),
-        new CommandProcessor(new OctetString(MPv3.createLocalEngineID())));
+        new TracedCommandProcessor(
+            new OctetString(MPv3.createLocalEngineID())));
     this.address = address;
   }
 
+  /**
+   * Constructor with the notification targets and rules of the agent.
+   *
+   * @param address the address where the agent listens
+   * @param config the settings of the agent ("snmpNotificationTargets",
+   *               "snmpNotificationInform" and the notification rules)
+   * @throws IOException the agent couldn't be created
+   */
+  public CAdvisorSnmpAgent(String address, ConfigLbDockerCAdvisor config)
+      throws IOException {
+    this(address);
+    this.notificationTargets = config.snmpNotificationTargets();
+    this.notificationInform = config.snmpNotificationInform();
+    this.crossingDetector = new LoadFactorCrossingDetector(config);
+  }
+
+  /**
+   * Exports the metrics of the stages of the pipeline of the cycles too,
+   * refreshed at each cycle.
+   *
+   * @param pipeline the pipeline of the cycles
+   */
+  public void setPipeline(CyclePipeline pipeline) {
+    pipelineStagesTable = new MngdObjPipelineStages(pipeline);
+  }
+
+  /**
+   * Exports the state of the circuit breaker of a cAdvisor host too,
+   * refreshed at each cycle (replacing the previous breaker of the host).
+   *
+   * @param breaker the circuit breaker of the host
+   */
+  public void addCircuitBreaker(CAdvisorCircuitBreaker breaker) {
+    circuitBreakers.put(breaker.host(), breaker);
+  }
+
   @Override
   protected void registerManagedObjects() {
     // TODO
@@ -48,6 +197,63 @@ public class CAdvisorSnmpAgent extends BaseAgent {
   @Override
   protected void addNotificationTargets(SnmpTargetMIB targetMib,
       SnmpNotificationMIB notificationMib) {
+
+    targetMib.addDefaultTDomains();
+
+    // all the targets share the tag "notify" and the SNMPv2c params "v2c"
+    targetMib.addTargetParams(new OctetString("v2c"),
+        MessageProcessingModel.MPv2c,
+        SecurityModel.SECURITY_MODEL_SNMPv2c,
+        new OctetString(snmpCommunity),
+        SecurityLevel.NOAUTH_NOPRIV,
+        StorageType.permanent);
+
+    int numTarget = 0;
+    for (String target: notificationTargets.split(",")) {
+      target = target.trim();
+      if (target.isEmpty()) {
+        continue;
+      }
+
+      Address targetAddress = GenericAddress.parse(target);
+      if (!(targetAddress instanceof TransportIpAddress)) {
+        System.err.println("ERROR: invalid SNMP notification target: "
+                           + target);
+        continue;
+      }
+      InetAddress inetAddress =
+          ((TransportIpAddress) targetAddress).getInetAddress();
+      boolean isIpv6 = (inetAddress.getAddress().length > 4);
+
+      OID transportDomain;
+      if (targetAddress instanceof TcpAddress) {
+        transportDomain = isIpv6 ? TransportDomains.transportDomainTcpIpv6
+                                 : TransportDomains.transportDomainTcpIpv4;
+      } else if (targetAddress instanceof UdpAddress) {
+        transportDomain = isIpv6 ? TransportDomains.transportDomainUdpIpv6
+                                 : TransportDomains.transportDomainUdpIpv4;
+      } else {
+        System.err.println("ERROR: unsupported SNMP notification target: "
+                           + target);
+        continue;
+      }
+
+      numTarget++;
+      targetMib.addTargetAddress(new OctetString("lbTarget" + numTarget),
+          transportDomain,
+          new OctetString(((TransportIpAddress) targetAddress).getValue()),
+          200,        // timeout of INFORMs, in 1/100 seconds
+          1,          // retries of INFORMs
+          new OctetString("notify"),
+          new OctetString("v2c"),
+          StorageType.permanent);
+    }
+
+    notificationMib.addNotifyEntry(new OctetString("default"),
+        new OctetString("notify"),
+        notificationInform ? SnmpNotificationMIB.SnmpNotifyTypeEnum.inform
+                           : SnmpNotificationMIB.SnmpNotifyTypeEnum.trap,
+        StorageType.permanent);
   }
 
   @Override
@@ -65,7 +271,7 @@ public class CAdvisorSnmpAgent extends BaseAgent {
         MutableVACM.VACM_MATCH_EXACT,
         new OctetString("cAdvisorSnmpQueryView"),
         null,
-        null,
+        new OctetString("cAdvisorSnmpQueryView"),   // notify view
         StorageType.nonVolatile);
 
     vacm.addViewTreeFamily(new OctetString("cAdvisorSnmpQueryView"),
@@ -86,6 +292,142 @@ public class CAdvisorSnmpAgent extends BaseAgent {
     sendColdStartNotification();
   }
 
+  /**
+   * Exports the final metrics of a cycle of queries to cAdvisor in the table
+   * of the agent (and their aggregates by host and by service), and
+   * notifies the containers whose load factor crossed a threshold (at most
+   * one notification per container per cycle).
+   *
+   * @param lbResultStats the final metrics, one per docker container
+   */
+  @Override
+  public synchronized void publish(List<LbCAdvisorResultStat> lbResultStats) {
+    // the tables of the containers are only rebuilt if some row changed
+    boolean changed = !sameRows(publishedLbResultStats, lbResultStats);
+    publishedLbResultStats = lbResultStats;
+    try {
+      if (changed) {
+        lbFinalStatTable.setLbResultStats(lbResultStats);
+        lbFinalStatTable.registerMOs(this);
+        hostAggregateTable.setLbResultStats(lbResultStats);
+        hostAggregateTable.registerMOs(this);
+        serviceAggregateTable.setLbResultStats(lbResultStats);
+        serviceAggregateTable.registerMOs(this);
+      }
+      if (pipelineStagesTable != null) {
+        pipelineStagesTable.refresh();
+        pipelineStagesTable.registerMOs(this);
+      }
+      if (!circuitBreakers.isEmpty()) {
+        circuitBreakersTable.refresh();
+        circuitBreakersTable.registerMOs(this);
+      }
+    } catch (DuplicateRegistrationException
+             | InvalidAttributeValueException ex) {
+      ex.printStackTrace();
+    }
+
+    if (crossingDetector != null && crossingDetector.hasRules()) {
+      notifyCrossings(lbResultStats);
+    }
+  }
+
+  /**
+   * Whether two lists of final metrics give the same rows in the tables of
+   * the containers.
+   *
+   * @param previous the final metrics published before (can be null)
+   * @param current the final metrics to publish
+   * @return true if their rows are the same, in the same order
+   */
+  private static boolean sameRows(final List<LbCAdvisorResultStat> previous,
+                                  final List<LbCAdvisorResultStat> current) {
+    if (previous == null || previous.size() != current.size()) {
+      return false;
+    }
+    for (int idx = 0; idx < current.size(); idx++) {
+      LbCAdvisorResultStat before = previous.get(idx);
+      LbCAdvisorResultStat after = current.get(idx);
+      if (before.lbFinalStat() != after.lbFinalStat()
+          || before.ejectionState() != after.ejectionState()
+          || !before.dockerId().equals(after.dockerId())
+          || !Objects.equals(before.host(), after.host())
+          || !Objects.equals(before.service(), after.service())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Queues a notification for each container whose load factor crossed a
+   * threshold, with the CONTAINER_IDENTIFIER and CONTAINER_LB_METRIC_STAT of
+   * its row in the table.
+   *
+   * @param lbResultStats the final metrics, one per docker container (in
+   *                      the order of the rows of the table)
+   */
+  protected void notifyCrossings(List<LbCAdvisorResultStat> lbResultStats) {
+    Set<String> runningDockerIds = new HashSet<String>();
+    boolean anyNotification = false;
+
+    for (int idx = 0; idx < lbResultStats.size(); idx++) {
+      LbCAdvisorResultStat lbResultStat = lbResultStats.get(idx);
+      String dockerId = lbResultStat.dockerId();
+      runningDockerIds.add(dockerId);
+
+      if (crossingDetector.crossed(dockerId, lbResultStat.lbFinalStat())) {
+        int row = idx + 1;    // the rows of the table start at 1
+        VariableBinding[] vbs = new VariableBinding[] {
+          new VariableBinding(
+              new OID(SnmpMOIdentifiers.CONTAINER_IDENTIFIER).append(row),
+              new OctetString(dockerId)),
+          new VariableBinding(
+              new OID(SnmpMOIdentifiers.CONTAINER_LB_METRIC_STAT).append(row),
+              new Gauge32(lbResultStat.lbFinalStat()))
+        };
+
+        synchronized (pendingNotifications) {
+          // a notification of this container still pending is coalesced
+          pendingNotifications.put(dockerId, vbs);
+        }
+        anyNotification = true;
+      }
+    }
+
+    crossingDetector.retainContainers(runningDockerIds);
+
+    if (anyNotification) {
+      notificationSender.execute(this::sendPendingNotifications);
+    }
+  }
+
+  /**
+   * Sends all the pending notifications (in the notification sender
+   * thread).
+   */
+  protected void sendPendingNotifications() {
+    while (true) {
+      VariableBinding[] vbs;
+      synchronized (pendingNotifications) {
+        if (pendingNotifications.isEmpty()) {
+          return;
+        }
+        String dockerId = pendingNotifications.keySet().iterator().next();
+        vbs = pendingNotifications.remove(dockerId);
+      }
+
+      try {
+        getNotificationOriginator().notify(
+            new OctetString(snmpCommunity),
+            SnmpMOIdentifiers.LB_METRIC_STAT_CROSSING_NOTIFICATION,
+            vbs);
+      } catch (RuntimeException ex) {
+        ex.printStackTrace();
+      }
+    }
+  }
+
   public void registerManagedObject(ManagedObject mo) {
     try {
       server.register(mo, null);
@@ -0,0 +1,898 @@
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+* A local source of the samples of the docker containers which bypasses
+* cAdvisor: it reads the files of the cgroup v2 hierarchy of each container
+* ("[root]/system.slice/docker-[id].scope", with the systemd cgroup driver,
+* or "[root]/docker/[id]", with the cgroupfs one) directly, and writes the
+* metrics of the MetricParsePlan into a ContainerSampleWindows, so that they
+* are scored exactly like the samples parsed from cAdvisor.
+*
+* The metrics are mapped by their paths in the "stats" samples of cAdvisor,
+* so the same metric_schema.properties serves both sources:
+*
+* <pre>
+*   cpu.usage.total, .user, .system      cpu.stat (usage, user, system_usec)
+*   cpu.cfs.periods, .throttled_periods,
+*       .throttled_time                  cpu.stat (nr_periods, nr_throttled,
+*                                        throttled_usec)
+*   memory.usage                         memory.current
+*   memory.working_set                   memory.current - inactive_file of
+*                                        memory.stat
+*   diskio.io_service_bytes[].stats.Read, .Write, .Total
+*   diskio.io_serviced[].stats.Read, .Write, .Total
+*                                        io.stat (rbytes, wbytes, rios, wios,
+*                                        summed over the devices)
+*   cpu.psi, memory.psi, diskio.psi
+*       .some, .full .avg10, .avg60, .avg300, .total
+*                                        cpu.pressure, memory.pressure,
+*                                        io.pressure
+* </pre>
+*
+* (with the times in nanosecs, like cAdvisor, except the "total" of PSI, in
+* microsecs); the other metrics, like cpu.load_average or network.*, aren't
+* in the cgroups, and are taken as 0. The memory limit of each container
+* comes from memory.max, and its CPU quota and period from cpu.max, cached in
+* the ContainerRegistry like the specs from cAdvisor.
+*
+* The files of each container are kept open, and read again from their
+* start into a single reusable buffer, where their numbers are parsed by
+* hand: after warm-up, a sample costs a few syscalls per container and
+* allocates nothing, so the containers can be sampled several times per
+* second between the full cycles (see sample()); all the samples taken since
+* the last full cycle are scored in it, like the window of samples returned
+* by cAdvisor.
+*
+* It is thread-safe: sample() and collect() may be called from different
+* threads.
+*
+* @author  Jose E. Nunez
+* @version 0.0.1
+* @since   2019-07-07
+*/
+public final class CgroupV2Collector {
+
+  /** The reading of usage_usec in cpu.stat, in nanosecs. */
+  private static final int CPU_USAGE = 0;
+  /** The reading of user_usec in cpu.stat, in nanosecs. */
+  private static final int CPU_USER = 1;
+  /** The reading of system_usec in cpu.stat, in nanosecs. */
+  private static final int CPU_SYSTEM = 2;
+  /** The reading of nr_periods in cpu.stat. */
+  private static final int CPU_PERIODS = 3;
+  /** The reading of nr_throttled in cpu.stat. */
+  private static final int CPU_THROTTLED_PERIODS = 4;
+  /** The reading of throttled_usec in cpu.stat, in nanosecs. */
+  private static final int CPU_THROTTLED_TIME = 5;
+  /** The reading of memory.current. */
+  private static final int MEM_USAGE = 6;
+  /** The reading of memory.current minus the inactive_file of memory.stat. */
+  private static final int MEM_WORKING_SET = 7;
+  /** The reading of rbytes in io.stat, summed over the devices. */
+  private static final int IO_READ_BYTES = 8;
+  /** The reading of wbytes in io.stat, summed over the devices. */
+  private static final int IO_WRITE_BYTES = 9;
+  /** The reading of rbytes plus wbytes in io.stat. */
+  private static final int IO_TOTAL_BYTES = 10;
+  /** The reading of rios in io.stat, summed over the devices. */
+  private static final int IO_READS = 11;
+  /** The reading of wios in io.stat, summed over the devices. */
+  private static final int IO_WRITES = 12;
+  /** The reading of rios plus wios in io.stat. */
+  private static final int IO_TOTAL_IOS = 13;
+  /**
+   * The first reading of the pressure files, at PSI_BASE
+   * + (resource * 2 + line) * 4 + field (see PSI_RESOURCES, PSI_LINES and
+   * PSI_FIELDS).
+   */
+  private static final int PSI_BASE = 14;
+
+  /** The resources with a pressure file, in the paths of cAdvisor. */
+  private static final String[] PSI_RESOURCES = {"cpu", "memory", "diskio"};
+  /** The lines of each pressure file. */
+  private static final String[] PSI_LINES = {"some", "full"};
+  /** The fields of each line of a pressure file. */
+  private static final String[] PSI_FIELDS =
+      {"avg10", "avg60", "avg300", "total"};
+
+  /** The number of readings of a container. */
+  private static final int NUM_READINGS =
+      PSI_BASE + PSI_RESOURCES.length * PSI_LINES.length * PSI_FIELDS.length;
+
+  /** The file cpu.stat. */
+  private static final int CPU_STAT = 0;
+  /** The file memory.current. */
+  private static final int MEMORY_CURRENT = 1;
+  /** The file memory.stat. */
+  private static final int MEMORY_STAT = 2;
+  /** The file io.stat. */
+  private static final int IO_STAT = 3;
+  /** The file cpu.pressure (the pressure files are in PSI_RESOURCES order). */
+  private static final int CPU_PRESSURE = 4;
+  /** The file memory.max. */
+  private static final int MEMORY_MAX = 7;
+  /** The file cpu.max. */
+  private static final int CPU_MAX = 8;
+
+  /** The names of the files of a container, by file index. */
+  private static final String[] FILE_NAMES = {
+      "cpu.stat", "memory.current", "memory.stat", "io.stat",
+      "cpu.pressure", "memory.pressure", "io.pressure",
+      "memory.max", "cpu.max"
+  };
+
+  /**
+   * The maximum number of samples of a container kept until the next full
+   * cycle (the oldest ones are dropped after it).
+   */
+  private static final int MAX_PENDING_SAMPLES = 4096;
+
+  /** The key of usage_usec in cpu.stat. */
+  private static final byte[] USAGE_USEC = ascii("usage_usec");
+  /** The key of user_usec in cpu.stat. */
+  private static final byte[] USER_USEC = ascii("user_usec");
+  /** The key of system_usec in cpu.stat. */
+  private static final byte[] SYSTEM_USEC = ascii("system_usec");
+  /** The key of nr_periods in cpu.stat. */
+  private static final byte[] NR_PERIODS = ascii("nr_periods");
+  /** The key of nr_throttled in cpu.stat. */
+  private static final byte[] NR_THROTTLED = ascii("nr_throttled");
+  /** The key of throttled_usec in cpu.stat. */
+  private static final byte[] THROTTLED_USEC = ascii("throttled_usec");
+  /** The key of inactive_file in memory.stat. */
+  private static final byte[] INACTIVE_FILE = ascii("inactive_file");
+  /** The key of rbytes in io.stat. */
+  private static final byte[] RBYTES = ascii("rbytes=");
+  /** The key of wbytes in io.stat. */
+  private static final byte[] WBYTES = ascii("wbytes=");
+  /** The key of rios in io.stat. */
+  private static final byte[] RIOS = ascii("rios=");
+  /** The key of wios in io.stat. */
+  private static final byte[] WIOS = ascii("wios=");
+  /** The separator of the quota and the period in cpu.max. */
+  private static final byte[] SPACE = ascii(" ");
+  /** The keys of the lines of a pressure file. */
+  private static final byte[][] PSI_LINE_KEYS =
+      {ascii("some"), ascii("full")};
+  /** The keys of the fields of a line of a pressure file. */
+  private static final byte[][] PSI_FIELD_KEYS =
+      {ascii("avg10="), ascii("avg60="), ascii("avg300="), ascii("total=")};
+
+  /**
+   * The index of each reading, by the path of its metric in cAdvisor.
+   */
+  private static final Map<String, Integer> READINGS_BY_PATH =
+      new HashMap<String, Integer>();
+
+  static {
+    READINGS_BY_PATH.put("cpu.usage.total", CPU_USAGE);
+    READINGS_BY_PATH.put("cpu.usage.user", CPU_USER);
+    READINGS_BY_PATH.put("cpu.usage.system", CPU_SYSTEM);
+    READINGS_BY_PATH.put("cpu.cfs.periods", CPU_PERIODS);
+    READINGS_BY_PATH.put("cpu.cfs.throttled_periods", CPU_THROTTLED_PERIODS);
+    READINGS_BY_PATH.put("cpu.cfs.throttled_time", CPU_THROTTLED_TIME);
+    READINGS_BY_PATH.put("memory.usage", MEM_USAGE);
+    READINGS_BY_PATH.put("memory.working_set", MEM_WORKING_SET);
+    READINGS_BY_PATH.put("diskio.io_service_bytes[].stats.Read",
+                         IO_READ_BYTES);
+    READINGS_BY_PATH.put("diskio.io_service_bytes[].stats.Write",
+                         IO_WRITE_BYTES);
+    READINGS_BY_PATH.put("diskio.io_service_bytes[].stats.Total",
+                         IO_TOTAL_BYTES);
+    READINGS_BY_PATH.put("diskio.io_serviced[].stats.Read", IO_READS);
+    READINGS_BY_PATH.put("diskio.io_serviced[].stats.Write", IO_WRITES);
+    READINGS_BY_PATH.put("diskio.io_serviced[].stats.Total", IO_TOTAL_IOS);
+    for (int res = 0; res < PSI_RESOURCES.length; res++) {
+      for (int line = 0; line < PSI_LINES.length; line++) {
+        for (int field = 0; field < PSI_FIELDS.length; field++) {
+          READINGS_BY_PATH.put(PSI_RESOURCES[res] + ".psi." + PSI_LINES[line]
+                               + "." + PSI_FIELDS[field],
+                               psiReading(res, line, field));
+        }
+      }
+    }
+  }
+
+  /**
+  * The open files, and the samples not collected yet, of a container.
+  */
+  private static final class Scope {
+    /**
+     * The docker-id of the container.
+     */
+    private final String dockerId;
+
+    /**
+     * The directory of the cgroup of the container.
+     */
+    private final File directory;
+
+    /**
+     * The open files of the cgroup, by file index (null: not opened yet).
+     */
+    private final FileChannel[] files = new FileChannel[FILE_NAMES.length];
+
+    /**
+     * Whether the directory was found in the last scan.
+     */
+    private boolean present = true;
+
+    /**
+     * The number of samples not collected yet.
+     */
+    private int numSamples = 0;
+
+    /**
+     * The epoch (in milliseconds) of each sample not collected yet.
+     */
+    private long[] epochs = new long[16];
+
+    /**
+     * The values of the metrics of the samples not collected yet, at
+     * [sample * numMetrics + metric].
+     */
+    private double[] values;
+
+    /**
+    * Constructor.
+    *
+    * @param id the docker-id of the container
+    * @param dir the directory of its cgroup
+    * @param numMetrics the number of metrics per sample
+    */
+    Scope(final String id, final File dir, int numMetrics) {
+      dockerId = id;
+      directory = dir;
+      values = new double[epochs.length * numMetrics];
+    }
+
+    /**
+    * Closes the open files of the cgroup.
+    */
+    void close() {
+      for (int file = 0; file < files.length; file++) {
+        if (files[file] != null) {
+          try {
+            files[file].close();
+          } catch (IOException ex) {
+            // the cgroup was removed: nothing left to release
+          }
+          files[file] = null;
+        }
+      }
+    }
+  }
+
+  /**
+   * The root of the cgroup v2 hierarchy, like "/sys/fs/cgroup".
+   */
+  private final File root;
+
+  /**
+   * The number of metrics per sample.
+   */
+  private final int numMetrics;
+
+  /**
+   * The reading of each metric of the plan, by dense index (-1: it isn't in
+   * the cgroups).
+   */
+  private final int[] readingOfMetric;
+
+  /**
+   * Whether each file, by file index, has to be read in each sample.
+   */
+  private final boolean[] fileNeeded = new boolean[FILE_NAMES.length];
+
+  /**
+   * The memory capacity of the machine, from /proc/meminfo (-1 if unknown).
+   */
+  private final long machineMemCapacity;
+
+  /**
+   * The containers found in the last scan, by docker-id.
+   */
+  private final Map<String, Scope> scopes = new HashMap<String, Scope>();
+
+  /**
+   * The containers found in the last scan, to iterate over them.
+   */
+  private final List<Scope> scopeList = new ArrayList<Scope>();
+
+  /**
+   * The reusable buffer where each file is read.
+   */
+  private final ByteBuffer buffer = ByteBuffer.allocate(8192);
+
+  /**
+   * The bytes of buffer.
+   */
+  private final byte[] bytes = buffer.array();
+
+  /**
+   * The readings of the container being sampled (reused).
+   */
+  private final double[] readings = new double[NUM_READINGS];
+
+  /**
+  * Constructor.
+  *
+  * @param cgroupRoot the root of the cgroup v2 hierarchy, like
+  *                   "/sys/fs/cgroup"
+  * @param plan the compiled plan of the metrics to sample
+  */
+  public CgroupV2Collector(final String cgroupRoot,
+                           final MetricParsePlan plan) {
+    root = new File(cgroupRoot);
+    numMetrics = plan.numMetrics();
+    readingOfMetric = new int[numMetrics];
+
+    for (int idx = 0; idx < numMetrics; idx++) {
+      Integer reading = READINGS_BY_PATH.get(plan.path(idx));
+      if (reading == null) {
+        System.err.println("WARN: the metric " + plan.name(idx) + " ("
+                           + plan.path(idx) + ") isn't in the cgroups: it"
+                           + " is taken as 0");
+        readingOfMetric[idx] = -1;
+        continue;
+      }
+      readingOfMetric[idx] = reading;
+
+      if (reading < MEM_USAGE) {
+        fileNeeded[CPU_STAT] = true;
+      } else if (reading == MEM_USAGE) {
+        fileNeeded[MEMORY_CURRENT] = true;
+      } else if (reading == MEM_WORKING_SET) {
+        fileNeeded[MEMORY_CURRENT] = true;
+        fileNeeded[MEMORY_STAT] = true;
+      } else if (reading < PSI_BASE) {
+        fileNeeded[IO_STAT] = true;
+      } else {
+        int resource = (reading - PSI_BASE)
+                       / (PSI_LINES.length * PSI_FIELDS.length);
+        fileNeeded[CPU_PRESSURE + resource] = true;
+      }
+    }
+
+    machineMemCapacity = readMachineMemCapacity();
+    if (!root.isDirectory()) {
+      System.err.println("ERROR: the cgroup root " + root
+                         + " is not a directory");
+    }
+  }
+
+  /**
+  * Get the bytes of an ASCII string.
+  *
+  * @param value the string
+  * @return its bytes
+  */
+  private static byte[] ascii(final String value) {
+    return value.getBytes(StandardCharsets.US_ASCII);
+  }
+
+  /**
+  * Get the index of a reading of the pressure files.
+  *
+  * @param resource the index of the resource in PSI_RESOURCES
+  * @param line the index of the line in PSI_LINES
+  * @param field the index of the field in PSI_FIELDS
+  * @return the index of the reading
+  */
+  private static int psiReading(int resource, int line, int field) {
+    return PSI_BASE + (resource * PSI_LINES.length + line) * PSI_FIELDS.length
+           + field;
+  }
+
+  /**
+  * Reads the memory capacity of the machine from /proc/meminfo.
+  *
+  * @return the memory capacity, in bytes, or -1 if unknown
+  */
+  private static long readMachineMemCapacity() {
+    try {
+      for (String line: Files.readAllLines(Paths.get("/proc/meminfo"),
+                                           StandardCharsets.US_ASCII)) {
+        if (line.startsWith("MemTotal:")) {
+          String[] words = line.trim().split("\\s+");
+          return Long.parseLong(words[1]) * 1024;
+        }
+      }
+    } catch (IOException | RuntimeException ex) {
+      System.err.println("WARN: reading the memory capacity from"
+                         + " /proc/meminfo: " + ex);
+    }
+    return -1;
+  }
+
+  /**
+  * Get the memory capacity of the machine.
+  *
+  * @return the memory capacity, in bytes, or -1 if unknown
+  */
+  public long machineMemCapacity() {
+    return machineMemCapacity;
+  }
+
+  /**
+  * Scans the cgroup hierarchy for the containers, opening the new ones and
+  * closing the ones removed.
+  */
+  protected void scan() {
+    for (Scope scope: scopeList) {
+      scope.present = false;
+    }
+
+    // the systemd cgroup driver: system.slice/docker-[id].scope
+    File systemSlice = new File(root, "system.slice");
+    String[] names = systemSlice.list();
+    if (names != null) {
+      for (String name: names) {
+        if (name.startsWith("docker-") && name.endsWith(".scope")
+            && name.length() > "docker-.scope".length()) {
+          found(name.substring("docker-".length(),
+                               name.length() - ".scope".length()),
+                systemSlice, name);
+        }
+      }
+    }
+
+    // the cgroupfs cgroup driver: docker/[id]
+    File dockerSlice = new File(root, "docker");
+    names = dockerSlice.list();
+    if (names != null) {
+      for (String name: names) {
+        if (isDockerId(name)) {
+          found(name, dockerSlice, name);
+        }
+      }
+    }
+
+    Iterator<Scope> iter = scopeList.iterator();
+    while (iter.hasNext()) {
+      Scope scope = iter.next();
+      if (!scope.present) {
+        scope.close();
+        scopes.remove(scope.dockerId);
+        iter.remove();
+      }
+    }
+  }
+
+  /**
+  * Whether a name of a directory is a docker-id (hexadecimal).
+  *
+  * @param name the name
+  * @return true if it is a docker-id
+  */
+  private static boolean isDockerId(final String name) {
+    if (name.length() < 12) {
+      return false;
+    }
+    for (int i = 0; i < name.length(); i++) {
+      char c = name.charAt(i);
+      if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+  * Marks a container as found in the scan, adding it if it is new.
+  *
+  * @param dockerId the docker-id of the container
+  * @param parent the directory with the cgroup of the container
+  * @param name the name of the directory of the cgroup
+  */
+  private void found(final String dockerId, final File parent,
+                     final String name) {
+    Scope scope = scopes.get(dockerId);
+    if (scope == null) {
+      scope = new Scope(dockerId, new File(parent, name), numMetrics);
+      scopes.put(dockerId, scope);
+      scopeList.add(scope);
+    }
+    scope.present = true;
+  }
+
+  /**
+  * Takes a sample of all the containers found in the last scan, which is
+  * kept until the next call to collect().
+  */
+  public synchronized void sample() {
+    long epochMilli = System.currentTimeMillis();
+    for (int i = 0; i < scopeList.size(); i++) {
+      sample(scopeList.get(i), epochMilli);
+    }
+  }
+
+  /**
+  * Takes a sample of a container. (If its cgroup can't be read, e.g., it
+  * was just removed, the sample is skipped.)
+  *
+  * @param scope the container
+  * @param epochMilli the epoch of the sample, in milliseconds
+  */
+  private void sample(final Scope scope, long epochMilli) {
+    Arrays.fill(readings, 0);
+
+    if (fileNeeded[CPU_STAT]) {
+      int len = read(scope, CPU_STAT);
+      if (len < 0) {
+        return;
+      }
+      readings[CPU_USAGE] = keyedValue(len, USAGE_USEC) * 1000.0;
+      readings[CPU_USER] = keyedValue(len, USER_USEC) * 1000.0;
+      readings[CPU_SYSTEM] = keyedValue(len, SYSTEM_USEC) * 1000.0;
+      readings[CPU_PERIODS] = keyedValue(len, NR_PERIODS);
+      readings[CPU_THROTTLED_PERIODS] = keyedValue(len, NR_THROTTLED);
+      readings[CPU_THROTTLED_TIME] = keyedValue(len, THROTTLED_USEC) * 1000.0;
+    }
+    if (fileNeeded[MEMORY_CURRENT]) {
+      int len = read(scope, MEMORY_CURRENT);
+      if (len < 0) {
+        return;
+      }
+      readings[MEM_USAGE] = parseLong(0, len);
+    }
+    if (fileNeeded[MEMORY_STAT]) {
+      int len = read(scope, MEMORY_STAT);
+      if (len < 0) {
+        return;
+      }
+      // like cAdvisor: the usage minus the page cache which can be reclaimed
+      readings[MEM_WORKING_SET] =
+          Math.max(0, readings[MEM_USAGE] - keyedValue(len, INACTIVE_FILE));
+    }
+    if (fileNeeded[IO_STAT]) {
+      // io.stat is empty until the container does some I/O
+      int len = read(scope, IO_STAT);
+      if (len < 0) {
+        return;
+      }
+      readings[IO_READ_BYTES] = summedFieldValue(len, RBYTES);
+      readings[IO_WRITE_BYTES] = summedFieldValue(len, WBYTES);
+      readings[IO_TOTAL_BYTES] =
+          readings[IO_READ_BYTES] + readings[IO_WRITE_BYTES];
+      readings[IO_READS] = summedFieldValue(len, RIOS);
+      readings[IO_WRITES] = summedFieldValue(len, WIOS);
+      readings[IO_TOTAL_IOS] = readings[IO_READS] + readings[IO_WRITES];
+    }
+    for (int res = 0; res < PSI_RESOURCES.length; res++) {
+      if (!fileNeeded[CPU_PRESSURE + res]) {
+        continue;
+      }
+      // the pressure files are missing if the kernel has no PSI: they are 0
+      int len = read(scope, CPU_PRESSURE + res);
+      for (int line = 0; len > 0 && line < PSI_LINES.length; line++) {
+        int start = lineStart(len, PSI_LINE_KEYS[line]);
+        if (start < 0) {
+          continue;
+        }
+        int end = start;
+        while (end < len && bytes[end] != '\n') {
+          end++;
+        }
+        for (int field = 0; field < PSI_FIELDS.length; field++) {
+          int pos = indexOf(start, end, PSI_FIELD_KEYS[field]);
+          if (pos >= 0) {
+            readings[psiReading(res, line, field)] =
+                parseDecimal(pos + PSI_FIELD_KEYS[field].length, end);
+          }
+        }
+      }
+    }
+
+    if (scope.numSamples == MAX_PENDING_SAMPLES) {
+      // nobody collected them for long: drop the oldest one
+      System.arraycopy(scope.epochs, 1, scope.epochs, 0,
+                       scope.numSamples - 1);
+      System.arraycopy(scope.values, numMetrics, scope.values, 0,
+                       (scope.numSamples - 1) * numMetrics);
+      scope.numSamples--;
+    } else if (scope.numSamples == scope.epochs.length) {
+      int newLength = scope.epochs.length * 2;
+      scope.epochs = Arrays.copyOf(scope.epochs, newLength);
+      scope.values = Arrays.copyOf(scope.values, newLength * numMetrics);
+    }
+
+    int offset = scope.numSamples * numMetrics;
+    for (int idx = 0; idx < numMetrics; idx++) {
+      int reading = readingOfMetric[idx];
+      scope.values[offset + idx] = (reading >= 0) ? readings[reading] : 0;
+    }
+    scope.epochs[scope.numSamples++] = epochMilli;
+  }
+
+  /**
+  * Collects the samples of all the containers taken since the last call,
+  * plus a new one, into the windows to score (rescanning the containers
+  * first), and refreshes the specs of the containers which expired.
+  *
+  * @param windows where to store the samples of each container (it is
+  *                cleared first)
+  * @param registry the registry where to get the handle of each container,
+  *                 and to cache its spec
+  */
+  public synchronized void collect(final ContainerSampleWindows windows,
+                                   final ContainerRegistry registry) {
+    scan();
+    sample();
+
+    windows.clear();
+    long nowNanos = System.nanoTime();
+    for (int i = 0; i < scopeList.size(); i++) {
+      Scope scope = scopeList.get(i);
+      int handle = registry.register(scope.dockerId);
+
+      if (registry.specNeedsRefresh(handle, nowNanos)) {
+        refreshSpec(scope, handle, registry, nowNanos);
+      }
+      if (registry.serviceName(handle) == null) {
+        // there are no labels in the cgroups
+        registry.serviceName(handle, "");
+      }
+
+      int container = windows.addContainer(handle);
+      windows.memLimit(container, registry.memLimit(handle));
+      for (int sample = 0; sample < scope.numSamples; sample++) {
+        int offset = windows.beginSample();
+        System.arraycopy(scope.values, sample * numMetrics, windows.values(),
+                         offset, numMetrics);
+        windows.commitSample(scope.epochs[sample]);
+      }
+      scope.numSamples = 0;
+    }
+  }
+
+  /**
+  * Reads the spec of a container from memory.max and cpu.max, and caches it
+  * in the registry.
+  *
+  * @param scope the container
+  * @param handle the handle of the container
+  * @param registry the registry where to cache its spec
+  * @param nowNanos the current System.nanoTime()
+  */
+  private void refreshSpec(final Scope scope, int handle,
+                           final ContainerRegistry registry, long nowNanos) {
+    // "max" means unlimited: -1, like the limits of cAdvisor too large
+    long memLimit = -1;
+    int len = read(scope, MEMORY_MAX);
+    if (len > 0 && bytes[0] != 'm') {
+      memLimit = parseLong(0, len);
+    }
+
+    // "[quota] [period]", or "max [period]"
+    long cpuQuota = -1;
+    long cpuPeriod = -1;
+    len = read(scope, CPU_MAX);
+    if (len > 0) {
+      int space = indexOf(0, len, SPACE);
+      if (bytes[0] != 'm') {
+        cpuQuota = parseLong(0, len);
+      }
+      if (space >= 0) {
+        cpuPeriod = parseLong(space + 1, len);
+      }
+    }
+
+    // the spec files are only read when it expires: don't keep them open
+    closeFile(scope, MEMORY_MAX);
+    closeFile(scope, CPU_MAX);
+
+    registry.spec(handle, memLimit, cpuQuota, cpuPeriod, null, null,
+                  nowNanos);
+  }
+
+  /**
+  * Reads a file of the cgroup of a container, from its start, into the
+  * buffer (opening it if it isn't open yet).
+  *
+  * @param scope the container
+  * @param file the index of the file
+  * @return the number of bytes read, or -1 if it couldn't be read
+  */
+  private int read(final Scope scope, int file) {
+    FileChannel channel = scope.files[file];
+    try {
+      if (channel == null) {
+        channel = FileChannel.open(
+                      new File(scope.directory, FILE_NAMES[file]).toPath(),
+                      StandardOpenOption.READ);
+        scope.files[file] = channel;
+      }
+      buffer.clear();
+      // the kernel regenerates the content of a cgroup file when it is read
+      // from its start again
+      long position = 0;
+      int count;
+      while (buffer.hasRemaining()
+             && (count = channel.read(buffer, position)) > 0) {
+        position += count;
+      }
+      return buffer.position();
+    } catch (IOException ex) {
+      closeFile(scope, file);
+      return -1;
+    }
+  }
+
+  /**
+  * Closes a file of the cgroup of a container, if it is open.
+  *
+  * @param scope the container
+  * @param file the index of the file
+  */
+  private static void closeFile(final Scope scope, int file) {
+    if (scope.files[file] != null) {
+      try {
+        scope.files[file].close();
+      } catch (IOException ex) {
+        // the cgroup was removed: nothing left to release
+      }
+      scope.files[file] = null;
+    }
+  }
+
+  /**
+  * Finds a line of the buffer which starts with a key.
+  *
+  * @param len the number of bytes in the buffer
+  * @param key the key
+  * @return the position of the line, or -1 if there is none
+  */
+  private int lineStart(int len, final byte[] key) {
+    int start = 0;
+    while (start < len) {
+      if (regionEquals(start, len, key)) {
+        return start;
+      }
+      while (start < len && bytes[start] != '\n') {
+        start++;
+      }
+      start++;
+    }
+    return -1;
+  }
+
+  /**
+  * Get the value of a "[key] [value]" line of the buffer (like cpu.stat or
+  * memory.stat).
+  *
+  * @param len the number of bytes in the buffer
+  * @param key the key
+  * @return its value, or 0 if there is no such line
+  */
+  private long keyedValue(int len, final byte[] key) {
+    int start = 0;
+    while (start < len) {
+      int end = start + key.length;
+      if (end < len && bytes[end] == ' ' && regionEquals(start, len, key)) {
+        return parseLong(end + 1, len);
+      }
+      while (start < len && bytes[start] != '\n') {
+        start++;
+      }
+      start++;
+    }
+    return 0;
+  }
+
+  /**
+  * Get the sum of the values of a "[key]=[value]" field in all the lines of
+  * the buffer (like io.stat, with a line per device).
+  *
+  * @param len the number of bytes in the buffer
+  * @param key the key, with its "="
+  * @return the sum of its values
+  */
+  private long summedFieldValue(int len, final byte[] key) {
+    long sum = 0;
+    int pos = 0;
+    while ((pos = indexOf(pos, len, key)) >= 0) {
+      if (pos == 0 || bytes[pos - 1] == ' ') {
+        sum += parseLong(pos + key.length, len);
+      }
+      pos += key.length;
+    }
+    return sum;
+  }
+
+  /**
+  * Finds some bytes in a range of the buffer.
+  *
+  * @param start the start of the range
+  * @param end the end of the range
+  * @param value the bytes to find
+  * @return the position where they are, or -1 if they aren't there
+  */
+  private int indexOf(int start, int end, final byte[] value) {
+    for (int pos = start; pos + value.length <= end; pos++) {
+      if (regionEquals(pos, end, value)) {
+        return pos;
+      }
+    }
+    return -1;
+  }
+
+  /**
+  * Whether the buffer has some bytes at a position.
+  *
+  * @param pos the position
+  * @param end the end of the bytes in the buffer
+  * @param value the bytes
+  * @return true if they are there
+  */
+  private boolean regionEquals(int pos, int end, final byte[] value) {
+    if (pos + value.length > end) {
+      return false;
+    }
+    for (int i = 0; i < value.length; i++) {
+      if (bytes[pos + i] != value[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+  * Parses the non-negative integer at a position of the buffer.
+  *
+  * @param pos the position
+  * @param end the end of the bytes in the buffer
+  * @return the integer (0 if there are no digits)
+  */
+  private long parseLong(int pos, int end) {
+    long value = 0;
+    while (pos < end && bytes[pos] >= '0' && bytes[pos] <= '9') {
+      value = value * 10 + (bytes[pos++] - '0');
+    }
+    return value;
+  }
+
+  /**
+  * Parses the non-negative decimal number (like "12.34") at a position of
+  * the buffer.
+  *
+  * @param pos the position
+  * @param end the end of the bytes in the buffer
+  * @return the number (0 if there are no digits)
+  */
+  private double parseDecimal(int pos, int end) {
+    long value = 0;
+    long scale = 1;
+    boolean fraction = false;
+    for (; pos < end; pos++) {
+      byte b = bytes[pos];
+      if (b >= '0' && b <= '9') {
+        value = value * 10 + (b - '0');
+        if (fraction) {
+          scale *= 10;
+        }
+      } else if (b == '.' && !fraction) {
+        fraction = true;
+      } else {
+        break;
+      }
+    }
+    return (double) value / scale;
+  }
+
+}
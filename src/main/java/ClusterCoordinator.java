@@ -0,0 +1,521 @@
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+
+/**
+* The coordinator of this instance in a cluster of LbDockerCAdvisor
+* instances, which split the cAdvisor hosts among themselves: each host is
+* collected by the member which owns it in a ConsistentHashRing of the
+* members alive, and the collectors are started and stopped when a member
+* joins or leaves (rebalancing only the hosts which moved).
+*
+* Every interval, each member sends a compact binary FleetWeightSnapshot of
+* the hosts it collects to all the other members (over TCP, a connection
+* per snapshot): receiving it is also what keeps the member alive, so a
+* member not heard from for the timeout is considered gone. Each member
+* merges its own results with the snapshots of the others, and publishes
+* the table of the whole fleet to its sinks (like its SNMP agent).
+*
+* Until a new owner publishes a host moved to it, the last results of that
+* host are still published, so that it doesn't disappear from the fleet
+* table while it is rebalanced.
+*
+* @author  Jose E. Nunez
+* @version 0.0.1
+* @since   2019-06-30
+*/
+public final class ClusterCoordinator extends Thread {
+
+  /**
+  * Creates the collector of a cAdvisor host (not started yet).
+  */
+  public interface CollectorFactory {
+
+    /**
+    * Creates the collector of a cAdvisor host.
+    *
+    * @param hostCAdvisor the hostname or IP address of cAdvisor
+    * @param portCAdvisor the port number of cAdvisor
+    * @return the collector, configured but not started
+    */
+    BackendThreadQueryCAdvisor create(String hostCAdvisor, int portCAdvisor);
+  }
+
+  /**
+   * The default port of cAdvisor, if a host doesn't give one.
+   */
+  private static final int DEFAULT_CADVISOR_PORT = 8080;
+
+  /**
+   * The address of this member ("host:port"), as in the list of members.
+   */
+  private final String self;
+
+  /**
+   * The addresses of the other members.
+   */
+  private final List<String> peers = new ArrayList<String>();
+
+  /**
+   * The cAdvisor hosts of the fleet, as "host:port".
+   */
+  private final List<String> hosts = new ArrayList<String>();
+
+  /**
+   * The interval between the snapshots sent, in millisecs.
+   */
+  private final int intervalMillis;
+
+  /**
+   * The time after which a member not heard from is considered gone, in
+   * millisecs.
+   */
+  private final int memberTimeoutMillis;
+
+  /**
+   * Whether to subscribe to the events of the containers of each host.
+   */
+  private final boolean subscribeContainerEvents;
+
+  /**
+   * Creates the collectors of the hosts.
+   */
+  private final CollectorFactory collectorFactory;
+
+  /**
+   * The socket where the snapshots of the other members are received.
+   */
+  private final ServerSocket serverSocket;
+
+  /**
+   * The consumers of the final metrics of the whole fleet.
+   */
+  private final List<LbResultStatsSink> resultStatsSinks =
+      new CopyOnWriteArrayList<LbResultStatsSink>();
+
+  /**
+   * The last results of the hosts collected by this member (guarded by
+   * this object).
+   */
+  private final Map<String, List<LbCAdvisorResultStat>> localResults =
+      new HashMap<String, List<LbCAdvisorResultStat>>();
+
+  /**
+   * The last snapshot received from each member (guarded by this object).
+   */
+  private final Map<String, FleetWeightSnapshot> remoteSnapshots =
+      new HashMap<String, FleetWeightSnapshot>();
+
+  /**
+   * When each member was last heard from, in nanosecs (guarded by this
+   * object).
+   */
+  private final Map<String, Long> lastHeardNanos = new HashMap<String, Long>();
+
+  /**
+   * Whether the results changed since the fleet was last published (guarded
+   * by this object).
+   */
+  private boolean fleetChanged = false;
+
+  /**
+   * The results of each host in the fleet last published (only used by
+   * this thread).
+   */
+  private final Map<String, List<LbCAdvisorResultStat>> lastFleetResults =
+      new HashMap<String, List<LbCAdvisorResultStat>>();
+
+  /**
+   * The collectors of the hosts owned by this member (only used by this
+   * thread).
+   */
+  private final Map<String, BackendThreadQueryCAdvisor> collectors =
+      new HashMap<String, BackendThreadQueryCAdvisor>();
+
+  /**
+   * The subscribers to the events of the hosts owned by this member (only
+   * used by this thread).
+   */
+  private final Map<String, CAdvisorEventSubscriber> subscribers =
+      new HashMap<String, CAdvisorEventSubscriber>();
+
+  /**
+   * The members alive in the current ring (only used by this thread).
+   */
+  private Set<String> aliveMembers = Collections.emptySet();
+
+  /**
+   * The ring of the members alive (null until the first rebalance).
+   */
+  private ConsistentHashRing ring = null;
+
+  /**
+   * The peers which couldn't be reached by the last snapshot (only used by
+   * this thread).
+   */
+  private final Set<String> unreachablePeers = new HashSet<String>();
+
+  /**
+  * Constructor: binds the socket where the snapshots of the other members
+  * are received.
+  *
+  * @param config the settings of the agent ("clusterSelf",
+  *               "clusterMembers", "clusterIntervalMillis" and
+  *               "clusterMemberTimeoutMillis")
+  * @param fleetHosts the cAdvisor hosts of the fleet, as "host[:port]"
+  * @param factory creates the collectors of the hosts
+  * @throws IOException the socket couldn't be bound
+  */
+  public ClusterCoordinator(final ConfigLbDockerCAdvisor config,
+                            final List<String> fleetHosts,
+                            final CollectorFactory factory)
+      throws IOException {
+    super("ClusterCoordinator: coordinator of the collector cluster");
+    setDaemon(true);
+
+    self = config.clusterSelf();
+    for (String member: config.clusterMembers().split(",")) {
+      member = member.trim();
+      if (!member.isEmpty() && !member.equals(self)
+          && !peers.contains(member)) {
+        peers.add(member);
+      }
+    }
+    for (String host: fleetHosts) {
+      host = host.trim();
+      if (host.isEmpty()) {
+        continue;
+      }
+      hosts.add((host.indexOf(':') >= 0) ? host
+                                         : host + ":" + DEFAULT_CADVISOR_PORT);
+    }
+
+    intervalMillis = Math.max(config.clusterIntervalMillis(), 100);
+    memberTimeoutMillis = Math.max(config.clusterMemberTimeoutMillis(),
+                                   2 * intervalMillis);
+    subscribeContainerEvents = config.subscribeContainerEvents();
+    collectorFactory = factory;
+
+    serverSocket = new ServerSocket();
+    serverSocket.setReuseAddress(true);
+    serverSocket.bind(toSocketAddress(self));
+  }
+
+  /**
+  * Converts a "host:port" to a socket address.
+  *
+  * @param hostPort the "host:port"
+  * @return the socket address
+  */
+  private static InetSocketAddress toSocketAddress(final String hostPort) {
+    int colon = hostPort.lastIndexOf(':');
+    return new InetSocketAddress(hostPort.substring(0, colon),
+                                 Integer.parseInt(hostPort.substring(colon
+                                                                     + 1)));
+  }
+
+  /**
+  * Adds a consumer of the final metrics of the whole fleet.
+  *
+  * @param sink the consumer
+  */
+  public void addResultStatsSink(final LbResultStatsSink sink) {
+    resultStatsSinks.add(sink);
+  }
+
+  /**
+  * Keeps the results of a host collected by this member (called from its
+  * collector).
+  *
+  * @param host the host, as "host:port"
+  * @param lbResultStats the final metrics of the host
+  */
+  protected synchronized void publishLocal(
+                     final String host,
+                     final List<LbCAdvisorResultStat> lbResultStats
+  ) {
+    if (collectors.containsKey(host)) {
+      localResults.put(host, lbResultStats);
+      fleetChanged = true;
+    }
+  }
+
+  /**
+  * Keeps a snapshot received from another member.
+  *
+  * @param snapshot the snapshot
+  */
+  protected synchronized void receiveSnapshot(
+                                  final FleetWeightSnapshot snapshot
+  ) {
+    if (!peers.contains(snapshot.member())) {
+      System.err.println("ERROR: weight snapshot from an unknown member: "
+                         + snapshot.member());
+      return;
+    }
+    remoteSnapshots.put(snapshot.member(), snapshot);
+    lastHeardNanos.put(snapshot.member(), System.nanoTime());
+    fleetChanged = true;
+  }
+
+  /**
+  * Receives the snapshots of the other members, for ever (in its own
+  * thread).
+  */
+  protected void receiveSnapshots() {
+    while (true) {
+      try (Socket socket = serverSocket.accept()) {
+        socket.setSoTimeout(memberTimeoutMillis);
+        receiveSnapshot(FleetWeightSnapshot.readFrom(
+            new DataInputStream(
+                new BufferedInputStream(socket.getInputStream(), 64 * 1024)
+            )
+        ));
+      } catch (IOException ex) {
+        System.err.println("ERROR: receiving a weight snapshot: " + ex);
+      }
+    }
+  }
+
+  /**
+  * Sends the snapshot of the hosts collected by this member to all the
+  * other members.
+  */
+  protected void sendSnapshot() {
+    Map<String, List<LbCAdvisorResultStat>> results;
+    synchronized (this) {
+      results = new LinkedHashMap<String, List<LbCAdvisorResultStat>>(
+                    localResults
+                );
+    }
+
+    // serialized once for all the members
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+    try {
+      new FleetWeightSnapshot(self, System.currentTimeMillis(), results)
+          .writeTo(new DataOutputStream(bytes));
+    } catch (IOException ex) {
+      ex.printStackTrace();
+      return;
+    }
+
+    for (String peer: peers) {
+      try (Socket socket = new Socket()) {
+        socket.connect(toSocketAddress(peer), intervalMillis);
+        socket.setSoTimeout(intervalMillis);
+        OutputStream output = socket.getOutputStream();
+        bytes.writeTo(output);
+        output.flush();
+        if (unreachablePeers.remove(peer)) {
+          System.out.println("INFO: cluster member reachable: " + peer);
+        }
+      } catch (IOException ex) {
+        if (unreachablePeers.add(peer)) {
+          System.err.println("WARN: cluster member unreachable: " + peer
+                             + ": " + ex);
+        }
+      }
+    }
+  }
+
+  /**
+  * Get the members alive now, forgetting the snapshots of the ones gone.
+  *
+  * @return the members alive, including this one
+  */
+  protected synchronized Set<String> currentAliveMembers() {
+    long now = System.nanoTime();
+    Set<String> alive = new TreeSet<String>();
+    alive.add(self);
+
+    for (String peer: peers) {
+      Long heard = lastHeardNanos.get(peer);
+      if (heard == null) {
+        continue;
+      }
+      if (now - heard.longValue() < memberTimeoutMillis * 1000000L) {
+        alive.add(peer);
+      } else {
+        lastHeardNanos.remove(peer);
+        remoteSnapshots.remove(peer);
+        fleetChanged = true;
+      }
+    }
+    return alive;
+  }
+
+  /**
+  * Assigns the hosts to the members alive, starting the collectors of the
+  * hosts this member now owns, and stopping the ones of the hosts it no
+  * longer owns.
+  *
+  * @param alive the members alive
+  */
+  protected void rebalance(final Set<String> alive) {
+    ring = new ConsistentHashRing(alive,
+                                  ConsistentHashRing.DEFAULT_VIRTUAL_NODES);
+    aliveMembers = alive;
+
+    for (String host: hosts) {
+      boolean owned = self.equals(ring.ownerOf(host));
+      if (owned && !collectors.containsKey(host)) {
+        startCollector(host);
+      } else if (!owned && collectors.containsKey(host)) {
+        stopCollector(host);
+      }
+    }
+
+    System.out.println("INFO: cluster members alive: " + alive
+                       + ": collecting " + collectors.size() + " of "
+                       + hosts.size() + " cAdvisor hosts");
+  }
+
+  /**
+  * Starts collecting a host.
+  *
+  * @param host the host, as "host:port"
+  */
+  protected void startCollector(final String host) {
+    int colon = host.lastIndexOf(':');
+    String hostCAdvisor = host.substring(0, colon);
+    int portCAdvisor = Integer.parseInt(host.substring(colon + 1));
+
+    BackendThreadQueryCAdvisor collector =
+        collectorFactory.create(hostCAdvisor, portCAdvisor);
+    collector.addResultStatsSink(
+        lbResultStats -> publishLocal(host, lbResultStats)
+    );
+    synchronized (this) {
+      collectors.put(host, collector);
+    }
+    collector.start();
+
+    if (subscribeContainerEvents) {
+      CAdvisorEventSubscriber subscriber =
+          new CAdvisorEventSubscriber(hostCAdvisor, portCAdvisor, collector);
+      subscribers.put(host, subscriber);
+      subscriber.start();
+    }
+  }
+
+  /**
+  * Stops collecting a host (its last results are still published until its
+  * new owner publishes them).
+  *
+  * @param host the host, as "host:port"
+  */
+  protected void stopCollector(final String host) {
+    BackendThreadQueryCAdvisor collector;
+    synchronized (this) {
+      collector = collectors.remove(host);
+      localResults.remove(host);
+      fleetChanged = true;
+    }
+    collector.interrupt();
+
+    CAdvisorEventSubscriber subscriber = subscribers.remove(host);
+    if (subscriber != null) {
+      subscriber.shutdown();
+    }
+  }
+
+  /**
+  * Publishes the final metrics of the whole fleet to the sinks, if they
+  * changed: the results of each host from its owner, or else the most
+  * recent ones known (while it is rebalanced).
+  */
+  protected void publishFleet() {
+    List<LbCAdvisorResultStat> fleet = new ArrayList<LbCAdvisorResultStat>();
+
+    synchronized (this) {
+      if (!fleetChanged) {
+        return;
+      }
+      fleetChanged = false;
+
+      for (String host: hosts) {
+        String owner = (ring != null) ? ring.ownerOf(host) : null;
+        List<LbCAdvisorResultStat> hostResults = null;
+
+        if (self.equals(owner)) {
+          hostResults = localResults.get(host);
+        } else if (owner != null && remoteSnapshots.containsKey(owner)) {
+          hostResults = remoteSnapshots.get(owner).resultsByHost().get(host);
+        }
+        if (hostResults == null) {
+          hostResults = localResults.get(host);
+        }
+        for (FleetWeightSnapshot snapshot: remoteSnapshots.values()) {
+          if (hostResults == null) {
+            hostResults = snapshot.resultsByHost().get(host);
+          }
+        }
+        if (hostResults == null) {
+          hostResults = lastFleetResults.get(host);
+        }
+
+        if (hostResults != null) {
+          lastFleetResults.put(host, hostResults);
+          fleet.addAll(hostResults);
+        }
+      }
+    }
+
+    List<LbCAdvisorResultStat> fleetResults =
+        Collections.unmodifiableList(fleet);
+    for (LbResultStatsSink sink: resultStatsSinks) {
+      sink.publish(fleetResults);
+    }
+  }
+
+  /**
+  * run() method of the class: sends the snapshots, follows the members
+  * alive and rebalances the hosts, and publishes the fleet, for ever.
+  */
+  @Override
+  public void run() {
+    Thread receiver = new Thread(this::receiveSnapshots,
+                                 "ClusterCoordinator: snapshot receiver");
+    receiver.setDaemon(true);
+    receiver.start();
+
+    // before owning any host, wait to hear from the members already alive
+    long warmUpEnd = System.nanoTime() + memberTimeoutMillis * 1000000L;
+
+    try {
+      while (true) {
+        sendSnapshot();
+
+        Set<String> alive = currentAliveMembers();
+        if (System.nanoTime() - warmUpEnd >= 0
+            && (ring == null || !alive.equals(aliveMembers))) {
+          rebalance(alive);
+        }
+
+        publishFleet();
+        Thread.sleep(intervalMillis);
+      }
+    } catch (InterruptedException e) {
+      e.printStackTrace();
+    }
+  }
+
+}
@@ -0,0 +1,987 @@
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.experimental.Accessors;
+
+
+/**
+* The optional settings of this agent (the ones which are not the cAdvisor
+* address given in the command-line, nor the relative weights of the
+* metrics in ConfigRelativeWeightsMetrics).
+*
+* @author  Jose E. Nunez
+* @version 0.0.1
+* @since   2019-04-21
+*/
+public class ConfigLbDockerCAdvisor {
+
+  /**
+   * The directory where to capture the raw responses from cAdvisor, for
+   * replaying them offline later. (Empty: don't capture them.)
+   *
+   * @param recordCapturesDir New directory where to capture the responses.
+   * @return The current directory where to capture the responses.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private String recordCapturesDir = "";
+
+  /**
+   * The maximum size (uncompressed bytes) of a capture segment file before
+   * starting a new segment.
+   *
+   * @param recordSegmentMaxBytes New maximum size of a capture segment.
+   * @return The current maximum size of a capture segment.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private long recordSegmentMaxBytes = 256L * 1024 * 1024;
+
+  /**
+   * The address where the SNMP agent listens, like "udp:0.0.0.0/161".
+   * (Empty: don't start the SNMP agent.)
+   *
+   * @param snmpAgentAddress New address of the SNMP agent.
+   * @return The current address of the SNMP agent.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private String snmpAgentAddress = "";
+
+  /**
+   * The comma-separated addresses where the SNMP agent sends its
+   * notifications, like "udp:10.0.0.1/162". (Empty: none.)
+   *
+   * @param snmpNotificationTargets New addresses of the notification targets.
+   * @return The current addresses of the notification targets.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private String snmpNotificationTargets = "";
+
+  /**
+   * Whether the SNMP notifications are sent as INFORMs (acknowledged) rather
+   * than as traps.
+   *
+   * @param snmpNotificationInform New value for sending INFORMs.
+   * @return Whether INFORMs are sent.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private boolean snmpNotificationInform = false;
+
+  /**
+   * The comma-separated thresholds of the load factor (in the "d-3" units
+   * exported by SNMP) whose crossing by a container is notified. (Can be
+   * overridden per container by "notifyThresholds.[docker-id-prefix]".)
+   *
+   * @param notifyThresholds New thresholds of the load factor.
+   * @return The current thresholds of the load factor.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private String notifyThresholds = "";
+
+  /**
+   * The change of the load factor of a container between two cycles above
+   * which it is notified (0: never). (Can be overridden per container by
+   * "notifyMaxChange.[docker-id-prefix]".)
+   *
+   * @param notifyMaxChange New maximum change of the load factor.
+   * @return The current maximum change of the load factor.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private int notifyMaxChange = 0;
+
+  /**
+   * Whether to subscribe to the event stream of cAdvisor, to add or remove
+   * the docker containers at once, between the full cycles of queries.
+   *
+   * @param subscribeContainerEvents New value for subscribing to the events.
+   * @return Whether to subscribe to the events.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private boolean subscribeContainerEvents = false;
+
+  /**
+   * The load factor (in the "d-3" units exported by SNMP) at which a
+   * container is fully loaded, so the HAProxy agent-check answers "drain"
+   * for it. (The agent-check addresses of the backend servers are given by
+   * "agentCheckBackend.[docker-id-prefix]=[address]:[port]".)
+   *
+   * @param agentCheckFullLoadFactor New load factor of a full container.
+   * @return The current load factor of a full container.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private int agentCheckFullLoadFactor = 100000;
+
+  /**
+   * The address where the push feed of the changes of the load factors
+   * (Server-Sent Events) listens, like "0.0.0.0:8081". (Empty: no feed.)
+   *
+   * @param weightFeedAddress New address of the feed.
+   * @return The current address of the feed.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private String weightFeedAddress = "";
+
+  /**
+   * Whether the responses from cAdvisor are parsed in a single pass
+   * straight into reusable primitive arrays, so that a steady-state cycle
+   * allocates next to nothing, instead of into JSON trees.
+   *
+   * @param allocationFreeCycle New value for the allocation-free mode.
+   * @return Whether to use the allocation-free mode.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private boolean allocationFreeCycle = false;
+
+  /**
+   * The number of entries of the ring buffer of the asynchronous logger of
+   * the diagnostics of each cycle (rounded down to a power of 2). (The rate
+   * limits of its categories are given by "logRate.[category]".)
+   *
+   * @param logRingSize New number of entries of the ring buffer.
+   * @return The current number of entries of the ring buffer.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private int logRingSize = 4096;
+
+  /**
+   * The file where to append a compact binary record of the final metrics
+   * of each cycle. (Empty: don't write them.)
+   *
+   * @param cycleRecordFile New file of the binary cycle records.
+   * @return The current file of the binary cycle records.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private String cycleRecordFile = "";
+
+  /**
+   * The comma-separated keys of the labels which give the service of a
+   * docker container, in order of priority, to aggregate the load factors
+   * by service.
+   *
+   * @param serviceLabels New keys of the service labels.
+   * @return The current keys of the service labels.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private String serviceLabels =
+      "com.docker.swarm.service.name,com.docker.compose.service";
+
+  /**
+   * Whether the cycles run in a staged pipeline (fetch, parse, score and
+   * publish, each stage with its own threads and connected by bounded
+   * queues), so that the fetch of a cycle overlaps the parse and scoring of
+   * the previous one, instead of all in the thread which queries cAdvisor.
+   *
+   * @param pipelineStages New value for running the staged pipeline.
+   * @return Whether to run the staged pipeline.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private boolean pipelineStages = false;
+
+  /**
+   * The capacity of the input queue of each stage of the pipeline (when it
+   * is full, the previous stage blocks).
+   *
+   * @param pipelineQueueCapacity New capacity of the queues of the stages.
+   * @return The current capacity of the queues of the stages.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private int pipelineQueueCapacity = 2;
+
+  /**
+   * The number of threads of the parse stage of the pipeline.
+   *
+   * @param pipelineParseThreads New number of threads of the parse stage.
+   * @return The current number of threads of the parse stage.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private int pipelineParseThreads = 2;
+
+  /**
+   * The comma-separated cAdvisor hosts of the fleet, as "host[:port]" (the
+   * port is 8080 by default). If empty, the one in the command-line.
+   *
+   * @param cAdvisorHosts New cAdvisor hosts of the fleet.
+   * @return The current cAdvisor hosts of the fleet.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private String cAdvisorHosts = "";
+
+  /**
+   * The address of this instance in the cluster of collectors, as
+   * "host:port", where it receives the snapshots of the other members (it
+   * must be in clusterMembers as well).
+   *
+   * @param clusterSelf New address of this member of the cluster.
+   * @return The current address of this member of the cluster.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private String clusterSelf = "";
+
+  /**
+   * The comma-separated addresses of all the members of the cluster of
+   * collectors, which split the cAdvisor hosts among themselves. If empty,
+   * this instance collects all the hosts on its own.
+   *
+   * @param clusterMembers New addresses of the members of the cluster.
+   * @return The current addresses of the members of the cluster.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private String clusterMembers = "";
+
+  /**
+   * The interval between the snapshots of the weights sent to the other
+   * members of the cluster, in millisecs.
+   *
+   * @param clusterIntervalMillis New interval between the snapshots.
+   * @return The current interval between the snapshots.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private int clusterIntervalMillis = 1000;
+
+  /**
+   * The time after which a member of the cluster not heard from is
+   * considered gone (and its hosts are rebalanced), in millisecs.
+   *
+   * @param clusterMemberTimeoutMillis New timeout of the members.
+   * @return The current timeout of the members.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private int clusterMemberTimeoutMillis = 5000;
+
+  /**
+   * The directory of the store of the history of the samples of each
+   * docker container and of their load factors (empty: don't keep it).
+   *
+   * @param historyDir New directory of the metric history.
+   * @return The current directory of the metric history.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private String historyDir = "";
+
+  /**
+   * The size of each segment file of the metric history, in bytes.
+   *
+   * @param historySegmentBytes New size of the segments of the history.
+   * @return The current size of the segments of the history.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private int historySegmentBytes = 16 * 1024 * 1024;
+
+  /**
+   * How long the raw samples are kept in the metric history, in hours.
+   *
+   * @param historyRawRetentionHours New retention of the raw samples.
+   * @return The current retention of the raw samples.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private int historyRawRetentionHours = 48;
+
+  /**
+   * How long the points of each minute are kept in the metric history, in
+   * days.
+   *
+   * @param historyMinuteRetentionDays New retention of the 1m points.
+   * @return The current retention of the 1m points.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private int historyMinuteRetentionDays = 30;
+
+  /**
+   * How long the points of each hour are kept in the metric history, in
+   * days.
+   *
+   * @param historyHourRetentionDays New retention of the 1h points.
+   * @return The current retention of the 1h points.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private int historyHourRetentionDays = 400;
+
+  /**
+   * How long the specs of the machine and of the containers are cached, in
+   * seconds, before querying (or parsing) them again from cAdvisor.
+   *
+   * @param specRefreshSeconds New time to live of the specs cached.
+   * @return The current time to live of the specs cached.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private int specRefreshSeconds = 600;
+
+  /**
+   * The timeout to connect to cAdvisor, and to wait for its responses, in
+   * millisecs.
+   *
+   * @param cAdvisorTimeoutMillis New timeout of the queries to cAdvisor.
+   * @return The current timeout of the queries to cAdvisor.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private int cAdvisorTimeoutMillis = 10000;
+
+  /**
+   * The number of consecutive failed full cycles of a cAdvisor host which
+   * opens its circuit breaker.
+   *
+   * @param breakerFailureThreshold New failures which open the breaker.
+   * @return The current failures which open the breaker.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private int breakerFailureThreshold = 3;
+
+  /**
+   * The backoff after the circuit breaker of a host opens, in millisecs (it
+   * doubles each time its probe fails).
+   *
+   * @param breakerInitialBackoffMillis New initial backoff of the breaker.
+   * @return The current initial backoff of the breaker.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private int breakerInitialBackoffMillis = 20000;
+
+  /**
+   * The maximum backoff of the circuit breaker of a host, in millisecs.
+   *
+   * @param breakerMaxBackoffMillis New maximum backoff of the breaker.
+   * @return The current maximum backoff of the breaker.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private int breakerMaxBackoffMillis = 600000;
+
+  /**
+   * What to serve for the containers of a host whose full cycles fail, after
+   * staleWeightsMaxMillis: "keep" their last good final metrics, or "drop"
+   * them.
+   *
+   * @param staleWeightsPolicy New policy of the stale final metrics.
+   * @return The current policy of the stale final metrics.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private String staleWeightsPolicy = "keep";
+
+  /**
+   * How long the last good final metrics of a host whose full cycles fail
+   * are served, in millisecs, before applying the staleWeightsPolicy.
+   *
+   * @param staleWeightsMaxMillis New maximum staleness of the final metrics.
+   * @return The current maximum staleness of the final metrics.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private int staleWeightsMaxMillis = 300000;
+
+  /**
+   * The TCP address of the runtime API of HAProxy where to push the weights
+   * after each cycle, like "127.0.0.1:9999" (empty: don't push them). (The
+   * backend servers are given by
+   * "haproxyRuntimeServer.[docker-id-prefix]=[backend]/[server]".)
+   *
+   * @param haproxyRuntimeApi New address of the HAProxy runtime API.
+   * @return The current address of the HAProxy runtime API.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private String haproxyRuntimeApi = "";
+
+  /**
+   * The weight pushed to HAProxy for an idle container (from 1 to 256).
+   *
+   * @param haproxyRuntimeMaxWeight New weight of an idle container.
+   * @return The current weight of an idle container.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private int haproxyRuntimeMaxWeight = 100;
+
+  /**
+   * The timeout to connect to the runtime API of HAProxy, and to wait for
+   * its reply, in millisecs.
+   *
+   * @param haproxyRuntimeTimeoutMillis New timeout of the pushes.
+   * @return The current timeout of the pushes.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private int haproxyRuntimeTimeoutMillis = 2000;
+
+  /**
+   * The file where to write the endpoints of the containers with their
+   * weights, for the proxies which load them from files (empty: don't write
+   * it). (The endpoints are given by
+   * "endpointsFileAddress.[docker-id-prefix]=[host]:[port]".)
+   *
+   * @param endpointsFile New file of the endpoints.
+   * @return The current file of the endpoints.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private String endpointsFile = "";
+
+  /**
+   * The format of the file of endpoints: "envoy" (an EDS response) or
+   * "nginx" (an upstream block).
+   *
+   * @param endpointsFileFormat New format of the file of endpoints.
+   * @return The current format of the file of endpoints.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private String endpointsFileFormat = "envoy";
+
+  /**
+   * The name of the Envoy cluster, or of the nginx upstream, in the file of
+   * endpoints.
+   *
+   * @param endpointsFileCluster New name of the cluster of the endpoints.
+   * @return The current name of the cluster of the endpoints.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private String endpointsFileCluster = "lb_docker_cadvisor";
+
+  /**
+   * The weight of an idle container in the file of endpoints.
+   *
+   * @param endpointsFileMaxWeight New weight of an idle container.
+   * @return The current weight of an idle container.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private int endpointsFileMaxWeight = 100;
+
+  /**
+   * The root of the cgroup v2 hierarchy, like "/sys/fs/cgroup", where to
+   * read the samples of the docker containers of this machine directly,
+   * instead of querying cAdvisor (empty: query cAdvisor).
+   *
+   * @param cgroupRoot New root of the cgroup v2 hierarchy.
+   * @return The current root of the cgroup v2 hierarchy.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private String cgroupRoot = "";
+
+  /**
+   * The interval between the samples read from the cgroups between the full
+   * cycles, in millisecs (0: only one sample per full cycle).
+   *
+   * @param cgroupSampleMillis New interval between the samples.
+   * @return The current interval between the samples.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private int cgroupSampleMillis = 500;
+
+  /**
+   * How the metrics of the containers are normalized relative to the fleet
+   * before they are weighted: "none", "minmax" or "zscore".
+   *
+   * @param fleetNormalization New method of the normalization.
+   * @return The current method of the normalization.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private String fleetNormalization = "none";
+
+  /**
+   * The weight of the newest cycle in the moving averages of the statistics
+   * of the fleet used by the normalization.
+   *
+   * @param fleetNormalizationAlpha New weight of the newest cycle.
+   * @return The current weight of the newest cycle.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private double fleetNormalizationAlpha = 0.2;
+
+  /**
+   * Whether the relative weights of the metrics are tuned from the latency
+   * of the backend servers in HAProxy: "off", "propose" (only log and
+   * export the tuned weights) or "apply".
+   *
+   * @param weightTuning New mode of the tuning.
+   * @return The current mode of the tuning.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private String weightTuning = "off";
+
+  /**
+   * Where to read the "show stat" CSV of HAProxy from, for the tuning of
+   * the weights: the TCP address of its stats socket, or "file:[path]"
+   * (empty: the address of haproxyRuntimeApi).
+   *
+   * @param weightTuningStats New source of the statistics.
+   * @return The current source of the statistics.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private String weightTuningStats = "";
+
+  /**
+   * The period between the reads of the statistics of HAProxy, in
+   * millisecs.
+   *
+   * @param weightTuningPollMillis New period of the reads.
+   * @return The current period of the reads.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private int weightTuningPollMillis = 10000;
+
+  /**
+   * The forgetting factor of the recursive least squares fit of the
+   * latency (from 0 to 1; 1: never forget the old observations).
+   *
+   * @param weightTuningForgetting New forgetting factor.
+   * @return The current forgetting factor.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private double weightTuningForgetting = 0.99;
+
+  /**
+   * The number of observations fitted before the weights are tuned.
+   *
+   * @param weightTuningMinSamples New number of observations.
+   * @return The current number of observations.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private int weightTuningMinSamples = 30;
+
+  /**
+   * How far a tuned weight may get from its configured weight, as a factor
+   * (above or below it).
+   *
+   * @param weightTuningMaxRatio New factor.
+   * @return The current factor.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private double weightTuningMaxRatio = 4.0;
+
+  /**
+   * How much a tuned weight may change at each tuning, as a fraction of its
+   * configured weight.
+   *
+   * @param weightTuningMaxStep New fraction.
+   * @return The current fraction.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private double weightTuningMaxStep = 0.05;
+
+  /**
+   * The latency, in millisecs, that an error of a backend server counts
+   * as, per request.
+   *
+   * @param weightTuningErrorPenaltyMillis New latency of an error.
+   * @return The current latency of an error.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private double weightTuningErrorPenaltyMillis = 1000.0;
+
+  /**
+   * The file where to export the fitted coefficients and the tuned weights,
+   * in the format of metric_weights.properties (empty: don't export them).
+   *
+   * @param weightTuningFile New file of the export.
+   * @return The current file of the export.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private String weightTuningFile = "";
+
+  /**
+   * Whether the containers whose load factor, and some of its components,
+   * are outliers of their host in a cycle are ejected (drained).
+   *
+   * @param outlierEjection New value for whether to eject the outliers.
+   * @return Whether the outliers are ejected.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private boolean outlierEjection = false;
+
+  /**
+   * The robust z-score (by the median and the median absolute deviation)
+   * above which a load factor, or a component of it, is an outlier.
+   *
+   * @param outlierThreshold New threshold of the robust z-score.
+   * @return The current threshold of the robust z-score.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private double outlierThreshold = 3.5;
+
+  /**
+   * The number of weighted metrics of a container which must be outliers
+   * too, with its load factor, for it to be ejected.
+   *
+   * @param outlierMinComponents New number of metrics.
+   * @return The current number of metrics.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private int outlierMinComponents = 2;
+
+  /**
+   * The number of containers of a host under which no outlier is detected.
+   *
+   * @param outlierMinContainers New number of containers.
+   * @return The current number of containers.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private int outlierMinContainers = 5;
+
+  /**
+   * How long an outlier is ejected, in millisecs.
+   *
+   * @param outlierEjectionMillis New duration of an ejection.
+   * @return The current duration of an ejection.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private long outlierEjectionMillis = 60000;
+
+  /**
+   * How long an ejected container takes to get back to its own load factor
+   * once re-admitted, in millisecs.
+   *
+   * @param outlierReadmitMillis New duration of a re-admission.
+   * @return The current duration of a re-admission.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private long outlierReadmitMillis = 60000;
+
+  /**
+   * The maximum percentage of the containers of a host ejected at once
+   * (at least one, if it is positive).
+   *
+   * @param outlierMaxEjectionPercent New maximum percentage.
+   * @return The current maximum percentage.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private int outlierMaxEjectionPercent = 10;
+
+  /**
+   * Whether the load factors are damped before they are published.
+   *
+   * @param damping New value for whether to damp the load factors.
+   * @return Whether the load factors are damped.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private boolean damping = false;
+
+  /**
+   * The proportional gain of the damping of the load factors.
+   *
+   * @param dampingKp New proportional gain.
+   * @return The current proportional gain.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private double dampingKp = 1.0;
+
+  /**
+   * The integral gain of the damping of the load factors.
+   *
+   * @param dampingKi New integral gain.
+   * @return The current integral gain.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private double dampingKi = 0.0;
+
+  /**
+   * The derivative gain of the damping of the load factors.
+   *
+   * @param dampingKd New derivative gain.
+   * @return The current derivative gain.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private double dampingKd = 0.0;
+
+  /**
+   * The maximum change of a published load factor per cycle, in the "d-3"
+   * units of the load factors (0: unlimited).
+   *
+   * @param dampingMaxStep New maximum change.
+   * @return The current maximum change.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private double dampingMaxStep = 0;
+
+  /**
+   * The change of a load factor under which the published one doesn't
+   * change, in the "d-3" units of the load factors.
+   *
+   * @param dampingDeadBand New dead band.
+   * @return The current dead band.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private double dampingDeadBand = 0;
+
+  /**
+   * All the properties read from the property file (for the settings which
+   * are per docker container, or per backend).
+   */
+  private final Properties allProperties = new Properties();
+
+
+  /**
+  * Load the settings of this agent from a property file.
+  *
+  * @param propFileName the filename of the property file
+  */
+  protected void loadFromPropFile(final String propFileName) {
+    Properties prop = new Properties();
+
+    try (InputStream propF = new FileInputStream(propFileName);) {
+
+      prop.load(propF);
+      allProperties.putAll(prop);
+
+      recordCapturesDir =
+        prop.getProperty("recordCapturesDir", "").trim();
+
+      recordSegmentMaxBytes =
+        Long.parseLong(prop.getProperty("recordSegmentMaxBytes",
+                                        "268435456").trim());
+
+      snmpAgentAddress =
+        prop.getProperty("snmpAgentAddress", "").trim();
+
+      snmpNotificationTargets =
+        prop.getProperty("snmpNotificationTargets", "").trim();
+
+      snmpNotificationInform =
+        Boolean.parseBoolean(prop.getProperty("snmpNotificationInform",
+                                              "false").trim());
+
+      notifyThresholds =
+        prop.getProperty("notifyThresholds", "").trim();
+
+      notifyMaxChange =
+        Integer.parseInt(prop.getProperty("notifyMaxChange", "0").trim());
+
+      subscribeContainerEvents =
+        Boolean.parseBoolean(prop.getProperty("subscribeContainerEvents",
+                                              "false").trim());
+
+      agentCheckFullLoadFactor =
+        Integer.parseInt(prop.getProperty("agentCheckFullLoadFactor",
+                                          "100000").trim());
+
+      weightFeedAddress =
+        prop.getProperty("weightFeedAddress", "").trim();
+
+      allocationFreeCycle =
+        Boolean.parseBoolean(prop.getProperty("allocationFreeCycle",
+                                              "false").trim());
+
+      logRingSize =
+        Integer.parseInt(prop.getProperty("logRingSize", "4096").trim());
+
+      cycleRecordFile =
+        prop.getProperty("cycleRecordFile", "").trim();
+
+      serviceLabels =
+        prop.getProperty("serviceLabels", serviceLabels).trim();
+
+      pipelineStages =
+        Boolean.parseBoolean(prop.getProperty("pipelineStages",
+                                              "false").trim());
+
+      pipelineQueueCapacity =
+        Integer.parseInt(prop.getProperty("pipelineQueueCapacity",
+                                          "2").trim());
+
+      pipelineParseThreads =
+        Integer.parseInt(prop.getProperty("pipelineParseThreads",
+                                          "2").trim());
+
+      cAdvisorHosts =
+        prop.getProperty("cAdvisorHosts", "").trim();
+
+      clusterSelf =
+        prop.getProperty("clusterSelf", "").trim();
+
+      clusterMembers =
+        prop.getProperty("clusterMembers", "").trim();
+
+      clusterIntervalMillis =
+        Integer.parseInt(prop.getProperty("clusterIntervalMillis",
+                                          "1000").trim());
+
+      clusterMemberTimeoutMillis =
+        Integer.parseInt(prop.getProperty("clusterMemberTimeoutMillis",
+                                          "5000").trim());
+
+      historyDir =
+        prop.getProperty("historyDir", "").trim();
+
+      historySegmentBytes =
+        Integer.parseInt(prop.getProperty("historySegmentBytes",
+                                          "16777216").trim());
+
+      historyRawRetentionHours =
+        Integer.parseInt(prop.getProperty("historyRawRetentionHours",
+                                          "48").trim());
+
+      historyMinuteRetentionDays =
+        Integer.parseInt(prop.getProperty("historyMinuteRetentionDays",
+                                          "30").trim());
+
+      historyHourRetentionDays =
+        Integer.parseInt(prop.getProperty("historyHourRetentionDays",
+                                          "400").trim());
+
+      specRefreshSeconds =
+        Integer.parseInt(prop.getProperty("specRefreshSeconds",
+                                          "600").trim());
+
+      cAdvisorTimeoutMillis =
+        Integer.parseInt(prop.getProperty("cAdvisorTimeoutMillis",
+                                          "10000").trim());
+
+      breakerFailureThreshold =
+        Integer.parseInt(prop.getProperty("breakerFailureThreshold",
+                                          "3").trim());
+
+      breakerInitialBackoffMillis =
+        Integer.parseInt(prop.getProperty("breakerInitialBackoffMillis",
+                                          "20000").trim());
+
+      breakerMaxBackoffMillis =
+        Integer.parseInt(prop.getProperty("breakerMaxBackoffMillis",
+                                          "600000").trim());
+
+      staleWeightsPolicy =
+        prop.getProperty("staleWeightsPolicy", "keep").trim();
+
+      staleWeightsMaxMillis =
+        Integer.parseInt(prop.getProperty("staleWeightsMaxMillis",
+                                          "300000").trim());
+
+      haproxyRuntimeApi =
+        prop.getProperty("haproxyRuntimeApi", "").trim();
+
+      haproxyRuntimeMaxWeight =
+        Integer.parseInt(prop.getProperty("haproxyRuntimeMaxWeight",
+                                          "100").trim());
+
+      haproxyRuntimeTimeoutMillis =
+        Integer.parseInt(prop.getProperty("haproxyRuntimeTimeoutMillis",
+                                          "2000").trim());
+
+      endpointsFile =
+        prop.getProperty("endpointsFile", "").trim();
+
+      endpointsFileFormat =
+        prop.getProperty("endpointsFileFormat", "envoy").trim();
+
+      endpointsFileCluster =
+        prop.getProperty("endpointsFileCluster", endpointsFileCluster).trim();
+
+      endpointsFileMaxWeight =
+        Integer.parseInt(prop.getProperty("endpointsFileMaxWeight",
+                                          "100").trim());
+
+      cgroupRoot =
+        prop.getProperty("cgroupRoot", "").trim();
+
+      cgroupSampleMillis =
+        Integer.parseInt(prop.getProperty("cgroupSampleMillis",
+                                          "500").trim());
+
+      fleetNormalization =
+        prop.getProperty("fleetNormalization", "none").trim();
+
+      fleetNormalizationAlpha =
+        Double.parseDouble(prop.getProperty("fleetNormalizationAlpha",
+                                            "0.2").trim());
+
+      weightTuning = prop.getProperty("weightTuning", "off").trim();
+
+      weightTuningStats =
+        prop.getProperty("weightTuningStats", "").trim();
+
+      weightTuningPollMillis =
+        Integer.parseInt(prop.getProperty("weightTuningPollMillis",
+                                          "10000").trim());
+
+      weightTuningForgetting =
+        Double.parseDouble(prop.getProperty("weightTuningForgetting",
+                                            "0.99").trim());
+
+      weightTuningMinSamples =
+        Integer.parseInt(prop.getProperty("weightTuningMinSamples",
+                                          "30").trim());
+
+      weightTuningMaxRatio =
+        Double.parseDouble(prop.getProperty("weightTuningMaxRatio",
+                                            "4").trim());
+
+      weightTuningMaxStep =
+        Double.parseDouble(prop.getProperty("weightTuningMaxStep",
+                                            "0.05").trim());
+
+      weightTuningErrorPenaltyMillis =
+        Double.parseDouble(prop.getProperty("weightTuningErrorPenaltyMillis",
+                                            "1000").trim());
+
+      weightTuningFile = prop.getProperty("weightTuningFile", "").trim();
+
+      outlierEjection =
+        Boolean.parseBoolean(prop.getProperty("outlierEjection",
+                                              "false").trim());
+
+      outlierThreshold =
+        Double.parseDouble(prop.getProperty("outlierThreshold",
+                                            "3.5").trim());
+
+      outlierMinComponents =
+        Integer.parseInt(prop.getProperty("outlierMinComponents",
+                                          "2").trim());
+
+      outlierMinContainers =
+        Integer.parseInt(prop.getProperty("outlierMinContainers",
+                                          "5").trim());
+
+      outlierEjectionMillis =
+        Long.parseLong(prop.getProperty("outlierEjectionMillis",
+                                        "60000").trim());
+
+      outlierReadmitMillis =
+        Long.parseLong(prop.getProperty("outlierReadmitMillis",
+                                        "60000").trim());
+
+      outlierMaxEjectionPercent =
+        Integer.parseInt(prop.getProperty("outlierMaxEjectionPercent",
+                                          "10").trim());
+
+      damping =
+        Boolean.parseBoolean(prop.getProperty("damping", "false").trim());
+
+      dampingKp =
+        Double.parseDouble(prop.getProperty("dampingKp", "1").trim());
+
+      dampingKi =
+        Double.parseDouble(prop.getProperty("dampingKi", "0").trim());
+
+      dampingKd =
+        Double.parseDouble(prop.getProperty("dampingKd", "0").trim());
+
+      dampingMaxStep =
+        Double.parseDouble(prop.getProperty("dampingMaxStep", "0").trim());
+
+      dampingDeadBand =
+        Double.parseDouble(prop.getProperty("dampingDeadBand", "0").trim());
+
+    } catch (IOException
+             | NullPointerException
+             | NumberFormatException ex) {
+      ex.printStackTrace();
+    }
+  }
+
+  /**
+  * Get the properties whose names start with a prefix, like the settings
+  * per docker container "notifyThresholds.[docker-id-prefix]".
+  *
+  * @param prefix the prefix of the property names
+  * @return the values of such properties, by the rest of their names after
+  *         the prefix
+  */
+  public Map<String, String> getPropertiesWithPrefix(final String prefix) {
+    Map<String, String> result = new LinkedHashMap<String, String>();
+
+    for (String name: allProperties.stringPropertyNames()) {
+      if (name.startsWith(prefix) && name.length() > prefix.length()) {
+        result.put(name.substring(prefix.length()),
+                   allProperties.getProperty(name).trim());
+      }
+    }
+
+    return result;
+  }
+
+}
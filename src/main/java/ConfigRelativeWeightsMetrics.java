@@ -4,10 +4,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.Properties;
 
-import lombok.Getter;
-import lombok.Setter;
-import lombok.experimental.Accessors;
-
 
 /**
 * The relative weights of timed metrics from cAdvisor for their summarization
@@ -20,89 +16,10 @@ import lombok.experimental.Accessors;
 public class ConfigRelativeWeightsMetrics {
 
   /**
-   * The relative weight of the CPU load average of the docker container
-   * for the load balancer.
-   *
-   * @param rwCpuLoadAvg New value for the relative weight of the CPU load
-   *                    average of the docker container for the load balancer.
-   * @return The current value of the relative weight of the CPU load average
-   *         of the docker container for the load balancer.
-   */
-  @Accessors(fluent = true)
-  @Getter @Setter private float rwCpuLoadAvg = 0;
-
-  /**
-   * The relative weight of the Memory Usage of the docker container for the
-   * load balancer.
-   *
-   * @param rwMemUsage New value for the relative weight of the Memory Usage
-   *                    of the docker container for the load balancer.
-   * @return The current value of the relative weight of the Memory Usage
-   *         of the docker container for the load balancer.
-   */
-  @Accessors(fluent = true)
-  @Getter @Setter private float rwMemUsage = 0;
-
-  /**
-   * The relative weight of the Network RX-Dropped of the docker container for
-   * the load balancer.
-   *
-   * @param rwRxDropped New value for the relative weight of the Network RX-
-   *                   Dropped of the docker container for the load balancer.
-   * @return The current value of the relative weight of the Network RX-Dropped
-   *         of the docker container for the load balancer.
-   */
-  @Accessors(fluent = true)
-  @Getter @Setter private float rwRxDropped = 0;
-
-  /**
-   * The relative weight of the FS IOTime (millisecs) of the docker container
-   * for the load balancer.
-   *
-   * @param rwIoTime New value for the relative weight of the FS IOTime
-   *                   of the docker container for the load balancer.
-   * @return The current value of the relative weight of the FS IOTime
-   *         of the docker container for the load balancer.
-   */
-  @Accessors(fluent = true)
-  @Getter @Setter private float rwIoTime = 0;
-
-  /**
-   * The relative weight of the FS ReadTime (millisecs) of the docker container
-   * for the load balancer.
-   *
-   * @param rwReadTime New value for the relative weight of the FS ReadTime
-   *                  of the docker container for the load balancer.
-   * @return The current value of the relative weight of the FS ReadTime
-   *         of the docker container for the load balancer.
-   */
-  @Accessors(fluent = true)
-  @Getter @Setter private float rwReadTime = 0;
-
-  /**
-   * The relative weight of the FS WriteTime (millisecs) of the docker container
-   * for the load balancer.
-   *
-   * @param rwWriteTime New value for the relative weight of the FS WriteTime
-   *                   of the docker container for the load balancer.
-   * @return The current value of the relative weight of the FS WriteTime
-   *         of the docker container for the load balancer.
-   */
-  @Accessors(fluent = true)
-  @Getter @Setter private float rwWriteTime = 0;
-
-  /**
-   * The relative weight of the FS Weighted-IO-Time (millisecs) of the docker
-   * container for the load balancer.
-   *
-   * @param rwWeightedIoTime New value for the relative weight of the FS
-   *                        Weighted-IO-Time of the docker container for the
-   *                        load balancer.
-   * @return The current value of the relative weight of the FS
-   *         Weighted-IO-Time of the docker container for the load balancer.
+   * The relative weights read from the property file, by the "rw" name of
+   * each metric declared in the MetricSchema.
    */
-  @Accessors(fluent = true)
-  @Getter @Setter private float rwWeightedIoTime = 0;
+  private final Properties relWeights = new Properties();
 
 
   /**
@@ -118,32 +35,36 @@ public class ConfigRelativeWeightsMetrics {
     try (InputStream propF = new FileInputStream(propFileName);) {
 
       prop.load(propF);
+      relWeights.putAll(prop);
+    } catch (IOException
+             | NullPointerException ex) {
+      ex.printStackTrace();
+    }
+  }
 
-      rwCpuLoadAvg =
-        Float.parseFloat(prop.getProperty("rwCpuLoadAvg", "0.8"));
-
-      rwMemUsage =
-        Float.parseFloat(prop.getProperty("rwMemUsage", "0.5"));
-
-      rwRxDropped =
-        Float.parseFloat(prop.getProperty("rwRxDropped", "0.8"));
-
-      rwIoTime =
-        Float.parseFloat(prop.getProperty("rwIoTime", "0.4"));
-
-      rwReadTime =
-        Float.parseFloat(prop.getProperty("rwReadTime", "0.2"));
-
-      rwWriteTime =
-        Float.parseFloat(prop.getProperty("rwWriteTime", "0.3"));
-
-      rwWeightedIoTime =
-        Float.parseFloat(prop.getProperty("rwWeightedIoTime", "0.2"));
+  /**
+  * Get the relative weight of a metric declared in the MetricSchema: it is
+  * the property "rw" followed by the metric name with its first letter in
+  * uppercase (e.g., "rwCpuLoadAvg" for the metric "cpuLoadAvg"), if it is in
+  * the property file, or the default weight otherwise.
+  *
+  * @param metricName the name of the metric
+  * @param defaultWeight the weight declared for the metric in the schema
+  * @return the relative weight of the metric
+  */
+  public float relativeWeight(final String metricName, float defaultWeight) {
+    String propName = "rw" + Character.toUpperCase(metricName.charAt(0))
+                      + metricName.substring(1);
+    String weight = relWeights.getProperty(propName);
+    if (weight == null) {
+      return defaultWeight;
+    }
 
-    } catch (IOException
-             | NullPointerException
-             | NumberFormatException ex) {
+    try {
+      return Float.parseFloat(weight.trim());
+    } catch (NumberFormatException ex) {
       ex.printStackTrace();
+      return defaultWeight;
     }
   }
 
@@ -0,0 +1,80 @@
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+
+/**
+* A consistent hashing ring of the members of the cluster, which assigns
+* each cAdvisor host to one member: the host goes to the first virtual node
+* of a member found clockwise from its hash. When a member joins or leaves,
+* only the hosts of its virtual nodes move.
+*
+* The hash is a 64-bit FNV-1a of the UTF-8 bytes, with a final mix, so all
+* the members (in any JVM) build the same ring from the same members.
+*
+* @author  Jose E. Nunez
+* @version 0.0.1
+* @since   2019-06-30
+*/
+public final class ConsistentHashRing {
+
+  /**
+   * The default number of virtual nodes per member.
+   */
+  public static final int DEFAULT_VIRTUAL_NODES = 128;
+
+  /**
+   * The virtual nodes: the member of each hash.
+   */
+  private final TreeMap<Long, String> nodes = new TreeMap<Long, String>();
+
+  /**
+  * Constructor.
+  *
+  * @param members the members of the ring
+  * @param virtualNodes the number of virtual nodes per member
+  */
+  public ConsistentHashRing(final Collection<String> members,
+                            int virtualNodes) {
+    for (String member: members) {
+      for (int idx = 0; idx < virtualNodes; idx++) {
+        nodes.put(hash(member + "#" + idx), member);
+      }
+    }
+  }
+
+  /**
+  * The 64-bit hash of a string.
+  *
+  * @param value the string
+  * @return its hash
+  */
+  public static long hash(final String value) {
+    long hash = 0xcbf29ce484222325L;
+    for (byte b: value.getBytes(StandardCharsets.UTF_8)) {
+      hash ^= (b & 0xff);
+      hash *= 0x100000001b3L;
+    }
+    // the finalizer of SplitMix64, to spread the similar strings
+    hash = (hash ^ (hash >>> 30)) * 0xbf58476d1ce4e5b9L;
+    hash = (hash ^ (hash >>> 27)) * 0x94d049bb133111ebL;
+    return hash ^ (hash >>> 31);
+  }
+
+  /**
+  * Get the member which owns a key (like a cAdvisor host).
+  *
+  * @param key the key
+  * @return the member, or null if the ring is empty
+  */
+  public String ownerOf(final String key) {
+    if (nodes.isEmpty()) {
+      return null;
+    }
+    Map.Entry<Long, String> node = nodes.ceilingEntry(hash(key));
+    return (node != null) ? node.getValue() : nodes.firstEntry().getValue();
+  }
+
+}
@@ -0,0 +1,657 @@
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+* The registry of the docker containers seen, which maps each docker-id,
+* once, to a dense int handle, so that all the state per container can be
+* kept in arrays indexed by the handle, instead of in hash maps keyed by the
+* 64-char docker-id.
+*
+* The docker-ids (64 hexadecimal chars) are stored as 32-byte binaries in an
+* open-addressing table with linear probing. (Other ids, e.g., from a
+* different container runtime, are also accepted, and compared as strings.)
+* The handles of the containers released are reused.
+*
+* It is not thread-safe: it is used only from the thread which queries
+* cAdvisor (or which replays the captures).
+*
+* @author  Jose E. Nunez
+* @version 0.0.1
+* @since   2019-05-26
+*/
+public final class ContainerRegistry {
+
+  /**
+   * The size of the binary form of a docker-id.
+   */
+  private static final int ID_BYTES = 32;
+
+  /**
+   * The binary form of the docker-ids, by handle (ID_BYTES per handle).
+   */
+  private byte[] binaryIds = new byte[16 * ID_BYTES];
+
+  /**
+   * Whether the docker-id of each handle has a binary form.
+   */
+  private boolean[] isBinaryId = new boolean[16];
+
+  /**
+   * The docker-ids, by handle (null if the handle is free). This is the
+   * single String instance of each docker-id, shared by all the results.
+   */
+  private String[] dockerIds = new String[16];
+
+  /**
+   * The names of the containers in the responses of cAdvisor, like
+   * "/docker/[docker-id]", by handle.
+   */
+  private String[] cAdvisorNames = new String[16];
+
+  /**
+   * The services of the containers, from their labels, by handle (null if
+   * not resolved yet, "" if they have none of the service labels).
+   */
+  private String[] serviceNames = new String[16];
+
+  /**
+   * The memory limits of the containers, from their spec, by handle (-1 if
+   * unknown or unlimited).
+   */
+  private long[] memLimits = new long[16];
+
+  /**
+   * The CPU quotas of the containers, from their spec, by handle (-1 if
+   * unknown).
+   */
+  private long[] cpuQuotas = new long[16];
+
+  /**
+   * The CPU periods of the containers, from their spec, by handle (-1 if
+   * unknown).
+   */
+  private long[] cpuPeriods = new long[16];
+
+  /**
+   * The creation times of the containers, from their spec, by handle (null
+   * if unknown): with the docker-id, the key of the spec cached.
+   */
+  private String[] creationTimes = new String[16];
+
+  /**
+   * The aliases of the containers (their names), by handle.
+   */
+  private String[][] aliases = new String[16][];
+
+  /**
+   * When the spec cached of each container expires, in nanosecs, by handle.
+   */
+  private long[] specExpiresNanos = new long[16];
+
+  /**
+   * Whether the spec of each container is cached, by handle.
+   */
+  private boolean[] specCached = new boolean[16];
+
+  /**
+   * How long the spec of a container is cached, in nanosecs (it is only
+   * parsed again from the responses of cAdvisor after then).
+   */
+  private long specTtlNanos = TimeUnit.MINUTES.toNanos(10);
+
+  /**
+   * The asynchronous logger of the changes of the specs (null: don't log
+   * them).
+   */
+  private AsyncCycleLogger cycleLogger = null;
+
+  /**
+   * The keys of the labels which give the service of a container, in order
+   * of priority.
+   */
+  private String[] serviceLabelKeys = {
+    "com.docker.swarm.service.name", "com.docker.compose.service"
+  };
+
+  /**
+   * The open-addressing table: the handle + 1 in each slot (0 is empty). Its
+   * length is a power of 2, and it is kept at most half full.
+   */
+  private int[] table = new int[32];
+
+  /**
+   * The handles released, to be reused.
+   */
+  private int[] freeHandles = new int[16];
+
+  /**
+   * The number of handles released.
+   */
+  private int numFreeHandles = 0;
+
+  /**
+   * The next handle never used.
+   */
+  private int nextHandle = 0;
+
+  /**
+   * The number of containers registered.
+   */
+  private int size = 0;
+
+  /**
+   * The binary form of the docker-id being looked up.
+   */
+  private final byte[] scratchId = new byte[ID_BYTES];
+
+  /**
+  * Converts a docker-id to its binary form.
+  *
+  * @param text the chars with the docker-id
+  * @param start the start of the docker-id in text
+  * @param end the end of the docker-id in text
+  * @param dest where to store its binary form
+  * @return true if it is a docker-id of 64 hexadecimal chars
+  */
+  private static boolean toBinary(final CharSequence text, int start, int end,
+                                  final byte[] dest) {
+    if (end - start != 2 * ID_BYTES) {
+      return false;
+    }
+    for (int i = 0; i < ID_BYTES; i++) {
+      int high = Character.digit(text.charAt(start + 2 * i), 16);
+      int low = Character.digit(text.charAt(start + 2 * i + 1), 16);
+      if (high < 0 || low < 0) {
+        return false;
+      }
+      dest[i] = (byte) ((high << 4) | low);
+    }
+    return true;
+  }
+
+  /**
+  * Spreads a hash code over the slots of the table.
+  *
+  * @param hashCode the hash code
+  * @return the spread hash code
+  */
+  private static int mix(int hashCode) {
+    int hash = hashCode * 0x9E3779B9;
+    return hash ^ (hash >>> 16);
+  }
+
+  /**
+  * The hash of a binary docker-id (its first bytes, which are random).
+  *
+  * @param bytes the array with the binary docker-id
+  * @param offset the offset of the binary docker-id in the array
+  * @return the hash
+  */
+  private static int binaryHash(final byte[] bytes, int offset) {
+    return mix((bytes[offset] & 0xff) << 24 | (bytes[offset + 1] & 0xff) << 16
+               | (bytes[offset + 2] & 0xff) << 8 | (bytes[offset + 3] & 0xff));
+  }
+
+  /**
+  * The hash of the docker-id of a registered handle.
+  *
+  * @param handle the handle
+  * @return the hash
+  */
+  private int hashOfHandle(int handle) {
+    return isBinaryId[handle] ? binaryHash(binaryIds, handle * ID_BYTES)
+                              : mix(dockerIds[handle].hashCode());
+  }
+
+  /**
+  * The same hash code as String.hashCode() of some chars.
+  *
+  * @param text the chars
+  * @param start the start of the chars in text
+  * @param end the end of the chars in text
+  * @return the hash code
+  */
+  private static int stringHashCode(final CharSequence text, int start,
+                                    int end) {
+    int hashCode = 0;
+    for (int i = start; i < end; i++) {
+      hashCode = 31 * hashCode + text.charAt(i);
+    }
+    return hashCode;
+  }
+
+  /**
+  * Whether a string is equal to some chars.
+  *
+  * @param value the string
+  * @param text the chars
+  * @param start the start of the chars in text
+  * @param end the end of the chars in text
+  * @return true if they are equal
+  */
+  private static boolean stringEquals(final String value,
+                                      final CharSequence text, int start,
+                                      int end) {
+    if (value.length() != end - start) {
+      return false;
+    }
+    for (int i = start; i < end; i++) {
+      if (value.charAt(i - start) != text.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+  * Finds the slot of the table with a docker-id, or the empty slot where it
+  * would be inserted. (The binary form of the docker-id must be in
+  * scratchId if isBinary.)
+  *
+  * @param text the chars with the docker-id
+  * @param start the start of the docker-id in text
+  * @param end the end of the docker-id in text
+  * @param isBinary whether the docker-id has a binary form
+  * @return the slot
+  */
+  private int findSlot(final CharSequence text, int start, int end,
+                       boolean isBinary) {
+    int mask = table.length - 1;
+    int slot = (isBinary ? binaryHash(scratchId, 0)
+                         : mix(stringHashCode(text, start, end))) & mask;
+
+    while (table[slot] != 0) {
+      int handle = table[slot] - 1;
+      if (isBinary) {
+        if (isBinaryId[handle]
+            && equalsScratchId(binaryIds, handle * ID_BYTES)) {
+          return slot;
+        }
+      } else if (!isBinaryId[handle]
+                 && stringEquals(dockerIds[handle], text, start, end)) {
+        return slot;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  /**
+  * Compares a binary docker-id with the one in scratchId.
+  *
+  * @param bytes the array with the binary docker-id
+  * @param offset the offset of the binary docker-id in the array
+  * @return true if both are equal
+  */
+  private boolean equalsScratchId(final byte[] bytes, int offset) {
+    for (int i = 0; i < ID_BYTES; i++) {
+      if (bytes[offset + i] != scratchId[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+  * Get the handle of a docker-id already registered.
+  *
+  * @param dockerId the docker-id
+  * @return the handle, or -1 if it is not registered
+  */
+  public int lookup(final String dockerId) {
+    int length = dockerId.length();
+    int slot = findSlot(dockerId, 0, length,
+                        toBinary(dockerId, 0, length, scratchId));
+    return table[slot] - 1;
+  }
+
+  /**
+  * Get the handle of a docker-id, registering it if it isn't yet.
+  *
+  * @param dockerId the docker-id
+  * @return the handle
+  */
+  public int register(final String dockerId) {
+    return register(dockerId, 0, dockerId.length());
+  }
+
+  /**
+  * Get the handle of a docker-id in some chars (e.g., of a response from
+  * cAdvisor), registering it if it isn't yet. (A String is only created
+  * for the docker-ids not registered yet.)
+  *
+  * @param text the chars with the docker-id
+  * @param start the start of the docker-id in text
+  * @param end the end of the docker-id in text
+  * @return the handle
+  */
+  public int register(final CharSequence text, int start, int end) {
+    boolean isBinary = toBinary(text, start, end, scratchId);
+    int slot = findSlot(text, start, end, isBinary);
+    if (table[slot] != 0) {
+      return table[slot] - 1;
+    }
+    String dockerId = text.subSequence(start, end).toString();
+
+    int handle = (numFreeHandles > 0) ? freeHandles[--numFreeHandles]
+                                      : nextHandle++;
+    if (handle >= dockerIds.length) {
+      int newLength = dockerIds.length * 2;
+      binaryIds = Arrays.copyOf(binaryIds, newLength * ID_BYTES);
+      isBinaryId = Arrays.copyOf(isBinaryId, newLength);
+      dockerIds = Arrays.copyOf(dockerIds, newLength);
+      cAdvisorNames = Arrays.copyOf(cAdvisorNames, newLength);
+      serviceNames = Arrays.copyOf(serviceNames, newLength);
+      memLimits = Arrays.copyOf(memLimits, newLength);
+      cpuQuotas = Arrays.copyOf(cpuQuotas, newLength);
+      cpuPeriods = Arrays.copyOf(cpuPeriods, newLength);
+      creationTimes = Arrays.copyOf(creationTimes, newLength);
+      aliases = Arrays.copyOf(aliases, newLength);
+      specExpiresNanos = Arrays.copyOf(specExpiresNanos, newLength);
+      specCached = Arrays.copyOf(specCached, newLength);
+    }
+
+    if (isBinary) {
+      System.arraycopy(scratchId, 0, binaryIds, handle * ID_BYTES, ID_BYTES);
+    }
+    isBinaryId[handle] = isBinary;
+    dockerIds[handle] = dockerId;
+    cAdvisorNames[handle] = "/docker/" + dockerId;
+    serviceNames[handle] = null;
+    clearSpec(handle);
+
+    table[slot] = handle + 1;
+    size++;
+    if (2 * size > table.length) {
+      rehash(table.length * 2);
+    }
+    return handle;
+  }
+
+  /**
+  * Re-inserts all the handles in a new table.
+  *
+  * @param newLength the length of the new table (a power of 2)
+  */
+  private void rehash(int newLength) {
+    int[] oldTable = table;
+    table = new int[newLength];
+    int mask = newLength - 1;
+
+    for (int entry: oldTable) {
+      if (entry != 0) {
+        int slot = hashOfHandle(entry - 1) & mask;
+        while (table[slot] != 0) {
+          slot = (slot + 1) & mask;
+        }
+        table[slot] = entry;
+      }
+    }
+  }
+
+  /**
+  * Releases the handle of a container (e.g., deleted), to be reused.
+  *
+  * @param handle the handle
+  */
+  public void release(int handle) {
+    if (!isRegistered(handle)) {
+      return;
+    }
+    int mask = table.length - 1;
+    int slot = hashOfHandle(handle) & mask;
+    while (table[slot] != handle + 1) {
+      slot = (slot + 1) & mask;
+    }
+
+    // backward-shift deletion: move back the next entries of the same
+    // probing run which can't be found anymore past the emptied slot
+    table[slot] = 0;
+    int next = (slot + 1) & mask;
+    while (table[next] != 0) {
+      int ideal = hashOfHandle(table[next] - 1) & mask;
+      if (((next - ideal) & mask) >= ((next - slot) & mask)) {
+        table[slot] = table[next];
+        table[next] = 0;
+        slot = next;
+      }
+      next = (next + 1) & mask;
+    }
+
+    dockerIds[handle] = null;
+    cAdvisorNames[handle] = null;
+    serviceNames[handle] = null;
+    clearSpec(handle);
+    if (numFreeHandles == freeHandles.length) {
+      freeHandles = Arrays.copyOf(freeHandles, freeHandles.length * 2);
+    }
+    freeHandles[numFreeHandles++] = handle;
+    size--;
+  }
+
+  /**
+  * Whether a handle is registered to a container.
+  *
+  * @param handle the handle
+  * @return true if it is registered
+  */
+  public boolean isRegistered(int handle) {
+    return handle >= 0 && handle < nextHandle && dockerIds[handle] != null;
+  }
+
+  /**
+  * Get the docker-id of a handle.
+  *
+  * @param handle the handle
+  * @return the docker-id (the same String instance for all the calls)
+  */
+  public String dockerId(int handle) {
+    return dockerIds[handle];
+  }
+
+  /**
+  * Get the name of the container of a handle in the responses of cAdvisor.
+  *
+  * @param handle the handle
+  * @return the name of the container, like "/docker/[docker-id]"
+  */
+  public String cAdvisorName(int handle) {
+    return cAdvisorNames[handle];
+  }
+
+  /**
+  * Get the service of the container of a handle.
+  *
+  * @param handle the handle
+  * @return the service, from the labels of the container (null if it
+  *         hasn't been resolved yet, "" if it has none of the service labels)
+  */
+  public String serviceName(int handle) {
+    return serviceNames[handle];
+  }
+
+  /**
+  * Set the service of the container of a handle, once resolved from its
+  * labels.
+  *
+  * @param handle the handle
+  * @param serviceName the service ("" if it has none of the service labels)
+  */
+  public void serviceName(int handle, final String serviceName) {
+    serviceNames[handle] = serviceName;
+  }
+
+  /**
+  * Forgets the spec cached of the container of a handle.
+  *
+  * @param handle the handle
+  */
+  private void clearSpec(int handle) {
+    memLimits[handle] = -1;
+    cpuQuotas[handle] = -1;
+    cpuPeriods[handle] = -1;
+    creationTimes[handle] = null;
+    aliases[handle] = null;
+    specCached[handle] = false;
+  }
+
+  /**
+  * Whether the spec of the container of a handle must be parsed from the
+  * response of cAdvisor: it is not cached, or it expired.
+  *
+  * @param handle the handle
+  * @param nowNanos the current System.nanoTime()
+  * @return true if its spec must be parsed
+  */
+  public boolean specNeedsRefresh(int handle, long nowNanos) {
+    return !specCached[handle] || nowNanos - specExpiresNanos[handle] >= 0;
+  }
+
+  /**
+  * Caches the spec of the container of a handle, just parsed from the
+  * response of cAdvisor (or from its cgroup). A change of a spec already
+  * cached is logged, in the "spec" category.
+  *
+  * @param handle the handle
+  * @param memLimit the memory limit (-1 if unknown or unlimited)
+  * @param cpuQuota the CPU quota (-1 if unknown)
+  * @param cpuPeriod the CPU period (-1 if unknown)
+  * @param creationTime the creation time (null if unknown)
+  * @param containerAliases the aliases (null if unknown)
+  * @param nowNanos the current System.nanoTime()
+  * @return true if a spec was already cached and it changed
+  */
+  public boolean spec(int handle, long memLimit, long cpuQuota,
+                      long cpuPeriod, final String creationTime,
+                      final String[] containerAliases, long nowNanos) {
+    boolean changed =
+        specCached[handle]
+        && (memLimits[handle] != memLimit || cpuQuotas[handle] != cpuQuota
+            || cpuPeriods[handle] != cpuPeriod
+            || !Objects.equals(creationTimes[handle], creationTime));
+
+    memLimits[handle] = memLimit;
+    cpuQuotas[handle] = cpuQuota;
+    cpuPeriods[handle] = cpuPeriod;
+    creationTimes[handle] = creationTime;
+    aliases[handle] = containerAliases;
+    specExpiresNanos[handle] = nowNanos + specTtlNanos;
+    specCached[handle] = true;
+
+    if (changed && cycleLogger != null) {
+      cycleLogger.log(AsyncCycleLogger.Category.SPEC, dockerIds[handle],
+                      memLimit, null);
+    }
+    return changed;
+  }
+
+  /**
+  * Get the memory limit of the container of a handle, from its spec.
+  *
+  * @param handle the handle
+  * @return the memory limit (-1 if unknown or unlimited)
+  */
+  public long memLimit(int handle) {
+    return memLimits[handle];
+  }
+
+  /**
+  * Get the CPU quota of the container of a handle, from its spec.
+  *
+  * @param handle the handle
+  * @return the CPU quota (-1 if unknown)
+  */
+  public long cpuQuota(int handle) {
+    return cpuQuotas[handle];
+  }
+
+  /**
+  * Get the CPU period of the container of a handle, from its spec.
+  *
+  * @param handle the handle
+  * @return the CPU period (-1 if unknown)
+  */
+  public long cpuPeriod(int handle) {
+    return cpuPeriods[handle];
+  }
+
+  /**
+  * Get the creation time of the container of a handle, from its spec.
+  *
+  * @param handle the handle
+  * @return the creation time, as given by cAdvisor (null if unknown)
+  */
+  public String creationTime(int handle) {
+    return creationTimes[handle];
+  }
+
+  /**
+  * Get the aliases (the names) of the container of a handle.
+  *
+  * @param handle the handle
+  * @return the aliases (null if unknown)
+  */
+  public String[] aliases(int handle) {
+    return aliases[handle];
+  }
+
+  /**
+  * Set how long the spec of a container is cached.
+  *
+  * @param ttlMillis the time to live of the spec cached, in millisecs
+  */
+  public void specTtlMillis(long ttlMillis) {
+    specTtlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+  }
+
+  /**
+  * Set the asynchronous logger of the changes of the specs.
+  *
+  * @param logger the logger (null: don't log them)
+  */
+  public void cycleLogger(final AsyncCycleLogger logger) {
+    cycleLogger = logger;
+  }
+
+  /**
+  * Get the keys of the labels which give the service of a container.
+  *
+  * @return the keys of the labels, in order of priority
+  */
+  public String[] serviceLabelKeys() {
+    return serviceLabelKeys;
+  }
+
+  /**
+  * Set the keys of the labels which give the service of a container (like
+  * "com.docker.swarm.service.name"), in order of priority.
+  *
+  * @param labelKeys the keys of the labels
+  */
+  public void serviceLabelKeys(final String[] labelKeys) {
+    serviceLabelKeys = labelKeys.clone();
+  }
+
+  /**
+  * Get the upper bound of the handles given so far (to size the arrays
+  * indexed by the handles).
+  *
+  * @return all the handles are less than this value
+  */
+  public int handleBound() {
+    return nextHandle;
+  }
+
+  /**
+  * Get the number of containers registered.
+  *
+  * @return the number of containers registered
+  */
+  public int size() {
+    return size;
+  }
+
+}
@@ -0,0 +1,208 @@
+
+import java.util.Arrays;
+
+
+/**
+* The reusable, mutable holder of the new samples of all the docker
+* containers in one response from cAdvisor, in flat primitive arrays: once
+* they have grown to the size of the responses, refilling them in each
+* cycle allocates nothing.
+*
+* The samples of each container are contiguous, oldest first, and the value
+* of the metric idx of the sample s is at values[s * numMetrics + idx].
+*
+* @author  Jose E. Nunez
+* @version 0.0.1
+* @since   2019-06-02
+*/
+public final class ContainerSampleWindows {
+
+  /**
+   * The number of metrics per sample.
+   */
+  private final int numMetrics;
+
+  /**
+   * The number of containers in the response.
+   */
+  private int numContainers = 0;
+
+  /**
+   * The handle of each container, in the order of the response.
+   */
+  private int[] handles = new int[16];
+
+  /**
+   * The memory limit of each container (-1 if unknown).
+   */
+  private long[] memLimits = new long[16];
+
+  /**
+   * The index of the first sample of each container.
+   */
+  private int[] firstSamples = new int[16];
+
+  /**
+   * The number of samples of each container.
+   */
+  private int[] numSamplesOf = new int[16];
+
+  /**
+   * The total number of samples kept.
+   */
+  private int numSamples = 0;
+
+  /**
+   * The epoch (in milliseconds) of each sample.
+   */
+  private long[] epochs = new long[256];
+
+  /**
+   * The values of the metrics of each sample.
+   */
+  private double[] values;
+
+  /**
+  * Constructor.
+  *
+  * @param numMetricsPerSample the number of metrics per sample
+  */
+  public ContainerSampleWindows(int numMetricsPerSample) {
+    numMetrics = numMetricsPerSample;
+    values = new double[epochs.length * numMetrics];
+  }
+
+  /**
+  * Empties this holder for a new response (keeping its arrays).
+  */
+  public void clear() {
+    numContainers = 0;
+    numSamples = 0;
+  }
+
+  /**
+  * Adds a container, whose samples are added next.
+  *
+  * @param handle the handle of the container
+  * @return the index of the container in this holder
+  */
+  public int addContainer(int handle) {
+    if (numContainers == handles.length) {
+      int newLength = handles.length * 2;
+      handles = Arrays.copyOf(handles, newLength);
+      memLimits = Arrays.copyOf(memLimits, newLength);
+      firstSamples = Arrays.copyOf(firstSamples, newLength);
+      numSamplesOf = Arrays.copyOf(numSamplesOf, newLength);
+    }
+    handles[numContainers] = handle;
+    memLimits[numContainers] = -1;
+    firstSamples[numContainers] = numSamples;
+    numSamplesOf[numContainers] = 0;
+    return numContainers++;
+  }
+
+  /**
+  * Starts a new sample of the last container added, with all its metrics
+  * at 0.
+  *
+  * @return the offset of the values of the sample in values()
+  */
+  public int beginSample() {
+    if (numSamples == epochs.length) {
+      int newLength = epochs.length * 2;
+      epochs = Arrays.copyOf(epochs, newLength);
+      values = Arrays.copyOf(values, newLength * numMetrics);
+    }
+    int offset = numSamples * numMetrics;
+    Arrays.fill(values, offset, offset + numMetrics, 0);
+    return offset;
+  }
+
+  /**
+  * Keeps the sample begun, as the newest one of the last container added.
+  *
+  * @param epochMilli the epoch (in milliseconds) of the sample
+  */
+  public void commitSample(long epochMilli) {
+    epochs[numSamples++] = epochMilli;
+    numSamplesOf[numContainers - 1]++;
+  }
+
+  /**
+  * Get the number of containers in this holder.
+  *
+  * @return the number of containers
+  */
+  public int numContainers() {
+    return numContainers;
+  }
+
+  /**
+  * Get the handle of a container.
+  *
+  * @param container the index of the container in this holder
+  * @return the handle of the container
+  */
+  public int handle(int container) {
+    return handles[container];
+  }
+
+  /**
+  * Get the memory limit of a container.
+  *
+  * @param container the index of the container in this holder
+  * @return the memory limit, or -1 if unknown
+  */
+  public long memLimit(int container) {
+    return memLimits[container];
+  }
+
+  /**
+  * Set the memory limit of a container.
+  *
+  * @param container the index of the container in this holder
+  * @param memLimit the memory limit
+  */
+  public void memLimit(int container, long memLimit) {
+    memLimits[container] = memLimit;
+  }
+
+  /**
+  * Get the index of the first sample of a container.
+  *
+  * @param container the index of the container in this holder
+  * @return the index of its first sample
+  */
+  public int firstSample(int container) {
+    return firstSamples[container];
+  }
+
+  /**
+  * Get the number of samples of a container.
+  *
+  * @param container the index of the container in this holder
+  * @return the number of its samples
+  */
+  public int numSamples(int container) {
+    return numSamplesOf[container];
+  }
+
+  /**
+  * Get the epochs of the samples, by sample index.
+  *
+  * @return the epochs (in milliseconds) of the samples
+  */
+  public long[] epochs() {
+    return epochs;
+  }
+
+  /**
+  * Get the values of the metrics of the samples.
+  *
+  * @return the values, at [sample * numMetrics + metric]
+  */
+  public double[] values() {
+    return values;
+  }
+
+}
@@ -16,9 +16,10 @@ import java.time.format.DateTimeFormatterBuilder;
 import java.time.format.DateTimeParseException;
 import java.time.temporal.ChronoField;
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
+import java.util.Collections;
 import java.util.List;
-import java.util.function.Function;
+import java.util.Map;
+import java.util.function.IntToLongFunction;
 
 // JSonPath
 import com.jayway.jsonpath.JsonPath;
@@ -95,34 +96,6 @@ public class ConvertDockerBodyFromCAdvisor {
     return null;
   }
 
-
-  /**
-  * A generic function to converts a JSON array of elements to a Java list.
-  *
-  * @param <T> the type that each element in the Java list will be.
-  * @param jsonFromCAdvisor the JSON array of elements.
-  * @param convertElem the conversion function of one element into T.
-  * @return the corresponding Java list Ts.
-  */
-  protected <T> List<T> convertFromCAdvisor(
-                                          final Object jsonFromCAdvisor,
-                                          final Function<Object, T> convertElem
-
-  ) {
-    List<T> results = new ArrayList<>();
-
-    if (jsonFromCAdvisor instanceof JSONArray) {
-      for (Object o: (JSONArray) jsonFromCAdvisor) {
-        T result = convertElem.apply(o);
-        if (result != null) {
-          results.add(result);
-        }
-      }
-    }
-
-    return results;
-  }
-
   /**
   * Converts the a cAdvisor timestamp (which should be a string) to epoch time
   * (in milliseconds).
@@ -134,10 +107,11 @@ public class ConvertDockerBodyFromCAdvisor {
 
     if (vcAdvisorTStamp instanceof String) {
       try {
-        Long epoch = new Long(ZonedDateTime
-                                .parse((String) vcAdvisorTStamp, dateFormatter)
-                                .toInstant()
-                                .toEpochMilli()
+        Long epoch = Long.valueOf(ZonedDateTime
+                                    .parse((String) vcAdvisorTStamp,
+                                           dateFormatter)
+                                    .toInstant()
+                                    .toEpochMilli()
                      );
         return epoch;
       } catch (DateTimeParseException e) {
@@ -151,517 +125,235 @@ public class ConvertDockerBodyFromCAdvisor {
   }
 
   /**
-  * Converts a Json object containing a Number object to a Float object.
-  *
-  * @param jsonFloat an object representing a parsed Json Float.
-  * @return the corresponding Float, or null if the argument is not a number.
-  */
-  protected Float convertJsonFloat(final Object jsonFloat) {
-    if (jsonFloat instanceof Number) {
-      Float javaFloat = new Float(((Number) jsonFloat).floatValue());
-      return javaFloat;
-    } else {
-      return null;
-    }
-  }
-
-  /**
-  * Converts a Json object containing a Number object to a Long object.
-  *
-  * @param jsonLong an object representing a parsed Json Long.
-  * @return the corresponding Long, or null if the argument is not a number.
-  */
-  protected Long convertJsonLong(final Object jsonLong) {
-    if (jsonLong instanceof Number) {
-      Long javaLong = new Long(((Number) jsonLong).longValue());
-      return javaLong;
-    } else {
-      return null;
-    }
-  }
-
-  /**
-  * Sums a Json object containing a list according to the field fieldName
-  * of elements in that list. (I.e., in: [{..., fieldName: value1, ...},
-  * {..., fieldName: value2, ...},..., {..., fieldName: valueN, ...}]: adds
-  * all the values of fieldName found in this list.)
+  * Caches in the registry the spec of a top-level container: its memory
+  * limit, CPU quota and period, creation time and aliases, read only from
+  * its own "spec" (not by a deep scan of the whole response).
   *
-  * @param jsonList an object representing a parsed Json list (array).
-  * @param fieldName the field name to sum up in the elements of jsonList.
-  * @return the corresponding Long, or null if the argument is not a number.
+  * @param nameAdvisorChild the top-level "/docker/container-id".
+  * @param registry the registry where to cache the spec.
+  * @param handle the handle of the container.
+  * @param nowNanos the current System.nanoTime().
+  * @return true if a spec was already cached and it changed.
   */
-  protected Long sumSamplesSamePeriod(final Object jsonList,
-                                      final String fieldName) {
-    if (jsonList instanceof JSONArray) {
-      long accum = 0;
-      for (Object statsSameTimePeriod: (JSONArray) jsonList) {
-        if (statsSameTimePeriod instanceof LinkedHashMap) {
-
-          Object statsForThisFilesys =
-              ((LinkedHashMap) statsSameTimePeriod).get(fieldName);
-
-          if (statsForThisFilesys instanceof Number) {
-            accum += ((Number) statsForThisFilesys).longValue();
-          }
-        }
+  protected boolean cacheSpecOfChild(final String nameAdvisorChild,
+                                     final ContainerRegistry registry,
+                                     int handle, long nowNanos) {
+    Object root = ctx.json();
+    Object advisorChild = (root instanceof Map)
+                              ? ((Map<?, ?>) root).get(nameAdvisorChild)
+                              : null;
+    Map<?, ?> child = (advisorChild instanceof Map)
+                          ? (Map<?, ?>) advisorChild : Collections.emptyMap();
+    Map<?, ?> spec = mapField(child, "spec");
+    Map<?, ?> memory = mapField(spec, "memory");
+    Map<?, ?> cpu = mapField(spec, "cpu");
+
+    Object creationTime = spec.get("creation_time");
+    String[] aliases = null;
+    if (child.get("aliases") instanceof List) {
+      List<?> names = (List<?>) child.get("aliases");
+      aliases = new String[names.size()];
+      for (int idx = 0; idx < aliases.length; idx++) {
+        Object name = names.get(idx);
+        aliases[idx] = (name instanceof String) ? (String) name : null;
       }
-      return new Long(accum);
-    }
-    return null;
-  }
-
-  /**
-  * Gets the Java list of all the stats timestamps returned by cAdvisor, as
-  * Unix epochs (in milliseconds), for a Docker container-id.
-  *
-  * @param nameAdvisorChild the value of the top-level "/docker/container-id".
-  * @return the Java list of all the stats epochs returned by cAdvisor.
-  */
-  protected List<Long> getCAdvisorTStamps(final String nameAdvisorChild) {
-    try {
-      Object samplesTimeStamps =
-          ctx.read("$.['" + nameAdvisorChild
-                   + "'].['stats'].[*].['timestamp']");
-
-      List<Long> statsTStamps =
-          convertFromCAdvisor(samplesTimeStamps,
-              obj -> convertCAdvisorDate(obj)
-          );
-      return statsTStamps;
-    } catch (PathNotFoundException e) {
-      e.printStackTrace();
-    }
-
-    return null;
-  }
-
-  /**
-  * Gets the Java list of all the Docker containers' memory limits returned
-  * by cAdvisor.
-  *
-  * @return the Java list of all the CPU Load Averages returned by cAdvisor.
-  */
-  protected List<Long> getCAdvisorMemLimit() {
-    try {
-      Object samplesMemLimit =
-          ctx.read("$..['spec'].['memory'].['limit']");
-      List<Long> statsMemLimit =
-          convertFromCAdvisor(samplesMemLimit, obj -> convertJsonLong(obj));
-      return statsMemLimit;
-    } catch (PathNotFoundException e) {
-      e.printStackTrace();
-    }
-
-    return null;
-  }
-
-  /**
-  * Gets the Java list of all the CPU Load Averages returned by cAdvisor for a
-  * Docker container-id.
-  *
-  * @param nameAdvisorChild the value of the top-level "/docker/container-id".
-  * @return the Java list of all the CPU Load Averages returned by cAdvisor.
-  */
-  protected List<Float> getCAdvisorLoadAvg(final String nameAdvisorChild) {
-    try {
-      // we prefer to use the 'cpu.load_average' stat, rather than
-      // 'cpu.usage.total' stat, because the later is a LongInt with the
-      // accumulated CPU usage since the container start-up, so we would
-      // to have take the maximum CPU limit for this container, and
-      // divide the delta of 'cpu.usage.total' by the max CPU limit for
-      // this container. This is in essence the 'cpu.load_average' stat.
-      Object samplesCpuLoadAvg =
-          ctx.read("$.['" + nameAdvisorChild
-                   + "'].['stats'].[*].['cpu'].['load_average']");
-      List<Float> statsLoadAvg =
-          convertFromCAdvisor(samplesCpuLoadAvg,
-              obj -> convertJsonFloat(obj)
-          );
-      return statsLoadAvg;
-    } catch (PathNotFoundException e) {
-      e.printStackTrace();
-    }
-
-    return null;
-  }
-
-  /**
-  * Gets the Java list of all the Memory Usages returned by cAdvisor for a
-  * Docker container-id.
-  *
-  * @param nameAdvisorChild the value of the top-level "/docker/container-id".
-  * @return the Java list of all the Memory Usages returned by cAdvisor.
-  */
-  protected List<Long> getCAdvisorMemUsage(final String nameAdvisorChild) {
-    try {
-      Object samplesMemUsages =
-          ctx.read("$.['" + nameAdvisorChild
-                   + "'].['stats'].[*].['memory'].['usage']");
-      List<Long> statsMemUsage =
-          convertFromCAdvisor(samplesMemUsages, obj -> convertJsonLong(obj));
-      return statsMemUsage;
-    } catch (PathNotFoundException e) {
-      e.printStackTrace();
-    }
-
-    return null;
-  }
-
-  /**
-  * Gets the Java list of all the Network RX-Dropped returned by cAdvisor for
-  * a Docker container-id.
-  *
-  * @param nameAdvisorChild the value of the top-level "/docker/container-id".
-  * @return the Java list of all the Network RX-Dropped returned by cAdvisor.
-  */
-  protected List<Long> getCAdvisorRxDropped(final String nameAdvisorChild) {
-    try {
-      Object samplesRxDropped =
-          ctx.read("$.['" + nameAdvisorChild
-                   + "'].['stats'].[*].['network'].['rx_dropped']");
-      List<Long> statsRxDropped =
-          convertFromCAdvisor(samplesRxDropped, obj -> convertJsonLong(obj));
-      return statsRxDropped;
-    } catch (PathNotFoundException e) {
-      e.printStackTrace();
-    }
-
-    return null;
-  }
-
-  /**
-  * Gets the Java list of all the Network RX-Bytes returned by cAdvisor for
-  * a Docker container-id.
-  *
-  * @param nameAdvisorChild the value of the top-level "/docker/container-id".
-  * @return the Java list of all the Network RX-Bytes returned by cAdvisor.
-  */
-  protected List<Long> getCAdvisorRxBytes(final String nameAdvisorChild) {
-    try {
-      Object samplesRxBytes =
-          ctx.read("$.['" + nameAdvisorChild
-                   + "'].['stats'].[*].['network'].['rx_bytes']");
-      List<Long> statsRxBytes =
-          convertFromCAdvisor(samplesRxBytes, obj -> convertJsonLong(obj));
-      return statsRxBytes;
-    } catch (PathNotFoundException e) {
-      e.printStackTrace();
     }
 
-    return null;
+    return registry.spec(handle, specLong(memory.get("limit")),
+                         specLong(cpu.get("quota")),
+                         specLong(cpu.get("period")),
+                         (creationTime instanceof String)
+                             ? (String) creationTime : null,
+                         aliases, nowNanos);
   }
 
   /**
-  * Gets the Java list of all the Network RX-Packets returned by cAdvisor for
-  * a Docker container-id.
+  * Gets a field of a Json object which is an object itself.
   *
-  * @param nameAdvisorChild the value of the top-level "/docker/container-id".
-  * @return the Java list of all the Network RX-Packets returned by cAdvisor.
+  * @param jsonMap the Json object.
+  * @param fieldName the name of the field.
+  * @return the field, or an empty map if it is not an object.
   */
-  protected List<Long> getCAdvisorRxPackets(final String nameAdvisorChild) {
-    try {
-      Object samplesRxPackets =
-          ctx.read("$.['" + nameAdvisorChild
-                   + "'].['stats'].[*].['network'].['rx_packets']");
-      List<Long> statsRxPackets =
-          convertFromCAdvisor(samplesRxPackets, obj -> convertJsonLong(obj));
-      return statsRxPackets;
-    } catch (PathNotFoundException e) {
-      e.printStackTrace();
-    }
-
-    return null;
+  private static Map<?, ?> mapField(final Map<?, ?> jsonMap,
+                                    final String fieldName) {
+    Object field = jsonMap.get(fieldName);
+    return (field instanceof Map) ? (Map<?, ?>) field
+                                  : Collections.emptyMap();
   }
 
   /**
-  * Gets the Java list of all the Network TX-Bytes returned by cAdvisor for
-  * a Docker container-id.
+  * Converts a number of the spec of a container to a long.
   *
-  * @param nameAdvisorChild the value of the top-level "/docker/container-id".
-  * @return the Java list of all the Network TX-Bytes returned by cAdvisor.
+  * @param jsonNumber the Json number.
+  * @return the number, or -1 if it is missing or doesn't fit in a long
+  *         (e.g., the memory limit "unlimited" is 2^64 - 1).
   */
-  protected List<Long> getCAdvisorTxBytes(final String nameAdvisorChild) {
-    try {
-      Object samplesTxBytes =
-          ctx.read("$.['" + nameAdvisorChild
-                   + "'].['stats'].[*].['network'].['tx_bytes']");
-      List<Long> statsTxBytes =
-          convertFromCAdvisor(samplesTxBytes, obj -> convertJsonLong(obj));
-      return statsTxBytes;
-    } catch (PathNotFoundException e) {
-      e.printStackTrace();
+  private static long specLong(final Object jsonNumber) {
+    if (!(jsonNumber instanceof Number)
+        || ((Number) jsonNumber).doubleValue() >= Long.MAX_VALUE) {
+      return -1;
     }
-
-    return null;
+    return ((Number) jsonNumber).longValue();
   }
 
   /**
-  * Gets the Java list of all the Network TX-Packets returned by cAdvisor for
-  * a Docker container-id.
+  * Gets the Java list of the measurement stats returned by cAdvisor for a
+  * top-level container name which are newer than a given epoch, with the
+  * values of the metrics of a MetricParsePlan. (The stats are looked up
+  * directly in the parsed JSON document, without compiling a JsonPath.)
   *
-  * @param nameAdvisorChild the value of the top-level "/docker/container-id".
-  * @return the Java list of all the Network TX-Packets returned by cAdvisor.
+  * @param nameAdvisorChild the top-level "/docker/container-id".
+  * @param afterEpochMilli the epoch (in milliseconds) of the last sample
+  *                        already processed (0 if none).
+  * @param plan the compiled plan of the metrics to extract.
+  * @return the Java list of such timed-stats returned by cAdvisor (empty if
+  *         there are no newer samples), or null if there are no stats.
   */
-  protected List<Long> getCAdvisorTxPackets(final String nameAdvisorChild) {
-    try {
-      Object samplesTxPackets =
-          ctx.read("$.['" + nameAdvisorChild
-                   + "'].['stats'].[*].['network'].['tx_packets']");
-      List<Long> statsTxPackets =
-          convertFromCAdvisor(samplesTxPackets, obj -> convertJsonLong(obj));
-      return statsTxPackets;
-    } catch (PathNotFoundException e) {
-      e.printStackTrace();
+  protected List<LbCAdvisorInputStat> getCAdvisorPlannedStatsOfChild(
+                                             final String nameAdvisorChild,
+                                             long afterEpochMilli,
+                                             final MetricParsePlan plan
+  ) {
+    Object root = ctx.json();
+    Object advisorChild = (root instanceof Map)
+                              ? ((Map<?, ?>) root).get(nameAdvisorChild)
+                              : null;
+    Object samples = (advisorChild instanceof Map)
+                         ? ((Map<?, ?>) advisorChild).get("stats")
+                         : null;
+    if (!(samples instanceof List)) {
+      System.err.println("ERROR: no stats for " + nameAdvisorChild);
+      return null;
     }
-
-    return null;
-  }
-
-  /**
-  * Gets the Java list of __the sum__ of all the Filesystems IO-Time returned
-  * by cAdvisor for a Docker container-id (the sum is for all the filesystems
-  * in a same timestamp sampled by cAdvisor).
-  *
-  * @param nameAdvisorChild the value of the top-level "/docker/container-id".
-  * @return the Java list of the sum of all the filesystems' IO-Times.
-  */
-  protected List<Long> getCAdvisorIoTime(final String nameAdvisorChild) {
-    try {
-      Object samplesFilesystem =
-          ctx.read("$.['" + nameAdvisorChild
-                   + "'].['stats'].[*].['filesystem']");
-      // The processing of the cAdvisor 'filesystem' stats is a little
-      // different that for 'cpu', 'memory', etc., stats, because the latter
-      // return scalars per each sample time, but 'filesystem' returns a list
-      // of the stats of all the filesystems in the Docker container per each
-      // sample time returned by cAdvisor.
-      List<Long> statsIoTime =
-          convertFromCAdvisor(samplesFilesystem,
-              obj -> sumSamplesSamePeriod(obj, "io_time")
-          );
-      return statsIoTime;
-    } catch (PathNotFoundException e) {
-      e.printStackTrace();
+    List<?> samplesList = (List<?>) samples;
+
+    // cAdvisor returns its samples oldest first: find the newer ones
+    int firstSample = samplesList.size();
+    long[] tmStamps = new long[firstSample];
+    while (firstSample > 0) {
+      Object sample = samplesList.get(firstSample - 1);
+      Long epoch = (sample instanceof Map)
+                       ? convertCAdvisorDate(((Map<?, ?>) sample)
+                                                 .get("timestamp"))
+                       : null;
+      if (epoch != null && epoch.longValue() <= afterEpochMilli) {
+        break;
+      }
+      firstSample--;
+      tmStamps[firstSample] = (epoch != null) ? epoch.longValue() : 0;
     }
 
-    return null;
-  }
-
-  /**
-  * Gets the Java list of __the sum__ of all the Filesystems Read-Time returned
-  * by cAdvisor for a Docker container-id (the sum is for all the filesystems
-  * in a same timestamp sampled by cAdvisor).
-  *
-  * @param nameAdvisorChild the value of the top-level "/docker/container-id".
-  * @return the Java list of the sum of all the filesystems' Read-Times.
-  */
-  protected List<Long> getCAdvisorReadTime(final String nameAdvisorChild) {
-    try {
-      Object samplesFilesystem =
-          ctx.read("$.['" + nameAdvisorChild
-                   + "'].['stats'].[*].['filesystem']");
-      // The processing of the cAdvisor 'filesystem' stats is a little
-      // different that for 'cpu', 'memory', etc., stats, because the latter
-      // return scalars per each sample time, but 'filesystem' returns a list
-      // of the stats of all the filesystems in the Docker container per each
-      // sample time returned by cAdvisor.
-      List<Long> statsReadTime =
-          convertFromCAdvisor(samplesFilesystem,
-              obj -> sumSamplesSamePeriod(obj, "read_time")
-          );
-      return statsReadTime;
-    } catch (PathNotFoundException e) {
-      e.printStackTrace();
-    }
+    List<LbCAdvisorInputStat> results =
+        new ArrayList<>(samplesList.size() - firstSample);
 
-    return null;
-  }
+    for (int i = firstSample; i < samplesList.size(); i++) {
+      double[] metricValues = new double[plan.numMetrics()];
+      plan.extract(samplesList.get(i), metricValues);
 
-  /**
-  * Gets the Java list of __the sum__ of all the Filesystems Write-Time returned
-  * by cAdvisor for a Docker container-id (the sum is for all the filesystems
-  * in a same timestamp sampled by cAdvisor).
-  *
-  * @param nameAdvisorChild the value of the top-level "/docker/container-id".
-  * @return the Java list of the sum of all the filesystems' Write-Times.
-  */
-  protected List<Long> getCAdvisorWriteTime(final String nameAdvisorChild) {
-    try {
-      Object samplesFilesystem =
-          ctx.read("$.['" + nameAdvisorChild
-                   + "'].['stats'].[*].['filesystem']");
-      // The processing of the cAdvisor 'filesystem' stats is a little
-      // different that for 'cpu', 'memory', etc., stats, because the latter
-      // return scalars per each sample time, but 'filesystem' returns a list
-      // of the stats of all the filesystems in the Docker container per each
-      // sample time returned by cAdvisor.
-      List<Long> statsWriteTime =
-          convertFromCAdvisor(samplesFilesystem,
-              obj -> sumSamplesSamePeriod(obj, "write_time")
-          );
-      return statsWriteTime;
-    } catch (PathNotFoundException e) {
-      e.printStackTrace();
+      results.add(new LbCAdvisorInputStat()
+                         .epochTimeStampMilli(tmStamps[i])
+                         .metricValues(metricValues)
+      );
     }
 
-    return null;
+    return results;
   }
 
   /**
-  * Gets the Java list of __the sum__ of all the Filesystems Weighted-IO-Time
-  * returned by cAdvisor for a Docker container-id (the sum is for all the
-  * filesystems in a same timestamp sampled by cAdvisor).
+  * Gets the service of a top-level container, from the first of some labels
+  * that it has (in its "spec", or at its top level).
   *
-  * @param nameAdvisorChild the value of the top-level "/docker/container-id".
-  * @return the Java list of the sum of all the filesystems' Weighted-IO-Times.
+  * @param nameAdvisorChild the top-level "/docker/container-id".
+  * @param labelKeys the keys of the labels which give the service, in
+  *                  order of priority.
+  * @return the value of the first label found, or "" if it has none.
   */
-  protected List<Long> getCAdvisorWeightedIoTime(
-                                    final String nameAdvisorChild
-  ) {
-    try {
-      Object samplesFilesystem =
-          ctx.read("$.['" + nameAdvisorChild
-                   + "'].['stats'].[*].['filesystem']");
-      // The processing of the cAdvisor 'filesystem' stats is a little
-      // different that for 'cpu', 'memory', etc., stats, because the latter
-      // return scalars per each sample time, but 'filesystem' returns a list
-      // of the stats of all the filesystems in the Docker container per each
-      // sample time returned by cAdvisor.
-      List<Long> statsWeightedIoTime =
-          convertFromCAdvisor(samplesFilesystem,
-              obj -> sumSamplesSamePeriod(obj, "weighted_io_time")
-          );
-      return statsWeightedIoTime;
-    } catch (PathNotFoundException e) {
-      e.printStackTrace();
+  protected String getServiceOfChild(final String nameAdvisorChild,
+                                     final String[] labelKeys) {
+    Object root = ctx.json();
+    Object advisorChild = (root instanceof Map)
+                              ? ((Map<?, ?>) root).get(nameAdvisorChild)
+                              : null;
+    if (!(advisorChild instanceof Map)) {
+      return "";
     }
-
-    return null;
-  }
-
-  /**
-  * Gets an index in Java list, which can contain "null" as element, so that if
-  * index in the list is a "null"-valued element, then returns instead a
-  * default value.
-  *
-  * @param <T> This is the generic type parameter of the elements in the list.
-  * @param list the list to index.
-  * @param index the index to look in the list.
-  * @param defaultVal the default value to return if the index in the list is
-  *                   null-valued element.
-  * @return the value of the list at that index, or the default value if the
-  *         the index in the list is a null-valued element.
-  */
-  protected final <T> T getSafeListElement(final List<T> list, final int index,
-                                     final T defaultVal) {
-    if (list.get(index) != null) {
-      return list.get(index);
+    Object spec = ((Map<?, ?>) advisorChild).get("spec");
+    Object[] labelsOfChild = {
+      (spec instanceof Map) ? ((Map<?, ?>) spec).get("labels") : null,
+      ((Map<?, ?>) advisorChild).get("labels")
+    };
+
+    for (String labelKey: labelKeys) {
+      for (Object labels: labelsOfChild) {
+        Object value = (labels instanceof Map)
+                           ? ((Map<?, ?>) labels).get(labelKey)
+                           : null;
+        if (value instanceof String) {
+          return (String) value;
+        }
+      }
     }
-    return defaultVal;
+    return "";
   }
 
   /**
-  * Gets the Java list of all measurement stats returned by cAdvisor for a
-  * Docker container-id.
+  * Gets the description of all the Docker containers returned by cAdvisor,
+  * with their memory limits and only their timed-stats newer than the last
+  * ones already processed for each container.
   *
-  * @param dockerId the value of the Docker container-id.
-  * @return the Java list of such timed-stats returned by cAdvisor.
+  * @param plan the compiled plan of the metrics to extract.
+  * @param registry the registry where to get the handle of each container.
+  * @param lastProcessedSample gives the epoch (in milliseconds) of the last
+  *                            sample already processed for the handle of a
+  *                            container (0 if none).
+  * @return the Java list of the Docker containers plus their newer stats,
+  *         or null if the response has no docker-ids.
   */
-  public List<LbCAdvisorInputStat> getCAdvisorCpuMemStats(
-                                                    final String dockerId
+  public List<DockerContainerPlusStats> getDockerContainersPlusStats(
+                         final MetricParsePlan plan,
+                         final ContainerRegistry registry,
+                         final IntToLongFunction lastProcessedSample
   ) {
 
-    String nameAdvisorChild = "/docker/" + dockerId;
-
-    List<Long> tmStamps = getCAdvisorTStamps(nameAdvisorChild);
-    List<Float> cpuLoadAvgs = getCAdvisorLoadAvg(nameAdvisorChild);
-    List<Long> memUsages = getCAdvisorMemUsage(nameAdvisorChild);
-    List<Long> rxDroppeds = getCAdvisorRxDropped(nameAdvisorChild);
-    List<Long> rxBytess = getCAdvisorRxBytes(nameAdvisorChild);
-    List<Long> rxPacketss = getCAdvisorRxPackets(nameAdvisorChild);
-    List<Long> txBytess = getCAdvisorTxBytes(nameAdvisorChild);
-    List<Long> txPacketss = getCAdvisorTxPackets(nameAdvisorChild);
-    List<Long> ioTimeTotals = getCAdvisorIoTime(nameAdvisorChild);
-    List<Long> readTimeTotals = getCAdvisorReadTime(nameAdvisorChild);
-    List<Long> writeTimeTotals = getCAdvisorWriteTime(nameAdvisorChild);
-    List<Long> weigtedIoTimeTotals =
-        getCAdvisorWeightedIoTime(nameAdvisorChild);
-
-    int numTStamps = tmStamps.size();
-    if (numTStamps != cpuLoadAvgs.size()
-        || numTStamps != memUsages.size()
-        || numTStamps != rxDroppeds.size()
-        || numTStamps != rxBytess.size()
-        || numTStamps != rxPacketss.size()
-        || numTStamps != txBytess.size()
-        || numTStamps != txPacketss.size()
-        || numTStamps != ioTimeTotals.size()
-        || numTStamps != readTimeTotals.size()
-        || numTStamps != writeTimeTotals.size()
-        || numTStamps != weigtedIoTimeTotals.size()) {
+    List<String> dockerIds = getDockerId();
+    if (dockerIds == null) {
       return null;
     }
 
-    List<LbCAdvisorInputStat> results = new ArrayList<>(numTStamps);
-
-    Long defaultLongVal = new Long(0);
-    Float defaultFloatVal = new Float(0);
-
-    for (int i = 0; i < numTStamps; i++) {
-      long tmStamp =
-          getSafeListElement(tmStamps, i, defaultLongVal).longValue();
-
-      float cpuLoadAvg =
-          getSafeListElement(cpuLoadAvgs, i, defaultFloatVal).floatValue();
-
-      long memUsage =
-          getSafeListElement(memUsages, i, defaultLongVal).longValue();
-
-      long rxDropped =
-          getSafeListElement(rxDroppeds, i, defaultLongVal).longValue();
-
-      long rxBytes =
-          getSafeListElement(rxBytess, i, defaultLongVal).longValue();
-
-      long rxPackets =
-          getSafeListElement(rxPacketss, i, defaultLongVal).longValue();
-
-      long txBytes =
-          getSafeListElement(txBytess, i, defaultLongVal).longValue();
-
-      long txPackets =
-          getSafeListElement(txPacketss, i, defaultLongVal).longValue();
-
-      long ioTime =
-          getSafeListElement(ioTimeTotals, i, defaultLongVal).longValue();
-
-      long readTime =
-          getSafeListElement(readTimeTotals, i, defaultLongVal).longValue();
-
-      long writeTime =
-          getSafeListElement(writeTimeTotals, i, defaultLongVal).longValue();
+    ArrayList<DockerContainerPlusStats> dockerDescripts =
+        new ArrayList<DockerContainerPlusStats>(dockerIds.size());
+    long nowNanos = System.nanoTime();
+
+    for (int idx = 0; idx < dockerIds.size(); idx++) {
+      int handle = registry.register(dockerIds.get(idx));
+      if (registry.specNeedsRefresh(handle, nowNanos)
+          || registry.serviceName(handle) == null) {
+        // the spec and labels of a container don't change while it lives:
+        // read them only for a new one, or when its spec cached expires
+        cacheSpecOfChild(registry.cAdvisorName(handle), registry, handle,
+                         nowNanos);
+        registry.serviceName(handle,
+                             getServiceOfChild(registry.cAdvisorName(handle),
+                                               registry.serviceLabelKeys()));
+      }
+      List<LbCAdvisorInputStat> dockerStats =
+          getCAdvisorPlannedStatsOfChild(
+              registry.cAdvisorName(handle),
+              lastProcessedSample.applyAsLong(handle),
+              plan
+          );
 
-      long weightedIoTime =
-          getSafeListElement(weigtedIoTimeTotals, i, defaultLongVal)
-            .longValue();
+      DockerContainerPlusStats dockerDescription =
+          new DockerContainerPlusStats()
+               .dockerId(registry.dockerId(handle))
+               .handle(handle)
+               .memLimit(registry.memLimit(handle))
+               .dockerStats(dockerStats);
 
-      results.add(new LbCAdvisorInputStat()
-                         .epochTimeStampMilli(tmStamp)
-                         .cpuLoadAvg(cpuLoadAvg)
-                         .memUsage(memUsage)
-                         .rxDropped(rxDropped)
-                         .rxBytes(rxBytes)
-                         .rxPackets(rxPackets)
-                         .txBytes(txBytes)
-                         .txPackets(txPackets)
-                         .ioTime(ioTime)
-                         .readTime(readTime)
-                         .writeTime(writeTime)
-                         .weightedIoTime(weightedIoTime)
-      );
+      dockerDescripts.add(idx, dockerDescription);
     }
 
-    return results;
+    return dockerDescripts;
   }
 
 }
@@ -0,0 +1,64 @@
+
+// JSON-simple
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+
+/**
+* Parse and convert the response body from cAdvisor REST query
+* "/api/v1.3/machine".
+*
+* @author  Jose E. Nunez
+* @version 0.0.1
+* @since   2019-04-21
+*/
+public class ConvertMachineBodyFromCAdvisor {
+
+  /**
+  * the parsed JSON object of the machine stats (or null if it couldn't be
+  * parsed).
+  */
+  private Object machineStats = null;
+
+  /**
+  * Instance constructor.
+  *
+  * @param strMachStats the string with the [JSON] body of the
+  *                     /api/m.n/machine response from cAdvisor
+  */
+  public ConvertMachineBodyFromCAdvisor(final String strMachStats) {
+    JSONParser parser = new JSONParser();
+    try {
+      machineStats = parser.parse(strMachStats);
+    } catch (ParseException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+  * Get the parsed machine stats returned by cAdvisor.
+  *
+  * @return the parsed JSON object, or null if it couldn't be parsed.
+  */
+  public Object getMachineStats() {
+    return machineStats;
+  }
+
+  /**
+  * Get the memory capacity of the machine returned by cAdvisor.
+  *
+  * @return the memory capacity, or -1 if it is not known.
+  */
+  public long getMemoryCapacity() {
+    if (machineStats instanceof JSONObject) {
+      Object memCapacity =
+          ((JSONObject) machineStats).get("memory_capacity");
+      if (memCapacity != null && memCapacity instanceof Number) {
+        return ((Number) memCapacity).longValue();
+      }
+    }
+    return -1;
+  }
+
+}
@@ -0,0 +1,114 @@
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+* The staged pipeline of the cycles of queries to cAdvisor: fetch, parse,
+* score and publish, each stage with its own threads, connected by bounded
+* queues. So the fetch of the next cycle (or of the container of an event)
+* overlaps the parse and scoring of the previous one, and a slow parse
+* doesn't delay the next fetch (until the queues are full, when the
+* previous stages block: the backpressure).
+*
+* Only the parse stage can have several threads (parsing a response only
+* builds its own JSON tree); the score stage has a single thread, as it
+* owns the state of the scorer, and the works are scored and published in
+* the order they were fetched.
+*
+* @author  Jose E. Nunez
+* @version 0.0.1
+* @since   2019-06-16
+*/
+public final class CyclePipeline {
+
+  /**
+   * The stages, in order.
+   */
+  private final List<CyclePipelineStage> stages;
+
+  /**
+   * The sequence number of the next work submitted (only used by the thread
+   * which submits them).
+   */
+  private long nextSeq = 0;
+
+  /**
+  * Constructor.
+  *
+  * @param queueCapacity the capacity of the input queue of each stage
+  * @param numParseThreads the number of threads of the parse stage
+  * @param fetch the processing of the fetch stage
+  * @param parse the processing of the parse stage
+  * @param score the processing of the score stage
+  * @param publish the processing of the publish stage
+  */
+  public CyclePipeline(int queueCapacity, int numParseThreads,
+                       final CyclePipelineStage.Processor fetch,
+                       final CyclePipelineStage.Processor parse,
+                       final CyclePipelineStage.Processor score,
+                       final CyclePipelineStage.Processor publish) {
+    stages = Collections.unmodifiableList(Arrays.asList(
+        new CyclePipelineStage("fetch", queueCapacity, 1, fetch),
+        new CyclePipelineStage("parse", queueCapacity, numParseThreads,
+                               parse),
+        new CyclePipelineStage("score", queueCapacity, 1, score),
+        new CyclePipelineStage("publish", queueCapacity, 1, publish)
+    ));
+
+    for (int idx = 0; idx + 1 < stages.size(); idx++) {
+      stages.get(idx).setNext(stages.get(idx + 1));
+    }
+  }
+
+  /**
+  * Starts the threads of all the stages.
+  */
+  public void start() {
+    for (CyclePipelineStage stage: stages) {
+      stage.start();
+    }
+  }
+
+  /**
+  * Stops the threads of all the stages.
+  */
+  public void stop() {
+    for (CyclePipelineStage stage: stages) {
+      stage.stop();
+    }
+  }
+
+  /**
+  * Submits a new work to the fetch stage, blocking while its queue is full
+  * (only called from a single thread).
+  *
+  * @param work the work (a full cycle, or the event of a container)
+  * @throws InterruptedException the thread was interrupted while blocked
+  */
+  public void submit(final CycleWork work) throws InterruptedException {
+    work.seq(nextSeq++);
+    stages.get(0).submit(work);
+  }
+
+  /**
+  * Samples the occupancy of all the stages (called once per cycle, from a
+  * single thread).
+  */
+  public void sampleOccupancy() {
+    for (CyclePipelineStage stage: stages) {
+      stage.sampleOccupancy();
+    }
+  }
+
+  /**
+  * Get the stages, with their metrics.
+  *
+  * @return the stages, in order
+  */
+  public List<CyclePipelineStage> stages() {
+    return stages;
+  }
+
+}
@@ -0,0 +1,307 @@
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+* A stage of the pipeline of the cycles of queries to cAdvisor: a pool of
+* threads which take the works from a bounded input queue, process them, and
+* hand them to the next stage in the same order they arrived (so a stage can
+* have several threads, e.g., to parse, and the next one still sees the
+* works in order). When the input queue of a stage is full, the previous
+* stage blocks on it: this is the backpressure of the pipeline.
+*
+* It also keeps the metrics of the stage: the depth of its queue, how many
+* works it processed, how many times the previous stage blocked on its full
+* queue, and the fraction of the time its threads were busy (occupancy).
+*
+* @author  Jose E. Nunez
+* @version 0.0.1
+* @since   2019-06-16
+*/
+public final class CyclePipelineStage {
+
+  /**
+  * The processing of a work by a stage.
+  */
+  public interface Processor {
+
+    /**
+    * Processes a work, filling in the fields of this stage.
+    *
+    * @param work the work
+    * @throws IOException the work couldn't be processed
+    */
+    void process(CycleWork work) throws IOException;
+  }
+
+  /**
+   * The name of the stage (in its metrics and in its threads).
+   */
+  private final String name;
+
+  /**
+   * The bounded input queue of the stage.
+   */
+  private final BlockingQueue<CycleWork> input;
+
+  /**
+   * The capacity of the input queue.
+   */
+  private final int queueCapacity;
+
+  /**
+   * The threads of the stage.
+   */
+  private final Thread[] workers;
+
+  /**
+   * The processing of the works.
+   */
+  private final Processor processor;
+
+  /**
+   * The next stage (null: this is the last one).
+   */
+  private CyclePipelineStage next = null;
+
+  /**
+   * The sequence number of the next work to hand to the next stage (guarded
+   * by the monitor of the workers array).
+   */
+  private long nextSeqToForward = 0;
+
+  /**
+   * The total time the threads of the stage were busy, in nanosecs.
+   */
+  private final AtomicLong busyNanos = new AtomicLong();
+
+  /**
+   * The number of works processed.
+   */
+  private final AtomicLong numProcessed = new AtomicLong();
+
+  /**
+   * The number of times the previous stage blocked because the input queue
+   * was full.
+   */
+  private final AtomicLong numBlockedSubmits = new AtomicLong();
+
+  /**
+   * When the occupancy was last sampled, in nanosecs.
+   */
+  private long lastSampleNanos = System.nanoTime();
+
+  /**
+   * The busy time at the last sample, in nanosecs.
+   */
+  private long lastSampleBusyNanos = 0;
+
+  /**
+   * The occupancy of the stage between the last two samples, per mille.
+   */
+  private volatile int occupancyPerMille = 0;
+
+  /**
+  * Constructor.
+  *
+  * @param stageName the name of the stage
+  * @param capacity the capacity of the input queue
+  * @param numThreads the number of threads of the stage
+  * @param stageProcessor the processing of the works
+  */
+  public CyclePipelineStage(final String stageName, int capacity,
+                            int numThreads, final Processor stageProcessor) {
+    name = stageName;
+    queueCapacity = Math.max(capacity, 1);
+    input = new ArrayBlockingQueue<CycleWork>(queueCapacity);
+    processor = stageProcessor;
+
+    workers = new Thread[Math.max(numThreads, 1)];
+    for (int idx = 0; idx < workers.length; idx++) {
+      workers[idx] = new Thread(this::runWorker,
+                                "CyclePipelineStage: " + name + " #" + idx);
+      workers[idx].setDaemon(true);
+    }
+  }
+
+  /**
+  * Sets the next stage, where the works processed are handed to.
+  *
+  * @param nextStage the next stage
+  */
+  public void setNext(final CyclePipelineStage nextStage) {
+    next = nextStage;
+  }
+
+  /**
+  * Starts the threads of the stage.
+  */
+  public void start() {
+    for (Thread worker: workers) {
+      worker.start();
+    }
+  }
+
+  /**
+  * Stops the threads of the stage (the works still queued are dropped).
+  */
+  public void stop() {
+    for (Thread worker: workers) {
+      worker.interrupt();
+    }
+  }
+
+  /**
+  * Puts a work in the input queue, blocking while it is full. (The works
+  * must be submitted in the order of their sequence numbers.)
+  *
+  * @param work the work
+  * @throws InterruptedException the thread was interrupted while blocked
+  */
+  public void submit(final CycleWork work) throws InterruptedException {
+    if (!input.offer(work)) {
+      numBlockedSubmits.incrementAndGet();
+      input.put(work);
+    }
+  }
+
+  /**
+  * The loop of each thread of the stage.
+  */
+  private void runWorker() {
+    try {
+      while (true) {
+        CycleWork work = input.take();
+
+        long start = System.nanoTime();
+        try {
+          processor.process(work);
+        } catch (IOException | RuntimeException ex) {
+          // the work still goes on, so that the next stages aren't stalled
+          // waiting for its sequence number
+          ex.printStackTrace();
+        }
+        busyNanos.addAndGet(System.nanoTime() - start);
+        numProcessed.incrementAndGet();
+
+        forward(work);
+      }
+    } catch (InterruptedException ex) {
+      ex.printStackTrace();
+    }
+  }
+
+  /**
+  * Hands a work processed to the next stage, after all the previous works.
+  *
+  * @param work the work
+  * @throws InterruptedException the thread was interrupted while waiting
+  */
+  private void forward(final CycleWork work) throws InterruptedException {
+    synchronized (workers) {
+      while (work.seq() != nextSeqToForward) {
+        workers.wait();
+      }
+      if (next != null) {
+        next.submit(work);
+      }
+      nextSeqToForward++;
+      workers.notifyAll();
+    }
+  }
+
+  /**
+  * Samples the occupancy of the stage since the last sample (called from a
+  * single thread, once per cycle).
+  */
+  public void sampleOccupancy() {
+    long now = System.nanoTime();
+    long busy = busyNanos.get();
+    long elapsed = (now - lastSampleNanos) * workers.length;
+    if (elapsed > 0) {
+      occupancyPerMille =
+          (int) Math.min(1000, (busy - lastSampleBusyNanos) * 1000 / elapsed);
+    }
+    lastSampleNanos = now;
+    lastSampleBusyNanos = busy;
+  }
+
+  /**
+  * Get the name of the stage.
+  *
+  * @return the name of the stage
+  */
+  public String name() {
+    return name;
+  }
+
+  /**
+  * Get the number of works waiting in the input queue.
+  *
+  * @return the depth of the input queue
+  */
+  public int queueDepth() {
+    return input.size();
+  }
+
+  /**
+  * Get the capacity of the input queue.
+  *
+  * @return the capacity of the input queue
+  */
+  public int queueCapacity() {
+    return queueCapacity;
+  }
+
+  /**
+  * Get the number of threads of the stage.
+  *
+  * @return the number of threads
+  */
+  public int numThreads() {
+    return workers.length;
+  }
+
+  /**
+  * Get the number of works processed.
+  *
+  * @return the number of works processed
+  */
+  public long numProcessed() {
+    return numProcessed.get();
+  }
+
+  /**
+  * Get the number of times the previous stage blocked on the full queue.
+  *
+  * @return the number of blocked submits
+  */
+  public long numBlockedSubmits() {
+    return numBlockedSubmits.get();
+  }
+
+  /**
+  * Get the occupancy of the stage between the last two samples.
+  *
+  * @return the fraction of the time its threads were busy, per mille
+  */
+  public int occupancyPerMille() {
+    return occupancyPerMille;
+  }
+
+  @Override
+  public String toString() {
+    return new StringBuilder(96)
+                 .append("queueDepth=").append(queueDepth())
+                 .append('/').append(queueCapacity)
+                 .append(" threads=").append(workers.length)
+                 .append(" occupancy=").append(occupancyPerMille)
+                 .append("/1000 processed=").append(numProcessed())
+                 .append(" blockedSubmits=").append(numBlockedSubmits())
+                 .toString();
+  }
+
+}
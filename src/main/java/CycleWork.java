@@ -0,0 +1,119 @@
+
+import java.util.List;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.experimental.Accessors;
+
+
+/**
+* The unit of work which flows through the stages of a cycle of queries to
+* cAdvisor (fetch, parse, score and publish): either a full cycle, or the
+* creation or deletion event of a docker container. Each stage fills in its
+* own fields, and it's handed to the next stage through a bounded queue.
+*
+* @author  Jose E. Nunez
+* @version 0.0.1
+* @since   2019-06-16
+*/
+public class CycleWork {
+
+  /**
+   * The sequence number of this work, in the order it was fetched (the
+   * order in which it's scored and published).
+   *
+   * @param seq New sequence number of this work.
+   * @return The current sequence number of this work.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private long seq = 0;
+
+  /**
+   * The event of the docker container, or null if this work is a full cycle
+   * of queries.
+   *
+   * @param event New event of this work.
+   * @return The current event of this work.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private CAdvisorContainerEvent event = null;
+
+  /**
+   * Whether the fetch stage didn't query cAdvisor, because the circuit
+   * breaker of the host is open (the last good final metrics are served).
+   *
+   * @param fetchSkipped New whether the queries were skipped.
+   * @return The current whether the queries were skipped.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private boolean fetchSkipped = false;
+
+  /**
+   * The raw body of the "/api/v1.3/machine" response (fetch stage).
+   *
+   * @param machineBody New body of the machine stats.
+   * @return The current body of the machine stats.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private String machineBody = null;
+
+  /**
+   * The raw body of the "/api/v1.3/docker" response, or of the one of the
+   * container of the event (fetch stage).
+   *
+   * @param dockerBody New body of the docker stats.
+   * @return The current body of the docker stats.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private String dockerBody = null;
+
+  /**
+   * The parsed machine stats (parse stage).
+   *
+   * @param machineStats New parsed machine stats.
+   * @return The current parsed machine stats.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private ConvertMachineBodyFromCAdvisor machineStats = null;
+
+  /**
+   * The parsed docker stats (parse stage; in the allocation-free mode the
+   * docker stats of a full cycle are parsed in the score stage instead).
+   *
+   * @param dockerStats New parsed docker stats.
+   * @return The current parsed docker stats.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private ConvertDockerBodyFromCAdvisor dockerStats = null;
+
+  /**
+   * The memory capacity of the machine (score stage).
+   *
+   * @param machineMemCapacity New memory capacity of the machine.
+   * @return The current memory capacity of the machine.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private long machineMemCapacity = -1;
+
+  /**
+   * The final metrics for the load balancer to publish, an unmodifiable list
+   * (score stage; null: there is nothing to publish).
+   *
+   * @param lbResultStats New final metrics to publish.
+   * @return The current final metrics to publish.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private List<LbCAdvisorResultStat> lbResultStats = null;
+
+  /**
+   * The Java Flight Recorder event of this full cycle, begun in its fetch
+   * stage and committed at the end of its publish stage (null: it is
+   * disabled, or this work is the event of a container).
+   *
+   * @param jfrCycle New JFR event of this cycle.
+   * @return The current JFR event of this cycle.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private JfrCycleEvent jfrCycle = null;
+
+}
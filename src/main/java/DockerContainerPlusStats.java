@@ -26,6 +26,16 @@ public class DockerContainerPlusStats {
   @Accessors(fluent = true)
   @Getter @Setter private String dockerId = null;
 
+  /**
+   * The handle of this docker container in the ContainerRegistry (-1 if it
+   * hasn't been registered).
+   *
+   * @param handle New handle of this docker container.
+   * @return The current handle of this container.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private int handle = -1;
+
   /**
    * The memory limit of this docker container.
    *
@@ -50,20 +60,19 @@ public class DockerContainerPlusStats {
 
     StringBuilder result = new StringBuilder();
 
-    result.append(String.format("%s %s\n", dockerId(), memLimit()));
+    result.append(dockerId()).append(' ').append(memLimit()).append('\n');
 
     List<LbCAdvisorInputStat> stats = dockerStats();
 
     stats.forEach(stat -> {
-      result.append(String.format("%d: %f %d %d %d %d %d %d\n",
-                                  stat.epochTimeStampMilli(),
-                                  // Values of the metrics sampled then:
-                                  stat.cpuLoadAvg(), stat.memUsage(),
-                                  stat.rxDropped(), stat.ioTime(),
-                                  stat.readTime(), stat.writeTime(),
-                                  stat.weightedIoTime()
-                                 )
-      );
+      // the metrics of the MetricSchema, by their dense index
+      result.append(stat.epochTimeStampMilli()).append(':');
+      if (stat.metricValues() != null) {
+        for (double metricValue: stat.metricValues()) {
+          result.append(' ').append(metricValue);
+        }
+      }
+      result.append('\n');
     });
 
     return result.toString();
@@ -0,0 +1,722 @@
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+* Summarizes the timed-statistics of the Docker containers returned by
+* cAdvisor into the single scalar load factor given to the load-balancer.
+* (This is separated from the thread which queries cAdvisor so that the
+* same scoring can be applied to responses from cAdvisor that were captured
+* before, e.g., to replay them with other relative weights.)
+*
+* @author  Jose E. Nunez
+* @version 0.0.1
+* @since   2019-04-21
+*/
+public class DockerLoadFactorScorer {
+
+  /**
+   * The compiled schema of the metrics from cAdvisor about a docker
+   * container, with their relative weights for their summarization into a
+   * single metric to return to the load balancer.
+   */
+  private final MetricParsePlan parsePlan;
+
+  /**
+   * The registry of the docker containers seen, whose handles index the
+   * arrays below.
+   */
+  private final ContainerRegistry registry = new ContainerRegistry();
+
+  /**
+   * The timestamp of the last sample processed, by container handle (0 if
+   * none: the samples already processed in the previous query to cAdvisor,
+   * which returns overlapping windows of samples, are skipped).
+   */
+  private long[] lastSampleEpochMillis = new long[16];
+
+  /**
+   * The last load factor, by container handle.
+   */
+  private int[] lastLoadFactors = new int[16];
+
+  /**
+   * The last values of the metrics of kind COUNTER, by container handle and
+   * the dense index of each metric in the MetricParsePlan (at
+   * [handle * numMetrics + idx]; the other entries are unused). These
+   * accumulative counters don't start at 0 in each sampling interval (e.g.,
+   * "network.rxBytes"), so their increments are taken from these values.
+   */
+  private double[] lastCounterValues;
+
+  /**
+   * The values of the metrics which gave the last load factor, before they
+   * were weighted, by container handle (at [handle * numMetrics + idx]).
+   */
+  private double[] lastMetricValues;
+
+  /**
+   * The epochs of the samples of the container being scored by
+   * scoreContainer() (reused, in the layout of ContainerSampleWindows).
+   */
+  private long[] scratchEpochs = new long[64];
+
+  /**
+   * The values of the metrics of the samples of the container being scored
+   * by scoreContainer() (reused, in the layout of ContainerSampleWindows).
+   */
+  private double[] scratchValues;
+
+  /**
+   * The number of the last call to scoreContainers() or scoreWindows().
+   */
+  private int scoringCycle = 0;
+
+  /**
+   * The number of the last call to scoreContainers() or scoreWindows() in
+   * which each container handle was scored (to release the handles of the
+   * containers which are not returned by cAdvisor anymore).
+   */
+  private int[] lastScoringCycles = new int[16];
+
+  /**
+   * The store of the history of the samples and load factors (null: none).
+   */
+  private MetricHistoryStore metricHistory = null;
+
+  /**
+   * The normalizer of the metrics relative to the fleet, before they are
+   * weighted (null: the metrics are weighted in their own units).
+   */
+  private FleetMetricNormalizer fleetNormalizer = null;
+
+  /**
+   * The values of the metrics of the containers scored together, before
+   * they are weighted (reused, at [container * numMetrics + idx]).
+   */
+  private double[] metricValues;
+
+  /**
+   * The index in the windows of each container whose metrics are in
+   * metricValues (reused).
+   */
+  private int[] metricContainers = new int[16];
+
+  /**
+   * The windows where scoreContainers() gathers the samples of all the
+   * containers to normalize them together (created on first use).
+   */
+  private ContainerSampleWindows batchWindows = null;
+
+  /**
+  * Constructor.
+  *
+  * @param metricParsePlan the compiled schema of the metrics, with their
+  *                        relative weights to use in the summarization.
+  */
+  public DockerLoadFactorScorer(final MetricParsePlan metricParsePlan) {
+    parsePlan = metricParsePlan;
+
+    lastCounterValues =
+      new double[lastSampleEpochMillis.length * parsePlan.numMetrics()];
+    lastMetricValues =
+      new double[lastSampleEpochMillis.length * parsePlan.numMetrics()];
+    scratchValues = new double[scratchEpochs.length * parsePlan.numMetrics()];
+    metricValues = new double[metricContainers.length
+                              * parsePlan.numMetrics()];
+  }
+
+  /**
+  * Grows the arrays indexed by the container handles to hold a handle.
+  *
+  * @param handle the container handle
+  */
+  private void ensureCapacity(int handle) {
+    if (handle < lastSampleEpochMillis.length) {
+      return;
+    }
+    int newLength = Math.max(handle + 1, lastSampleEpochMillis.length * 2);
+    lastSampleEpochMillis = Arrays.copyOf(lastSampleEpochMillis, newLength);
+    lastLoadFactors = Arrays.copyOf(lastLoadFactors, newLength);
+    lastScoringCycles = Arrays.copyOf(lastScoringCycles, newLength);
+    lastCounterValues = Arrays.copyOf(lastCounterValues,
+                                      newLength * parsePlan.numMetrics());
+    lastMetricValues = Arrays.copyOf(lastMetricValues,
+                                     newLength * parsePlan.numMetrics());
+  }
+
+  /**
+  * Get the simplified, overall load factor of a Docker container, from
+  * the list of its samples.
+  *
+  * @param dockerDescript the docker container and its statistics
+  * @param machineMemCapacity the memory capacity of this machine
+  * @param handle the handle of the container, which indexes the last,
+  *               previous values for some accumulative stats for it
+  * @return the overall load factor of this Docker container
+  * @see #overallLoadFactor(int, long, long, long[], double[], int, int)
+  */
+  protected int overallLoadFactor(
+                    final DockerContainerPlusStats dockerDescript,
+                    long machineMemCapacity,
+                    int handle
+  ) {
+    List<LbCAdvisorInputStat> dockerStats = dockerDescript.dockerStats();
+    int numSamples = (dockerStats != null) ? dockerStats.size() : 0;
+    int numMetrics = parsePlan.numMetrics();
+
+    if (numSamples > scratchEpochs.length) {
+      scratchEpochs = new long[numSamples];
+      scratchValues = new double[numSamples * numMetrics];
+    }
+    for (int sample = 0; sample < numSamples; sample++) {
+      LbCAdvisorInputStat stat = dockerStats.get(sample);
+      scratchEpochs[sample] = stat.epochTimeStampMilli();
+      System.arraycopy(stat.metricValues(), 0, scratchValues,
+                       sample * numMetrics, numMetrics);
+    }
+
+    long memLimit = (dockerDescript.memLimit() != null)
+                        ? dockerDescript.memLimit().longValue() : -1;
+
+    return overallLoadFactor(handle, memLimit, machineMemCapacity,
+                             scratchEpochs, scratchValues, 0, numSamples);
+  }
+
+  /**
+  * Get the simplified, overall load factor of a Docker container.
+  * (Greater values of this simplified, overall measure means greater current
+  * load in the Docker container, so the less probable, relatively, it should
+  * be chosen for the next service requests.)
+  *
+  * @param handle the handle of the container, which indexes the last,
+  *               previous values for some accumulative stats for it
+  * @param memLimit the memory limit of the container (-1 if unknown)
+  * @param machineMemCapacity the memory capacity of this machine
+  * @param epochs the epochs of the samples (see ContainerSampleWindows)
+  * @param values the values of the metrics of the samples
+  * @param firstSample the index of the first sample of the container
+  * @param numSamples the number of new samples of the container
+  * @return a non-negative int value with the simplified, overall load factor
+  *         of this Docker container (an int in "DISPLAY-HINT d-3" in IETF
+  *         RFC 2579)
+  */
+
+  // the current version snmp4j doesn't seem to support CounterBasedGauge64 in
+  // IETF RFC 2856, and this is why we need to return an int instead of
+  // returning a long
+  protected int overallLoadFactor(int handle, long memLimit,
+                                  long machineMemCapacity,
+                                  final long[] epochs, final double[] values,
+                                  int firstSample, int numSamples) {
+    // TODO:
+    // We only take the average of the samples in the time-period returned by
+    // cAdvisor. Probably a more powerful method could be using an ARIMA
+    // [AutoRegressive Integrated Moving Average] estimate.
+    // (E.g., using https://github.com/signaflo/java-timeseries#features)
+
+    if (numSamples == 0) {
+      // no new samples since the last query to cAdvisor: the load factor
+      // is the same one
+      return lastLoadFactors[handle];
+    }
+
+    computeMetricValues(handle, memLimit, machineMemCapacity, epochs, values,
+                        firstSample, numSamples, metricValues, 0);
+    if (fleetNormalizer != null) {
+      // a container scored alone doesn't update the statistics of the fleet
+      fleetNormalizer.normalize(metricValues, 0, 1, false);
+    }
+    return weightedLoadFactor(handle, metricValues, 0, epochs, values,
+                              firstSample, numSamples);
+  }
+
+  /**
+  * Computes the values of the metrics of the new samples of a Docker
+  * container, in their own units, before they are weighted: the average of
+  * each gauge, and the increment of each accumulative counter, normalized
+  * as given by the schema (remembering the last values of the counters for
+  * the next call).
+  *
+  * @param handle the handle of the container
+  * @param memLimit the memory limit of the container (-1 if unknown)
+  * @param machineMemCapacity the memory capacity of this machine
+  * @param epochs the epochs of the samples (see ContainerSampleWindows)
+  * @param values the values of the metrics of the samples
+  * @param firstSample the index of the first sample of the container
+  * @param numSamples the number of new samples of the container (not 0)
+  * @param out where to store the values of the metrics, by dense index
+  * @param outOffset the offset of the values in out
+  */
+  protected void computeMetricValues(int handle, long memLimit,
+                                     long machineMemCapacity,
+                                     final long[] epochs,
+                                     final double[] values,
+                                     int firstSample, int numSamples,
+                                     final double[] out, int outOffset) {
+    // whether there are last values of the accumulative counters of this
+    // container (otherwise, they are taken from the oldest sample)
+    long lastSampleEpochMilli = lastSampleEpochMillis[handle];
+    boolean hasLastValues = (lastSampleEpochMilli != 0);
+
+    int numMetrics = parsePlan.numMetrics();
+    int countersBase = handle * numMetrics;
+
+    // we need to normalize the memory metrics to the memory capacity
+    // (a memory limit which is not positive, e.g., "unlimited" wrapped to
+    // -1, is unknown)
+    long minDockerMemCapacity = 1;
+    if (machineMemCapacity > 0 && memLimit > 0) {
+      minDockerMemCapacity = Math.min(machineMemCapacity, memLimit);
+    } else if (machineMemCapacity > 0) {
+      minDockerMemCapacity = machineMemCapacity;
+    } else if (memLimit > 0) {
+      minDockerMemCapacity = memLimit;
+    }
+
+    int latestSample = firstSample + numSamples - 1;
+    int latestBase = latestSample * numMetrics;
+    int oldestBase = firstSample * numMetrics;
+
+    // the time elapsed for the increments of the accumulative counters
+    long elapsedMillis = epochs[latestSample]
+                         - (hasLastValues
+                                ? lastSampleEpochMilli
+                                : epochs[firstSample]);
+
+    for (int idx = 0; idx < numMetrics; idx++) {
+      double metricVal;
+
+      if (parsePlan.kind(idx) == MetricDefinition.Kind.GAUGE) {
+        // we only take the average of the samples
+        double sum = 0.0;
+        for (int base = oldestBase; base <= latestBase; base += numMetrics) {
+          sum += values[base + idx];
+        }
+        metricVal = sum / numSamples;
+      } else {
+        double latestVal = values[latestBase + idx];
+        if (!hasLastValues) {
+          metricVal = latestVal - values[oldestBase + idx];
+        } else {
+          metricVal = latestVal - lastCounterValues[countersBase + idx];
+        }
+        lastCounterValues[countersBase + idx] = latestVal;
+      }
+
+      switch (parsePlan.normalization(idx)) {
+        case MEM_CAPACITY_PERCENT:
+          metricVal /= (minDockerMemCapacity / 100.0);  // normalize to 100%
+          break;
+        case PER_SECOND:
+          metricVal = (elapsedMillis > 0)
+                          ? metricVal * 1000.0 / elapsedMillis : 0.0;
+          break;
+        case NANOS_PERCENT:
+          // nanosecs / (millisecs * 10^6) * 100%
+          metricVal = (elapsedMillis > 0)
+                          ? metricVal / (elapsedMillis * 1.0e4) : 0.0;
+          break;
+        default:
+          break;
+      }
+
+      out[outOffset + idx] = metricVal;
+    }
+
+    // the percentages of other metrics, once those are normalized
+    if (parsePlan.hasPercentOf()) {
+      for (int idx = 0; idx < numMetrics; idx++) {
+        int baseIdx = parsePlan.percentOf(idx);
+        if (baseIdx >= 0) {
+          double base = out[outOffset + baseIdx];
+          out[outOffset + idx] = (base > 0)
+                                     ? out[outOffset + idx] * 100.0 / base
+                                     : 0.0;
+        }
+      }
+    }
+
+    lastSampleEpochMillis[handle] = epochs[latestSample];
+  }
+
+  /**
+  * Get the load factor of a Docker container from the values of its
+  * metrics, weighted by their relative weights, and remember it.
+  *
+  * @param handle the handle of the container
+  * @param metricVals the values of the metrics of the container (see
+  *                   computeMetricValues())
+  * @param metricOffset the offset of the values in metricVals
+  * @param epochs the epochs of the samples, for the metric history
+  * @param values the values of the metrics of the samples, for the history
+  * @param firstSample the index of the first sample of the container
+  * @param numSamples the number of new samples of the container
+  * @return the load factor of the container
+  */
+  protected int weightedLoadFactor(int handle, final double[] metricVals,
+                                   int metricOffset, final long[] epochs,
+                                   final double[] values, int firstSample,
+                                   int numSamples) {
+    int numMetrics = parsePlan.numMetrics();
+    double doubleVal = 0.0;
+    for (int idx = 0; idx < numMetrics; idx++) {
+      doubleVal += parsePlan.weight(idx) * metricVals[metricOffset + idx];
+    }
+    System.arraycopy(metricVals, metricOffset, lastMetricValues,
+                     handle * numMetrics, numMetrics);
+
+    // convert the double value above to an int value in the format
+    // "DISPLAY-HINT d-3"
+    // Note: long values are not supported yet since the TEXTUAL-CONVENTION
+    // CounterBasedGauge64 in IETF RFC 285 doesn't seem to be supported by
+    // the current version of snmp4j
+
+    int intVal = (int) (doubleVal * 1000);  // * 1000 = DISPLAY-HINT d-3
+    if (intVal < 0) {
+      System.err.println(
+          String.format("WARN: The overall, summarized load factor for a "
+                        + "Docker container returned a negative value: %d. "
+                        + "Truncating it to zero (0) for Gauge32 "
+                        + "in RFC 2578 doesn't support negatives.", intVal)
+      );
+      intVal = 0;
+    }
+
+    lastLoadFactors[handle] = intVal;
+
+    if (metricHistory != null) {
+      metricHistory.append(registry.dockerId(handle), epochs, values,
+                           firstSample, numSamples, intVal);
+    }
+    return intVal;
+  }
+
+  /**
+  * Sets the store where the new samples of each container, and the load
+  * factor they gave, are appended.
+  *
+  * @param history the store (null: don't keep the history)
+  */
+  public void setMetricHistory(final MetricHistoryStore history) {
+    metricHistory = history;
+  }
+
+  /**
+  * Sets the normalizer of the metrics relative to the fleet: the metrics of
+  * all the containers scored together (by scoreContainers() or
+  * scoreWindows()) update the statistics of the fleet, and each one is
+  * weighted once normalized by them.
+  *
+  * @param normalizer the normalizer (null: weight the metrics in their own
+  *                   units)
+  */
+  public void setFleetNormalizer(final FleetMetricNormalizer normalizer) {
+    fleetNormalizer = normalizer;
+  }
+
+  /**
+  * Get the compiled schema of the metrics used by this scorer.
+  *
+  * @return the compiled schema of the metrics
+  */
+  public MetricParsePlan getParsePlan() {
+    return parsePlan;
+  }
+
+  /**
+  * Get the registry of the docker containers, whose handles are used by
+  * this scorer.
+  *
+  * @return the registry of the docker containers
+  */
+  public ContainerRegistry getRegistry() {
+    return registry;
+  }
+
+  /**
+  * Get the epoch of the last sample already processed for a Docker
+  * container, so that only newer samples need to be parsed from cAdvisor.
+  *
+  * @param handle the handle of the docker container
+  * @return the epoch (in milliseconds) of the last sample processed for this
+  *         container, or 0 if none
+  */
+  public long lastProcessedEpochMilli(int handle) {
+    return (handle < lastSampleEpochMillis.length)
+               ? lastSampleEpochMillis[handle] : 0;
+  }
+
+  /**
+  * Forgets the memory of the last values of a Docker container (e.g., when
+  * the container is deleted).
+  *
+  * @param dockerId the docker container-id
+  */
+  public void forgetContainer(final String dockerId) {
+    int handle = registry.lookup(dockerId);
+    if (handle >= 0) {
+      forgetContainer(handle);
+    }
+  }
+
+  /**
+  * Forgets the memory of the last values of a Docker container, and
+  * releases its handle.
+  *
+  * @param handle the handle of the docker container
+  */
+  protected void forgetContainer(int handle) {
+    if (metricHistory != null) {
+      metricHistory.closeSeries(registry.dockerId(handle));
+    }
+    if (handle < lastSampleEpochMillis.length) {
+      lastSampleEpochMillis[handle] = 0;
+      lastLoadFactors[handle] = 0;
+    }
+    registry.release(handle);
+  }
+
+  /**
+  * Get the overall load factor of a Docker container, remembering the last
+  * values of its accumulative counters for the next call.
+  *
+  * @param dockerDescript the docker container and its statistics
+  * @param machineMemCapacity the memory capacity of this machine
+  * @return the overall load factor of this Docker container
+  * @see #overallLoadFactor
+  */
+  public int scoreContainer(final DockerContainerPlusStats dockerDescript,
+                            long machineMemCapacity) {
+
+    int handle = dockerDescript.handle();
+    if (!registry.isRegistered(handle)) {
+      // TODO: we need to take care as well of the case when the values of
+      //       the previous-stats are found, but they are too old (see
+      //       lastSampleEpochMillis), in which case it could be wise to
+      //       discard such old previous stat-values.
+      handle = registry.register(dockerDescript.dockerId());
+      dockerDescript.handle(handle);
+    }
+    ensureCapacity(handle);
+    lastScoringCycles[handle] = scoringCycle;
+
+    return overallLoadFactor(dockerDescript, machineMemCapacity, handle);
+  }
+
+  /**
+  * Get the overall load factor of all the Docker containers of one response
+  * from cAdvisor.
+  *
+  * @param dockerDescripts the docker containers and their statistics
+  * @param machineMemCapacity the memory capacity of this machine
+  * @return the list of results for the load balancer, one per container
+  */
+  public List<LbCAdvisorResultStat> scoreContainers(
+                    final List<DockerContainerPlusStats> dockerDescripts,
+                    long machineMemCapacity
+  ) {
+    List<LbCAdvisorResultStat> lbResultStats =
+        new ArrayList<LbCAdvisorResultStat>(dockerDescripts.size());
+
+    if (fleetNormalizer != null) {
+      // the containers are normalized together: score them in windows
+      scoreWindows(toBatchWindows(dockerDescripts), machineMemCapacity);
+      for (DockerContainerPlusStats dockerDescript: dockerDescripts) {
+        int handle = dockerDescript.handle();
+        lbResultStats.add(new LbCAdvisorResultStat()
+                               .dockerId(registry.dockerId(handle))
+                               .lbFinalStat(lastLoadFactors[handle])
+                               .service(registry.serviceName(handle)));
+      }
+      return lbResultStats;
+    }
+
+    scoringCycle++;
+    for (DockerContainerPlusStats dockerDescript: dockerDescripts) {
+      int currDockerLoadFactor =
+          scoreContainer(dockerDescript, machineMemCapacity);
+
+      lbResultStats.add(new LbCAdvisorResultStat()
+                             .dockerId(registry.dockerId(
+                                           dockerDescript.handle()
+                                       ))
+                             .lbFinalStat(currDockerLoadFactor)
+                             .service(registry.serviceName(
+                                          dockerDescript.handle()
+                                      )));
+    }
+
+    releaseUnscoredContainers();
+
+    return lbResultStats;
+  }
+
+  /**
+  * Get the overall load factor of all the Docker containers of one response
+  * from cAdvisor parsed into reusable windows of samples, without
+  * allocating anything (see lastLoadFactor() for the results).
+  *
+  * @param windows the new samples of each container in the response
+  * @param machineMemCapacity the memory capacity of this machine
+  */
+  public void scoreWindows(final ContainerSampleWindows windows,
+                           long machineMemCapacity) {
+    if (fleetNormalizer != null) {
+      scoreNormalizedWindows(windows, machineMemCapacity);
+      return;
+    }
+
+    scoringCycle++;
+    for (int container = 0; container < windows.numContainers();
+         container++) {
+      int handle = windows.handle(container);
+      ensureCapacity(handle);
+      lastScoringCycles[handle] = scoringCycle;
+
+      overallLoadFactor(handle, windows.memLimit(container),
+                        machineMemCapacity,
+                        windows.epochs(), windows.values(),
+                        windows.firstSample(container),
+                        windows.numSamples(container));
+    }
+
+    releaseUnscoredContainers();
+  }
+
+  /**
+  * Scores the containers in some windows with their metrics normalized
+  * relative to the fleet: first the metrics of all of them are computed,
+  * which update the statistics of the fleet, and then each one is weighted
+  * once normalized. (The containers without new samples keep their last
+  * load factor, and don't count in the statistics.)
+  *
+  * @param windows the new samples of each container
+  * @param machineMemCapacity the memory capacity of this machine
+  */
+  protected void scoreNormalizedWindows(final ContainerSampleWindows windows,
+                                        long machineMemCapacity) {
+    int numMetrics = parsePlan.numMetrics();
+    int numComputed = 0;
+
+    scoringCycle++;
+    for (int container = 0; container < windows.numContainers();
+         container++) {
+      int handle = windows.handle(container);
+      ensureCapacity(handle);
+      lastScoringCycles[handle] = scoringCycle;
+      if (windows.numSamples(container) == 0) {
+        continue;
+      }
+
+      if (numComputed == metricContainers.length) {
+        metricContainers = Arrays.copyOf(metricContainers, numComputed * 2);
+        metricValues = Arrays.copyOf(metricValues,
+                                     numComputed * 2 * numMetrics);
+      }
+      computeMetricValues(handle, windows.memLimit(container),
+                          machineMemCapacity, windows.epochs(),
+                          windows.values(), windows.firstSample(container),
+                          windows.numSamples(container),
+                          metricValues, numComputed * numMetrics);
+      metricContainers[numComputed++] = container;
+    }
+
+    fleetNormalizer.normalize(metricValues, 0, numComputed, true);
+
+    for (int idx = 0; idx < numComputed; idx++) {
+      int container = metricContainers[idx];
+      weightedLoadFactor(windows.handle(container), metricValues,
+                         idx * numMetrics, windows.epochs(), windows.values(),
+                         windows.firstSample(container),
+                         windows.numSamples(container));
+    }
+
+    releaseUnscoredContainers();
+  }
+
+  /**
+  * Gathers the samples of some docker containers into the reusable
+  * batchWindows, registering the containers not registered yet.
+  *
+  * @param dockerDescripts the docker containers and their statistics
+  * @return the windows with their samples
+  */
+  protected ContainerSampleWindows toBatchWindows(
+                final List<DockerContainerPlusStats> dockerDescripts
+  ) {
+    int numMetrics = parsePlan.numMetrics();
+    if (batchWindows == null) {
+      batchWindows = new ContainerSampleWindows(numMetrics);
+    }
+    batchWindows.clear();
+
+    for (DockerContainerPlusStats dockerDescript: dockerDescripts) {
+      if (!registry.isRegistered(dockerDescript.handle())) {
+        dockerDescript.handle(registry.register(dockerDescript.dockerId()));
+      }
+      int container = batchWindows.addContainer(dockerDescript.handle());
+      if (dockerDescript.memLimit() != null) {
+        batchWindows.memLimit(container,
+                              dockerDescript.memLimit().longValue());
+      }
+      if (dockerDescript.dockerStats() == null) {
+        continue;
+      }
+      for (LbCAdvisorInputStat stat: dockerDescript.dockerStats()) {
+        int offset = batchWindows.beginSample();
+        System.arraycopy(stat.metricValues(), 0, batchWindows.values(),
+                         offset, numMetrics);
+        batchWindows.commitSample(stat.epochTimeStampMilli());
+      }
+    }
+    return batchWindows;
+  }
+
+  /**
+  * Get the last load factor calculated for a Docker container.
+  *
+  * @param handle the handle of the docker container
+  * @return its last load factor
+  */
+  public int lastLoadFactor(int handle) {
+    return lastLoadFactors[handle];
+  }
+
+  /**
+  * Get the values of the metrics which gave the last load factor of a
+  * Docker container, before they were weighted (normalized relative to the
+  * fleet, if they are).
+  *
+  * @param handle the handle of the docker container
+  * @param out where to store the values, by dense index
+  * @return false if the container wasn't scored yet (out is unchanged)
+  */
+  public boolean lastMetricValues(int handle, final double[] out) {
+    if (handle >= lastSampleEpochMillis.length
+        || lastSampleEpochMillis[handle] == 0) {
+      return false;
+    }
+    int numMetrics = parsePlan.numMetrics();
+    System.arraycopy(lastMetricValues, handle * numMetrics, out, 0,
+                     numMetrics);
+    return true;
+  }
+
+  /**
+  * Forgets the containers not returned by cAdvisor in the last call to
+  * scoreContainers() or scoreWindows(), releasing their handles.
+  */
+  protected void releaseUnscoredContainers() {
+    for (int handle = 0; handle < registry.handleBound(); handle++) {
+      if (registry.isRegistered(handle)
+          && (handle >= lastScoringCycles.length
+              || lastScoringCycles[handle] != scoringCycle)) {
+        forgetContainer(handle);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,263 @@
+
+/**
+* Normalizes the metrics of the docker containers relative to the fleet,
+* before they are weighted into their load factors: instead of their raw
+* units (a load average, a percentage of memory, dropped packets per second,
+* milliseconds of I/O...), which make the relative weights depend on the
+* hardware, each metric of a container is scored from 0 to 100 by where it
+* stands among the same metric of all the containers scored:
+*
+* <ul>
+*   <li>"minmax": by its position between the minimum and the maximum of the
+*       metric in the fleet (0 at the minimum, 100 at the maximum);</li>
+*   <li>"zscore": by its z-score against the mean and the standard deviation
+*       of the metric in the fleet, as the percentile of a normal
+*       distribution (50 at the mean), so that one outlier doesn't squash
+*       all the others, like it does with minmax.</li>
+* </ul>
+*
+* The statistics of each metric are updated with each cycle scored, as an
+* exponentially weighted moving average (of weight fleetNormalizationAlpha
+* for the newest cycle), so that a host with few containers still sees the
+* spread of the metrics over time, and one instance can be shared by the
+* threads of all the cAdvisor hosts of this agent.
+*
+* It is thread-safe.
+*
+* @author  Jose E. Nunez
+* @version 0.0.1
+* @since   2019-07-07
+*/
+public final class FleetMetricNormalizer {
+
+  /**
+  * The methods of normalization.
+  */
+  public enum Method {
+    /** By the position between the minimum and the maximum. */
+    MIN_MAX,
+    /** By the percentile of the z-score. */
+    Z_SCORE
+  }
+
+  /**
+   * The spread under which all the values of a metric are taken as equal.
+   */
+  private static final double MIN_SPREAD = 1e-12;
+
+  /**
+   * The method of normalization.
+   */
+  private final Method method;
+
+  /**
+   * The weight of the newest cycle in the moving averages of the statistics.
+   */
+  private final double alpha;
+
+  /**
+   * The number of metrics per container.
+   */
+  private final int numMetrics;
+
+  /**
+   * The moving average of the minimum of each metric, by dense index.
+   */
+  private final double[] mins;
+
+  /**
+   * The moving average of the maximum of each metric, by dense index.
+   */
+  private final double[] maxs;
+
+  /**
+   * The moving average of the mean of each metric, by dense index.
+   */
+  private final double[] means;
+
+  /**
+   * The moving average of the variance of each metric, by dense index.
+   */
+  private final double[] variances;
+
+  /**
+   * Whether the statistics were updated with some cycle yet.
+   */
+  private boolean initialized = false;
+
+  /**
+  * Constructor.
+  *
+  * @param normalizationMethod the method of normalization
+  * @param newestWeight the weight of the newest cycle in the moving
+  *                     averages of the statistics (from 0 to 1; 1: only the
+  *                     last cycle)
+  * @param numMetricsPerContainer the number of metrics per container
+  */
+  public FleetMetricNormalizer(final Method normalizationMethod,
+                               double newestWeight,
+                               int numMetricsPerContainer) {
+    method = normalizationMethod;
+    alpha = Math.min(1.0, Math.max(0.0, newestWeight));
+    numMetrics = numMetricsPerContainer;
+    mins = new double[numMetrics];
+    maxs = new double[numMetrics];
+    means = new double[numMetrics];
+    variances = new double[numMetrics];
+  }
+
+  /**
+  * Creates the normalizer given by the settings of this agent.
+  *
+  * @param config the settings, with "fleetNormalization" and
+  *               "fleetNormalizationAlpha"
+  * @param numMetricsPerContainer the number of metrics per container
+  * @return the normalizer, or null if the metrics aren't normalized
+  */
+  public static FleetMetricNormalizer fromConfig(
+                    final ConfigLbDockerCAdvisor config,
+                    int numMetricsPerContainer
+  ) {
+    String name = config.fleetNormalization();
+    Method normalizationMethod;
+    if ("minmax".equalsIgnoreCase(name)) {
+      normalizationMethod = Method.MIN_MAX;
+    } else if ("zscore".equalsIgnoreCase(name)) {
+      normalizationMethod = Method.Z_SCORE;
+    } else {
+      if (!name.isEmpty() && !"none".equalsIgnoreCase(name)) {
+        System.err.println("ERROR: unknown fleetNormalization " + name
+                           + ". Not normalizing the metrics.");
+      }
+      return null;
+    }
+    return new FleetMetricNormalizer(normalizationMethod,
+                                     config.fleetNormalizationAlpha(),
+                                     numMetricsPerContainer);
+  }
+
+  /**
+  * Get the method of normalization.
+  *
+  * @return the method
+  */
+  public Method method() {
+    return method;
+  }
+
+  /**
+  * Normalizes, in place, the metrics of some containers scored together,
+  * optionally updating the statistics of the fleet with them first.
+  *
+  * @param values the metrics of the containers, at
+  *               [offset + container * numMetrics + idx]
+  * @param offset the offset of the metrics of the first container
+  * @param numContainers the number of containers
+  * @param update whether to update the statistics with these containers
+  *               (false for a container scored alone, out of the cycles)
+  */
+  public synchronized void normalize(final double[] values, int offset,
+                                     int numContainers, boolean update) {
+    if (numContainers == 0) {
+      return;
+    }
+    if (update) {
+      updateStatistics(values, offset, numContainers);
+    }
+
+    int end = offset + numContainers * numMetrics;
+    for (int idx = 0; idx < numMetrics; idx++) {
+      for (int pos = offset + idx; pos < end; pos += numMetrics) {
+        values[pos] = initialized ? 100.0 * normalized(idx, values[pos])
+                                  : 50.0;
+      }
+    }
+  }
+
+  /**
+  * Updates the moving averages of the statistics of each metric with the
+  * metrics of some containers.
+  *
+  * @param values the metrics of the containers
+  * @param offset the offset of the metrics of the first container
+  * @param numContainers the number of containers
+  */
+  private void updateStatistics(final double[] values, int offset,
+                                int numContainers) {
+    int end = offset + numContainers * numMetrics;
+    for (int idx = 0; idx < numMetrics; idx++) {
+      double min = Double.POSITIVE_INFINITY;
+      double max = Double.NEGATIVE_INFINITY;
+      double sum = 0.0;
+      for (int pos = offset + idx; pos < end; pos += numMetrics) {
+        min = Math.min(min, values[pos]);
+        max = Math.max(max, values[pos]);
+        sum += values[pos];
+      }
+      double mean = sum / numContainers;
+      double sumSquares = 0.0;
+      for (int pos = offset + idx; pos < end; pos += numMetrics) {
+        sumSquares += (values[pos] - mean) * (values[pos] - mean);
+      }
+      double variance = sumSquares / numContainers;
+
+      if (!initialized) {
+        mins[idx] = min;
+        maxs[idx] = max;
+        means[idx] = mean;
+        variances[idx] = variance;
+      } else {
+        // the spread of the means between the cycles counts in the variance
+        double meanShift = mean - means[idx];
+        mins[idx] += alpha * (min - mins[idx]);
+        maxs[idx] += alpha * (max - maxs[idx]);
+        means[idx] += alpha * meanShift;
+        variances[idx] = (1 - alpha) * (variances[idx]
+                                        + alpha * meanShift * meanShift)
+                         + alpha * variance;
+      }
+    }
+    initialized = true;
+  }
+
+  /**
+  * Normalizes a value of a metric with the statistics of the fleet.
+  *
+  * @param idx the dense index of the metric
+  * @param value the value
+  * @return the normalized value, from 0 to 1
+  */
+  private double normalized(int idx, double value) {
+    if (method == Method.MIN_MAX) {
+      double spread = maxs[idx] - mins[idx];
+      if (spread < MIN_SPREAD) {
+        return 0.5;
+      }
+      return Math.min(1.0, Math.max(0.0, (value - mins[idx]) / spread));
+    }
+
+    double stdDev = Math.sqrt(variances[idx]);
+    if (stdDev < MIN_SPREAD) {
+      return 0.5;
+    }
+    return normalCdf((value - means[idx]) / stdDev);
+  }
+
+  /**
+  * The cumulative distribution function of the standard normal distribution
+  * (by the approximation 7.1.26 of the error function in Abramowitz and
+  * Stegun, with an error under 1.5e-7).
+  *
+  * @param z the z-score
+  * @return the probability of a value under z
+  */
+  protected static double normalCdf(double z) {
+    double x = Math.abs(z) / Math.sqrt(2.0);
+    double t = 1.0 / (1.0 + 0.3275911 * x);
+    double erf = 1.0 - (((((1.061405429 * t - 1.453152027) * t + 1.421413741)
+                           * t - 0.284496736) * t + 0.254829592) * t)
+                       * Math.exp(-x * x);
+    return (z >= 0) ? 0.5 * (1.0 + erf) : 0.5 * (1.0 - erf);
+  }
+
+}
@@ -0,0 +1,186 @@
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+* A snapshot of the final metrics of the cAdvisor hosts collected by a
+* member of the cluster, which it sends to the other members, so that each
+* one can serve the table of the whole fleet. Its compact binary format
+* is:
+*
+* <pre>
+*   snapshot:  int magic ("LBWS"), byte version, UTF member,
+*              long epochMilli, int numHosts, numHosts x host
+*   host:      UTF host, int numContainers, numContainers x container
+*   container: docker-id (see BinaryDockerIds), int loadFactor,
+*              UTF service ("" if none), byte ejectionState
+* </pre>
+*
+* @author  Jose E. Nunez
+* @version 0.0.1
+* @since   2019-06-30
+*/
+public final class FleetWeightSnapshot {
+
+  /**
+   * The magic number of the snapshots ("LBWS").
+   */
+  private static final int MAGIC = 0x4C425753;
+
+  /**
+   * The version of the format of the snapshots.
+   */
+  private static final byte VERSION = 2;
+
+  /**
+   * The maximum number of hosts, or of containers per host, accepted.
+   */
+  private static final int MAX_ENTRIES = 1 << 20;
+
+  /**
+   * The member which collected the hosts.
+   */
+  private final String member;
+
+  /**
+   * When the snapshot was taken.
+   */
+  private final long epochMilli;
+
+  /**
+   * The final metrics, by host (unmodifiable lists).
+   */
+  private final Map<String, List<LbCAdvisorResultStat>> resultsByHost;
+
+  /**
+  * Constructor.
+  *
+  * @param fromMember the member which collected the hosts
+  * @param takenEpochMilli when the snapshot was taken
+  * @param results the final metrics, by host (unmodifiable lists)
+  */
+  public FleetWeightSnapshot(final String fromMember, long takenEpochMilli,
+                             final Map<String, List<LbCAdvisorResultStat>>
+                                 results) {
+    member = fromMember;
+    epochMilli = takenEpochMilli;
+    resultsByHost = Collections.unmodifiableMap(results);
+  }
+
+  /**
+  * Get the member which collected the hosts.
+  *
+  * @return the address of the member
+  */
+  public String member() {
+    return member;
+  }
+
+  /**
+  * Get when the snapshot was taken.
+  *
+  * @return the epoch, in milliseconds
+  */
+  public long epochMilli() {
+    return epochMilli;
+  }
+
+  /**
+  * Get the final metrics, by host.
+  *
+  * @return the final metrics of each host
+  */
+  public Map<String, List<LbCAdvisorResultStat>> resultsByHost() {
+    return resultsByHost;
+  }
+
+  /**
+  * Writes the snapshot in its binary format.
+  *
+  * @param output where to write it
+  * @throws IOException it couldn't be written
+  */
+  public void writeTo(final DataOutputStream output) throws IOException {
+    output.writeInt(MAGIC);
+    output.writeByte(VERSION);
+    output.writeUTF(member);
+    output.writeLong(epochMilli);
+    output.writeInt(resultsByHost.size());
+
+    for (Map.Entry<String, List<LbCAdvisorResultStat>> host:
+             resultsByHost.entrySet()) {
+      output.writeUTF(host.getKey());
+      output.writeInt(host.getValue().size());
+      for (LbCAdvisorResultStat lbResultStat: host.getValue()) {
+        BinaryDockerIds.write(output, lbResultStat.dockerId());
+        output.writeInt(lbResultStat.lbFinalStat());
+        output.writeUTF((lbResultStat.service() != null)
+                            ? lbResultStat.service() : "");
+        output.writeByte(lbResultStat.ejectionState().code());
+      }
+    }
+  }
+
+  /**
+  * Reads a snapshot in its binary format.
+  *
+  * @param input where to read it from
+  * @return the snapshot
+  * @throws IOException it couldn't be read, or it isn't a valid snapshot
+  */
+  public static FleetWeightSnapshot readFrom(final DataInputStream input)
+      throws IOException {
+    if (input.readInt() != MAGIC || input.readByte() != VERSION) {
+      throw new IOException("Not a weight snapshot of a known version");
+    }
+    String member = input.readUTF();
+    long epochMilli = input.readLong();
+
+    int numHosts = readCount(input);
+    Map<String, List<LbCAdvisorResultStat>> results =
+        new LinkedHashMap<String, List<LbCAdvisorResultStat>>(2 * numHosts);
+
+    for (int hostIdx = 0; hostIdx < numHosts; hostIdx++) {
+      String host = input.readUTF();
+      int numContainers = readCount(input);
+      List<LbCAdvisorResultStat> lbResultStats =
+          new ArrayList<LbCAdvisorResultStat>(numContainers);
+
+      for (int idx = 0; idx < numContainers; idx++) {
+        lbResultStats.add(new LbCAdvisorResultStat()
+                               .dockerId(BinaryDockerIds.read(input))
+                               .lbFinalStat(input.readInt())
+                               .service(input.readUTF())
+                               .ejectionState(OutlierEjector.State.fromCode(
+                                                  input.readByte()))
+                               .host(host));
+      }
+      results.put(host, Collections.unmodifiableList(lbResultStats));
+    }
+    return new FleetWeightSnapshot(member, epochMilli, results);
+  }
+
+  /**
+  * Reads a number of entries, checking it is sane.
+  *
+  * @param input where to read it from
+  * @return the number of entries
+  * @throws IOException it couldn't be read, or it is out of range
+  */
+  private static int readCount(final DataInputStream input)
+      throws IOException {
+    int count = input.readInt();
+    if (count < 0 || count > MAX_ENTRIES) {
+      throw new IOException("Invalid number of entries: " + count);
+    }
+    return count;
+  }
+
+}
@@ -0,0 +1,277 @@
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+* A responder to the HAProxy "agent-check" probes: a single-threaded NIO
+* server which listens on the agent address and port of each backend server,
+* and answers each probe with the weight of the docker container of that
+* backend, like "75%\n", converted from its last load factor, and closes the
+* connection. For example, for:
+*
+* <pre>
+*   # lb_docker_cadvisor.properties
+*   agentCheckBackend.cfc0fb6f62f9=0.0.0.0:9001
+*
+*   # haproxy.cfg
+*   server web1 10.0.0.5:80 check agent-check agent-port 9001 agent-inter 2s
+* </pre>
+*
+* The replies are pre-rendered when the load factors are published, so a
+* probe is answered from memory, without any parsing nor formatting.
+*
+* @author  Jose E. Nunez
+* @version 0.0.1
+* @since   2019-05-19
+*/
+public final class HaproxyAgentCheckServer extends Thread
+    implements LbResultStatsSink {
+
+  /**
+   * The reply when the load factor of the container is not known yet: an
+   * empty line, which leaves the state and weight of the server unchanged.
+   */
+  private static final ByteBuffer NO_CHANGE_REPLY =
+      ByteBuffer.wrap("\n".getBytes(StandardCharsets.US_ASCII))
+                .asReadOnlyBuffer();
+
+  /**
+   * The reply when the container is fully loaded.
+   */
+  private static final ByteBuffer DRAIN_REPLY =
+      ByteBuffer.wrap("drain\n".getBytes(StandardCharsets.US_ASCII))
+                .asReadOnlyBuffer();
+
+  /**
+   * The load factor (in the "d-3" units exported by SNMP) at which a
+   * container is fully loaded, so its weight drops to 0% ("drain").
+   */
+  private final int fullLoadFactor;
+
+  /**
+   * The prefix of the docker-id of the container of each backend server.
+   */
+  private final List<String> dockerIdPrefixes = new ArrayList<String>();
+
+  /**
+   * The replies to the probes, by backend server (in the order of
+   * dockerIdPrefixes): replaced as a whole at each publication.
+   */
+  private volatile ByteBuffer[] replies = new ByteBuffer[0];
+
+  /**
+   * The selector of the listening and the accepted channels.
+   */
+  private final Selector selector;
+
+  /**
+  * Constructor: binds the agent address and port of each backend server.
+  *
+  * @param config the settings of the agent, with the backend servers
+  *               ("agentCheckBackend.[docker-id-prefix]=[address]:[port]")
+  *               and the "agentCheckFullLoadFactor"
+  * @throws IOException the agent addresses couldn't be bound
+  */
+  public HaproxyAgentCheckServer(final ConfigLbDockerCAdvisor config)
+      throws IOException {
+    super("HaproxyAgentCheckServer: responder to the agent-check probes");
+    setDaemon(true);
+
+    fullLoadFactor = config.agentCheckFullLoadFactor();
+    selector = Selector.open();
+
+    for (Map.Entry<String, String> backend:
+             config.getPropertiesWithPrefix("agentCheckBackend.").entrySet()) {
+
+      String address = backend.getValue();
+      int colon = address.lastIndexOf(':');
+      int port;
+      try {
+        port = Integer.parseInt(address.substring(colon + 1).trim());
+      } catch (NumberFormatException ex) {
+        System.err.println("ERROR: invalid agent-check address " + address
+                           + " for " + backend.getKey() + ". Ignoring it.");
+        continue;
+      }
+      String host = (colon > 0) ? address.substring(0, colon).trim()
+                                : "0.0.0.0";
+
+      ServerSocketChannel serverChannel = ServerSocketChannel.open();
+      serverChannel.socket().setReuseAddress(true);
+      serverChannel.bind(new InetSocketAddress(host, port), 1024);
+      serverChannel.configureBlocking(false);
+      // the attachment is the index of the backend server
+      serverChannel.register(selector, SelectionKey.OP_ACCEPT,
+                             Integer.valueOf(dockerIdPrefixes.size()));
+
+      dockerIdPrefixes.add(backend.getKey());
+    }
+
+    ByteBuffer[] initialReplies = new ByteBuffer[dockerIdPrefixes.size()];
+    for (int idx = 0; idx < initialReplies.length; idx++) {
+      initialReplies[idx] = NO_CHANGE_REPLY;
+    }
+    replies = initialReplies;
+  }
+
+  /**
+  * Whether there is any backend server to answer the probes of.
+  *
+  * @return true if some agent address is bound
+  */
+  public boolean hasBackends() {
+    return !dockerIdPrefixes.isEmpty();
+  }
+
+  /**
+  * Converts a load factor into the reply to an agent-check probe: the
+  * weight in percent, inversely proportional to the load factor, and never
+  * below 1% unless the container is fully loaded.
+  *
+  * @param loadFactor the load factor of the container ("d-3" units)
+  * @param fullLoadFactor the load factor at which the container is drained
+  * @return the reply to the probe
+  */
+  protected static ByteBuffer weightReply(int loadFactor, int fullLoadFactor) {
+    if (loadFactor < 0) {
+      return NO_CHANGE_REPLY;
+    } else if (loadFactor >= fullLoadFactor) {
+      return DRAIN_REPLY;
+    }
+
+    long weightPercent =
+        100L - (100L * loadFactor + fullLoadFactor - 1) / fullLoadFactor;
+    if (weightPercent < 1) {
+      weightPercent = 1;
+    }
+
+    return ByteBuffer.wrap((weightPercent + "%\n")
+                              .getBytes(StandardCharsets.US_ASCII))
+                     .asReadOnlyBuffer();
+  }
+
+  /**
+  * Pre-renders the replies to the probes of each backend server from the
+  * new load factors of the containers.
+  *
+  * @param lbResultStats the final metrics, one per docker container
+  */
+  @Override
+  public void publish(List<LbCAdvisorResultStat> lbResultStats) {
+    ByteBuffer[] newReplies = new ByteBuffer[dockerIdPrefixes.size()];
+
+    for (int idx = 0; idx < newReplies.length; idx++) {
+      String dockerIdPrefix = dockerIdPrefixes.get(idx);
+      newReplies[idx] = NO_CHANGE_REPLY;
+
+      for (LbCAdvisorResultStat lbResultStat: lbResultStats) {
+        if (lbResultStat.dockerId().startsWith(dockerIdPrefix)) {
+          newReplies[idx] = weightReply(lbResultStat.lbFinalStat(),
+                                        fullLoadFactor);
+          break;
+        }
+      }
+    }
+
+    replies = newReplies;
+  }
+
+  /**
+  * Accepts all the pending probes on a listening channel, and answers them.
+  *
+  * @param key the selection key of the listening channel
+  */
+  protected void acceptProbes(final SelectionKey key) {
+    ServerSocketChannel serverChannel = (ServerSocketChannel) key.channel();
+    int backendIdx = ((Integer) key.attachment()).intValue();
+
+    SocketChannel channel;
+    try {
+      while ((channel = serverChannel.accept()) != null) {
+        ByteBuffer reply = replies[backendIdx].duplicate();
+        try {
+          channel.configureBlocking(false);
+          channel.write(reply);
+          if (reply.hasRemaining()) {
+            // the reply is tiny, so this should never happen
+            channel.register(selector, SelectionKey.OP_WRITE, reply);
+          } else {
+            channel.close();
+          }
+        } catch (IOException ex) {
+          // the load balancer closed the probe: nothing to answer
+          channel.close();
+        }
+      }
+    } catch (IOException ex) {
+      ex.printStackTrace();
+    }
+  }
+
+  /**
+  * Finishes writing a reply which didn't fit at once in the socket buffer.
+  *
+  * @param key the selection key of the accepted channel
+  */
+  protected void finishReply(final SelectionKey key) {
+    SocketChannel channel = (SocketChannel) key.channel();
+    ByteBuffer reply = (ByteBuffer) key.attachment();
+
+    try {
+      channel.write(reply);
+      if (!reply.hasRemaining()) {
+        channel.close();
+      }
+    } catch (IOException ex) {
+      key.cancel();
+      try {
+        channel.close();
+      } catch (IOException exClose) {
+        // already closed
+      }
+    }
+  }
+
+  /**
+  * run() method of the class: answers the probes for ever.
+  */
+  @Override
+  public void run() {
+    while (true) {
+      try {
+        selector.select();
+      } catch (IOException ex) {
+        ex.printStackTrace();
+        continue;
+      }
+
+      Iterator<SelectionKey> selectedKeys =
+          selector.selectedKeys().iterator();
+      while (selectedKeys.hasNext()) {
+        SelectionKey key = selectedKeys.next();
+        selectedKeys.remove();
+
+        if (!key.isValid()) {
+          continue;
+        }
+        if (key.isAcceptable()) {
+          acceptProbes(key);
+        } else if (key.isWritable()) {
+          finishReply(key);
+        }
+      }
+    }
+  }
+
+}
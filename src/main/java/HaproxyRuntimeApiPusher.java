@@ -0,0 +1,428 @@
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+* Pushes the weights of the docker containers to HAProxy through its runtime
+* API (its stats socket, at "level admin"), after each cycle, instead of
+* waiting for its agent-checks to poll them. For example, for:
+*
+* <pre>
+*   # lb_docker_cadvisor.properties
+*   haproxyRuntimeApi=127.0.0.1:9999
+*   haproxyRuntimeServer.cfc0fb6f62f9=be_web/web1
+*
+*   # haproxy.cfg
+*   stats socket ipv4@127.0.0.1:9999 level admin
+* </pre>
+*
+* it sends "set server be_web/web1 weight 75" (the weight, out of
+* haproxyRuntimeMaxWeight, inversely proportional to the load factor of the
+* container, like the agent-check replies). Only the weights which changed
+* since the last push are sent, all of them in a single connection, as one
+* line of commands separated by ";". The pushes run in their own thread:
+* if HAProxy is slower than the cycles, only the last final metrics are
+* pushed.
+*
+* The latency of each push is logged in the "push" diagnostics, with the
+* counters of the pushes (see HaproxyRuntimeApiStandIn, in the tests, to try
+* it without an HAProxy).
+*
+* @author  Jose E. Nunez
+* @version 0.0.1
+* @since   2019-07-07
+*/
+public final class HaproxyRuntimeApiPusher extends Thread
+    implements LbResultStatsSink {
+
+  /**
+   * The address of the runtime API of HAProxy.
+   */
+  private final InetSocketAddress apiAddress;
+
+  /**
+   * The address of the runtime API of HAProxy, as "host:port" (in the logs).
+   */
+  private final String apiName;
+
+  /**
+   * The timeout to connect to HAProxy, and to wait for its reply, in
+   * millisecs.
+   */
+  private final int timeoutMillis;
+
+  /**
+   * The weight of an idle container.
+   */
+  private final int maxWeight;
+
+  /**
+   * The load factor (in the "d-3" units exported by SNMP) at which a
+   * container is fully loaded, so its weight drops to 0.
+   */
+  private final int fullLoadFactor;
+
+  /**
+   * The prefix of the docker-id of the container of each backend server.
+   */
+  private final List<String> dockerIdPrefixes = new ArrayList<String>();
+
+  /**
+   * The backend servers, as "backend/server" (in the order of
+   * dockerIdPrefixes).
+   */
+  private final List<String> servers = new ArrayList<String>();
+
+  /**
+   * The weight last pushed to each backend server (-1: none yet, or its
+   * push failed). Only used by the thread of this pusher.
+   */
+  private final int[] pushedWeights;
+
+  /**
+   * The final metrics published and not pushed yet (null: none), guarded by
+   * the monitor of this pusher.
+   */
+  private List<LbCAdvisorResultStat> pendingStats = null;
+
+  /**
+   * The logger of the latency of the pushes (null: don't log them).
+   */
+  private final AsyncCycleLogger cycleLogger;
+
+  /**
+   * The number of pushes (connections to HAProxy).
+   */
+  private volatile long numPushes = 0;
+
+  /**
+   * The number of "set server" commands pushed.
+   */
+  private volatile long numCommands = 0;
+
+  /**
+   * The number of pushes which failed, or which HAProxy answered with an
+   * error.
+   */
+  private volatile long numFailures = 0;
+
+  /**
+   * The latency of the last push, in nanosecs.
+   */
+  private volatile long lastLatencyNanos = 0;
+
+  /**
+   * The maximum latency of a push, in nanosecs.
+   */
+  private volatile long maxLatencyNanos = 0;
+
+  /**
+   * The total latency of the pushes, in nanosecs.
+   */
+  private volatile long totalLatencyNanos = 0;
+
+  /**
+  * Constructor.
+  *
+  * @param config the settings of the agent, with the address of the
+  *               runtime API ("haproxyRuntimeApi"), the backend servers
+  *               ("haproxyRuntimeServer.[docker-id-prefix]=[backend]/[server]")
+  *               and the weights
+  * @param logger the logger of the latency of the pushes (can be null)
+  */
+  public HaproxyRuntimeApiPusher(final ConfigLbDockerCAdvisor config,
+                                 final AsyncCycleLogger logger) {
+    super("HaproxyRuntimeApiPusher: pusher of the weights to HAProxy");
+    setDaemon(true);
+
+    String address = config.haproxyRuntimeApi();
+    int colon = address.lastIndexOf(':');
+    int port = -1;
+    if (address.startsWith("unix:")) {
+      System.err.println("ERROR: the HAProxy runtime API must be a TCP "
+                         + "address, like \"127.0.0.1:9999\", not "
+                         + address + ". Not pushing the weights.");
+    } else {
+      try {
+        port = Integer.parseInt(address.substring(colon + 1).trim());
+      } catch (NumberFormatException ex) {
+        System.err.println("ERROR: invalid HAProxy runtime API address "
+                           + address + ". Not pushing the weights.");
+      }
+    }
+    apiAddress = (port > 0)
+                     ? new InetSocketAddress(
+                           (colon > 0) ? address.substring(0, colon).trim()
+                                       : "127.0.0.1",
+                           port)
+                     : null;
+    apiName = address;
+
+    timeoutMillis = config.haproxyRuntimeTimeoutMillis();
+    maxWeight = Math.max(1, Math.min(config.haproxyRuntimeMaxWeight(), 256));
+    fullLoadFactor = config.agentCheckFullLoadFactor();
+    cycleLogger = logger;
+
+    for (Map.Entry<String, String> backend:
+             config.getPropertiesWithPrefix("haproxyRuntimeServer.")
+                   .entrySet()) {
+      String server = backend.getValue().trim();
+      if (server.indexOf('/') <= 0 || server.indexOf(' ') >= 0
+          || server.indexOf(';') >= 0) {
+        System.err.println("ERROR: invalid HAProxy server " + server
+                           + " for " + backend.getKey()
+                           + " (it must be \"backend/server\"). Ignoring it.");
+        continue;
+      }
+      dockerIdPrefixes.add(backend.getKey());
+      servers.add(server);
+    }
+
+    pushedWeights = new int[servers.size()];
+    Arrays.fill(pushedWeights, -1);
+  }
+
+  /**
+  * Whether there is any backend server to push the weight of.
+  *
+  * @return true if the runtime API and some backend server are given
+  */
+  public boolean hasServers() {
+    return apiAddress != null && !servers.isEmpty();
+  }
+
+  /**
+  * Converts a load factor into a weight of HAProxy: inversely proportional
+  * to the load factor, and never below 1 unless the container is fully
+  * loaded.
+  *
+  * @param loadFactor the load factor of the container ("d-3" units)
+  * @param fullLoadFactor the load factor at which the weight is 0
+  * @param maxWeight the weight of an idle container
+  * @return the weight, or -1 if the load factor is not known
+  */
+  protected static int weight(int loadFactor, int fullLoadFactor,
+                              int maxWeight) {
+    if (loadFactor < 0) {
+      return -1;
+    } else if (loadFactor >= fullLoadFactor) {
+      return 0;
+    }
+
+    long weight = maxWeight
+                  - ((long) maxWeight * loadFactor + fullLoadFactor - 1)
+                    / fullLoadFactor;
+    return (int) Math.max(weight, 1);
+  }
+
+  /**
+  * Hands the new final metrics to the thread of this pusher (replacing the
+  * ones not pushed yet, if any).
+  *
+  * @param lbResultStats the final metrics, one per docker container
+  */
+  @Override
+  public synchronized void publish(List<LbCAdvisorResultStat> lbResultStats) {
+    pendingStats = lbResultStats;
+    notifyAll();
+  }
+
+  /**
+  * Waits for the next final metrics to push.
+  *
+  * @return the final metrics
+  * @throws InterruptedException the thread was interrupted while waiting
+  */
+  private synchronized List<LbCAdvisorResultStat> takePending()
+      throws InterruptedException {
+    while (pendingStats == null) {
+      wait();
+    }
+    List<LbCAdvisorResultStat> lbResultStats = pendingStats;
+    pendingStats = null;
+    return lbResultStats;
+  }
+
+  /**
+  * Pushes the weights which changed of some final metrics.
+  *
+  * @param lbResultStats the final metrics, one per docker container
+  */
+  protected void push(final List<LbCAdvisorResultStat> lbResultStats) {
+    StringBuilder commands = new StringBuilder();
+    int[] newWeights = pushedWeights.clone();
+
+    for (int idx = 0; idx < servers.size(); idx++) {
+      String dockerIdPrefix = dockerIdPrefixes.get(idx);
+      for (LbCAdvisorResultStat lbResultStat: lbResultStats) {
+        if (lbResultStat.dockerId().startsWith(dockerIdPrefix)) {
+          newWeights[idx] = weight(lbResultStat.lbFinalStat(), fullLoadFactor,
+                                   maxWeight);
+          break;
+        }
+      }
+      if (newWeights[idx] >= 0 && newWeights[idx] != pushedWeights[idx]) {
+        commands.append((commands.length() > 0) ? "; " : "")
+                .append("set server ").append(servers.get(idx))
+                .append(" weight ").append(newWeights[idx]);
+        numCommands++;
+      }
+    }
+
+    if (commands.length() == 0) {
+      return;
+    }
+
+    long startNanos = System.nanoTime();
+    String reply = null;
+    try {
+      reply = sendCommands(commands.append('\n').toString());
+    } catch (IOException ex) {
+      System.err.println("WARN: pushing the weights to HAProxy at "
+                         + apiName + ": " + ex);
+    }
+    long latencyNanos = System.nanoTime() - startNanos;
+
+    numPushes++;
+    lastLatencyNanos = latencyNanos;
+    maxLatencyNanos = Math.max(maxLatencyNanos, latencyNanos);
+    totalLatencyNanos += latencyNanos;
+
+    if (reply != null && reply.trim().isEmpty()) {
+      System.arraycopy(newWeights, 0, pushedWeights, 0, newWeights.length);
+    } else {
+      // which command failed isn't known: all of them are sent again
+      numFailures++;
+      if (reply != null) {
+        System.err.println("WARN: HAProxy at " + apiName + " answered: "
+                           + reply.trim());
+      }
+    }
+
+    if (cycleLogger != null) {
+      cycleLogger.log(AsyncCycleLogger.Category.PUSH, apiName,
+                      TimeUnit.NANOSECONDS.toMicros(latencyNanos), this);
+    }
+  }
+
+  /**
+  * Sends a line of commands to the runtime API of HAProxy, in a new
+  * connection, and reads its reply until HAProxy closes it.
+  *
+  * @param commandLine the commands, separated by ";", and ended by "\n"
+  * @return the reply of HAProxy (only blank if all the commands succeeded)
+  * @throws IOException HAProxy couldn't be reached, or timed out
+  */
+  protected String sendCommands(final String commandLine) throws IOException {
+    try (Socket socket = new Socket()) {
+      socket.connect(apiAddress, timeoutMillis);
+      socket.setSoTimeout(timeoutMillis);
+      socket.setTcpNoDelay(true);
+
+      OutputStream output = socket.getOutputStream();
+      output.write(commandLine.getBytes(StandardCharsets.US_ASCII));
+      output.flush();
+
+      InputStream input = socket.getInputStream();
+      ByteArrayOutputStream reply = new ByteArrayOutputStream();
+      byte[] buffer = new byte[1024];
+      int numRead;
+      while ((numRead = input.read(buffer)) >= 0) {
+        reply.write(buffer, 0, numRead);
+      }
+      return new String(reply.toByteArray(), StandardCharsets.US_ASCII);
+    }
+  }
+
+  /**
+  * Get the number of pushes (connections to HAProxy).
+  *
+  * @return the number of pushes
+  */
+  public long numPushes() {
+    return numPushes;
+  }
+
+  /**
+  * Get the number of "set server" commands pushed.
+  *
+  * @return the number of commands
+  */
+  public long numCommands() {
+    return numCommands;
+  }
+
+  /**
+  * Get the number of pushes which failed.
+  *
+  * @return the number of failures
+  */
+  public long numFailures() {
+    return numFailures;
+  }
+
+  /**
+  * Get the latency of the last push.
+  *
+  * @return the latency, in microsecs
+  */
+  public long lastLatencyMicros() {
+    return TimeUnit.NANOSECONDS.toMicros(lastLatencyNanos);
+  }
+
+  /**
+  * Get the maximum latency of a push.
+  *
+  * @return the latency, in microsecs
+  */
+  public long maxLatencyMicros() {
+    return TimeUnit.NANOSECONDS.toMicros(maxLatencyNanos);
+  }
+
+  /**
+  * Get the mean latency of the pushes.
+  *
+  * @return the latency, in microsecs
+  */
+  public long meanLatencyMicros() {
+    long pushes = numPushes;
+    return (pushes > 0)
+               ? TimeUnit.NANOSECONDS.toMicros(totalLatencyNanos / pushes)
+               : 0;
+  }
+
+  @Override
+  public String toString() {
+    return "pushes=" + numPushes + " commands=" + numCommands
+           + " failures=" + numFailures
+           + " latencyMicros=" + lastLatencyMicros()
+           + " meanLatencyMicros=" + meanLatencyMicros()
+           + " maxLatencyMicros=" + maxLatencyMicros();
+  }
+
+  /**
+  * run() method of the class: pushes the final metrics published.
+  */
+  @Override
+  public void run() {
+    try {
+      while (true) {
+        push(takePending());
+      }
+    } catch (InterruptedException ex) {
+      ex.printStackTrace();
+    }
+  }
+
+}
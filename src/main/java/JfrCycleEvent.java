@@ -0,0 +1,92 @@
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+
+/**
+* The Java Flight Recorder event of a full cycle of queries to cAdvisor, from
+* the start of its fetch stage to the end of its publish stage (which may run
+* in other threads, with the pipeline), with the time spent in each stage:
+* the time the weights take to reach the load balancer.
+*
+* Like every JFR event, it is enabled, or given a threshold, by the settings
+* of the recording ("lbdocker.Cycle" in a .jfc file); when it is disabled,
+* the cycles don't even time their stages.
+*
+* @author  Jose E. Nunez
+* @version 0.0.1
+* @since   2019-07-07
+*/
+@Name("lbdocker.Cycle")
+@Label("Cycle")
+@Category({"LbDockerCAdvisor", "Cycles"})
+@Description("A full cycle of queries to cAdvisor, from the fetch of the"
+             + " responses to the publication of the weights")
+@StackTrace(false)
+public final class JfrCycleEvent extends jdk.jfr.Event {
+
+  /**
+   * The cAdvisor host, as "host:port".
+   */
+  @Label("Host")
+  String host;
+
+  /**
+   * The sequence number of the cycle.
+   */
+  @Label("Sequence Number")
+  long seq;
+
+  /**
+   * Whether cAdvisor wasn't queried, because its circuit breaker is open.
+   */
+  @Label("Fetch Skipped")
+  boolean fetchSkipped;
+
+  /**
+   * The size of the body of the response from cAdvisor.
+   */
+  @Label("Body Size")
+  @DataAmount
+  long bodyBytes;
+
+  /**
+   * The number of docker containers published.
+   */
+  @Label("Containers")
+  int containers;
+
+  /**
+   * The time spent in the fetch stage.
+   */
+  @Label("Fetch Time")
+  @Timespan(Timespan.NANOSECONDS)
+  long fetchTime;
+
+  /**
+   * The time spent in the parse stage.
+   */
+  @Label("Parse Time")
+  @Timespan(Timespan.NANOSECONDS)
+  long parseTime;
+
+  /**
+   * The time spent in the score stage.
+   */
+  @Label("Score Time")
+  @Timespan(Timespan.NANOSECONDS)
+  long scoreTime;
+
+  /**
+   * The time spent in the publish stage.
+   */
+  @Label("Publish Time")
+  @Timespan(Timespan.NANOSECONDS)
+  long publishTime;
+
+}
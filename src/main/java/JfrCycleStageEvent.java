@@ -0,0 +1,69 @@
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+
+/**
+* The Java Flight Recorder event of a stage of a work of the cycles of
+* queries to cAdvisor (fetch, parse, score or publish), in the thread which
+* ran it, so that its duration can be correlated with the GC pauses and the
+* lock contention in the same recording.
+*
+* Like every JFR event, it is enabled, or given a threshold, by the settings
+* of the recording ("lbdocker.CycleStage" in a .jfc file); when it is
+* disabled, it costs nothing.
+*
+* @author  Jose E. Nunez
+* @version 0.0.1
+* @since   2019-07-07
+*/
+@Name("lbdocker.CycleStage")
+@Label("Cycle Stage")
+@Category({"LbDockerCAdvisor", "Cycles"})
+@Description("A stage of a full cycle of queries to cAdvisor, or of the"
+             + " event of a container")
+@StackTrace(false)
+public final class JfrCycleStageEvent extends jdk.jfr.Event {
+
+  /**
+   * The cAdvisor host, as "host:port".
+   */
+  @Label("Host")
+  String host;
+
+  /**
+   * The name of the stage.
+   */
+  @Label("Stage")
+  String stage;
+
+  /**
+   * The sequence number of the work.
+   */
+  @Label("Sequence Number")
+  long seq;
+
+  /**
+   * Whether the work is the event of a container (else a full cycle).
+   */
+  @Label("Container Event")
+  boolean containerEvent;
+
+  /**
+   * The size of the body of the response from cAdvisor.
+   */
+  @Label("Body Size")
+  @DataAmount
+  long bodyBytes;
+
+  /**
+   * The number of docker containers scored (0 before the score stage).
+   */
+  @Label("Containers")
+  int containers;
+
+}
@@ -0,0 +1,54 @@
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+
+/**
+* The Java Flight Recorder event of the processing of a request to the SNMP
+* agent (like the GETs and GETNEXTs of the load balancer), so that slow
+* answers can be correlated with the GC pauses, or with the contention on
+* the tables refreshed by each cycle, in the same recording.
+*
+* Like every JFR event, it is enabled, or given a threshold, by the settings
+* of the recording ("lbdocker.SnmpRequest" in a .jfc file); when it is
+* disabled, it costs nothing.
+*
+* @author  Jose E. Nunez
+* @version 0.0.1
+* @since   2019-07-07
+*/
+@Name("lbdocker.SnmpRequest")
+@Label("SNMP Request")
+@Category({"LbDockerCAdvisor", "SNMP"})
+@Description("The processing of a request to the SNMP agent")
+@StackTrace(false)
+public final class JfrSnmpRequestEvent extends jdk.jfr.Event {
+
+  /**
+   * The type of the PDU of the request, like "GETNEXT".
+   */
+  @Label("PDU Type")
+  String pduType;
+
+  /**
+   * The address of the peer which sent the request.
+   */
+  @Label("Peer Address")
+  String peerAddress;
+
+  /**
+   * The number of variable bindings of the request.
+   */
+  @Label("Variable Bindings")
+  int numVariableBindings;
+
+  /**
+   * The OID of the first variable binding of the request.
+   */
+  @Label("First OID")
+  String firstOid;
+
+}
@@ -0,0 +1,482 @@
+
+/**
+* A forward-only cursor over the chars of a JSON document, which reads it
+* in place, without building any tree nor allocating any object: the field
+* names and strings are compared, and the numbers and timestamps converted,
+* directly from the chars of the document. (Strings with escapes are
+* compared raw, which is enough for the field names of cAdvisor.)
+*
+* @author  Jose E. Nunez
+* @version 0.0.1
+* @since   2019-06-02
+*/
+public final class JsonCharCursor {
+
+  /**
+   * The exact powers of 10 as doubles.
+   */
+  private static final double[] POWERS_OF_10 = {
+    1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+    1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+  };
+
+  /**
+   * The JSON document.
+   */
+  private CharSequence text;
+
+  /**
+   * The position of the next char to read in the document.
+   */
+  private int pos;
+
+  /**
+   * The start of the last string read (after its opening quote).
+   */
+  private int stringStart;
+
+  /**
+   * The end of the last string read (at its closing quote).
+   */
+  private int stringEnd;
+
+  /**
+  * Starts reading a new JSON document.
+  *
+  * @param jsonText the JSON document
+  * @return this object, for fluent functional programming style
+  */
+  public JsonCharCursor reset(final CharSequence jsonText) {
+    text = jsonText;
+    pos = 0;
+    stringStart = 0;
+    stringEnd = 0;
+    return this;
+  }
+
+  /**
+  * Get the JSON document.
+  *
+  * @return the JSON document
+  */
+  public CharSequence text() {
+    return text;
+  }
+
+  /**
+  * Get the start of the last string (or field name) read.
+  *
+  * @return the position of its first char in the document
+  */
+  public int stringStart() {
+    return stringStart;
+  }
+
+  /**
+  * Get the end of the last string (or field name) read.
+  *
+  * @return the position after its last char in the document
+  */
+  public int stringEnd() {
+    return stringEnd;
+  }
+
+  /**
+  * Builds the error about an unexpected char at the current position.
+  *
+  * @param expected what was expected
+  * @return the exception to throw
+  */
+  private IllegalArgumentException syntaxError(final String expected) {
+    return new IllegalArgumentException("Invalid JSON: expected " + expected
+                                        + " at offset " + pos);
+  }
+
+  /**
+  * Skips the whitespace and returns the next char, without consuming it.
+  *
+  * @return the next char, or 0 at the end of the document
+  */
+  public char peek() {
+    int length = text.length();
+    while (pos < length) {
+      char c = text.charAt(pos);
+      if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+        return c;
+      }
+      pos++;
+    }
+    return 0;
+  }
+
+  /**
+  * Consumes the start of an object, if the next value is an object.
+  *
+  * @return true if an object was started
+  */
+  public boolean beginObject() {
+    if (peek() == '{') {
+      pos++;
+      return true;
+    }
+    return false;
+  }
+
+  /**
+  * Consumes the start of an array, if the next value is an array.
+  *
+  * @return true if an array was started
+  */
+  public boolean beginArray() {
+    if (peek() == '[') {
+      pos++;
+      return true;
+    }
+    return false;
+  }
+
+  /**
+  * Moves to the next field of the current object, reading its name (see
+  * fieldNameEquals()) and leaving the cursor at its value.
+  *
+  * @return false at the end of the object (which is consumed)
+  */
+  public boolean nextField() {
+    char c = peek();
+    if (c == ',') {
+      pos++;
+      c = peek();
+    }
+    if (c == '}') {
+      pos++;
+      return false;
+    }
+    if (c != '"') {
+      throw syntaxError("a field name");
+    }
+    readString();
+    if (peek() != ':') {
+      throw syntaxError("':'");
+    }
+    pos++;
+    return true;
+  }
+
+  /**
+  * Moves to the next element of the current array.
+  *
+  * @return false at the end of the array (which is consumed)
+  */
+  public boolean nextElement() {
+    char c = peek();
+    if (c == ',') {
+      pos++;
+      c = peek();
+    }
+    if (c == ']') {
+      pos++;
+      return false;
+    }
+    if (c == 0) {
+      throw syntaxError("']'");
+    }
+    return true;
+  }
+
+  /**
+  * Whether the last string (or field name) read is equal to a string.
+  *
+  * @param value the string to compare with
+  * @return true if both are equal
+  */
+  public boolean stringEquals(final String value) {
+    int length = value.length();
+    if (stringEnd - stringStart != length) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (text.charAt(stringStart + i) != value.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+  * Whether the last string (or field name) read starts with a prefix.
+  *
+  * @param prefix the prefix
+  * @return true if it starts with the prefix
+  */
+  public boolean stringStartsWith(final String prefix) {
+    int length = prefix.length();
+    if (stringEnd - stringStart < length) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (text.charAt(stringStart + i) != prefix.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+  * Whether the next value is a string.
+  *
+  * @return true if it is a string
+  */
+  public boolean isString() {
+    return peek() == '"';
+  }
+
+  /**
+  * Whether the next value is a number.
+  *
+  * @return true if it is a number
+  */
+  public boolean isNumber() {
+    char c = peek();
+    return c == '-' || (c >= '0' && c <= '9');
+  }
+
+  /**
+  * Reads a string value (see stringStart() and stringEnd()).
+  */
+  public void readString() {
+    if (peek() != '"') {
+      throw syntaxError("a string");
+    }
+    int length = text.length();
+    stringStart = ++pos;
+    while (pos < length) {
+      char c = text.charAt(pos);
+      if (c == '"') {
+        stringEnd = pos++;
+        return;
+      }
+      pos += (c == '\\') ? 2 : 1;
+    }
+    throw syntaxError("'\"'");
+  }
+
+  /**
+  * Reads a number value as a double.
+  *
+  * @return the number
+  */
+  public double readDouble() {
+    peek();
+    int start = pos;
+    int length = text.length();
+
+    boolean negative = false;
+    if (pos < length && text.charAt(pos) == '-') {
+      negative = true;
+      pos++;
+    }
+
+    // the significant digits (up to 18, which fit in a long) and the
+    // decimal exponent
+    long mantissa = 0;
+    int numDigits = 0;
+    int exponent10 = 0;
+    boolean exact = true;
+    char c;
+
+    while (pos < length && (c = text.charAt(pos)) >= '0' && c <= '9') {
+      if (numDigits < 18) {
+        mantissa = mantissa * 10 + (c - '0');
+        numDigits += (mantissa > 0) ? 1 : 0;
+      } else {
+        exponent10++;
+        exact = false;
+      }
+      pos++;
+    }
+    if (pos < length && text.charAt(pos) == '.') {
+      pos++;
+      while (pos < length && (c = text.charAt(pos)) >= '0' && c <= '9') {
+        if (numDigits < 18) {
+          mantissa = mantissa * 10 + (c - '0');
+          numDigits += (mantissa > 0) ? 1 : 0;
+          exponent10--;
+        } else {
+          exact = false;
+        }
+        pos++;
+      }
+    }
+    if (pos < length && (text.charAt(pos) == 'e' || text.charAt(pos) == 'E')) {
+      pos++;
+      boolean negativeExp = false;
+      if (pos < length && (text.charAt(pos) == '+'
+                           || text.charAt(pos) == '-')) {
+        negativeExp = (text.charAt(pos) == '-');
+        pos++;
+      }
+      int explicitExp = 0;
+      while (pos < length && (c = text.charAt(pos)) >= '0' && c <= '9') {
+        explicitExp = Math.min(explicitExp * 10 + (c - '0'), 100000);
+        pos++;
+      }
+      exponent10 += negativeExp ? -explicitExp : explicitExp;
+    }
+
+    if (pos == start || (negative && pos == start + 1)) {
+      throw syntaxError("a number");
+    }
+
+    double value;
+    if (exact && mantissa < (1L << 53)
+        && exponent10 >= -22 && exponent10 <= 22) {
+      // both the mantissa and the power of 10 are exact doubles, so the
+      // product (or quotient) is correctly rounded
+      value = (exponent10 >= 0) ? mantissa * POWERS_OF_10[exponent10]
+                                : mantissa / POWERS_OF_10[-exponent10];
+      return negative ? -value : value;
+    }
+    // not on the hot path: the counters of cAdvisor are integers
+    return Double.parseDouble(text.subSequence(start, pos).toString());
+  }
+
+  /**
+  * Parses the digits of a fixed-width number in the last string read.
+  *
+  * @param offset the offset of the digits in the string
+  * @param numDigits the number of digits
+  * @return the number, or -1 if they are not digits
+  */
+  private int parseDigits(int offset, int numDigits) {
+    if (stringStart + offset + numDigits > stringEnd) {
+      return -1;
+    }
+    int value = 0;
+    for (int i = 0; i < numDigits; i++) {
+      int digit = text.charAt(stringStart + offset + i) - '0';
+      if (digit < 0 || digit > 9) {
+        return -1;
+      }
+      value = value * 10 + digit;
+    }
+    return value;
+  }
+
+  /**
+  * Converts the last string read, a RFC 3339 timestamp like
+  * "2019-04-21T10:11:12.123456789Z" or "...12.1234+02:00" as returned by
+  * cAdvisor, to epoch time (in milliseconds).
+  *
+  * @return the epoch time (in milliseconds), or 0 if it isn't a timestamp
+  */
+  public long stringAsEpochMilli() {
+    int year = parseDigits(0, 4);
+    int month = parseDigits(5, 2);
+    int day = parseDigits(8, 2);
+    int hour = parseDigits(11, 2);
+    int minute = parseDigits(14, 2);
+    int second = parseDigits(17, 2);
+    if (year < 0 || month < 1 || month > 12 || day < 1 || hour < 0
+        || minute < 0 || second < 0) {
+      return 0;
+    }
+
+    int idx = stringStart + 19;
+    int millis = 0;
+    if (idx < stringEnd && text.charAt(idx) == '.') {
+      idx++;
+      int numFractionDigits = 0;
+      char c;
+      while (idx < stringEnd && (c = text.charAt(idx)) >= '0' && c <= '9') {
+        if (numFractionDigits < 3) {
+          millis = millis * 10 + (c - '0');
+          numFractionDigits++;
+        }
+        idx++;
+      }
+      while (numFractionDigits++ < 3) {
+        millis *= 10;
+      }
+    }
+
+    int offsetSeconds = 0;
+    if (idx < stringEnd && text.charAt(idx) != 'Z') {
+      int sign = (text.charAt(idx) == '-') ? -1 : 1;
+      int offsetStart = idx - stringStart + 1;
+      int offsetHours = parseDigits(offsetStart, 2);
+      int offsetMinutes = parseDigits(offsetStart + 3, 2);
+      if (offsetHours < 0 || offsetMinutes < 0) {
+        return 0;
+      }
+      offsetSeconds = sign * (offsetHours * 3600 + offsetMinutes * 60);
+    }
+
+    // days since the epoch of the civil date (proleptic Gregorian)
+    long yearOfEra = (month <= 2) ? year - 1 : year;
+    long era = Math.floorDiv(yearOfEra, 400);
+    long yearOfEra400 = yearOfEra - era * 400;
+    long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+    long dayOfEra = yearOfEra400 * 365 + yearOfEra400 / 4
+                    - yearOfEra400 / 100 + dayOfYear;
+    long epochDay = era * 146097 + dayOfEra - 719468;
+
+    long epochSecond = epochDay * 86400 + hour * 3600 + minute * 60 + second
+                       - offsetSeconds;
+    return epochSecond * 1000 + millis;
+  }
+
+  /**
+  * Skips the next value, whatever it is.
+  */
+  public void skipValue() {
+    char c = peek();
+    switch (c) {
+      case '"':
+        readString();
+        return;
+      case '{':
+      case '[':
+        skipNested();
+        return;
+      default:
+        if (isNumber()) {
+          readDouble();
+          return;
+        }
+        // true, false, null
+        int length = text.length();
+        while (pos < length) {
+          c = text.charAt(pos);
+          if (c == ',' || c == '}' || c == ']' || c == ' ' || c == '\n'
+              || c == '\r' || c == '\t') {
+            return;
+          }
+          pos++;
+        }
+    }
+  }
+
+  /**
+  * Skips a nested object or array, counting the brackets (but not those
+  * inside strings).
+  */
+  private void skipNested() {
+    int length = text.length();
+    int depth = 0;
+    while (pos < length) {
+      char c = text.charAt(pos++);
+      if (c == '"') {
+        pos--;
+        readString();
+      } else if (c == '{' || c == '[') {
+        depth++;
+      } else if (c == '}' || c == ']') {
+        if (--depth == 0) {
+          return;
+        }
+      }
+    }
+    throw syntaxError("the end of the value");
+  }
+
+}
@@ -0,0 +1,730 @@
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+* Tunes the relative weights of the metrics from the latency of the backend
+* servers in HAProxy, in a closed loop: it reads the "show stat" CSV of
+* HAProxy periodically (from its stats socket, or from a file), and fits the
+* latency of each server (its "rtime", plus weightTuningErrorPenaltyMillis
+* per error of the period) to the metrics of its container, before they
+* are weighted, by recursive least squares:
+*
+* <pre>
+*   latency = intercept + sum(coefficient[metric] * value[metric])
+* </pre>
+*
+* so that the coefficients tell which metrics predict the latency. Once
+* weightTuningMinSamples observations are fitted, each weight is moved
+* towards its coefficient (scaled so that the mean load factor stays the
+* same), by at most weightTuningMaxStep of its configured weight per tuning,
+* and never beyond weightTuningMaxRatio times (or below 1 / that ratio of)
+* its configured weight; a metric of weight 0 stays out. For example, for:
+*
+* <pre>
+*   # lb_docker_cadvisor.properties
+*   weightTuning=apply
+*   haproxyRuntimeApi=127.0.0.1:9999
+*   haproxyRuntimeServer.cfc0fb6f62f9=be_web/web1
+* </pre>
+*
+* the latency of be_web/web1 is paired with the metrics of the container
+* cfc0fb6f62f9... With weightTuning=propose, the tuned weights are only
+* logged (in the "tuning" diagnostics) and exported to weightTuningFile,
+* with the coefficients, in the format of metric_weights.properties.
+*
+* The statistics are read in the thread of this tuner, but the observations
+* are fitted, and the weights applied, by the threads which score (in
+* observe()), so that each one only changes the weights of its own plan.
+*
+* @author  Jose E. Nunez
+* @version 0.0.1
+* @since   2019-07-07
+*/
+public final class LatencyWeightTuner extends Thread {
+
+  /**
+   * The initial variance of the coefficients in the least squares fit.
+   */
+  private static final double INITIAL_VARIANCE = 1000.0;
+
+  /**
+   * The trace of the covariance of the fit above which it is reset (with a
+   * forgetting factor, it winds up when the metrics don't vary).
+   */
+  private static final double MAX_COVARIANCE_TRACE = 1e12;
+
+  /**
+   * The address of the stats socket of HAProxy (null: read a file).
+   */
+  private final InetSocketAddress statsAddress;
+
+  /**
+   * The file with the "show stat" CSV (null: read the stats socket).
+   */
+  private final Path statsFile;
+
+  /**
+   * The source of the statistics, as configured (in the logs).
+   */
+  private final String statsName;
+
+  /**
+   * The timeout to connect to HAProxy, and to wait for its reply, in
+   * millisecs.
+   */
+  private final int timeoutMillis;
+
+  /**
+   * The period between the reads of the statistics, in millisecs.
+   */
+  private final int pollMillis;
+
+  /**
+   * Whether the tuned weights are applied (else only proposed).
+   */
+  private final boolean applyWeights;
+
+  /**
+   * The prefix of the docker-id of the container of each backend server.
+   */
+  private final List<String> dockerIdPrefixes = new ArrayList<String>();
+
+  /**
+   * The backend servers, as "backend/server" (in the order of
+   * dockerIdPrefixes).
+   */
+  private final List<String> servers = new ArrayList<String>();
+
+  /**
+   * The number of requests to each server in the last statistics read (-1:
+   * none yet). Only used by the thread of this tuner.
+   */
+  private final long[] lastRequests;
+
+  /**
+   * The number of errors of each server in the last statistics read. Only
+   * used by the thread of this tuner.
+   */
+  private final long[] lastErrors;
+
+  /**
+   * The latency of each server read and not fitted yet (NaN: none).
+   */
+  private final double[] pendingLatencies;
+
+  /**
+   * The names of the metrics, by dense index.
+   */
+  private final String[] names;
+
+  /**
+   * The configured weights of the metrics, by dense index.
+   */
+  private final double[] baseWeights;
+
+  /**
+   * The tuned weights of the metrics, by dense index.
+   */
+  private final double[] tunedWeights;
+
+  /**
+   * The coefficients of the fit, by dense index (and the intercept last).
+   */
+  private final double[] coefficients;
+
+  /**
+   * The covariance of the coefficients of the fit (row-major).
+   */
+  private final double[] covariance;
+
+  /**
+   * The moving average of each metric observed, by dense index.
+   */
+  private final double[] meanValues;
+
+  /**
+   * The values of the metrics of an observation, and its intercept term
+   * (reused).
+   */
+  private final double[] observation;
+
+  /**
+   * P * x in the update of the fit (reused).
+   */
+  private final double[] gain;
+
+  /**
+   * The forgetting factor of the fit.
+   */
+  private final double forgetting;
+
+  /**
+   * The number of observations fitted before the weights are tuned.
+   */
+  private final int minSamples;
+
+  /**
+   * How far a tuned weight may get from its configured weight, as a factor.
+   */
+  private final double maxRatio;
+
+  /**
+   * How much a tuned weight may change at each tuning, as a fraction of its
+   * configured weight.
+   */
+  private final double maxStep;
+
+  /**
+   * The latency, in millisecs, that an error counts as, per request.
+   */
+  private final double errorPenaltyMillis;
+
+  /**
+   * The file where to export the coefficients and the tuned weights (null:
+   * don't export them).
+   */
+  private final Path exportFile;
+
+  /**
+   * The logger of the tunings (null: don't log them).
+   */
+  private final AsyncCycleLogger cycleLogger;
+
+  /**
+   * The number of observations fitted.
+   */
+  private long numObservations = 0;
+
+  /**
+   * The number of tunings of the weights (0: the weights are the
+   * configured ones).
+   */
+  private long numTunings = 0;
+
+  /**
+   * The content to export, not written yet (null: none).
+   */
+  private String pendingExport = null;
+
+  /**
+  * Constructor.
+  *
+  * @param config the settings of the agent, with the source of the
+  *               statistics, the backend servers
+  *               ("haproxyRuntimeServer.[docker-id-prefix]=[backend]/[server]")
+  *               and the bounds of the tuning
+  * @param parsePlan the plan of the metrics, with their configured weights
+  * @param apply whether to apply the tuned weights (else only propose them)
+  * @param logger the logger of the tunings (can be null)
+  */
+  public LatencyWeightTuner(final ConfigLbDockerCAdvisor config,
+                            final MetricParsePlan parsePlan,
+                            boolean apply,
+                            final AsyncCycleLogger logger) {
+    super("LatencyWeightTuner: reader of the latency in HAProxy");
+    setDaemon(true);
+
+    String source = config.weightTuningStats().isEmpty()
+                        ? config.haproxyRuntimeApi()
+                        : config.weightTuningStats();
+    statsName = source;
+    InetSocketAddress address = null;
+    if (source.startsWith("file:")) {
+      statsFile = Paths.get(source.substring("file:".length()));
+    } else {
+      statsFile = null;
+      int colon = source.lastIndexOf(':');
+      try {
+        address = new InetSocketAddress(
+                      (colon > 0) ? source.substring(0, colon).trim()
+                                  : "127.0.0.1",
+                      Integer.parseInt(source.substring(colon + 1).trim()));
+      } catch (NumberFormatException ex) {
+        System.err.println("ERROR: invalid HAProxy stats address " + source
+                           + ". Not tuning the weights.");
+      }
+    }
+    statsAddress = address;
+
+    timeoutMillis = config.haproxyRuntimeTimeoutMillis();
+    pollMillis = Math.max(1, config.weightTuningPollMillis());
+    applyWeights = apply;
+
+    for (Map.Entry<String, String> backend:
+             config.getPropertiesWithPrefix("haproxyRuntimeServer.")
+                   .entrySet()) {
+      String server = backend.getValue().trim();
+      if (server.indexOf('/') <= 0) {
+        continue;
+      }
+      dockerIdPrefixes.add(backend.getKey());
+      servers.add(server);
+    }
+    lastRequests = new long[servers.size()];
+    Arrays.fill(lastRequests, -1);
+    lastErrors = new long[servers.size()];
+    pendingLatencies = new double[servers.size()];
+    Arrays.fill(pendingLatencies, Double.NaN);
+
+    int numMetrics = parsePlan.numMetrics();
+    names = new String[numMetrics];
+    baseWeights = new double[numMetrics];
+    for (int idx = 0; idx < numMetrics; idx++) {
+      names[idx] = parsePlan.name(idx);
+      baseWeights[idx] = parsePlan.weight(idx);
+    }
+    tunedWeights = baseWeights.clone();
+    meanValues = new double[numMetrics];
+
+    int dim = numMetrics + 1;
+    coefficients = new double[dim];
+    covariance = new double[dim * dim];
+    resetCovariance();
+    observation = new double[dim];
+    gain = new double[dim];
+
+    forgetting = Math.min(1.0, Math.max(0.5, config.weightTuningForgetting()));
+    minSamples = Math.max(1, config.weightTuningMinSamples());
+    maxRatio = Math.max(1.0, config.weightTuningMaxRatio());
+    maxStep = Math.max(0.0, config.weightTuningMaxStep());
+    errorPenaltyMillis = config.weightTuningErrorPenaltyMillis();
+    exportFile = config.weightTuningFile().isEmpty()
+                     ? null : Paths.get(config.weightTuningFile());
+    cycleLogger = logger;
+  }
+
+  /**
+  * Creates the tuner given by the settings of this agent.
+  *
+  * @param config the settings, with "weightTuning"
+  * @param parsePlan the plan of the metrics, with their configured weights
+  * @param logger the logger of the tunings (can be null)
+  * @return the tuner (not started yet), or null if the weights aren't tuned
+  */
+  public static LatencyWeightTuner fromConfig(
+                    final ConfigLbDockerCAdvisor config,
+                    final MetricParsePlan parsePlan,
+                    final AsyncCycleLogger logger
+  ) {
+    String mode = config.weightTuning();
+    if (!"propose".equalsIgnoreCase(mode)
+        && !"apply".equalsIgnoreCase(mode)) {
+      if (!mode.isEmpty() && !"off".equalsIgnoreCase(mode)) {
+        System.err.println("ERROR: unknown weightTuning " + mode
+                           + ". Not tuning the weights.");
+      }
+      return null;
+    }
+
+    LatencyWeightTuner tuner =
+        new LatencyWeightTuner(config, parsePlan,
+                               "apply".equalsIgnoreCase(mode), logger);
+    if (tuner.statsAddress == null && tuner.statsFile == null) {
+      return null;
+    }
+    if (tuner.servers.isEmpty()) {
+      System.err.println("ERROR: no haproxyRuntimeServer.* to pair with "
+                         + "the latency. Not tuning the weights.");
+      return null;
+    }
+    return tuner;
+  }
+
+  /**
+  * Whether the tuned weights are applied (else only proposed).
+  *
+  * @return true if they are applied
+  */
+  public boolean appliesWeights() {
+    return applyWeights;
+  }
+
+  /**
+  * Fits the latencies read since the last call with the metrics which gave
+  * the last load factors of their containers, tunes the weights, and, if
+  * they are applied, sets them in the plan of the scorer. It is called by
+  * the thread which scores, after each cycle.
+  *
+  * @param scorer the scorer of the containers
+  */
+  public synchronized void observe(final DockerLoadFactorScorer scorer) {
+    ContainerRegistry registry = scorer.getRegistry();
+    boolean fitted = false;
+
+    for (int idx = 0; idx < servers.size(); idx++) {
+      if (Double.isNaN(pendingLatencies[idx])) {
+        continue;
+      }
+      int handle = findHandle(registry, dockerIdPrefixes.get(idx));
+      if (handle < 0 || !scorer.lastMetricValues(handle, observation)) {
+        continue;
+      }
+      fit(pendingLatencies[idx]);
+      pendingLatencies[idx] = Double.NaN;
+      fitted = true;
+    }
+
+    if (fitted && numObservations >= minSamples) {
+      tune();
+    }
+
+    if (applyWeights && numTunings > 0) {
+      MetricParsePlan parsePlan = scorer.getParsePlan();
+      for (int idx = 0; idx < names.length; idx++) {
+        parsePlan.weight(idx, (float) tunedWeights[idx]);
+      }
+    }
+  }
+
+  /**
+  * Finds the handle of the container with a prefix of its docker-id.
+  *
+  * @param registry the registry of the containers
+  * @param dockerIdPrefix the prefix of the docker-id
+  * @return the handle of the container, or -1 if it is not registered
+  */
+  private static int findHandle(final ContainerRegistry registry,
+                                final String dockerIdPrefix) {
+    for (int handle = 0; handle < registry.handleBound(); handle++) {
+      if (registry.isRegistered(handle)
+          && registry.dockerId(handle).startsWith(dockerIdPrefix)) {
+        return handle;
+      }
+    }
+    return -1;
+  }
+
+  /**
+  * Fits an observation by recursive least squares: the metrics in
+  * observation[0..numMetrics-1] and their latency.
+  *
+  * @param latencyMillis the latency of the server of the container
+  */
+  private void fit(double latencyMillis) {
+    int numMetrics = names.length;
+    int dim = numMetrics + 1;
+    observation[numMetrics] = 1.0;  // the intercept
+
+    // gain = P * x, and the error of the prediction
+    double denominator = forgetting;
+    double error = latencyMillis;
+    for (int row = 0; row < dim; row++) {
+      double sum = 0.0;
+      for (int col = 0; col < dim; col++) {
+        sum += covariance[row * dim + col] * observation[col];
+      }
+      gain[row] = sum;
+      denominator += observation[row] * sum;
+      error -= coefficients[row] * observation[row];
+    }
+    if (!(denominator > 0) || Double.isInfinite(denominator)
+        || Double.isNaN(error) || Double.isInfinite(error)) {
+      return;
+    }
+
+    // theta += k * e, and P = (P - k * (P x)^T) / lambda, with
+    // k = P x / (lambda + x^T P x)
+    double trace = 0.0;
+    for (int row = 0; row < dim; row++) {
+      coefficients[row] += gain[row] / denominator * error;
+      for (int col = 0; col < dim; col++) {
+        covariance[row * dim + col] =
+            (covariance[row * dim + col]
+             - gain[row] * gain[col] / denominator) / forgetting;
+      }
+      trace += covariance[row * dim + row];
+    }
+    if (!(trace < MAX_COVARIANCE_TRACE)) {
+      resetCovariance();
+    }
+
+    for (int idx = 0; idx < numMetrics; idx++) {
+      meanValues[idx] = (numObservations == 0)
+                            ? observation[idx]
+                            : forgetting * meanValues[idx]
+                              + (1 - forgetting) * observation[idx];
+    }
+    numObservations++;
+  }
+
+  /**
+  * Resets the covariance of the fit to its initial, diagonal value.
+  */
+  private void resetCovariance() {
+    int dim = coefficients.length;
+    Arrays.fill(covariance, 0.0);
+    for (int idx = 0; idx < dim; idx++) {
+      covariance[idx * dim + idx] = INITIAL_VARIANCE;
+    }
+  }
+
+  /**
+  * Moves the tuned weights towards the coefficients of the fit, within
+  * their bounds, and logs and exports them.
+  */
+  private void tune() {
+    int numMetrics = names.length;
+
+    // the coefficients are scaled to give the same mean load factor as the
+    // configured weights (only a positive coefficient predicts latency)
+    double configuredLoad = 0.0;
+    double fittedLoad = 0.0;
+    for (int idx = 0; idx < numMetrics; idx++) {
+      configuredLoad += baseWeights[idx] * meanValues[idx];
+      fittedLoad += Math.max(coefficients[idx], 0.0) * meanValues[idx];
+    }
+    if (!(configuredLoad > 0) || !(fittedLoad > 0)) {
+      return;
+    }
+    double scale = configuredLoad / fittedLoad;
+
+    for (int idx = 0; idx < numMetrics; idx++) {
+      double base = baseWeights[idx];
+      double target = Math.max(coefficients[idx], 0.0) * scale;
+      target = Math.min(base * maxRatio, Math.max(base / maxRatio, target));
+      double step = maxStep * base;
+      tunedWeights[idx] +=
+          Math.min(step, Math.max(-step, target - tunedWeights[idx]));
+    }
+    numTunings++;
+
+    String report = report();
+    if (cycleLogger != null) {
+      cycleLogger.log(AsyncCycleLogger.Category.TUNING,
+                      applyWeights ? "applied" : "proposed",
+                      numObservations, report);
+    }
+    if (exportFile != null) {
+      pendingExport = report;
+    }
+  }
+
+  /**
+  * Renders the coefficients and the tuned weights, in the format of
+  * metric_weights.properties.
+  *
+  * @return the report
+  */
+  private String report() {
+    StringBuilder report = new StringBuilder();
+    report.append("# weights ")
+          .append(applyWeights ? "applied" : "proposed")
+          .append(" by LatencyWeightTuner from ").append(numObservations)
+          .append(" observations of the latency in HAProxy (")
+          .append(statsName).append(")\n")
+          .append("# fitted latency (millisecs) = intercept + "
+                  + "sum(coefficient * metric)\n")
+          .append("# intercept=").append(coefficients[names.length])
+          .append('\n');
+    for (int idx = 0; idx < names.length; idx++) {
+      report.append("# coefficient.").append(names[idx]).append('=')
+            .append(coefficients[idx])
+            .append(" (configured weight ").append((float) baseWeights[idx])
+            .append(")\n");
+    }
+    for (int idx = 0; idx < names.length; idx++) {
+      report.append("rw").append(Character.toUpperCase(names[idx].charAt(0)))
+            .append(names[idx].substring(1)).append('=')
+            .append((float) tunedWeights[idx]).append('\n');
+    }
+    return report.toString();
+  }
+
+  /**
+  * Reads the statistics of HAProxy, and takes the latency of each server
+  * whose counters advanced since the last read.
+  *
+  * @throws IOException the statistics couldn't be read
+  */
+  protected void poll() throws IOException {
+    String csv = (statsFile != null)
+                     ? new String(Files.readAllBytes(statsFile),
+                                  StandardCharsets.US_ASCII)
+                     : sendShowStat();
+
+    int pxnameCol = -1;
+    int svnameCol = -1;
+    int requestsCol = -1;
+    int connErrorsCol = -1;
+    int respErrorsCol = -1;
+    int latencyCol = -1;
+
+    for (String line: csv.split("\n")) {
+      line = line.trim();
+      if (line.startsWith("#")) {
+        List<String> header =
+            Arrays.asList(line.substring(1).trim().split(","));
+        pxnameCol = header.indexOf("pxname");
+        svnameCol = header.indexOf("svname");
+        requestsCol = header.indexOf("stot");
+        connErrorsCol = header.indexOf("econ");
+        respErrorsCol = header.indexOf("eresp");
+        latencyCol = header.indexOf("rtime");
+        continue;
+      }
+      if (line.isEmpty() || pxnameCol < 0 || svnameCol < 0
+          || requestsCol < 0 || latencyCol < 0) {
+        continue;
+      }
+
+      String[] fields = line.split(",", -1);
+      int server = (Math.max(pxnameCol, svnameCol) < fields.length)
+                       ? servers.indexOf(fields[pxnameCol] + "/"
+                                         + fields[svnameCol])
+                       : -1;
+      if (server < 0) {
+        continue;
+      }
+      takeLatency(server,
+                  parseCount(fields, requestsCol),
+                  parseCount(fields, connErrorsCol)
+                  + parseCount(fields, respErrorsCol),
+                  parseCount(fields, latencyCol));
+    }
+  }
+
+  /**
+  * Parses a counter of the "show stat" CSV (empty: 0).
+  *
+  * @param fields the fields of the line
+  * @param col the column of the counter (-1: absent)
+  * @return the counter
+  */
+  private static long parseCount(final String[] fields, int col) {
+    if (col < 0 || col >= fields.length || fields[col].isEmpty()) {
+      return 0;
+    }
+    try {
+      return Long.parseLong(fields[col].trim());
+    } catch (NumberFormatException ex) {
+      return 0;
+    }
+  }
+
+  /**
+  * Takes the latency of a server over the period since the last read, if
+  * it served some requests in it.
+  *
+  * @param server the index of the server
+  * @param requests its total number of requests
+  * @param errors its total number of errors
+  * @param latencyMillis its average response time, in millisecs
+  */
+  private void takeLatency(int server, long requests, long errors,
+                           long latencyMillis) {
+    long newRequests = requests - lastRequests[server];
+    long newErrors = errors - lastErrors[server];
+    boolean known = (lastRequests[server] >= 0);
+    lastRequests[server] = requests;
+    lastErrors[server] = errors;
+    if (!known || newRequests <= 0 || newErrors < 0) {
+      // no traffic in the period (or HAProxy reloaded): nothing to learn
+      return;
+    }
+
+    double latency = latencyMillis
+                     + errorPenaltyMillis * newErrors / newRequests;
+    synchronized (this) {
+      pendingLatencies[server] = latency;
+    }
+  }
+
+  /**
+  * Sends "show stat" to the stats socket of HAProxy, in a new connection,
+  * and reads its reply until HAProxy closes it.
+  *
+  * @return the CSV of the statistics
+  * @throws IOException HAProxy couldn't be reached, or timed out
+  */
+  protected String sendShowStat() throws IOException {
+    try (Socket socket = new Socket()) {
+      socket.connect(statsAddress, timeoutMillis);
+      socket.setSoTimeout(timeoutMillis);
+
+      OutputStream output = socket.getOutputStream();
+      output.write("show stat\n".getBytes(StandardCharsets.US_ASCII));
+      output.flush();
+
+      InputStream input = socket.getInputStream();
+      ByteArrayOutputStream reply = new ByteArrayOutputStream();
+      byte[] buffer = new byte[8192];
+      int numRead;
+      while ((numRead = input.read(buffer)) >= 0) {
+        reply.write(buffer, 0, numRead);
+      }
+      return new String(reply.toByteArray(), StandardCharsets.US_ASCII);
+    }
+  }
+
+  /**
+  * Writes the last report pending to the export file, atomically (to a
+  * temporary file in its directory, which is renamed over it).
+  */
+  private void exportPending() {
+    String content;
+    synchronized (this) {
+      content = pendingExport;
+      pendingExport = null;
+    }
+    if (content == null) {
+      return;
+    }
+
+    try {
+      Path directory = exportFile.toAbsolutePath().getParent();
+      Path tempFile = Files.createTempFile(directory,
+                                           "." + exportFile.getFileName(),
+                                           ".tmp");
+      try {
+        Files.write(tempFile, content.getBytes(StandardCharsets.UTF_8));
+        Files.move(tempFile, exportFile, StandardCopyOption.ATOMIC_MOVE,
+                   StandardCopyOption.REPLACE_EXISTING);
+      } finally {
+        Files.deleteIfExists(tempFile);
+      }
+    } catch (IOException ex) {
+      System.err.println("ERROR: exporting the tuned weights to "
+                         + exportFile + ": " + ex);
+    }
+  }
+
+  /**
+  * run() method of the class: reads the statistics of HAProxy periodically,
+  * and exports the last tuning.
+  */
+  @Override
+  public void run() {
+    try {
+      while (true) {
+        try {
+          poll();
+        } catch (IOException ex) {
+          System.err.println("WARN: reading the statistics of HAProxy at "
+                             + statsName + ": " + ex);
+        }
+        if (exportFile != null) {
+          exportPending();
+        }
+        Thread.sleep(pollMillis);
+      }
+    } catch (InterruptedException ex) {
+      ex.printStackTrace();
+    }
+  }
+
+}
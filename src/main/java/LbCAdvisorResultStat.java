@@ -33,5 +33,34 @@ public class LbCAdvisorResultStat {
   @Accessors(fluent = true)
   @Getter @Setter private int lbFinalStat = -1;
 
+  /**
+   * The cAdvisor host where the container runs.
+   *
+   * @param host New value for the host of this container.
+   * @return The current value of the host of this container.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private String host = null;
+
+  /**
+   * The service of the container, from its labels ("" or null if it has
+   * none of the service labels).
+   *
+   * @param service New value for the service of this container.
+   * @return The current value of the service of this container.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private String service = null;
+
+  /**
+   * The state of ejection of the container, as an outlier of its host.
+   *
+   * @param ejectionState New value for the state of ejection.
+   * @return The current value of the state of ejection.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private OutlierEjector.State ejectionState =
+      OutlierEjector.State.ADMITTED;
+
 }
 
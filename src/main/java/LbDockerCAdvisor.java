@@ -10,6 +10,11 @@
 * @since   2018-10-14
 */
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
 import org.apache.http.HttpHost;
 
 
@@ -23,6 +28,29 @@ import org.apache.http.HttpHost;
 */
 public final class LbDockerCAdvisor {
 
+  /**
+   * The normalizer of the metrics shared by the threads of all the cAdvisor
+   * hosts (null: the metrics aren't normalized).
+   */
+  private static FleetMetricNormalizer fleetNormalizer = null;
+
+  /**
+   * Whether the normalizer of the metrics was created from the settings yet.
+   */
+  private static boolean fleetNormalizerCreated = false;
+
+  /**
+   * The tuner of the relative weights shared by the threads of all the
+   * cAdvisor hosts (null: the configured weights are kept).
+   */
+  private static LatencyWeightTuner weightTuner = null;
+
+  /**
+   * Whether the tuner of the relative weights was created from the settings
+   * yet.
+   */
+  private static boolean weightTunerCreated = false;
+
   /**
   * Main function: program entry point.
   *
@@ -54,15 +82,298 @@ public final class LbDockerCAdvisor {
     // run a full cycle of queries to cAdvisor every 20 seconds:
     int delayBetweenQueryCyclesMillisec = 20 * 1000;
 
+    // the optional settings of this agent
+    ConfigLbDockerCAdvisor config = new ConfigLbDockerCAdvisor();
+    config.loadFromPropFile("lb_docker_cadvisor.properties");
+
+    // the diagnostics of each cycle are written by their own thread
+    AsyncCycleLogger cycleLogger = new AsyncCycleLogger(config, System.out);
+    cycleLogger.start();
+
+    boolean clustered = !config.clusterMembers().isEmpty();
+
+    // the consumers of the final metrics (of the whole fleet, if clustered)
+    List<LbResultStatsSink> resultStatsSinks =
+        new ArrayList<LbResultStatsSink>();
+
+    // the SNMP front-end to answer queries from the lb, and to notify it
+    final CAdvisorSnmpAgent snmpAgent =
+        config.snmpAgentAddress().isEmpty()
+            ? null
+            : new CAdvisorSnmpAgent(config.snmpAgentAddress(), config);
+    if (snmpAgent != null) {
+      resultStatsSinks.add(snmpAgent);
+    }
+
+    // the HAProxy agent-check front-end, answering with the live weights
+    HaproxyAgentCheckServer agentCheckServer =
+        new HaproxyAgentCheckServer(config);
+    if (agentCheckServer.hasBackends()) {
+      agentCheckServer.start();
+      resultStatsSinks.add(agentCheckServer);
+    }
+
+    // the weights pushed to the runtime API of HAProxy after each cycle
+    if (!config.haproxyRuntimeApi().isEmpty()) {
+      HaproxyRuntimeApiPusher runtimeApiPusher =
+          new HaproxyRuntimeApiPusher(config, cycleLogger);
+      if (runtimeApiPusher.hasServers()) {
+        runtimeApiPusher.start();
+        resultStatsSinks.add(runtimeApiPusher);
+      }
+    }
+
+    // the endpoints and their weights, in a file for Envoy or nginx
+    if (!config.endpointsFile().isEmpty()) {
+      LbEndpointsFileSink endpointsFile = new LbEndpointsFileSink(config);
+      if (endpointsFile.hasEndpoints()) {
+        resultStatsSinks.add(endpointsFile);
+      }
+    }
+
+    // the push feed of the changes of the load factors, for lb controllers
+    if (!config.weightFeedAddress().isEmpty()) {
+      LbWeightFeedServer weightFeed =
+          new LbWeightFeedServer(config.weightFeedAddress());
+      weightFeed.start();
+      resultStatsSinks.add(weightFeed);
+    }
+
+    if (clustered) {
+      if (!config.cgroupRoot().isEmpty()) {
+        System.err.println("WARN: cgroupRoot is ignored in a cluster");
+      }
+
+      // the cAdvisor hosts are split among the members of the cluster
+      List<String> fleetHosts = new ArrayList<String>();
+      for (String host: config.cAdvisorHosts().split(",")) {
+        if (!host.trim().isEmpty()) {
+          fleetHosts.add(host.trim());
+        }
+      }
+      if (fleetHosts.isEmpty()) {
+        fleetHosts.add(hostCAdvisor + ":" + portCAdvisor);
+      }
+
+      ClusterCoordinator coordinator =
+          new ClusterCoordinator(
+              config, fleetHosts,
+              (host, port) -> createQueryThread(
+                                  host, port, httpProxy,
+                                  delayBetweenQueryCyclesMillisec,
+                                  config, cycleLogger, snmpAgent, true
+                              )
+          );
+      for (LbResultStatsSink sink: resultStatsSinks) {
+        coordinator.addResultStatsSink(sink);
+      }
+      if (snmpAgent != null) {
+        snmpAgent.start();
+      }
+      coordinator.start();
+      coordinator.join();
+      return;
+    }
+
+    BackendThreadQueryCAdvisor querycAdvisor =
+        createQueryThread(hostCAdvisor, portCAdvisor, httpProxy,
+                          delayBetweenQueryCyclesMillisec, config,
+                          cycleLogger, snmpAgent, false);
+    for (LbResultStatsSink sink: resultStatsSinks) {
+      querycAdvisor.addResultStatsSink(sink);
+    }
+
+    if (snmpAgent != null) {
+      if (querycAdvisor.getPipeline() != null) {
+        snmpAgent.setPipeline(querycAdvisor.getPipeline());
+      }
+      snmpAgent.start();
+    }
+
+    querycAdvisor.start();
+
+    // add or remove the containers at once, between the full cycles
+    if (config.subscribeContainerEvents() && config.cgroupRoot().isEmpty()) {
+      new CAdvisorEventSubscriber(hostCAdvisor, portCAdvisor, querycAdvisor)
+          .start();
+    }
+
+    querycAdvisor.join();
+  }
+
+  /**
+  * Creates the thread which queries a cAdvisor host, configured with the
+  * settings of this agent (not started yet).
+  *
+  * @param hostCAdvisor the hostname or IP address of cAdvisor
+  * @param portCAdvisor the port number of cAdvisor
+  * @param httpProxy the HTTP proxy to cAdvisor, or null
+  * @param delayBetweenQueryCyclesMillisec the delay between the full cycles
+  * @param config the settings of this agent
+  * @param cycleLogger the logger of the diagnostics of each cycle
+  * @param snmpAgent the SNMP agent which exports the state of the circuit
+  *                  breaker of the host (null: none)
+  * @param perHostCaptures whether to record the responses of cAdvisor, and
+  *                        the metric history, in a subdirectory per host
+  * @return the thread which queries cAdvisor
+  */
+  private static BackendThreadQueryCAdvisor createQueryThread(
+                      final String hostCAdvisor,
+                      int portCAdvisor,
+                      final HttpHost httpProxy,
+                      int delayBetweenQueryCyclesMillisec,
+                      final ConfigLbDockerCAdvisor config,
+                      final AsyncCycleLogger cycleLogger,
+                      final CAdvisorSnmpAgent snmpAgent,
+                      boolean perHostCaptures
+  ) {
     BackendThreadQueryCAdvisor querycAdvisor =
         new BackendThreadQueryCAdvisor(hostCAdvisor,
                                  portCAdvisor,
                                  httpProxy,
                                  delayBetweenQueryCyclesMillisec);
-    querycAdvisor.start();
-    // TODO: create the SNMP front-end thread to answer queries from the
-    // lb.
-    querycAdvisor.join();
+
+    querycAdvisor.setAllocationFreeCycle(config.allocationFreeCycle());
+    querycAdvisor.setServiceLabelKeys(
+        config.serviceLabels().split("\\s*,\\s*")
+    );
+    querycAdvisor.setSpecRefresh(config.specRefreshSeconds());
+
+    // a sick cAdvisor is backed off, while its last good weights are served
+    querycAdvisor.setTimeout(config.cAdvisorTimeoutMillis());
+    CAdvisorCircuitBreaker breaker =
+        new CAdvisorCircuitBreaker(hostCAdvisor + ":" + portCAdvisor, config);
+    querycAdvisor.setCircuitBreaker(breaker);
+    querycAdvisor.setStaleWeights(
+        config.staleWeightsMaxMillis(),
+        "drop".equalsIgnoreCase(config.staleWeightsPolicy())
+    );
+    if (snmpAgent != null) {
+      snmpAgent.addCircuitBreaker(breaker);
+    }
+
+    // fetch, parse, score and publish each in their own stage
+    if (config.pipelineStages()) {
+      querycAdvisor.setPipelined(config.pipelineQueueCapacity(),
+                                 config.pipelineParseThreads());
+    }
+
+    // the samples read straight from the cgroups of this machine
+    // (in a single-host agent only: the cluster queries the fleet)
+    if (!config.cgroupRoot().isEmpty() && !perHostCaptures) {
+      querycAdvisor.setCgroupCollector(
+          new CgroupV2Collector(config.cgroupRoot(),
+                                querycAdvisor.getParsePlan()),
+          config.cgroupSampleMillis()
+      );
+    }
+
+    // the metrics are scored against the same fleet by all the threads
+    querycAdvisor.setFleetNormalizer(
+        sharedFleetNormalizer(config, querycAdvisor.getParsePlan())
+    );
+
+    // the weights are tuned from the latency of the servers in HAProxy
+    querycAdvisor.setWeightTuner(
+        sharedWeightTuner(config, querycAdvisor.getParsePlan(), cycleLogger)
+    );
+
+    // the pathological containers are drained for a while
+    if (config.outlierEjection()) {
+      querycAdvisor.setOutlierEjector(new OutlierEjector(config, cycleLogger));
+    }
+
+    // the load factors don't swing back and forth at each cycle
+    if (config.damping()) {
+      querycAdvisor.setLoadFactorDamper(new LoadFactorDamper(config));
+    }
+
+    querycAdvisor.setCycleLogger(cycleLogger);
+
+    if (!config.recordCapturesDir().isEmpty()) {
+      String capturesDir = config.recordCapturesDir();
+      if (perHostCaptures) {
+        capturesDir += File.separator + hostCAdvisor + "_" + portCAdvisor;
+      }
+      querycAdvisor.setResponseRecorder(
+          new CAdvisorResponseRecorder(capturesDir,
+                                       config.recordSegmentMaxBytes())
+      );
+    }
+
+    // the compressed history of the samples and load factors, flushed when
+    // the agent stops
+    if (!config.historyDir().isEmpty()) {
+      String historyDir = config.historyDir();
+      if (perHostCaptures) {
+        historyDir += File.separator + hostCAdvisor + "_" + portCAdvisor;
+      }
+      try {
+        MetricHistoryStore history =
+            MetricHistoryStore.open(new File(historyDir),
+                                    querycAdvisor.getParsePlan(), config);
+        querycAdvisor.setMetricHistory(history);
+        Runtime.getRuntime().addShutdownHook(new Thread(history::flush));
+      } catch (IOException ex) {
+        System.err.println("ERROR: opening the metric history in "
+                           + historyDir + ": " + ex);
+      }
+    }
+
+    return querycAdvisor;
   }
-}
 
+  /**
+  * Gets the normalizer of the metrics shared by the threads of all the
+  * cAdvisor hosts, creating it from the settings the first time.
+  *
+  * @param config the settings of this agent
+  * @param parsePlan the plan of the metrics scored
+  * @return the normalizer, or null if the metrics aren't normalized
+  */
+  private static synchronized FleetMetricNormalizer sharedFleetNormalizer(
+                                  final ConfigLbDockerCAdvisor config,
+                                  final MetricParsePlan parsePlan
+  ) {
+    if (!fleetNormalizerCreated) {
+      fleetNormalizer =
+          FleetMetricNormalizer.fromConfig(config, parsePlan.numMetrics());
+      fleetNormalizerCreated = true;
+      if (fleetNormalizer != null) {
+        System.out.println("INFO: normalizing the metrics relative to the "
+                           + "fleet by " + fleetNormalizer.method());
+      }
+    }
+    return fleetNormalizer;
+  }
+
+  /**
+  * Gets the tuner of the relative weights shared by the threads of all the
+  * cAdvisor hosts, creating and starting it from the settings the first
+  * time.
+  *
+  * @param config the settings of this agent
+  * @param parsePlan the plan of the metrics, with their configured weights
+  * @param cycleLogger the logger of the tunings
+  * @return the tuner, or null if the weights aren't tuned
+  */
+  private static synchronized LatencyWeightTuner sharedWeightTuner(
+                                  final ConfigLbDockerCAdvisor config,
+                                  final MetricParsePlan parsePlan,
+                                  final AsyncCycleLogger cycleLogger
+  ) {
+    if (!weightTunerCreated) {
+      weightTuner =
+          LatencyWeightTuner.fromConfig(config, parsePlan, cycleLogger);
+      weightTunerCreated = true;
+      if (weightTuner != null) {
+        System.out.println("INFO: tuning the weights from the latency in "
+                           + "HAProxy (" + (weightTuner.appliesWeights()
+                                                ? "applying" : "proposing")
+                           + " them)");
+        weightTuner.start();
+      }
+    }
+    return weightTuner;
+  }
+}
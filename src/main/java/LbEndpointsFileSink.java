@@ -0,0 +1,300 @@
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// JSON-simple
+import org.json.simple.JSONValue;
+
+
+/**
+* Renders the weights of the docker containers into a file of endpoints for
+* the proxies which load them from files: either an Envoy EDS response (a
+* ClusterLoadAssignment, with the load_balancing_weight of each endpoint,
+* for a filesystem "eds_config"), or an nginx "upstream" block (included
+* from nginx.conf). For example, for:
+*
+* <pre>
+*   # lb_docker_cadvisor.properties
+*   endpointsFile=/etc/envoy/eds/web.json
+*   endpointsFileFormat=envoy
+*   endpointsFileCluster=web
+*   endpointsFileAddress.cfc0fb6f62f9=10.0.0.5:80
+* </pre>
+*
+* the endpoint 10.0.0.5:80 of the cluster "web" gets the weight of the
+* container cfc0fb6f62f9..., out of endpointsFileMaxWeight, inversely
+* proportional to its load factor (like the HAProxy weights); a fully loaded
+* container is drained ("DRAINING" in Envoy, "down" in nginx).
+*
+* The file is only written when its content changes, so that the proxy
+* isn't reloaded for nothing: to a temporary file in the same directory,
+* which is then renamed over it atomically, so the proxy never reads a
+* partial file.
+*
+* @author  Jose E. Nunez
+* @version 0.0.1
+* @since   2019-07-07
+*/
+public final class LbEndpointsFileSink implements LbResultStatsSink {
+
+  /**
+   * The type of the resources of an Envoy EDS response.
+   */
+  private static final String ENVOY_RESOURCE_TYPE =
+      "type.googleapis.com/envoy.config.endpoint.v3.ClusterLoadAssignment";
+
+  /**
+   * The file of endpoints.
+   */
+  private final Path file;
+
+  /**
+   * Whether the file is an nginx "upstream" block (else an Envoy EDS
+   * response).
+   */
+  private final boolean nginxFormat;
+
+  /**
+   * The name of the Envoy cluster, or of the nginx upstream.
+   */
+  private final String clusterName;
+
+  /**
+   * The weight of an idle container.
+   */
+  private final int maxWeight;
+
+  /**
+   * The load factor (in the "d-3" units exported by SNMP) at which a
+   * container is fully loaded, so it is drained.
+   */
+  private final int fullLoadFactor;
+
+  /**
+   * The address ("host:port") of the endpoint of each container, by a
+   * prefix of its docker-id (sorted, so the file is rendered in a stable
+   * order).
+   */
+  private final Map<String, String> endpointAddresses =
+      new TreeMap<String, String>();
+
+  /**
+   * The content last written to the file (or found in it at start-up).
+   */
+  private String lastContent = null;
+
+  /**
+  * Constructor.
+  *
+  * @param config the settings of the agent, with the file, its format, the
+  *               cluster and the endpoint of each container
+  *               ("endpointsFileAddress.[docker-id-prefix]=[host]:[port]")
+  */
+  public LbEndpointsFileSink(final ConfigLbDockerCAdvisor config) {
+    file = Paths.get(config.endpointsFile());
+    nginxFormat = "nginx".equalsIgnoreCase(config.endpointsFileFormat());
+    clusterName = config.endpointsFileCluster();
+    maxWeight = Math.max(1, config.endpointsFileMaxWeight());
+    fullLoadFactor = config.agentCheckFullLoadFactor();
+
+    for (Map.Entry<String, String> endpoint:
+             config.getPropertiesWithPrefix("endpointsFileAddress.")
+                   .entrySet()) {
+      String address = endpoint.getValue();
+      int colon = address.lastIndexOf(':');
+      try {
+        Integer.parseInt(address.substring(colon + 1));
+      } catch (NumberFormatException ex) {
+        System.err.println("ERROR: invalid endpoint address " + address
+                           + " for " + endpoint.getKey() + ". Ignoring it.");
+        continue;
+      }
+      endpointAddresses.put(endpoint.getKey(), address);
+    }
+
+    // a restart with the same weights doesn't rewrite the file either
+    try {
+      if (Files.isRegularFile(file)) {
+        lastContent = new String(Files.readAllBytes(file),
+                                 StandardCharsets.UTF_8);
+      }
+    } catch (IOException ex) {
+      System.err.println("WARN: reading the endpoints file " + file + ": "
+                         + ex);
+    }
+  }
+
+  /**
+  * Whether there is any endpoint to write to the file.
+  *
+  * @return true if some endpoint address is given
+  */
+  public boolean hasEndpoints() {
+    return !endpointAddresses.isEmpty();
+  }
+
+  /**
+  * Renders the endpoints of the containers, and writes them to the file if
+  * they changed.
+  *
+  * @param lbResultStats the final metrics, one per docker container
+  */
+  @Override
+  public void publish(List<LbCAdvisorResultStat> lbResultStats) {
+    String content = nginxFormat ? renderNginx(lbResultStats)
+                                 : renderEnvoy(lbResultStats);
+    if (content.equals(lastContent)) {
+      return;
+    }
+
+    try {
+      writeAtomically(content);
+      lastContent = content;
+    } catch (IOException ex) {
+      System.err.println("ERROR: writing the endpoints file " + file + ": "
+                         + ex);
+    }
+  }
+
+  /**
+  * Gets the final metrics of the container of an endpoint.
+  *
+  * @param lbResultStats the final metrics, one per docker container
+  * @param dockerIdPrefix the prefix of the docker-id of the container
+  * @return the final metrics of the container, or null if it is not there
+  */
+  private static LbCAdvisorResultStat findContainer(
+                     final List<LbCAdvisorResultStat> lbResultStats,
+                     final String dockerIdPrefix
+  ) {
+    for (LbCAdvisorResultStat lbResultStat: lbResultStats) {
+      if (lbResultStat.dockerId().startsWith(dockerIdPrefix)) {
+        return lbResultStat;
+      }
+    }
+    return null;
+  }
+
+  /**
+  * Renders the endpoints as an Envoy EDS response, with a single
+  * ClusterLoadAssignment. (Its version is the hash of the endpoints, so it
+  * only changes with them.)
+  *
+  * @param lbResultStats the final metrics, one per docker container
+  * @return the content of the file
+  */
+  protected String renderEnvoy(final List<LbCAdvisorResultStat> lbResultStats) {
+    StringBuilder endpoints = new StringBuilder();
+
+    for (Map.Entry<String, String> endpoint: endpointAddresses.entrySet()) {
+      LbCAdvisorResultStat lbResultStat =
+          findContainer(lbResultStats, endpoint.getKey());
+      if (lbResultStat == null) {
+        continue;
+      }
+      int weight = HaproxyRuntimeApiPusher.weight(lbResultStat.lbFinalStat(),
+                                                  fullLoadFactor, maxWeight);
+      if (weight < 0) {
+        continue;
+      }
+
+      String address = endpoint.getValue();
+      int colon = address.lastIndexOf(':');
+      endpoints.append((endpoints.length() > 0) ? ",\n" : "")
+               .append("        {\"endpoint\": {\"address\": "
+                       + "{\"socket_address\": {\"address\": \"")
+               .append(JSONValue.escape(address.substring(0, colon)))
+               .append("\", \"port_value\": ")
+               .append(address.substring(colon + 1))
+               .append("}}}, ")
+               .append((weight == 0) ? "\"health_status\": \"DRAINING\", "
+                                     : "")
+               .append("\"load_balancing_weight\": ")
+               .append(Math.max(weight, 1))
+               .append('}');
+    }
+
+    String resource =
+        "    {\"@type\": \"" + ENVOY_RESOURCE_TYPE + "\",\n"
+        + "     \"cluster_name\": \"" + JSONValue.escape(clusterName) + "\",\n"
+        + "     \"endpoints\": [{\"lb_endpoints\": [\n"
+        + endpoints + "\n"
+        + "     ]}]}\n";
+
+    return "{\"version_info\": \""
+           + Integer.toHexString(resource.hashCode()) + "\",\n"
+           + " \"resources\": [\n"
+           + resource
+           + " ]}\n";
+  }
+
+  /**
+  * Renders the endpoints as an nginx "upstream" block.
+  *
+  * @param lbResultStats the final metrics, one per docker container
+  * @return the content of the file
+  */
+  protected String renderNginx(final List<LbCAdvisorResultStat> lbResultStats) {
+    StringBuilder upstream = new StringBuilder();
+    upstream.append("# written by LbDockerCAdvisor: don't edit it\n")
+            .append("upstream ").append(clusterName).append(" {\n");
+
+    for (Map.Entry<String, String> endpoint: endpointAddresses.entrySet()) {
+      LbCAdvisorResultStat lbResultStat =
+          findContainer(lbResultStats, endpoint.getKey());
+      if (lbResultStat == null) {
+        continue;
+      }
+      int weight = HaproxyRuntimeApiPusher.weight(lbResultStat.lbFinalStat(),
+                                                  fullLoadFactor, maxWeight);
+      if (weight < 0) {
+        continue;
+      }
+
+      upstream.append("    server ").append(endpoint.getValue());
+      if (weight == 0) {
+        upstream.append(" down;\n");
+      } else {
+        upstream.append(" weight=").append(weight).append(";\n");
+      }
+    }
+
+    return upstream.append("}\n").toString();
+  }
+
+  /**
+  * Writes the file atomically: to a temporary file in its directory, which
+  * is renamed over it.
+  *
+  * @param content the content of the file
+  * @throws IOException the file couldn't be written
+  */
+  protected void writeAtomically(final String content) throws IOException {
+    Path directory = file.toAbsolutePath().getParent();
+    Path tempFile = Files.createTempFile(directory,
+                                         "." + file.getFileName(), ".tmp");
+    try {
+      Files.write(tempFile, content.getBytes(StandardCharsets.UTF_8));
+      try {
+        // readable by the proxy, like the file it replaces
+        Files.setPosixFilePermissions(
+            tempFile, PosixFilePermissions.fromString("rw-r--r--"));
+      } catch (UnsupportedOperationException ex) {
+        // not a POSIX file system: keep the default permissions
+      }
+      Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE,
+                 StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(tempFile);
+    }
+  }
+
+}
@@ -0,0 +1,25 @@
+
+import java.util.List;
+
+
+/**
+* A consumer of the final metrics for the load balancer calculated in each
+* cycle of queries to cAdvisor (e.g., the SNMP agent which exports them).
+*
+* @author  Jose E. Nunez
+* @version 0.0.1
+* @since   2019-05-05
+*/
+public interface LbResultStatsSink {
+
+  /**
+  * Publishes the final metrics of all the docker containers calculated in a
+  * cycle of queries to cAdvisor. (It is called from the thread which queries
+  * cAdvisor, or from the publish stage of its pipeline, so it shouldn't
+  * block.)
+  *
+  * @param lbResultStats the final metrics, one per docker container
+  */
+  void publish(List<LbCAdvisorResultStat> lbResultStats);
+
+}
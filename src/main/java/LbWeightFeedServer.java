@@ -0,0 +1,447 @@
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+// JSON-simple
+import org.json.simple.JSONValue;
+
+
+/**
+* A push-based feed of the changes of the load factors, for the controllers
+* of the load balancers, as Server-Sent Events over HTTP, served by a
+* single-threaded NIO server. On connecting, a subscriber receives the full
+* snapshot of the load factors:
+*
+* <pre>
+*   id: 41
+*   event: snapshot
+*   data: {"seq":41,"loadFactors":{"[docker-id]":28616, ...}}
+* </pre>
+*
+* and then, at each cycle of queries to cAdvisor in which any load factor
+* changed, only the changes:
+*
+* <pre>
+*   id: 42
+*   event: delta
+*   data: {"seq":42,"changed":{"[docker-id]":29856},"removed":["[id]"]}
+* </pre>
+*
+* The sequence numbers are consecutive, so a subscriber which sees a gap (or
+* is disconnected because it didn't keep up) reconnects to get a snapshot.
+* Each event is serialized once per cycle, whatever the number of
+* subscribers.
+*
+* @author  Jose E. Nunez
+* @version 0.0.1
+* @since   2019-05-19
+*/
+public final class LbWeightFeedServer extends Thread
+    implements LbResultStatsSink {
+
+  /**
+   * The maximum size of the HTTP request of a subscriber.
+   */
+  private static final int MAX_REQUEST_BYTES = 4096;
+
+  /**
+   * The maximum number of events pending to be written to a subscriber
+   * before disconnecting it for not keeping up.
+   */
+  private static final int MAX_PENDING_EVENTS = 64;
+
+  /**
+   * The HTTP response headers of the feed.
+   */
+  private static final ByteBuffer RESPONSE_HEADERS =
+      ByteBuffer.wrap(("HTTP/1.1 200 OK\r\n"
+                       + "Content-Type: text/event-stream\r\n"
+                       + "Cache-Control: no-cache\r\n"
+                       + "Connection: keep-alive\r\n"
+                       + "\r\n").getBytes(StandardCharsets.US_ASCII))
+                .asReadOnlyBuffer();
+
+  /**
+  * The snapshot and the delta events of a cycle, serialized once.
+  */
+  private static final class FeedEvents {
+
+    /**
+     * The snapshot event, for the new subscribers.
+     */
+    private final ByteBuffer snapshot;
+
+    /**
+     * The delta event, for the current subscribers.
+     */
+    private final ByteBuffer delta;
+
+    /**
+    * Constructor.
+    *
+    * @param snapshotEvent the serialized snapshot event
+    * @param deltaEvent the serialized delta event
+    */
+    FeedEvents(final ByteBuffer snapshotEvent, final ByteBuffer deltaEvent) {
+      snapshot = snapshotEvent;
+      delta = deltaEvent;
+    }
+  }
+
+  /**
+  * The state of the connection of a subscriber.
+  */
+  private static final class Subscriber {
+
+    /**
+     * The HTTP request of the subscriber, until it is complete.
+     */
+    private final ByteBuffer request = ByteBuffer.allocate(MAX_REQUEST_BYTES);
+
+    /**
+     * Whether the HTTP request is complete, so the events are sent.
+     */
+    private boolean subscribed = false;
+
+    /**
+     * The events pending to be written to the subscriber.
+     */
+    private final ArrayDeque<ByteBuffer> pending = new ArrayDeque<ByteBuffer>();
+  }
+
+  /**
+   * The address where the feed listens.
+   */
+  private final InetSocketAddress listenAddress;
+
+  /**
+   * The selector of the listening and the subscriber channels.
+   */
+  private final Selector selector;
+
+  /**
+   * The events of each cycle, passed from the thread which queries cAdvisor
+   * to the thread of this server.
+   */
+  private final ConcurrentLinkedQueue<FeedEvents> publishedEvents =
+      new ConcurrentLinkedQueue<FeedEvents>();
+
+  /**
+   * The last load factors published, per docker-container-id (only used by
+   * the thread which queries cAdvisor).
+   */
+  private Map<String, Integer> lastLoadFactors =
+      new HashMap<String, Integer>();
+
+  /**
+   * The sequence number of the last event published.
+   */
+  private long lastSeq = 0;
+
+  /**
+   * The last snapshot event (only used by the thread of this server).
+   */
+  private ByteBuffer currentSnapshot = null;
+
+  /**
+  * Constructor.
+  *
+  * @param address where the feed listens, like "0.0.0.0:8081"
+  * @throws IOException the selector couldn't be opened
+  */
+  public LbWeightFeedServer(final String address) throws IOException {
+    super("LbWeightFeedServer: push feed of the load factors");
+    setDaemon(true);
+
+    int colon = address.lastIndexOf(':');
+    String host = (colon > 0) ? address.substring(0, colon).trim()
+                              : "0.0.0.0";
+    listenAddress = new InetSocketAddress(
+                          host,
+                          Integer.parseInt(address.substring(colon + 1)
+                                                  .trim())
+                        );
+    selector = Selector.open();
+  }
+
+  /**
+  * Serializes an SSE event.
+  *
+  * @param seq the sequence number of the event
+  * @param eventType the type of the event
+  * @param json the JSON data of the event
+  * @return the serialized event
+  */
+  protected static ByteBuffer serializeEvent(long seq, final String eventType,
+                                             final CharSequence json) {
+    String event = "id: " + seq + "\nevent: " + eventType
+                   + "\ndata: " + json + "\n\n";
+    return ByteBuffer.wrap(event.getBytes(StandardCharsets.UTF_8))
+                     .asReadOnlyBuffer();
+  }
+
+  /**
+  * Computes the changes from the last load factors published, and passes
+  * the snapshot and the delta events, serialized once, to the thread of
+  * this server. Nothing is sent if no load factor changed.
+  *
+  * @param lbResultStats the final metrics, one per docker container
+  */
+  @Override
+  public void publish(List<LbCAdvisorResultStat> lbResultStats) {
+    Map<String, Integer> newLoadFactors =
+        new HashMap<String, Integer>(lbResultStats.size() * 2);
+
+    StringBuilder snapshot = new StringBuilder();
+    StringBuilder changed = new StringBuilder();
+    for (LbCAdvisorResultStat lbResultStat: lbResultStats) {
+      String dockerId = lbResultStat.dockerId();
+      int loadFactor = lbResultStat.lbFinalStat();
+      newLoadFactors.put(dockerId, Integer.valueOf(loadFactor));
+
+      String entry = "\"" + JSONValue.escape(dockerId) + "\":" + loadFactor;
+      snapshot.append(snapshot.length() > 0 ? "," : "").append(entry);
+
+      Integer lastLoadFactor = lastLoadFactors.get(dockerId);
+      if (lastLoadFactor == null || lastLoadFactor.intValue() != loadFactor) {
+        changed.append(changed.length() > 0 ? "," : "").append(entry);
+      }
+    }
+
+    StringBuilder removed = new StringBuilder();
+    for (String dockerId: lastLoadFactors.keySet()) {
+      if (!newLoadFactors.containsKey(dockerId)) {
+        removed.append(removed.length() > 0 ? "," : "")
+               .append('"').append(JSONValue.escape(dockerId)).append('"');
+      }
+    }
+
+    lastLoadFactors = newLoadFactors;
+    if (changed.length() == 0 && removed.length() == 0 && lastSeq > 0) {
+      return;
+    }
+    long seq = ++lastSeq;
+
+    publishedEvents.offer(new FeedEvents(
+        serializeEvent(seq, "snapshot",
+                       "{\"seq\":" + seq + ",\"loadFactors\":{"
+                       + snapshot + "}}"),
+        serializeEvent(seq, "delta",
+                       "{\"seq\":" + seq + ",\"changed\":{" + changed
+                       + "},\"removed\":[" + removed + "]}")
+    ));
+    selector.wakeup();
+  }
+
+  /**
+  * Queues an event to a subscriber, disconnecting it if it didn't keep up.
+  *
+  * @param key the selection key of the subscriber
+  * @param event the serialized event (shared by all the subscribers)
+  */
+  protected void queueEvent(final SelectionKey key, final ByteBuffer event) {
+    Subscriber subscriber = (Subscriber) key.attachment();
+
+    if (subscriber.pending.size() >= MAX_PENDING_EVENTS) {
+      close(key);
+      return;
+    }
+    subscriber.pending.add(event.duplicate());
+  }
+
+  /**
+  * Writes the pending events of a subscriber, as much as its socket buffer
+  * takes.
+  *
+  * @param key the selection key of the subscriber
+  */
+  protected void flush(final SelectionKey key) {
+    if (!key.isValid()) {
+      return;
+    }
+    SocketChannel channel = (SocketChannel) key.channel();
+    Subscriber subscriber = (Subscriber) key.attachment();
+
+    try {
+      ByteBuffer event;
+      while ((event = subscriber.pending.peek()) != null) {
+        channel.write(event);
+        if (event.hasRemaining()) {
+          break;
+        }
+        subscriber.pending.poll();
+      }
+    } catch (IOException ex) {
+      close(key);
+      return;
+    }
+
+    key.interestOps(subscriber.pending.isEmpty()
+                      ? SelectionKey.OP_READ
+                      : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+  }
+
+  /**
+  * Reads from a subscriber: its HTTP request, until it is complete, and
+  * then nothing but its disconnection.
+  *
+  * @param key the selection key of the subscriber
+  */
+  protected void read(final SelectionKey key) {
+    SocketChannel channel = (SocketChannel) key.channel();
+    Subscriber subscriber = (Subscriber) key.attachment();
+
+    int numRead;
+    try {
+      if (subscriber.subscribed) {
+        subscriber.request.clear();
+      }
+      numRead = channel.read(subscriber.request);
+    } catch (IOException ex) {
+      numRead = -1;
+    }
+    if (numRead < 0) {
+      close(key);
+      return;
+    }
+    if (subscriber.subscribed) {
+      return;
+    }
+
+    String request = new String(subscriber.request.array(), 0,
+                                subscriber.request.position(),
+                                StandardCharsets.US_ASCII);
+    if (request.contains("\r\n\r\n")) {
+      subscriber.subscribed = true;
+      queueEvent(key, RESPONSE_HEADERS);
+      if (currentSnapshot != null) {
+        queueEvent(key, currentSnapshot);
+      }
+      flush(key);
+    } else if (!subscriber.request.hasRemaining()) {
+      close(key);
+    }
+  }
+
+  /**
+  * Closes the connection of a subscriber.
+  *
+  * @param key the selection key of the subscriber
+  */
+  protected void close(final SelectionKey key) {
+    key.cancel();
+    try {
+      key.channel().close();
+    } catch (IOException ex) {
+      // already closed
+    }
+  }
+
+  /**
+  * Sends the events published since the last time to all the subscribers.
+  */
+  protected void broadcastPublishedEvents() {
+    FeedEvents events;
+    while ((events = publishedEvents.poll()) != null) {
+      currentSnapshot = events.snapshot;
+
+      for (SelectionKey key: selector.keys()) {
+        if (key.isValid() && key.attachment() instanceof Subscriber
+            && ((Subscriber) key.attachment()).subscribed) {
+          queueEvent(key, events.delta);
+        }
+      }
+    }
+
+    for (SelectionKey key: selector.keys()) {
+      if (key.isValid() && key.attachment() instanceof Subscriber) {
+        flush(key);
+      }
+    }
+  }
+
+  /**
+  * run() method of the class: serves the subscribers for ever.
+  */
+  @Override
+  public void run() {
+    try {
+      ServerSocketChannel serverChannel = ServerSocketChannel.open();
+      serverChannel.socket().setReuseAddress(true);
+      serverChannel.bind(listenAddress, 128);
+      serverChannel.configureBlocking(false);
+      serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    } catch (IOException ex) {
+      ex.printStackTrace();
+      System.err.println("ERROR: the weight feed couldn't listen on "
+                         + listenAddress);
+      return;
+    }
+
+    while (true) {
+      try {
+        selector.select();
+      } catch (IOException ex) {
+        ex.printStackTrace();
+        continue;
+      }
+
+      if (!publishedEvents.isEmpty()) {
+        broadcastPublishedEvents();
+      }
+
+      Iterator<SelectionKey> selectedKeys =
+          selector.selectedKeys().iterator();
+      while (selectedKeys.hasNext()) {
+        SelectionKey key = selectedKeys.next();
+        selectedKeys.remove();
+
+        if (!key.isValid()) {
+          continue;
+        }
+        if (key.isAcceptable()) {
+          accept(key);
+          continue;
+        }
+        if (key.isReadable()) {
+          read(key);
+        }
+        if (key.isValid() && key.isWritable()) {
+          flush(key);
+        }
+      }
+    }
+  }
+
+  /**
+  * Accepts the pending connections of new subscribers.
+  *
+  * @param key the selection key of the listening channel
+  */
+  protected void accept(final SelectionKey key) {
+    ServerSocketChannel serverChannel = (ServerSocketChannel) key.channel();
+
+    SocketChannel channel;
+    try {
+      while ((channel = serverChannel.accept()) != null) {
+        channel.configureBlocking(false);
+        channel.register(selector, SelectionKey.OP_READ, new Subscriber());
+      }
+    } catch (IOException ex) {
+      ex.printStackTrace();
+    }
+  }
+
+}
@@ -0,0 +1,364 @@
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.function.Function;
+
+
+/**
+* The aggregates of the load factors of the docker containers grouped by a
+* key, like their host or their service: the number of containers, the sum,
+* mean and maximum of their load factors, and the least loaded one.
+*
+* They are maintained incrementally: at each cycle, only the containers
+* whose load factor or group changed (or which appeared or disappeared)
+* update their groups, each in O(log size of the group), and only those
+* groups are reported as changed, so that the exported tables update just
+* their rows.
+*
+* It is not thread-safe: it is used only from the thread which publishes
+* the final metrics.
+*
+* @author  Jose E. Nunez
+* @version 0.0.1
+* @since   2019-06-23
+*/
+public final class LoadFactorAggregates {
+
+  /**
+  * The aggregates of a group of containers.
+  */
+  public static final class Group {
+
+    /**
+     * The key of the group.
+     */
+    private final String key;
+
+    /**
+     * The row of the group in the exported table (from 1, stable while the
+     * group has containers).
+     */
+    private final int row;
+
+    /**
+     * The members of the group, ordered by load factor (and docker-id).
+     */
+    private final TreeSet<Member> members = new TreeSet<Member>();
+
+    /**
+     * The sum of the load factors of the members.
+     */
+    private long sum = 0;
+
+    /**
+     * Whether the group changed in this cycle.
+     */
+    private boolean changed = false;
+
+    /**
+    * Constructor.
+    *
+    * @param groupKey the key of the group
+    * @param groupRow the row of the group in the exported table
+    */
+    private Group(final String groupKey, int groupRow) {
+      key = groupKey;
+      row = groupRow;
+    }
+
+    /**
+    * Get the key of the group.
+    *
+    * @return the key of the group
+    */
+    public String key() {
+      return key;
+    }
+
+    /**
+    * Get the row of the group in the exported table.
+    *
+    * @return the row, from 1
+    */
+    public int row() {
+      return row;
+    }
+
+    /**
+    * Get the number of containers of the group.
+    *
+    * @return the number of containers (0 if the group was removed)
+    */
+    public int count() {
+      return members.size();
+    }
+
+    /**
+    * Get the sum of the load factors of the containers of the group.
+    *
+    * @return the sum of the load factors
+    */
+    public long sum() {
+      return sum;
+    }
+
+    /**
+    * Get the mean of the load factors of the containers of the group.
+    *
+    * @return the mean of the load factors (0 if there are none)
+    */
+    public long mean() {
+      return members.isEmpty() ? 0 : sum / members.size();
+    }
+
+    /**
+    * Get the maximum load factor of the containers of the group.
+    *
+    * @return the maximum load factor (0 if there are none)
+    */
+    public int max() {
+      return members.isEmpty() ? 0 : members.last().loadFactor;
+    }
+
+    /**
+    * Get the minimum load factor of the containers of the group.
+    *
+    * @return the minimum load factor (0 if there are none)
+    */
+    public int min() {
+      return members.isEmpty() ? 0 : members.first().loadFactor;
+    }
+
+    /**
+    * Get the least loaded container of the group.
+    *
+    * @return its docker-id ("" if there are none)
+    */
+    public String leastLoaded() {
+      return members.isEmpty() ? "" : members.first().dockerId;
+    }
+  }
+
+  /**
+  * A container, member of a group.
+  */
+  private static final class Member implements Comparable<Member> {
+
+    /**
+     * The docker-id of the container.
+     */
+    private final String dockerId;
+
+    /**
+     * The load factor of the container.
+     */
+    private int loadFactor;
+
+    /**
+     * The group of the container.
+     */
+    private Group group;
+
+    /**
+     * The last cycle where the container was published.
+     */
+    private long lastCycle;
+
+    /**
+    * Constructor.
+    *
+    * @param id the docker-id of the container
+    */
+    private Member(final String id) {
+      dockerId = id;
+    }
+
+    @Override
+    public int compareTo(final Member other) {
+      int cmp = Integer.compare(loadFactor, other.loadFactor);
+      return (cmp != 0) ? cmp : dockerId.compareTo(other.dockerId);
+    }
+  }
+
+  /**
+   * Gives the key of the group of a container (null or "": in no group).
+   */
+  private final Function<LbCAdvisorResultStat, String> keyOf;
+
+  /**
+   * The containers in a group, by docker-id.
+   */
+  private final Map<String, Member> members = new HashMap<String, Member>();
+
+  /**
+   * The groups, by key.
+   */
+  private final Map<String, Group> groups = new HashMap<String, Group>();
+
+  /**
+   * The groups which changed in the current cycle.
+   */
+  private final List<Group> changedGroups = new ArrayList<Group>();
+
+  /**
+   * The rows of the groups removed, to be reused.
+   */
+  private int[] freeRows = new int[8];
+
+  /**
+   * The number of rows of the groups removed.
+   */
+  private int numFreeRows = 0;
+
+  /**
+   * The next row never used.
+   */
+  private int nextRow = 1;
+
+  /**
+   * The number of the current cycle.
+   */
+  private long cycle = 0;
+
+  /**
+  * Constructor.
+  *
+  * @param groupKeyOf gives the key of the group of a container, like
+  *                   LbCAdvisorResultStat::service (null or "": the
+  *                   container is in no group)
+  */
+  public LoadFactorAggregates(
+             final Function<LbCAdvisorResultStat, String> groupKeyOf
+  ) {
+    keyOf = groupKeyOf;
+  }
+
+  /**
+  * Updates the aggregates with the final metrics of a cycle: the containers
+  * not in them are removed from their groups.
+  *
+  * @param lbResultStats the final metrics, one per docker container
+  * @return the groups which changed (a group with no containers left was
+  *         removed), valid until the next update
+  */
+  public List<Group> update(final List<LbCAdvisorResultStat> lbResultStats) {
+    changedGroups.clear();
+    cycle++;
+
+    for (LbCAdvisorResultStat lbResultStat: lbResultStats) {
+      String key = keyOf.apply(lbResultStat);
+      if (key == null || key.isEmpty()) {
+        continue;
+      }
+
+      Member member = members.get(lbResultStat.dockerId());
+      if (member == null) {
+        member = new Member(lbResultStat.dockerId());
+        member.loadFactor = lbResultStat.lbFinalStat();
+        members.put(member.dockerId, member);
+        join(member, key);
+      } else if (!member.group.key.equals(key)) {
+        leave(member);
+        member.loadFactor = lbResultStat.lbFinalStat();
+        join(member, key);
+      } else if (member.loadFactor != lbResultStat.lbFinalStat()) {
+        // re-insert it in the order of its group
+        leave(member);
+        member.loadFactor = lbResultStat.lbFinalStat();
+        join(member, key);
+      }
+      member.lastCycle = cycle;
+    }
+
+    // the containers not published in this cycle are gone
+    if (members.size() > 0) {
+      Iterator<Member> iter = members.values().iterator();
+      while (iter.hasNext()) {
+        Member member = iter.next();
+        if (member.lastCycle != cycle) {
+          leave(member);
+          iter.remove();
+        }
+      }
+    }
+
+    for (Group group: changedGroups) {
+      group.changed = false;
+      if (group.members.isEmpty()) {
+        groups.remove(group.key);
+        freeRow(group.row);
+      }
+    }
+    return changedGroups;
+  }
+
+  /**
+  * Adds a container to a group, creating it if needed.
+  *
+  * @param member the container
+  * @param key the key of the group
+  */
+  private void join(final Member member, final String key) {
+    Group group = groups.get(key);
+    if (group == null) {
+      group = new Group(key, (numFreeRows > 0) ? freeRows[--numFreeRows]
+                                               : nextRow++);
+      groups.put(key, group);
+    }
+    group.members.add(member);
+    group.sum += member.loadFactor;
+    member.group = group;
+    markChanged(group);
+  }
+
+  /**
+  * Removes a container from its group.
+  *
+  * @param member the container
+  */
+  private void leave(final Member member) {
+    Group group = member.group;
+    group.members.remove(member);
+    group.sum -= member.loadFactor;
+    markChanged(group);
+  }
+
+  /**
+  * Marks a group as changed in this cycle.
+  *
+  * @param group the group
+  */
+  private void markChanged(final Group group) {
+    if (!group.changed) {
+      group.changed = true;
+      changedGroups.add(group);
+    }
+  }
+
+  /**
+  * Frees the row of a group removed, to be reused.
+  *
+  * @param row the row
+  */
+  private void freeRow(int row) {
+    if (numFreeRows == freeRows.length) {
+      freeRows = Arrays.copyOf(freeRows, freeRows.length * 2);
+    }
+    freeRows[numFreeRows++] = row;
+  }
+
+  /**
+  * Get the number of groups.
+  *
+  * @return the number of groups with containers
+  */
+  public int numGroups() {
+    return groups.size();
+  }
+
+}
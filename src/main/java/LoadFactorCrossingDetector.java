@@ -0,0 +1,223 @@
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+* Detects when the load factor of a docker container crosses one of its
+* thresholds, or changes more than its maximum change, between two cycles of
+* queries to cAdvisor, so that the load balancer can be notified at once
+* instead of at its next poll.
+*
+* @author  Jose E. Nunez
+* @version 0.0.1
+* @since   2019-05-05
+*/
+public class LoadFactorCrossingDetector {
+
+  /**
+  * The notification rule of a container, and its last load factor.
+  */
+  private static final class ContainerRule {
+
+    /**
+     * The thresholds of the load factor of this container.
+     */
+    private final int[] thresholds;
+
+    /**
+     * The maximum change of the load factor of this container (0: none).
+     */
+    private final int maxChange;
+
+    /**
+     * The last load factor of this container (-1: not known yet).
+     */
+    private int lastLoadFactor = -1;
+
+    /**
+    * Constructor.
+    *
+    * @param thresholdsLoadFactor the thresholds of the load factor
+    * @param maxChangeLoadFactor the maximum change of the load factor
+    */
+    ContainerRule(final int[] thresholdsLoadFactor, int maxChangeLoadFactor) {
+      thresholds = thresholdsLoadFactor;
+      maxChange = maxChangeLoadFactor;
+    }
+  }
+
+  /**
+   * The default thresholds of the load factor.
+   */
+  private final int[] defaultThresholds;
+
+  /**
+   * The default maximum change of the load factor (0: none).
+   */
+  private final int defaultMaxChange;
+
+  /**
+   * The thresholds of the load factor of some containers, by a prefix of
+   * their docker-ids.
+   */
+  private final Map<String, int[]> thresholdsByIdPrefix =
+      new HashMap<String, int[]>();
+
+  /**
+   * The maximum change of the load factor of some containers, by a prefix of
+   * their docker-ids.
+   */
+  private final Map<String, Integer> maxChangeByIdPrefix =
+      new HashMap<String, Integer>();
+
+  /**
+   * The rule, and last load factor, of each container seen (per
+   * docker-container-id, which acts as the hash key).
+   */
+  private final HashMap<String, ContainerRule> containerRules =
+      new HashMap<String, ContainerRule>();
+
+  /**
+  * Constructor.
+  *
+  * @param config the settings of the agent, with the default rules
+  *               ("notifyThresholds", "notifyMaxChange") and the rules per
+  *               container ("notifyThresholds.[docker-id-prefix]",
+  *               "notifyMaxChange.[docker-id-prefix]").
+  */
+  public LoadFactorCrossingDetector(final ConfigLbDockerCAdvisor config) {
+    defaultThresholds = parseThresholds(config.notifyThresholds());
+    defaultMaxChange = config.notifyMaxChange();
+
+    for (Map.Entry<String, String> rule:
+             config.getPropertiesWithPrefix("notifyThresholds.").entrySet()) {
+      thresholdsByIdPrefix.put(rule.getKey(), parseThresholds(rule.getValue()));
+    }
+
+    for (Map.Entry<String, String> rule:
+             config.getPropertiesWithPrefix("notifyMaxChange.").entrySet()) {
+      try {
+        maxChangeByIdPrefix.put(rule.getKey(),
+                                Integer.valueOf(rule.getValue()));
+      } catch (NumberFormatException ex) {
+        ex.printStackTrace();
+      }
+    }
+  }
+
+  /**
+  * Parses a comma-separated list of thresholds.
+  *
+  * @param thresholds the comma-separated list of thresholds
+  * @return the array of thresholds (those which can't be parsed are ignored)
+  */
+  protected static int[] parseThresholds(final String thresholds) {
+    List<Integer> parsed = new ArrayList<Integer>();
+
+    for (String threshold: thresholds.split(",")) {
+      threshold = threshold.trim();
+      if (threshold.isEmpty()) {
+        continue;
+      }
+      try {
+        parsed.add(Integer.valueOf(threshold));
+      } catch (NumberFormatException ex) {
+        ex.printStackTrace();
+      }
+    }
+
+    return parsed.stream().mapToInt(Integer::intValue).toArray();
+  }
+
+  /**
+  * Whether there is any rule to detect at all (otherwise nothing will ever
+  * be detected).
+  *
+  * @return true if there is some rule
+  */
+  public boolean hasRules() {
+    return defaultThresholds.length > 0 || defaultMaxChange > 0
+           || !thresholdsByIdPrefix.isEmpty()
+           || !maxChangeByIdPrefix.isEmpty();
+  }
+
+  /**
+  * Finds the rule of a container: the one of the longest prefix of its
+  * docker-id, or the default one.
+  *
+  * @param dockerId the docker-id of the container
+  * @return the rule of the container
+  */
+  protected ContainerRule findRule(final String dockerId) {
+    int[] thresholds = defaultThresholds;
+    int longestThresholds = -1;
+    for (Map.Entry<String, int[]> rule: thresholdsByIdPrefix.entrySet()) {
+      if (dockerId.startsWith(rule.getKey())
+          && rule.getKey().length() > longestThresholds) {
+        thresholds = rule.getValue();
+        longestThresholds = rule.getKey().length();
+      }
+    }
+
+    int maxChange = defaultMaxChange;
+    int longestMaxChange = -1;
+    for (Map.Entry<String, Integer> rule: maxChangeByIdPrefix.entrySet()) {
+      if (dockerId.startsWith(rule.getKey())
+          && rule.getKey().length() > longestMaxChange) {
+        maxChange = rule.getValue().intValue();
+        longestMaxChange = rule.getKey().length();
+      }
+    }
+
+    return new ContainerRule(thresholds, maxChange);
+  }
+
+  /**
+  * Remembers the new load factor of a container and returns whether it
+  * crossed a threshold, or changed more than the maximum change, since its
+  * last load factor. (A new container is compared against a load factor of
+  * 0, only for the thresholds.)
+  *
+  * @param dockerId the docker-id of the container
+  * @param newLoadFactor the new load factor of the container
+  * @return true if the load balancer should be notified about it
+  */
+  public boolean crossed(final String dockerId, int newLoadFactor) {
+    ContainerRule rule = containerRules.get(dockerId);
+    if (rule == null) {
+      rule = findRule(dockerId);
+      containerRules.put(dockerId, rule);
+    }
+
+    int lastLoadFactor = rule.lastLoadFactor;
+    rule.lastLoadFactor = newLoadFactor;
+
+    if (lastLoadFactor < 0) {
+      lastLoadFactor = 0;
+    } else if (rule.maxChange > 0
+               && Math.abs(newLoadFactor - lastLoadFactor) >= rule.maxChange) {
+      return true;
+    }
+
+    for (int threshold: rule.thresholds) {
+      if ((lastLoadFactor < threshold) != (newLoadFactor < threshold)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+  * Forgets the containers which are not running anymore.
+  *
+  * @param runningDockerIds the docker-ids of the containers still running
+  */
+  public void retainContainers(final Set<String> runningDockerIds) {
+    containerRules.keySet().retainAll(runningDockerIds);
+  }
+
+}
@@ -0,0 +1,181 @@
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+* Damps the load factors of the docker containers of a host before they are
+* published, so that the load balancers, which react to small changes, don't
+* herd the traffic back and forth between the replicas at each cycle:
+*
+* <ul>
+*   <li>a PID controller moves the published load factor towards the new
+*       one: by dampingKp times their difference, plus dampingKi times the
+*       sum of the differences (so a steady offset is closed in the end),
+*       plus dampingKd times the change of the difference since the last
+*       cycle (the defaults, 1, 0 and 0, publish the new one at once);</li>
+*   <li>the move is at most dampingMaxStep per cycle (0: unlimited);</li>
+*   <li>a new load factor less than dampingDeadBand away from the published
+*       one doesn't change it at all.</li>
+* </ul>
+*
+* (All in the "d-3" units of the load factors.) A container seen for the
+* first time, or ejected as an outlier, gets its new load factor at once.
+* Since the published load factors change less often, so do the SNMP table
+* and the weights pushed to the proxies.
+*
+* It is used by the thread which scores the host.
+*
+* @author  Jose E. Nunez
+* @version 0.0.1
+* @since   2019-07-07
+*/
+public final class LoadFactorDamper {
+
+  /**
+  * The state of the damping of a container.
+  */
+  private static final class Damping {
+
+    /**
+     * The load factor last published.
+     */
+    private double published;
+
+    /**
+     * The sum of the differences between the new and the published load
+     * factors.
+     */
+    private double integral = 0.0;
+
+    /**
+     * The difference in the last cycle.
+     */
+    private double lastError = 0.0;
+
+    /**
+    * Constructor.
+    *
+    * @param loadFactor the first load factor published
+    */
+    Damping(double loadFactor) {
+      published = loadFactor;
+    }
+  }
+
+  /**
+   * The proportional gain of the controller.
+   */
+  private final double kp;
+
+  /**
+   * The integral gain of the controller.
+   */
+  private final double ki;
+
+  /**
+   * The derivative gain of the controller.
+   */
+  private final double kd;
+
+  /**
+   * The maximum change of a load factor per cycle (0: unlimited).
+   */
+  private final double maxStep;
+
+  /**
+   * The change of a load factor under which it isn't published.
+   */
+  private final double deadBand;
+
+  /**
+   * The bound of the sum of the differences of a container (so that it
+   * doesn't wind up while the move is limited by maxStep).
+   */
+  private final double maxIntegral;
+
+  /**
+   * The state of the damping of each container, by its docker-id.
+   */
+  private final Map<String, Damping> dampings =
+      new HashMap<String, Damping>();
+
+  /**
+  * Constructor.
+  *
+  * @param config the settings of the agent, with the damping* settings
+  */
+  public LoadFactorDamper(final ConfigLbDockerCAdvisor config) {
+    kp = config.dampingKp();
+    ki = config.dampingKi();
+    kd = config.dampingKd();
+    maxStep = Math.max(0, config.dampingMaxStep());
+    deadBand = Math.max(0, config.dampingDeadBand());
+    maxIntegral = config.agentCheckFullLoadFactor();
+  }
+
+  /**
+  * Damps the load factors of a cycle of a host, in place.
+  *
+  * @param lbResultStats the final metrics of the host, one per container
+  *                      (not published yet)
+  */
+  public void damp(final List<LbCAdvisorResultStat> lbResultStats) {
+    Set<String> dockerIds = new HashSet<String>(2 * lbResultStats.size());
+
+    for (LbCAdvisorResultStat lbResultStat: lbResultStats) {
+      String dockerId = lbResultStat.dockerId();
+      dockerIds.add(dockerId);
+      int loadFactor = lbResultStat.lbFinalStat();
+      if (loadFactor < 0) {
+        continue;
+      }
+
+      Damping damping = dampings.get(dockerId);
+      if (damping == null
+          || lbResultStat.ejectionState() == OutlierEjector.State.EJECTED) {
+        // nothing to damp from, or a drain which must be immediate
+        dampings.put(dockerId, new Damping(loadFactor));
+        continue;
+      }
+
+      lbResultStat.lbFinalStat((int) Math.round(next(damping, loadFactor)));
+    }
+
+    // forget the containers which are gone
+    dampings.keySet().retainAll(dockerIds);
+  }
+
+  /**
+  * Moves the published load factor of a container towards its new one.
+  *
+  * @param damping the state of the damping of the container
+  * @param loadFactor the new load factor of the container
+  * @return the load factor to publish
+  */
+  private double next(final Damping damping, int loadFactor) {
+    double error = loadFactor - damping.published;
+    if (Math.abs(error) < deadBand) {
+      // too small a change: the integral doesn't grow from it either
+      damping.lastError = error;
+      return damping.published;
+    }
+
+    damping.integral = Math.max(-maxIntegral,
+                                Math.min(maxIntegral,
+                                         damping.integral + error));
+    double move = kp * error + ki * damping.integral
+                  + kd * (error - damping.lastError);
+    damping.lastError = error;
+    if (maxStep > 0) {
+      move = Math.max(-maxStep, Math.min(maxStep, move));
+    }
+
+    damping.published = Math.max(0.0, damping.published + move);
+    return damping.published;
+  }
+
+}
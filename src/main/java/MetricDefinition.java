@@ -0,0 +1,109 @@
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.experimental.Accessors;
+
+
+/**
+* The declaration of one metric from cAdvisor to take into consideration in
+* the load factor of a docker container: where to take it from in each
+* "stats" sample of cAdvisor, how to summarize its samples, how to
+* normalize it, and its relative weight.
+*
+* @author  Jose E. Nunez
+* @version 0.0.1
+* @since   2019-04-28
+*/
+public class MetricDefinition {
+
+  /**
+   * How the samples of a metric in a query to cAdvisor are summarized.
+   */
+  public enum Kind {
+    /** The average of the samples (e.g., "cpu.load_average"). */
+    GAUGE,
+    /** An accumulative counter: the increment since the last sample. */
+    COUNTER
+  }
+
+  /**
+   * How the summarized value of a metric is normalized before weighting it.
+   */
+  public enum Normalization {
+    /** The summarized value as it is. */
+    NONE,
+    /** As a percentage of the memory capacity of the docker container. */
+    MEM_CAPACITY_PERCENT,
+    /** Per second of the time elapsed between the samples (counters). */
+    PER_SECOND,
+    /**
+     * As a percentage of another metric of the same samples (e.g., the CFS
+     * periods throttled out of all the CFS periods).
+     */
+    PERCENT_OF,
+    /**
+     * A counter of nanosecs as a percentage of the time elapsed between the
+     * samples (e.g., the time throttled by the CFS quota).
+     */
+    NANOS_PERCENT
+  }
+
+  /**
+   * The name of this metric (e.g., "cpuLoadAvg").
+   *
+   * @param name New value for the name of this metric.
+   * @return The current value of the name of this metric.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private String name = null;
+
+  /**
+   * The path of this metric in each "stats" sample of cAdvisor, as field
+   * names separated by dots. A field name ending in "[]" is an array whose
+   * elements are summed, like "filesystem[].io_time".
+   *
+   * @param path New value for the path of this metric.
+   * @return The current value of the path of this metric.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private String path = null;
+
+  /**
+   * How the samples of this metric are summarized.
+   *
+   * @param kind New value for the kind of this metric.
+   * @return The current value of the kind of this metric.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private Kind kind = Kind.GAUGE;
+
+  /**
+   * How the summarized value of this metric is normalized.
+   *
+   * @param normalization New value for the normalization of this metric.
+   * @return The current value of the normalization of this metric.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private Normalization normalization = Normalization.NONE;
+
+  /**
+   * The name of the metric which this one is a percentage of, if its
+   * normalization is PERCENT_OF (which can't be a percentage itself).
+   *
+   * @param percentOf New value for the name of the base metric.
+   * @return The current value of the name of the base metric.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private String percentOf = null;
+
+  /**
+   * The relative weight of this metric in the load factor (unless
+   * overridden in the metric_weights.properties file).
+   *
+   * @param weight New value for the relative weight of this metric.
+   * @return The current value of the relative weight of this metric.
+   */
+  @Accessors(fluent = true)
+  @Getter @Setter private float weight = 0;
+
+}
@@ -0,0 +1,415 @@
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+* An embedded, append-only store of the history of the samples of each
+* docker container (the values of the metrics of the MetricSchema, and the
+* load factor it was given), beyond the window of samples cAdvisor keeps in
+* memory: the samples are compressed like Gorilla in TimeSeriesChunks, in
+* memory-mapped segments (see MetricHistoryTier), and rolled up into 1
+* minute and 1 hour points, each resolution with its own retention.
+*
+* A roll-up point of a metric of kind COUNTER is its last value in the
+* interval (so that the rates can still be derived from the points), and
+* of the other metrics, their mean. A roll-up point is written when the
+* first sample of the next interval arrives (or the container is deleted).
+*
+* The samples are appended by the DockerLoadFactorScorer from the thread
+* which scores them (a few bits per value, no I/O until a chunk is full),
+* and they can be queried by range of time from any thread.
+*
+* @author  Jose E. Nunez
+* @version 0.0.1
+* @since   2019-06-30
+*/
+public final class MetricHistoryStore {
+
+  /**
+  * The resolutions of the history.
+  */
+  public enum Resolution {
+
+    /** The samples from cAdvisor. */
+    RAW("raw", 0, 30L * 60 * 1000),
+
+    /** The points of each minute. */
+    MINUTE("1m", 60L * 1000, 6L * 60 * 60 * 1000),
+
+    /** The points of each hour. */
+    HOUR("1h", 60L * 60 * 1000, 24L * 60 * 60 * 1000);
+
+    /**
+     * The subdirectory of its segments.
+     */
+    private final String dirName;
+
+    /**
+     * The interval of its points, in millisecs (0: the raw samples).
+     */
+    private final long intervalMillis;
+
+    /**
+     * The maximum span of time of a chunk, in millisecs.
+     */
+    private final long chunkSpanMillis;
+
+    /**
+    * Constructor.
+    *
+    * @param dir the subdirectory of its segments
+    * @param interval the interval of its points, in millisecs
+    * @param chunkSpan the maximum span of time of a chunk, in millisecs
+    */
+    Resolution(final String dir, long interval, long chunkSpan) {
+      dirName = dir;
+      intervalMillis = interval;
+      chunkSpanMillis = chunkSpan;
+    }
+
+    /**
+    * Parses a resolution by the name of its subdirectory ("raw", "1m" or
+    * "1h").
+    *
+    * @param name the name
+    * @return the resolution, or null if unknown
+    */
+    public static Resolution fromName(final String name) {
+      for (Resolution resolution: values()) {
+        if (resolution.dirName.equals(name)) {
+          return resolution;
+        }
+      }
+      return null;
+    }
+  }
+
+  /**
+   * The name of the column of the load factor.
+   */
+  public static final String LOAD_FACTOR_COLUMN = "loadFactor";
+
+  /**
+   * The resolutions, by their ordinal (Resolution.values() copies them).
+   */
+  private static final Resolution[] RESOLUTIONS = Resolution.values();
+
+  /**
+  * The accumulator of the roll-up point of a container in the current
+  * interval.
+  */
+  private static final class RollUp {
+
+    /**
+     * The start of the current interval (Long.MIN_VALUE: none).
+     */
+    private long intervalStart = Long.MIN_VALUE;
+
+    /**
+     * The number of samples in the current interval.
+     */
+    private int count = 0;
+
+    /**
+     * The sums of the values of each column in the current interval.
+     */
+    private final double[] sums;
+
+    /**
+     * The last values of each column in the current interval.
+     */
+    private final double[] lasts;
+
+    /**
+    * Constructor.
+    *
+    * @param numColumns the number of columns
+    */
+    private RollUp(int numColumns) {
+      sums = new double[numColumns];
+      lasts = new double[numColumns];
+    }
+  }
+
+  /**
+   * The names of the columns: the metrics of the schema, and the load
+   * factor.
+   */
+  private final String[] columns;
+
+  /**
+   * Whether each column is accumulative (a metric of kind COUNTER).
+   */
+  private final boolean[] cumulative;
+
+  /**
+   * The tiers, by the ordinal of their resolution.
+   */
+  private final MetricHistoryTier[] tiers;
+
+  /**
+   * The roll-ups of each container, by the ordinal of their resolution
+   * (the raw one is unused).
+   */
+  private final Map<String, RollUp[]> rollUps =
+      new HashMap<String, RollUp[]>();
+
+  /**
+   * The columns of the sample being appended (reused).
+   */
+  private final double[] sample;
+
+  /**
+   * The columns of the roll-up point being appended, by the ordinal of
+   * their resolution (reused).
+   */
+  private final double[][] points;
+
+  /**
+  * Constructor: opens (or creates) the store.
+  *
+  * @param directory the directory of the store, with a subdirectory per
+  *                  resolution
+  * @param parsePlan the compiled schema of the metrics of the samples
+  * @param segmentBytes the size of each segment file, in bytes
+  * @param retentionMillis how long each resolution is kept, in millisecs,
+  *                        by the ordinal of the resolution
+  * @throws IOException the store couldn't be opened
+  */
+  public MetricHistoryStore(final File directory,
+                            final MetricParsePlan parsePlan,
+                            int segmentBytes,
+                            final long[] retentionMillis)
+      throws IOException {
+    int numMetrics = parsePlan.numMetrics();
+    columns = new String[numMetrics + 1];
+    cumulative = new boolean[numMetrics + 1];
+    for (int idx = 0; idx < numMetrics; idx++) {
+      columns[idx] = parsePlan.name(idx);
+      cumulative[idx] =
+          (parsePlan.kind(idx) == MetricDefinition.Kind.COUNTER);
+    }
+    columns[numMetrics] = LOAD_FACTOR_COLUMN;
+
+    tiers = new MetricHistoryTier[RESOLUTIONS.length];
+    points = new double[RESOLUTIONS.length][columns.length];
+    for (Resolution resolution: RESOLUTIONS) {
+      tiers[resolution.ordinal()] =
+          new MetricHistoryTier(new File(directory, resolution.dirName),
+                                columns, segmentBytes,
+                                retentionMillis[resolution.ordinal()],
+                                resolution.chunkSpanMillis);
+    }
+    sample = new double[columns.length];
+  }
+
+  /**
+  * Opens the store with the settings of the agent.
+  *
+  * @param directory the directory of the store
+  * @param parsePlan the compiled schema of the metrics of the samples
+  * @param config the settings of the agent ("historySegmentBytes" and the
+  *               retentions of the resolutions)
+  * @return the store
+  * @throws IOException the store couldn't be opened
+  */
+  public static MetricHistoryStore open(final File directory,
+                                        final MetricParsePlan parsePlan,
+                                        final ConfigLbDockerCAdvisor config)
+      throws IOException {
+    long hour = 60L * 60 * 1000;
+    return new MetricHistoryStore(
+               directory, parsePlan, config.historySegmentBytes(),
+               new long[] {config.historyRawRetentionHours() * hour,
+                           config.historyMinuteRetentionDays() * 24 * hour,
+                           config.historyHourRetentionDays() * 24 * hour}
+           );
+  }
+
+  /**
+  * Appends the new samples of a docker container, in the layout of
+  * ContainerSampleWindows, with the load factor they gave (the samples not
+  * newer than the last one of the container are ignored).
+  *
+  * @param dockerId the docker-id of the container
+  * @param epochs the epochs of the samples
+  * @param values the values of the metrics of the samples
+  * @param firstSample the index of the first new sample of the container
+  * @param numSamples the number of new samples of the container
+  * @param loadFactor the load factor given to the container
+  */
+  public synchronized void append(final String dockerId,
+                                  final long[] epochs, final double[] values,
+                                  int firstSample, int numSamples,
+                                  int loadFactor) {
+    int numMetrics = columns.length - 1;
+    try {
+      for (int idx = firstSample; idx < firstSample + numSamples; idx++) {
+        System.arraycopy(values, idx * numMetrics, sample, 0, numMetrics);
+        sample[numMetrics] = loadFactor;
+        appendPoint(Resolution.RAW.ordinal(), dockerId, epochs[idx],
+                    sample);
+      }
+    } catch (IOException ex) {
+      System.err.println("ERROR: appending to the metric history: " + ex);
+    }
+  }
+
+  /**
+  * Appends a point to a tier, and rolls it up into the next one.
+  *
+  * @param tier the ordinal of the resolution of the tier
+  * @param dockerId the docker-id of the container
+  * @param epochMilli the timestamp of the point
+  * @param point the columns of the point
+  * @throws IOException a chunk couldn't be written
+  */
+  private void appendPoint(int tier, final String dockerId, long epochMilli,
+                           final double[] point) throws IOException {
+    int next = tier + 1;
+    if (!tiers[tier].append(dockerId, epochMilli, point, 0)
+        || next >= tiers.length) {
+      return;
+    }
+    RollUp[] containerRollUps = rollUps.get(dockerId);
+    if (containerRollUps == null) {
+      containerRollUps = new RollUp[tiers.length];
+      for (int idx = 1; idx < tiers.length; idx++) {
+        containerRollUps[idx] = new RollUp(columns.length);
+      }
+      rollUps.put(dockerId, containerRollUps);
+    }
+
+    RollUp rollUp = containerRollUps[next];
+    long interval = RESOLUTIONS[next].intervalMillis;
+    long intervalStart = Math.floorDiv(epochMilli, interval) * interval;
+    if (rollUp.count > 0 && intervalStart != rollUp.intervalStart) {
+      flushRollUp(next, dockerId, rollUp);
+    }
+
+    rollUp.intervalStart = intervalStart;
+    rollUp.count++;
+    for (int col = 0; col < columns.length; col++) {
+      rollUp.sums[col] += point[col];
+      rollUp.lasts[col] = point[col];
+    }
+  }
+
+  /**
+  * Appends the roll-up point of the current interval to its tier, and
+  * empties it.
+  *
+  * @param tier the ordinal of the resolution of the roll-up
+  * @param dockerId the docker-id of the container
+  * @param rollUp the roll-up
+  * @throws IOException a chunk couldn't be written
+  */
+  private void flushRollUp(int tier, final String dockerId,
+                           final RollUp rollUp) throws IOException {
+    double[] point = points[tier];
+    for (int col = 0; col < columns.length; col++) {
+      point[col] = cumulative[col] ? rollUp.lasts[col]
+                                   : rollUp.sums[col] / rollUp.count;
+    }
+    rollUp.count = 0;
+    Arrays.fill(rollUp.sums, 0.0);
+
+    appendPoint(tier, dockerId, rollUp.intervalStart, point);
+  }
+
+  /**
+  * Closes the series of a docker container which was deleted: its last
+  * roll-up points are written, and its open chunks closed.
+  *
+  * @param dockerId the docker-id of the container
+  */
+  public synchronized void closeSeries(final String dockerId) {
+    try {
+      RollUp[] containerRollUps = rollUps.remove(dockerId);
+      if (containerRollUps != null) {
+        for (int tier = 1; tier < tiers.length; tier++) {
+          if (containerRollUps[tier].count > 0) {
+            flushRollUp(tier, dockerId, containerRollUps[tier]);
+          }
+        }
+      }
+      for (MetricHistoryTier tier: tiers) {
+        tier.closeSeries(dockerId);
+      }
+    } catch (IOException ex) {
+      System.err.println("ERROR: closing the metric history of " + dockerId
+                         + ": " + ex);
+    }
+  }
+
+  /**
+  * Closes the open chunks of all the containers and forces them to the
+  * disk (e.g., when the agent stops). The roll-up points of the current
+  * intervals are not written.
+  */
+  public synchronized void flush() {
+    for (MetricHistoryTier tier: tiers) {
+      try {
+        tier.flush();
+      } catch (IOException ex) {
+        System.err.println("ERROR: flushing the metric history: " + ex);
+      }
+    }
+  }
+
+  /**
+  * Passes the points of a column of a docker container in a range of time,
+  * at a resolution, to a consumer, in increasing timestamps.
+  *
+  * @param dockerId the docker-id of the container
+  * @param column the name of the column (a metric of the schema, or
+  *               LOAD_FACTOR_COLUMN)
+  * @param fromMilli the start of the range (inclusive)
+  * @param toMilli the end of the range (inclusive)
+  * @param resolution the resolution
+  * @param consumer the consumer of the points
+  * @return the number of points passed to the consumer
+  */
+  public synchronized int query(final String dockerId, final String column,
+                                long fromMilli, long toMilli,
+                                final Resolution resolution,
+                                final TimeSeriesChunk.PointConsumer consumer) {
+    return tiers[resolution.ordinal()].query(dockerId, column, fromMilli,
+                                             toMilli, consumer);
+  }
+
+  /**
+  * Get the docker-ids of the containers with points at a resolution.
+  *
+  * @param resolution the resolution
+  * @return the docker-ids
+  */
+  public synchronized List<String> dockerIds(final Resolution resolution) {
+    return tiers[resolution.ordinal()].dockerIds();
+  }
+
+  /**
+  * Get the names of the columns of the samples appended.
+  *
+  * @return the names of the columns
+  */
+  public String[] columns() {
+    return columns.clone();
+  }
+
+  /**
+  * Get the bytes used by the chunks in the segments of a resolution.
+  *
+  * @param resolution the resolution
+  * @return the bytes written in its segments
+  */
+  public synchronized long usedBytes(final Resolution resolution) {
+    return tiers[resolution.ordinal()].usedBytes();
+  }
+
+}
@@ -0,0 +1,669 @@
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+
+/**
+* One resolution of the MetricHistoryStore (the raw samples, or a roll-up):
+* an append-only sequence of memory-mapped segment files, each with the
+* TimeSeriesChunks of the docker containers closed while it was the current
+* one, an in-memory index of the chunks of each container, and the open
+* chunk of each container being appended to.
+*
+* A segment starts with its header (magic, version, and the names of the
+* columns of its chunks), followed by its chunk records: magic, length of
+* the payload, and the payload (docker-id, see BinaryDockerIds, first and
+* last timestamps, number of samples and of bytes, and the bit stream). On
+* opening the tier the records of its segments are scanned back into the
+* index. A whole segment is deleted when all its chunks are older than the
+* retention.
+*
+* It is not thread-safe: the MetricHistoryStore synchronizes it.
+*
+* @author  Jose E. Nunez
+* @version 0.0.1
+* @since   2019-06-30
+*/
+public final class MetricHistoryTier {
+
+  /**
+   * The magic number of a segment ("LBTS").
+   */
+  private static final int SEGMENT_MAGIC = 0x4C425453;
+
+  /**
+   * The version of the format of the segments.
+   */
+  private static final short SEGMENT_VERSION = 1;
+
+  /**
+   * The magic number of a chunk record ("CHNK").
+   */
+  private static final int CHUNK_MAGIC = 0x43484E4B;
+
+  /**
+   * The prefix of the names of the segment files.
+   */
+  private static final String SEGMENT_PREFIX = "segment-";
+
+  /**
+   * The suffix of the names of the segment files.
+   */
+  private static final String SEGMENT_SUFFIX = ".tsdb";
+
+  /**
+  * A segment file.
+  */
+  private static final class Segment {
+
+    /**
+     * The sequence number of the segment.
+     */
+    private final long seq;
+
+    /**
+     * The segment file.
+     */
+    private final File file;
+
+    /**
+     * The names of the columns of its chunks.
+     */
+    private final String[] columns;
+
+    /**
+     * The mapping of the segment file.
+     */
+    private final MappedByteBuffer buffer;
+
+    /**
+     * The offset where the next chunk record is written.
+     */
+    private int writeOffset;
+
+    /**
+     * The newest timestamp of its chunks.
+     */
+    private long lastEpochMilli = Long.MIN_VALUE;
+
+    /**
+    * Constructor.
+    *
+    * @param segmentSeq the sequence number of the segment
+    * @param segmentFile the segment file
+    * @param columnNames the names of the columns of its chunks
+    * @param mapping the mapping of the segment file
+    * @param offset the offset where the next chunk record is written
+    */
+    private Segment(long segmentSeq, final File segmentFile,
+                    final String[] columnNames,
+                    final MappedByteBuffer mapping, int offset) {
+      seq = segmentSeq;
+      file = segmentFile;
+      columns = columnNames;
+      buffer = mapping;
+      writeOffset = offset;
+    }
+  }
+
+  /**
+  * The location of a chunk closed in a segment.
+  */
+  private static final class ChunkRef {
+
+    /**
+     * The segment of the chunk.
+     */
+    private final Segment segment;
+
+    /**
+     * The offset of the bit stream of the chunk in the segment.
+     */
+    private final int bitsOffset;
+
+    /**
+     * The number of bytes of the bit stream.
+     */
+    private final int numBytes;
+
+    /**
+     * The number of samples of the chunk.
+     */
+    private final int numSamples;
+
+    /**
+     * The timestamp of the first sample.
+     */
+    private final long firstEpochMilli;
+
+    /**
+     * The timestamp of the last sample.
+     */
+    private final long lastEpochMilli;
+
+    /**
+    * Constructor.
+    *
+    * @param chunkSegment the segment of the chunk
+    * @param offset the offset of the bit stream in the segment
+    * @param bytes the number of bytes of the bit stream
+    * @param samples the number of samples
+    * @param first the timestamp of the first sample
+    * @param last the timestamp of the last sample
+    */
+    private ChunkRef(final Segment chunkSegment, int offset, int bytes,
+                     int samples, long first, long last) {
+      segment = chunkSegment;
+      bitsOffset = offset;
+      numBytes = bytes;
+      numSamples = samples;
+      firstEpochMilli = first;
+      lastEpochMilli = last;
+    }
+  }
+
+  /**
+  * The open chunk of a docker container.
+  */
+  private static final class OpenSeries {
+
+    /**
+     * The chunk being appended to.
+     */
+    private final TimeSeriesChunk chunk;
+
+    /**
+     * The timestamp of the last sample appended (also of the closed
+     * chunks), to keep the timestamps increasing.
+     */
+    private long lastEpochMilli = Long.MIN_VALUE;
+
+    /**
+    * Constructor.
+    *
+    * @param numColumns the number of columns of the samples
+    */
+    private OpenSeries(int numColumns) {
+      chunk = new TimeSeriesChunk(numColumns);
+    }
+  }
+
+  /**
+   * The directory of the segment files.
+   */
+  private final File directory;
+
+  /**
+   * The names of the columns of the samples appended.
+   */
+  private final String[] columns;
+
+  /**
+   * The size of each segment file, in bytes.
+   */
+  private final int segmentBytes;
+
+  /**
+   * How long the chunks are kept, in millisecs.
+   */
+  private final long retentionMillis;
+
+  /**
+   * The maximum span of time of a chunk, in millisecs (a crash loses at
+   * most the open chunks).
+   */
+  private final long chunkSpanMillis;
+
+  /**
+   * The segments, in order (the last one is the current one).
+   */
+  private final List<Segment> segments = new ArrayList<Segment>();
+
+  /**
+   * The chunks closed of each docker container, in order.
+   */
+  private final Map<String, List<ChunkRef>> index =
+      new HashMap<String, List<ChunkRef>>();
+
+  /**
+   * The open chunk of each docker container.
+   */
+  private final Map<String, OpenSeries> openSeries =
+      new HashMap<String, OpenSeries>();
+
+  /**
+   * The newest timestamp appended (the "now" of the retention, so that a
+   * replay of old captures is retained the same way).
+   */
+  private long newestEpochMilli = Long.MIN_VALUE;
+
+  /**
+  * Constructor: opens the tier, indexing the chunks of its segments.
+  *
+  * @param tierDirectory the directory of the segment files
+  * @param columnNames the names of the columns of the samples appended
+  * @param segmentSize the size of each segment file, in bytes
+  * @param retention how long the chunks are kept, in millisecs
+  * @param chunkSpan the maximum span of time of a chunk, in millisecs
+  * @throws IOException the directory or its segments couldn't be opened
+  */
+  public MetricHistoryTier(final File tierDirectory,
+                           final String[] columnNames,
+                           int segmentSize, long retention, long chunkSpan)
+      throws IOException {
+    directory = tierDirectory;
+    columns = columnNames.clone();
+    segmentBytes = segmentSize;
+    retentionMillis = retention;
+    chunkSpanMillis = chunkSpan;
+
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Can't create history directory " + directory);
+    }
+
+    File[] files = directory.listFiles(
+        (dir, name) -> name.startsWith(SEGMENT_PREFIX)
+                       && name.endsWith(SEGMENT_SUFFIX)
+    );
+    TreeMap<Long, File> segmentFiles = new TreeMap<Long, File>();
+    for (File file: (files != null) ? files : new File[0]) {
+      String name = file.getName();
+      try {
+        segmentFiles.put(Long.parseLong(name.substring(
+                             SEGMENT_PREFIX.length(),
+                             name.length() - SEGMENT_SUFFIX.length()
+                         )), file);
+      } catch (NumberFormatException ex) {
+        System.err.println("WARN: ignoring history file " + file);
+      }
+    }
+    for (Map.Entry<Long, File> entry: segmentFiles.entrySet()) {
+      openSegment(entry.getKey(), entry.getValue());
+    }
+  }
+
+  /**
+  * Maps an existing segment, indexing its chunks.
+  *
+  * @param seq the sequence number of the segment
+  * @param file the segment file
+  * @throws IOException the segment couldn't be mapped
+  */
+  private void openSegment(long seq, final File file) throws IOException {
+    MappedByteBuffer buffer;
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+                                    raf.length());
+    }
+
+    String[] segmentColumns;
+    try {
+      if (buffer.getInt() != SEGMENT_MAGIC
+          || buffer.getShort() != SEGMENT_VERSION) {
+        System.err.println("WARN: ignoring history segment " + file
+                           + ": bad header");
+        return;
+      }
+      segmentColumns = new String[buffer.getShort()];
+      for (int col = 0; col < segmentColumns.length; col++) {
+        byte[] name = new byte[buffer.getShort()];
+        buffer.get(name);
+        segmentColumns[col] = new String(name, StandardCharsets.UTF_8);
+      }
+    } catch (RuntimeException ex) {
+      System.err.println("WARN: ignoring history segment " + file
+                         + ": " + ex);
+      return;
+    }
+
+    Segment segment =
+        new Segment(seq, file, segmentColumns, buffer, buffer.position());
+    segments.add(segment);
+
+    // the records up to the first one not fully written
+    while (segment.writeOffset + 8 <= buffer.capacity()) {
+      buffer.position(segment.writeOffset);
+      if (buffer.getInt() != CHUNK_MAGIC) {
+        break;
+      }
+      int length = buffer.getInt();
+      if (length <= 0 || buffer.remaining() < length) {
+        break;
+      }
+      try {
+        indexChunk(segment, buffer, length);
+      } catch (IOException | RuntimeException ex) {
+        System.err.println("WARN: truncating history segment " + file
+                           + " at " + segment.writeOffset + ": " + ex);
+        break;
+      }
+      segment.writeOffset += 8 + length;
+    }
+  }
+
+  /**
+  * Indexes the chunk record at the position of the buffer of a segment
+  * (after its magic and length).
+  *
+  * @param segment the segment
+  * @param buffer the buffer of the segment
+  * @param length the length of the payload of the record
+  * @throws IOException the payload of the record is invalid
+  */
+  private void indexChunk(final Segment segment, final ByteBuffer buffer,
+                          int length) throws IOException {
+    int payloadOffset = buffer.position();
+    byte[] payload = new byte[length];
+    buffer.get(payload);
+
+    ByteArrayInputStream bytes = new ByteArrayInputStream(payload);
+    DataInputStream input = new DataInputStream(bytes);
+    String dockerId = BinaryDockerIds.read(input);
+    long first = input.readLong();
+    long last = input.readLong();
+    int samples = input.readInt();
+    int numBytes = input.readInt();
+    if (numBytes != bytes.available()) {
+      throw new IOException("bad length of the bit stream: " + numBytes);
+    }
+
+    ChunkRef ref = new ChunkRef(segment, payloadOffset + length - numBytes,
+                                numBytes, samples, first, last);
+    index.computeIfAbsent(dockerId, id -> new ArrayList<ChunkRef>()).add(ref);
+    segment.lastEpochMilli = Math.max(segment.lastEpochMilli, last);
+    newestEpochMilli = Math.max(newestEpochMilli, last);
+  }
+
+  /**
+  * Creates a new current segment.
+  *
+  * @return the new segment
+  * @throws IOException the segment couldn't be created
+  */
+  private Segment createSegment() throws IOException {
+    long seq = segments.isEmpty() ? 1
+                                  : segments.get(segments.size() - 1).seq + 1;
+    File file = new File(directory,
+                         String.format("%s%012d%s", SEGMENT_PREFIX, seq,
+                                       SEGMENT_SUFFIX));
+    MappedByteBuffer buffer;
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.setLength(segmentBytes);
+      buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+                                    segmentBytes);
+    }
+
+    buffer.putInt(SEGMENT_MAGIC);
+    buffer.putShort(SEGMENT_VERSION);
+    buffer.putShort((short) columns.length);
+    for (String column: columns) {
+      byte[] name = column.getBytes(StandardCharsets.UTF_8);
+      buffer.putShort((short) name.length);
+      buffer.put(name);
+    }
+
+    Segment segment =
+        new Segment(seq, file, columns, buffer, buffer.position());
+    segments.add(segment);
+    return segment;
+  }
+
+  /**
+  * Appends a sample of a docker container. A sample not newer than the
+  * last one of its container is ignored.
+  *
+  * @param dockerId the docker-id of the container
+  * @param epochMilli the timestamp of the sample
+  * @param values the values of the columns of the sample
+  * @param offset the index of the first column in values
+  * @return whether the sample was appended
+  * @throws IOException a chunk closed couldn't be written
+  */
+  public boolean append(final String dockerId, long epochMilli,
+                     final double[] values, int offset) throws IOException {
+    OpenSeries series = openSeries.get(dockerId);
+    if (series == null) {
+      series = new OpenSeries(columns.length);
+      List<ChunkRef> refs = index.get(dockerId);
+      if (refs != null && !refs.isEmpty()) {
+        series.lastEpochMilli = refs.get(refs.size() - 1).lastEpochMilli;
+      }
+      openSeries.put(dockerId, series);
+    }
+    if (epochMilli <= series.lastEpochMilli) {
+      return false;
+    }
+
+    TimeSeriesChunk chunk = series.chunk;
+    if (chunk.numSamples() > 0
+        && epochMilli - chunk.firstEpochMilli() >= chunkSpanMillis) {
+      writeChunk(dockerId, chunk);
+    }
+    chunk.append(epochMilli, values, offset);
+    series.lastEpochMilli = epochMilli;
+
+    if (epochMilli > newestEpochMilli) {
+      newestEpochMilli = epochMilli;
+    }
+    return true;
+  }
+
+  /**
+  * Closes the open chunk of a docker container (e.g., when it is deleted).
+  *
+  * @param dockerId the docker-id of the container
+  * @throws IOException the chunk couldn't be written
+  */
+  public void closeSeries(final String dockerId) throws IOException {
+    OpenSeries series = openSeries.remove(dockerId);
+    if (series != null && series.chunk.numSamples() > 0) {
+      writeChunk(dockerId, series.chunk);
+    }
+  }
+
+  /**
+  * Closes the open chunks of all the docker containers, and forces the
+  * current segment to the disk.
+  *
+  * @throws IOException a chunk couldn't be written
+  */
+  public void flush() throws IOException {
+    for (Map.Entry<String, OpenSeries> entry: openSeries.entrySet()) {
+      TimeSeriesChunk chunk = entry.getValue().chunk;
+      if (chunk.numSamples() > 0) {
+        writeChunk(entry.getKey(), chunk);
+      }
+    }
+    if (!segments.isEmpty()) {
+      segments.get(segments.size() - 1).buffer.force();
+    }
+  }
+
+  /**
+  * Writes a chunk to the current segment (creating a new one if it doesn't
+  * fit, or if the columns changed), and empties it.
+  *
+  * @param dockerId the docker-id of the container
+  * @param chunk the chunk
+  * @throws IOException the chunk couldn't be written
+  */
+  private void writeChunk(final String dockerId, final TimeSeriesChunk chunk)
+      throws IOException {
+    byte[] idBytes = dockerIdBytes(dockerId);
+    int length = idBytes.length + 8 + 8 + 4 + 4 + chunk.numBytes();
+
+    Segment segment = segments.isEmpty() ? null
+                                         : segments.get(segments.size() - 1);
+    if (segment == null || !Arrays.equals(segment.columns, columns)
+        || segment.writeOffset + 8 + length > segment.buffer.capacity()) {
+      if (segment != null) {
+        segment.buffer.force();
+      }
+      segment = createSegment();
+      if (segment.writeOffset + 8 + length > segment.buffer.capacity()) {
+        throw new IOException("history chunk of " + length
+                              + " bytes doesn't fit in a segment");
+      }
+    }
+
+    // the magic of the record is written last, so that a record cut by a
+    // crash isn't indexed on reopening
+    ByteBuffer buffer = segment.buffer;
+    int recordOffset = segment.writeOffset;
+    buffer.position(recordOffset + 4);
+    buffer.putInt(length);
+    buffer.put(idBytes);
+    buffer.putLong(chunk.firstEpochMilli());
+    buffer.putLong(chunk.lastEpochMilli());
+    buffer.putInt(chunk.numSamples());
+    buffer.putInt(chunk.numBytes());
+    int bitsOffset = buffer.position();
+    buffer.put(chunk.bits(), 0, chunk.numBytes());
+    buffer.putInt(recordOffset, CHUNK_MAGIC);
+    segment.writeOffset = buffer.position();
+
+    index.computeIfAbsent(dockerId, id -> new ArrayList<ChunkRef>())
+         .add(new ChunkRef(segment, bitsOffset, chunk.numBytes(),
+                           chunk.numSamples(), chunk.firstEpochMilli(),
+                           chunk.lastEpochMilli()));
+    segment.lastEpochMilli =
+        Math.max(segment.lastEpochMilli, chunk.lastEpochMilli());
+    chunk.clear();
+
+    expireSegments();
+  }
+
+  /**
+  * Get the binary encoding of a docker-id.
+  *
+  * @param dockerId the docker-id
+  * @return its encoding (see BinaryDockerIds)
+  * @throws IOException the docker-id couldn't be encoded
+  */
+  private static byte[] dockerIdBytes(final String dockerId)
+      throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(40);
+    BinaryDockerIds.write(new DataOutputStream(bytes), dockerId);
+    return bytes.toByteArray();
+  }
+
+  /**
+  * Deletes the segments (except the current one) whose chunks are all older
+  * than the retention.
+  */
+  private void expireSegments() {
+    if (newestEpochMilli == Long.MIN_VALUE) {
+      return;
+    }
+    long horizon = newestEpochMilli - retentionMillis;
+    while (segments.size() > 1 && segments.get(0).lastEpochMilli < horizon) {
+      Segment expired = segments.remove(0);
+
+      Iterator<List<ChunkRef>> iter = index.values().iterator();
+      while (iter.hasNext()) {
+        List<ChunkRef> refs = iter.next();
+        refs.removeIf(ref -> ref.segment == expired);
+        if (refs.isEmpty()) {
+          iter.remove();
+        }
+      }
+      if (!expired.file.delete()) {
+        System.err.println("WARN: couldn't delete history segment "
+                           + expired.file);
+      }
+    }
+  }
+
+  /**
+  * Passes the points of a column of a docker container in a range of time
+  * to a consumer, in increasing timestamps.
+  *
+  * @param dockerId the docker-id of the container
+  * @param column the name of the column
+  * @param fromMilli the start of the range (inclusive)
+  * @param toMilli the end of the range (inclusive)
+  * @param consumer the consumer of the points
+  * @return the number of points passed to the consumer
+  */
+  public int query(final String dockerId, final String column,
+                   long fromMilli, long toMilli,
+                   final TimeSeriesChunk.PointConsumer consumer) {
+    int numPoints = 0;
+
+    List<ChunkRef> refs = index.get(dockerId);
+    if (refs != null) {
+      for (ChunkRef ref: refs) {
+        int col = Arrays.asList(ref.segment.columns).indexOf(column);
+        if (col < 0 || ref.lastEpochMilli < fromMilli
+            || ref.firstEpochMilli > toMilli) {
+          continue;
+        }
+        byte[] bits = new byte[ref.numBytes];
+        ByteBuffer view = ref.segment.buffer.duplicate();
+        view.position(ref.bitsOffset);
+        view.get(bits);
+        numPoints += TimeSeriesChunk.decode(bits, ref.numSamples,
+                                            ref.segment.columns.length, col,
+                                            fromMilli, toMilli, consumer);
+      }
+    }
+
+    OpenSeries series = openSeries.get(dockerId);
+    int col = Arrays.asList(columns).indexOf(column);
+    if (series != null && col >= 0 && series.chunk.numSamples() > 0
+        && series.chunk.lastEpochMilli() >= fromMilli
+        && series.chunk.firstEpochMilli() <= toMilli) {
+      numPoints += TimeSeriesChunk.decode(series.chunk.bits(),
+                                          series.chunk.numSamples(),
+                                          columns.length, col,
+                                          fromMilli, toMilli, consumer);
+    }
+    return numPoints;
+  }
+
+  /**
+  * Get the docker-ids of the containers with points in this tier.
+  *
+  * @return the docker-ids
+  */
+  public List<String> dockerIds() {
+    TreeSet<String> ids = new TreeSet<String>(index.keySet());
+    for (Map.Entry<String, OpenSeries> entry: openSeries.entrySet()) {
+      if (entry.getValue().chunk.numSamples() > 0) {
+        ids.add(entry.getKey());
+      }
+    }
+    return new ArrayList<String>(ids);
+  }
+
+  /**
+  * Get the bytes used by the chunks in the segments.
+  *
+  * @return the bytes written in the segments
+  */
+  public long usedBytes() {
+    long used = 0;
+    for (Segment segment: segments) {
+      used += segment.writeOffset;
+    }
+    return used;
+  }
+
+}
@@ -0,0 +1,410 @@
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+* A MetricSchema compiled into dense metric indices and a plan to extract
+* all the metrics of a "stats" sample of cAdvisor in a single pass: the
+* paths of all the metrics are merged into a tree of field names, so each
+* field of the sample is looked up only once, whatever the number of
+* metrics under it.
+*
+* @author  Jose E. Nunez
+* @version 0.0.1
+* @since   2019-04-28
+*/
+public class MetricParsePlan {
+
+  /**
+  * A node in the tree of field names of the plan.
+  */
+  protected static final class PlanNode {
+
+    /**
+     * The field name to look up in the parent JSON object.
+     */
+    private final String fieldName;
+
+    /**
+     * Whether this field is an array whose elements are summed.
+     */
+    private final boolean sumOverArray;
+
+    /**
+     * The dense index of the metric at this node, or -1 if none.
+     */
+    private int metricIndex = -1;
+
+    /**
+     * The children nodes of this node.
+     */
+    private final List<PlanNode> children = new ArrayList<PlanNode>();
+
+    /**
+     * The children nodes of this node, as an array for the extraction.
+     */
+    private PlanNode[] childrenArray = new PlanNode[0];
+
+    /**
+    * Constructor.
+    *
+    * @param name the field name to look up in the parent JSON object
+    * @param isArray whether this field is an array to be summed
+    */
+    PlanNode(final String name, boolean isArray) {
+      fieldName = name;
+      sumOverArray = isArray;
+    }
+
+    /**
+    * Gets the child node for a field name, creating it if necessary.
+    *
+    * @param name the field name of the child
+    * @param isArray whether this field is an array to be summed
+    * @return the child node
+    */
+    PlanNode child(final String name, boolean isArray) {
+      for (PlanNode child: children) {
+        if (child.fieldName.equals(name) && child.sumOverArray == isArray) {
+          return child;
+        }
+      }
+      PlanNode child = new PlanNode(name, isArray);
+      children.add(child);
+      childrenArray = children.toArray(new PlanNode[0]);
+      return child;
+    }
+  }
+
+  /**
+   * The root of the tree of field names (it represents the sample itself).
+   */
+  private final PlanNode root = new PlanNode(null, false);
+
+  /**
+   * The names of the metrics, by dense index.
+   */
+  private final String[] names;
+
+  /**
+   * The paths of the metrics in a "stats" sample, by dense index.
+   */
+  private final String[] paths;
+
+  /**
+   * The kinds of the metrics, by dense index.
+   */
+  private final MetricDefinition.Kind[] kinds;
+
+  /**
+   * The normalizations of the metrics, by dense index.
+   */
+  private final MetricDefinition.Normalization[] normalizations;
+
+  /**
+   * The dense index of the metric which each metric is a percentage of, if
+   * its normalization is PERCENT_OF (-1 otherwise).
+   */
+  private final int[] percentOfIndices;
+
+  /**
+   * Whether some metric is a percentage of another one.
+   */
+  private boolean hasPercentOf = false;
+
+  /**
+   * The relative weights of the metrics, by dense index.
+   */
+  private final float[] weights;
+
+  /**
+  * Constructor: compiles the metric definitions.
+  *
+  * @param metrics the metric definitions, in the order of their indices
+  * @param relWeightsMetrics the relative weights which may override the
+  *                          weights of the definitions (can be null)
+  */
+  public MetricParsePlan(final List<MetricDefinition> metrics,
+                         final ConfigRelativeWeightsMetrics relWeightsMetrics) {
+    int numMetrics = metrics.size();
+    names = new String[numMetrics];
+    paths = new String[numMetrics];
+    kinds = new MetricDefinition.Kind[numMetrics];
+    normalizations = new MetricDefinition.Normalization[numMetrics];
+    weights = new float[numMetrics];
+    percentOfIndices = new int[numMetrics];
+
+    for (int idx = 0; idx < numMetrics; idx++) {
+      MetricDefinition metric = metrics.get(idx);
+
+      names[idx] = metric.name();
+      paths[idx] = metric.path();
+      kinds[idx] = metric.kind();
+      normalizations[idx] = metric.normalization();
+      weights[idx] = (relWeightsMetrics != null)
+                         ? relWeightsMetrics.relativeWeight(metric.name(),
+                                                            metric.weight())
+                         : metric.weight();
+
+      PlanNode node = root;
+      for (String fieldName: metric.path().split("\\.")) {
+        if (fieldName.endsWith("[]")) {
+          node = node.child(fieldName.substring(0, fieldName.length() - 2),
+                            true);
+        } else {
+          node = node.child(fieldName, false);
+        }
+      }
+      node.metricIndex = idx;
+    }
+
+    List<String> metricNames = Arrays.asList(names);
+    for (int idx = 0; idx < numMetrics; idx++) {
+      percentOfIndices[idx] = -1;
+      if (normalizations[idx] != MetricDefinition.Normalization.PERCENT_OF) {
+        continue;
+      }
+      String baseName = metrics.get(idx).percentOf();
+      int baseIdx = (baseName != null) ? metricNames.indexOf(baseName.trim())
+                                       : -1;
+      if (baseIdx < 0 || metrics.get(baseIdx).normalization()
+                         == MetricDefinition.Normalization.PERCENT_OF) {
+        System.err.println("ERROR: metric " + names[idx] + " is a percentage"
+                           + " of an unknown metric, or of a percentage: "
+                           + baseName
+                           + ". Not normalizing it.");
+        normalizations[idx] = MetricDefinition.Normalization.NONE;
+        continue;
+      }
+      percentOfIndices[idx] = baseIdx;
+      hasPercentOf = true;
+    }
+  }
+
+  /**
+  * Get the number of metrics in this plan.
+  *
+  * @return the number of metrics
+  */
+  public int numMetrics() {
+    return names.length;
+  }
+
+  /**
+  * Get the name of a metric.
+  *
+  * @param idx the dense index of the metric
+  * @return the name of the metric
+  */
+  public String name(int idx) {
+    return names[idx];
+  }
+
+  /**
+  * Get the path of a metric in a "stats" sample of cAdvisor.
+  *
+  * @param idx the dense index of the metric
+  * @return the path of the metric, like "memory.usage"
+  */
+  public String path(int idx) {
+    return paths[idx];
+  }
+
+  /**
+  * Get the kind of a metric.
+  *
+  * @param idx the dense index of the metric
+  * @return the kind of the metric
+  */
+  public MetricDefinition.Kind kind(int idx) {
+    return kinds[idx];
+  }
+
+  /**
+  * Get the normalization of a metric.
+  *
+  * @param idx the dense index of the metric
+  * @return the normalization of the metric
+  */
+  public MetricDefinition.Normalization normalization(int idx) {
+    return normalizations[idx];
+  }
+
+  /**
+  * Get the metric which a metric is a percentage of.
+  *
+  * @param idx the dense index of the metric
+  * @return the dense index of the base metric, or -1 if the normalization
+  *         of the metric isn't PERCENT_OF
+  */
+  public int percentOf(int idx) {
+    return percentOfIndices[idx];
+  }
+
+  /**
+  * Whether some metric is a percentage of another one.
+  *
+  * @return true if some normalization is PERCENT_OF
+  */
+  public boolean hasPercentOf() {
+    return hasPercentOf;
+  }
+
+  /**
+  * Get the relative weight of a metric.
+  *
+  * @param idx the dense index of the metric
+  * @return the relative weight of the metric
+  */
+  public float weight(int idx) {
+    return weights[idx];
+  }
+
+  /**
+  * Sets the relative weight of a metric (e.g., tuned from the latency of the
+  * backend servers). It must be called by the thread which scores with this
+  * plan.
+  *
+  * @param idx the dense index of the metric
+  * @param weight the new relative weight of the metric
+  */
+  public void weight(int idx, float weight) {
+    weights[idx] = weight;
+  }
+
+  /**
+  * Extracts all the metrics of a "stats" sample of cAdvisor. (Missing or
+  * non-numeric fields are taken as 0.)
+  *
+  * @param sample the parsed JSON object of the sample
+  * @param values where to store the values of the metrics, by dense index
+  */
+  public void extract(final Object sample, final double[] values) {
+    Arrays.fill(values, 0);
+    visitChildren(root, sample, values);
+  }
+
+  /**
+  * Extracts the metrics under the children of a node of the plan.
+  *
+  * @param node the node of the plan
+  * @param jsonValue the JSON value corresponding to that node
+  * @param values where to accumulate the values of the metrics
+  */
+  private void visitChildren(final PlanNode node, final Object jsonValue,
+                             final double[] values) {
+    if (!(jsonValue instanceof Map)) {
+      return;
+    }
+    Map<?, ?> jsonObject = (Map<?, ?>) jsonValue;
+
+    for (PlanNode child: node.childrenArray) {
+      Object childValue = jsonObject.get(child.fieldName);
+      if (child.sumOverArray) {
+        if (childValue instanceof List) {
+          for (Object element: (List<?>) childValue) {
+            visit(child, element, values);
+          }
+        }
+      } else {
+        visit(child, childValue, values);
+      }
+    }
+  }
+
+  /**
+  * Extracts the metrics at, and under, a node of the plan.
+  *
+  * @param node the node of the plan
+  * @param jsonValue the JSON value corresponding to that node
+  * @param values where to accumulate the values of the metrics
+  */
+  private void visit(final PlanNode node, final Object jsonValue,
+                     final double[] values) {
+    if (node.metricIndex >= 0 && jsonValue instanceof Number) {
+      // accumulated: the elements of the arrays in the path are summed
+      values[node.metricIndex] += ((Number) jsonValue).doubleValue();
+    }
+    if (node.childrenArray.length > 0) {
+      visitChildren(node, jsonValue, values);
+    }
+  }
+
+  /**
+  * Extracts the metrics under a field of a "stats" sample of cAdvisor read
+  * in place by a cursor (the caller iterates over the fields of the sample,
+  * and the values of the metrics must have been set to 0 before the first
+  * field).
+  *
+  * @param cursor the cursor, at the value of the field, just after its name
+  * @param values where to accumulate the values of the metrics
+  * @param offset the offset of the values of this sample in values
+  */
+  public void extractField(final JsonCharCursor cursor, final double[] values,
+                           int offset) {
+    visitField(root, cursor, values, offset);
+  }
+
+  /**
+  * Extracts the metrics under the field at the cursor, a child of a node.
+  *
+  * @param parent the node of the plan of the object with the field
+  * @param cursor the cursor, at the value of the field
+  * @param values where to accumulate the values of the metrics
+  * @param offset the offset of the values of this sample in values
+  */
+  private void visitField(final PlanNode parent, final JsonCharCursor cursor,
+                          final double[] values, int offset) {
+    PlanNode child = null;
+    for (PlanNode candidate: parent.childrenArray) {
+      if (cursor.stringEquals(candidate.fieldName)) {
+        child = candidate;
+        break;
+      }
+    }
+
+    if (child == null) {
+      cursor.skipValue();
+    } else if (child.sumOverArray) {
+      if (cursor.beginArray()) {
+        while (cursor.nextElement()) {
+          visitValue(child, cursor, values, offset);
+        }
+      } else {
+        cursor.skipValue();
+      }
+    } else {
+      visitValue(child, cursor, values, offset);
+    }
+  }
+
+  /**
+  * Extracts the metrics at, and under, a node of the plan from the value at
+  * the cursor.
+  *
+  * @param node the node of the plan
+  * @param cursor the cursor, at the value corresponding to that node
+  * @param values where to accumulate the values of the metrics
+  * @param offset the offset of the values of this sample in values
+  */
+  private void visitValue(final PlanNode node, final JsonCharCursor cursor,
+                          final double[] values, int offset) {
+    if (cursor.isNumber()) {
+      double value = cursor.readDouble();
+      if (node.metricIndex >= 0) {
+        // accumulated: the elements of the arrays in the path are summed
+        values[offset + node.metricIndex] += value;
+      }
+    } else if (node.childrenArray.length > 0 && cursor.beginObject()) {
+      while (cursor.nextField()) {
+        visitField(node, cursor, values, offset);
+      }
+    } else {
+      cursor.skipValue();
+    }
+  }
+
+}
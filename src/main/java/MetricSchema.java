@@ -0,0 +1,210 @@
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+
+/**
+* The declarative schema of the metrics from cAdvisor taken into
+* consideration in the load factor of a docker container, read from a
+* property file like:
+*
+* <pre>
+*   metrics=cpuLoadAvg, ioTime
+*   cpuLoadAvg.path=cpu.load_average
+*   cpuLoadAvg.kind=gauge
+*   cpuLoadAvg.weight=0.8
+*   ioTime.path=filesystem[].io_time
+*   ioTime.kind=counter
+*   ioTime.normalization=none
+*   ioTime.weight=0.4
+* </pre>
+*
+* The schema is compiled once, at start-up, into a MetricParsePlan.
+*
+* @author  Jose E. Nunez
+* @version 0.0.1
+* @since   2019-04-28
+*/
+public class MetricSchema {
+
+  /**
+   * The metrics declared in this schema, in the order of their dense
+   * indices.
+   */
+  private final List<MetricDefinition> metrics =
+      new ArrayList<MetricDefinition>();
+
+  /**
+  * Get the metrics declared in this schema.
+  *
+  * @return the list of metrics, in the order of their dense indices
+  */
+  public List<MetricDefinition> getMetrics() {
+    return metrics;
+  }
+
+  /**
+  * Adds a metric to this schema.
+  *
+  * @param metric the declaration of the metric
+  * @return this object, for fluent functional programming style
+  */
+  public MetricSchema addMetric(final MetricDefinition metric) {
+    metrics.add(metric);
+    return this;
+  }
+
+  /**
+  * The default schema: the metrics this program has always taken into
+  * consideration, used if there is no schema property file.
+  *
+  * @return the default schema
+  */
+  public static MetricSchema defaultSchema() {
+    return new MetricSchema()
+      .addMetric(new MetricDefinition()
+                   .name("cpuLoadAvg").path("cpu.load_average")
+                   .kind(MetricDefinition.Kind.GAUGE).weight(0.8f))
+      .addMetric(new MetricDefinition()
+                   .name("memUsage").path("memory.usage")
+                   .kind(MetricDefinition.Kind.GAUGE)
+                   .normalization(
+                       MetricDefinition.Normalization.MEM_CAPACITY_PERCENT
+                   )
+                   .weight(0.5f))
+      .addMetric(new MetricDefinition()
+                   .name("rxDropped").path("network.rx_dropped")
+                   .kind(MetricDefinition.Kind.COUNTER).weight(0.8f))
+      .addMetric(new MetricDefinition()
+                   .name("ioTime").path("filesystem[].io_time")
+                   .kind(MetricDefinition.Kind.COUNTER).weight(0.4f))
+      .addMetric(new MetricDefinition()
+                   .name("readTime").path("filesystem[].read_time")
+                   .kind(MetricDefinition.Kind.COUNTER).weight(0.2f))
+      .addMetric(new MetricDefinition()
+                   .name("writeTime").path("filesystem[].write_time")
+                   .kind(MetricDefinition.Kind.COUNTER).weight(0.3f))
+      .addMetric(new MetricDefinition()
+                   .name("weightedIoTime").path("filesystem[].weighted_io_time")
+                   .kind(MetricDefinition.Kind.COUNTER).weight(0.2f));
+  }
+
+  /**
+  * Load a schema from a property file, or the default schema if the file
+  * can't be read.
+  *
+  * @param propFileName the filename of the property file
+  * @return the schema
+  */
+  public static MetricSchema loadFromPropFile(final String propFileName) {
+    Properties prop = new Properties();
+
+    try (InputStream propF = new FileInputStream(propFileName);) {
+
+      prop.load(propF);
+
+      MetricSchema schema = new MetricSchema();
+
+      for (String name: prop.getProperty("metrics", "").split(",")) {
+        name = name.trim();
+        if (name.isEmpty()) {
+          continue;
+        }
+
+        String path = prop.getProperty(name + ".path");
+        if (path == null) {
+          System.err.println("ERROR: metric " + name + " in " + propFileName
+                             + " has no path. Ignoring it.");
+          continue;
+        }
+
+        schema.addMetric(new MetricDefinition()
+                           .name(name)
+                           .path(path.trim())
+                           .kind(parseKind(
+                               prop.getProperty(name + ".kind", "gauge")
+                           ))
+                           .normalization(parseNormalization(
+                               prop.getProperty(name + ".normalization",
+                                                "none")
+                           ))
+                           .percentOf(prop.getProperty(name + ".percentOf"))
+                           .weight(Float.parseFloat(
+                               prop.getProperty(name + ".weight", "0")
+                           )));
+      }
+
+      return schema;
+
+    } catch (IOException
+             | IllegalArgumentException ex) {
+      ex.printStackTrace();
+      System.err.println("WARN: using the default metric schema.");
+      return defaultSchema();
+    }
+  }
+
+  /**
+  * Parses the kind of a metric in the property file.
+  *
+  * @param kind "gauge" or "counter"
+  * @return the corresponding kind
+  */
+  protected static MetricDefinition.Kind parseKind(final String kind) {
+    switch (kind.trim()) {
+      case "gauge":
+        return MetricDefinition.Kind.GAUGE;
+      case "counter":
+        return MetricDefinition.Kind.COUNTER;
+      default:
+        throw new IllegalArgumentException("Unknown metric kind: " + kind);
+    }
+  }
+
+  /**
+  * Parses the normalization of a metric in the property file.
+  *
+  * @param normalization "none", "memCapacityPercent", "perSecond",
+  *                      "percentOf" or "nanosPercent"
+  * @return the corresponding normalization
+  */
+  protected static MetricDefinition.Normalization parseNormalization(
+                                           final String normalization
+  ) {
+    switch (normalization.trim()) {
+      case "none":
+        return MetricDefinition.Normalization.NONE;
+      case "memCapacityPercent":
+        return MetricDefinition.Normalization.MEM_CAPACITY_PERCENT;
+      case "perSecond":
+        return MetricDefinition.Normalization.PER_SECOND;
+      case "percentOf":
+        return MetricDefinition.Normalization.PERCENT_OF;
+      case "nanosPercent":
+        return MetricDefinition.Normalization.NANOS_PERCENT;
+      default:
+        throw new IllegalArgumentException("Unknown metric normalization: "
+                                           + normalization);
+    }
+  }
+
+  /**
+  * Compiles this schema into the plan to extract all its metrics in a single
+  * pass over each "stats" sample of cAdvisor.
+  *
+  * @param relWeightsMetrics the relative weights which may override the
+  *                          weights declared in this schema (see
+  *                          ConfigRelativeWeightsMetrics#relativeWeight)
+  * @return the compiled plan
+  */
+  public MetricParsePlan compile(
+                final ConfigRelativeWeightsMetrics relWeightsMetrics
+  ) {
+    return new MetricParsePlan(metrics, relWeightsMetrics);
+  }
+
+}
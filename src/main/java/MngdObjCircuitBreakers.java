@@ -0,0 +1,86 @@
+import java.util.Collection;
+
+import javax.management.InvalidAttributeValueException;
+
+import org.snmp4j.agent.BaseAgent;
+import org.snmp4j.agent.DefaultMOServer;
+import org.snmp4j.agent.DuplicateRegistrationException;
+import org.snmp4j.agent.mo.MOAccessImpl;
+import org.snmp4j.agent.mo.MOTable;
+import org.snmp4j.smi.Counter64;
+import org.snmp4j.smi.Gauge32;
+import org.snmp4j.smi.Integer32;
+import org.snmp4j.smi.OctetString;
+import org.snmp4j.smi.SMIConstants;
+
+public class MngdObjCircuitBreakers {
+
+
+  // the largest value of a Gauge32
+  private static final long MAX_GAUGE32 = 0xFFFFFFFFL;
+
+  private final Collection<CAdvisorCircuitBreaker> breakers;
+  private MOTableBuilder builder;
+  // the table currently registered in the agent (if any)
+  private MOTable<?, ?, ?> registeredTable = null;
+
+
+  public MngdObjCircuitBreakers(
+      Collection<CAdvisorCircuitBreaker> circuitBreakers) {
+    breakers = circuitBreakers;
+  }
+
+
+  public void refresh() {
+
+    builder = new MOTableBuilder(SnmpMOIdentifiers.BREAKER_TABLE_BASE_OID)
+                    .addColumnType(SMIConstants.SYNTAX_OCTET_STRING,
+                                   MOAccessImpl.ACCESS_READ_ONLY)
+                    .addColumnType(SMIConstants.SYNTAX_INTEGER32,
+                                   MOAccessImpl.ACCESS_READ_ONLY)
+                    .addColumnType(SMIConstants.SYNTAX_GAUGE32,
+                                   MOAccessImpl.ACCESS_READ_ONLY)
+                    .addColumnType(SMIConstants.SYNTAX_COUNTER64,
+                                   MOAccessImpl.ACCESS_READ_ONLY)
+                    .addColumnType(SMIConstants.SYNTAX_COUNTER64,
+                                   MOAccessImpl.ACCESS_READ_ONLY)
+                    .addColumnType(SMIConstants.SYNTAX_GAUGE32,
+                                   MOAccessImpl.ACCESS_READ_ONLY)
+                    .addColumnType(SMIConstants.SYNTAX_GAUGE32,
+                                   MOAccessImpl.ACCESS_READ_ONLY);
+
+    long now = System.currentTimeMillis();
+    for (CAdvisorCircuitBreaker breaker: breakers) {
+      long lastSuccess = breaker.lastSuccessEpochMilli();
+      long secondsSinceSuccess = (lastSuccess > 0)
+                                     ? (now - lastSuccess) / 1000
+                                     : MAX_GAUGE32;
+      builder.addRowValue(new OctetString(breaker.host()));
+      builder.addRowValue(new Integer32(breaker.state().code()));
+      builder.addRowValue(new Gauge32(breaker.consecutiveFailures()));
+      builder.addRowValue(new Counter64(breaker.numFailures()));
+      builder.addRowValue(new Counter64(breaker.numOpenings()));
+      builder.addRowValue(
+          new Gauge32(Math.min(secondsSinceSuccess, MAX_GAUGE32)));
+      builder.addRowValue(
+          new Gauge32(Math.min(breaker.backoffMillis(), MAX_GAUGE32)));
+    }
+  }
+
+
+  public void registerMOs(BaseAgent agent)
+      throws DuplicateRegistrationException, InvalidAttributeValueException {
+    DefaultMOServer server = agent.getServer();
+
+    // unregister all
+    if (registeredTable != null) {
+      server.unregister(registeredTable, null);
+    }
+
+    // register it back again
+    MOTable<?, ?, ?> newTable = builder.build();
+    server.register(newTable, null);
+    registeredTable = newTable;
+  }
+
+}
@@ -7,7 +7,9 @@ import org.snmp4j.agent.BaseAgent;
 import org.snmp4j.agent.DefaultMOServer;
 import org.snmp4j.agent.DuplicateRegistrationException;
 import org.snmp4j.agent.mo.MOAccessImpl;
+import org.snmp4j.agent.mo.MOTable;
 import org.snmp4j.smi.Gauge32;
+import org.snmp4j.smi.Integer32;
 import org.snmp4j.smi.OctetString;
 import org.snmp4j.smi.SMIConstants;
 
@@ -16,6 +18,8 @@ public class MngdObjDockersLbFinalStat {
 
   private MOTableBuilder builder;
   private List<LbCAdvisorResultStat> lbResultStats;
+  // the table currently registered in the agent (if any)
+  private MOTable<?, ?, ?> registeredTable = null;
 
 
   public MngdObjDockersLbFinalStat() {
@@ -31,11 +35,16 @@ public class MngdObjDockersLbFinalStat {
                     .addColumnType(SMIConstants.SYNTAX_OCTET_STRING,
                                    MOAccessImpl.ACCESS_READ_ONLY)
                     .addColumnType(SMIConstants.SYNTAX_GAUGE32,
+                                   MOAccessImpl.ACCESS_READ_ONLY)
+                    .addColumnType(SMIConstants.SYNTAX_INTEGER32,
                                    MOAccessImpl.ACCESS_READ_ONLY);
 
     for (LbCAdvisorResultStat dockerLbFinalStat: newLbResultStats) {
       builder.addRowValue(new OctetString(dockerLbFinalStat.dockerId()));
       builder.addRowValue(new Gauge32(dockerLbFinalStat.lbFinalStat()));
+      builder.addRowValue(
+          new Integer32(dockerLbFinalStat.ejectionState().code())
+      );
     }
 
     // registerMOs(snmpAgent);    // TODO
@@ -47,10 +56,14 @@ public class MngdObjDockersLbFinalStat {
     DefaultMOServer server = agent.getServer();
 
     // unregister all
-    server.unregister(builder.build(), null);
+    if (registeredTable != null) {
+      server.unregister(registeredTable, null);
+    }
 
     // register it back again
-    server.register(builder.build(), null);
+    MOTable<?, ?, ?> newTable = builder.build();
+    server.register(newTable, null);
+    registeredTable = newTable;
   }
 
 }
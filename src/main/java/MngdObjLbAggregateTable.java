@@ -0,0 +1,102 @@
+import java.util.List;
+
+import org.snmp4j.agent.BaseAgent;
+import org.snmp4j.agent.DuplicateRegistrationException;
+import org.snmp4j.agent.mo.DefaultMOMutableRow2PC;
+import org.snmp4j.agent.mo.MOAccessImpl;
+import org.snmp4j.agent.mo.MOMutableTableModel;
+import org.snmp4j.agent.mo.MOTable;
+import org.snmp4j.smi.Gauge32;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.OctetString;
+import org.snmp4j.smi.SMIConstants;
+import org.snmp4j.smi.Variable;
+
+public class MngdObjLbAggregateTable {
+
+
+  // the largest value of a Gauge32
+  private static final long MAX_GAUGE32 = 0xFFFFFFFFL;
+
+  private final LoadFactorAggregates aggregates;
+  private final MOTable<?, ?, ?> table;
+  @SuppressWarnings("rawtypes")
+  private final MOMutableTableModel model;
+  private boolean registered = false;
+
+
+  /**
+   * Constructor: the table is registered once, and then only the rows of
+   * the groups which changed are updated at each cycle.
+   *
+   * @param tableOid the OID of the table
+   * @param groupAggregates the aggregates of the groups of the table
+   */
+  @SuppressWarnings("rawtypes")
+  public MngdObjLbAggregateTable(OID tableOid,
+                                 LoadFactorAggregates groupAggregates) {
+    aggregates = groupAggregates;
+
+    // the key of the group, the number of containers, the sum, mean,
+    // maximum and minimum of their load factors, and the least loaded one
+    table = new MOTableBuilder(tableOid)
+                  .addColumnType(SMIConstants.SYNTAX_OCTET_STRING,
+                                 MOAccessImpl.ACCESS_READ_ONLY)
+                  .addColumnType(SMIConstants.SYNTAX_GAUGE32,
+                                 MOAccessImpl.ACCESS_READ_ONLY)
+                  .addColumnType(SMIConstants.SYNTAX_GAUGE32,
+                                 MOAccessImpl.ACCESS_READ_ONLY)
+                  .addColumnType(SMIConstants.SYNTAX_GAUGE32,
+                                 MOAccessImpl.ACCESS_READ_ONLY)
+                  .addColumnType(SMIConstants.SYNTAX_GAUGE32,
+                                 MOAccessImpl.ACCESS_READ_ONLY)
+                  .addColumnType(SMIConstants.SYNTAX_GAUGE32,
+                                 MOAccessImpl.ACCESS_READ_ONLY)
+                  .addColumnType(SMIConstants.SYNTAX_OCTET_STRING,
+                                 MOAccessImpl.ACCESS_READ_ONLY)
+                  .build();
+    model = (MOMutableTableModel) table.getModel();
+  }
+
+
+  /**
+   * Updates the aggregates with the final metrics of a cycle, and the rows
+   * of the groups which changed.
+   *
+   * @param lbResultStats the final metrics, one per docker container
+   */
+  @SuppressWarnings("unchecked")
+  public void setLbResultStats(List<LbCAdvisorResultStat> lbResultStats) {
+
+    for (LoadFactorAggregates.Group group:
+             aggregates.update(lbResultStats)) {
+      OID rowIndex = new OID(new int[] {group.row()});
+      if (group.count() == 0) {
+        model.removeRow(rowIndex);
+        continue;
+      }
+
+      Variable[] values = new Variable[] {
+        new OctetString(group.key()),
+        new Gauge32(group.count()),
+        new Gauge32(Math.min(group.sum(), MAX_GAUGE32)),
+        new Gauge32(Math.min(group.mean(), MAX_GAUGE32)),
+        new Gauge32(group.max()),
+        new Gauge32(group.min()),
+        new OctetString(group.leastLoaded())
+      };
+      // replaces the row of the group, if it was already there
+      model.addRow(new DefaultMOMutableRow2PC(rowIndex, values));
+    }
+  }
+
+
+  public void registerMOs(BaseAgent agent)
+      throws DuplicateRegistrationException {
+    if (!registered) {
+      agent.getServer().register(table, null);
+      registered = true;
+    }
+  }
+
+}
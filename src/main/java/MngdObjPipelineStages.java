@@ -0,0 +1,72 @@
+import javax.management.InvalidAttributeValueException;
+
+import org.snmp4j.agent.BaseAgent;
+import org.snmp4j.agent.DefaultMOServer;
+import org.snmp4j.agent.DuplicateRegistrationException;
+import org.snmp4j.agent.mo.MOAccessImpl;
+import org.snmp4j.agent.mo.MOTable;
+import org.snmp4j.smi.Counter64;
+import org.snmp4j.smi.Gauge32;
+import org.snmp4j.smi.OctetString;
+import org.snmp4j.smi.SMIConstants;
+
+public class MngdObjPipelineStages {
+
+
+  private final CyclePipeline pipeline;
+  private MOTableBuilder builder;
+  // the table currently registered in the agent (if any)
+  private MOTable<?, ?, ?> registeredTable = null;
+
+
+  public MngdObjPipelineStages(CyclePipeline cyclePipeline) {
+    pipeline = cyclePipeline;
+  }
+
+
+  public void refresh() {
+
+    builder = new MOTableBuilder(SnmpMOIdentifiers.PIPELINE_TABLE_BASE_OID)
+                    .addColumnType(SMIConstants.SYNTAX_OCTET_STRING,
+                                   MOAccessImpl.ACCESS_READ_ONLY)
+                    .addColumnType(SMIConstants.SYNTAX_GAUGE32,
+                                   MOAccessImpl.ACCESS_READ_ONLY)
+                    .addColumnType(SMIConstants.SYNTAX_GAUGE32,
+                                   MOAccessImpl.ACCESS_READ_ONLY)
+                    .addColumnType(SMIConstants.SYNTAX_GAUGE32,
+                                   MOAccessImpl.ACCESS_READ_ONLY)
+                    .addColumnType(SMIConstants.SYNTAX_GAUGE32,
+                                   MOAccessImpl.ACCESS_READ_ONLY)
+                    .addColumnType(SMIConstants.SYNTAX_COUNTER64,
+                                   MOAccessImpl.ACCESS_READ_ONLY)
+                    .addColumnType(SMIConstants.SYNTAX_COUNTER64,
+                                   MOAccessImpl.ACCESS_READ_ONLY);
+
+    for (CyclePipelineStage stage: pipeline.stages()) {
+      builder.addRowValue(new OctetString(stage.name()));
+      builder.addRowValue(new Gauge32(stage.queueDepth()));
+      builder.addRowValue(new Gauge32(stage.queueCapacity()));
+      builder.addRowValue(new Gauge32(stage.numThreads()));
+      builder.addRowValue(new Gauge32(stage.occupancyPerMille()));
+      builder.addRowValue(new Counter64(stage.numProcessed()));
+      builder.addRowValue(new Counter64(stage.numBlockedSubmits()));
+    }
+  }
+
+
+  public void registerMOs(BaseAgent agent)
+      throws DuplicateRegistrationException, InvalidAttributeValueException {
+    DefaultMOServer server = agent.getServer();
+
+    // unregister all
+    if (registeredTable != null) {
+      server.unregister(registeredTable, null);
+    }
+
+    // register it back again
+    MOTable<?, ?, ?> newTable = builder.build();
+    server.register(newTable, null);
+    registeredTable = newTable;
+  }
+
+}
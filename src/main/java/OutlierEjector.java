@@ -0,0 +1,470 @@
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+* Ejects the pathological docker containers of a host: in each cycle, a
+* container whose load factor is an outlier among those of all the
+* containers of the host, and so are at least outlierMinComponents of its
+* weighted metrics (e.g., its I/O time, dropped packets and load average at
+* once: a container thrashing), is drained, as if it were fully loaded, so
+* that it stops receiving traffic, instead of just getting a larger load
+* factor. A value is an outlier if its robust z-score,
+*
+* <pre>
+*   0.6745 * (value - median) / MAD
+* </pre>
+*
+* (where MAD is the median absolute deviation from the median, which one
+* outlier can't inflate like it does the standard deviation) is above
+* outlierThreshold.
+*
+* An ejected container stays drained for outlierEjectionMillis, and then is
+* re-admitted gradually: its load factor goes down linearly from the full
+* load factor to its own one over outlierReadmitMillis (an outlier again
+* meanwhile is ejected again). At most outlierMaxEjectionPercent of the
+* containers of the host are ejected at once (the worst outliers first).
+*
+* It is used by the thread which scores the host.
+*
+* @author  Jose E. Nunez
+* @version 0.0.1
+* @since   2019-07-07
+*/
+public final class OutlierEjector {
+
+  /**
+  * The states of ejection of a container.
+  */
+  public enum State {
+    /** The container gets its own load factor. */
+    ADMITTED(1),
+    /** The container is drained. */
+    EJECTED(2),
+    /** The container is getting back to its own load factor. */
+    READMITTING(3);
+
+    /**
+     * The code of the state, in the SNMP table of the containers.
+     */
+    private final int code;
+
+    /**
+    * Constructor.
+    *
+    * @param stateCode the code of the state
+    */
+    State(int stateCode) {
+      code = stateCode;
+    }
+
+    /**
+    * Get the code of the state, in the SNMP table of the containers.
+    *
+    * @return the code of the state
+    */
+    public int code() {
+      return code;
+    }
+
+    /**
+    * Get the state of a code.
+    *
+    * @param stateCode the code of the state
+    * @return the state, or ADMITTED if the code is unknown
+    */
+    public static State fromCode(int stateCode) {
+      for (State state: values()) {
+        if (state.code == stateCode) {
+          return state;
+        }
+      }
+      return ADMITTED;
+    }
+  }
+
+  /**
+   * The factor of the MAD which estimates the standard deviation of a
+   * normal distribution (1 / 1.4826).
+   */
+  private static final double MAD_SCALE = 0.6745;
+
+  /**
+   * The robust z-score above which a value is an outlier.
+   */
+  private final double threshold;
+
+  /**
+   * The number of weighted metrics which must be outliers too.
+   */
+  private final int minComponents;
+
+  /**
+   * The number of containers under which no outlier is detected.
+   */
+  private final int minContainers;
+
+  /**
+   * How long an outlier is ejected, in millisecs.
+   */
+  private final long ejectionMillis;
+
+  /**
+   * How long a re-admission takes, in millisecs.
+   */
+  private final long readmitMillis;
+
+  /**
+   * The maximum percentage of the containers ejected at once.
+   */
+  private final int maxEjectionPercent;
+
+  /**
+   * The load factor of a drained container ("d-3" units).
+   */
+  private final int fullLoadFactor;
+
+  /**
+   * The logger of the changes of the states of ejection (null: none).
+   */
+  private final AsyncCycleLogger cycleLogger;
+
+  /**
+   * When the ejection of each container ejected or re-admitting ends, in
+   * epoch millisecs, by its docker-id.
+   */
+  private final Map<String, Long> ejectionEnds = new HashMap<String, Long>();
+
+  /**
+   * The load factor of each container of the cycle (reused).
+   */
+  private double[] loadFactors = new double[16];
+
+  /**
+   * The values of the metrics of each container of the cycle, at
+   * [container * numMetrics + idx] (reused).
+   */
+  private double[] metricValues;
+
+  /**
+   * The handle of each container of the cycle (-1: not scored; reused).
+   */
+  private int[] handles = new int[16];
+
+  /**
+   * The robust z-score of the load factor of each container (reused).
+   */
+  private double[] zScores = new double[16];
+
+  /**
+   * The number of its metrics which are outliers, by container (reused).
+   */
+  private int[] outlierComponents = new int[16];
+
+  /**
+   * The values whose median is being taken (reused).
+   */
+  private double[] scratch = new double[16];
+
+  /**
+  * Constructor.
+  *
+  * @param config the settings of the agent, with the outlier* settings
+  * @param logger the logger of the changes of the states of ejection (can
+  *               be null)
+  */
+  public OutlierEjector(final ConfigLbDockerCAdvisor config,
+                        final AsyncCycleLogger logger) {
+    threshold = config.outlierThreshold();
+    minComponents = Math.max(0, config.outlierMinComponents());
+    minContainers = Math.max(3, config.outlierMinContainers());
+    ejectionMillis = Math.max(0, config.outlierEjectionMillis());
+    readmitMillis = Math.max(0, config.outlierReadmitMillis());
+    maxEjectionPercent =
+        Math.max(0, Math.min(100, config.outlierMaxEjectionPercent()));
+    fullLoadFactor = config.agentCheckFullLoadFactor();
+    cycleLogger = logger;
+    metricValues = new double[0];
+  }
+
+  /**
+  * Detects the outliers among the final metrics of a cycle of a host, and
+  * ejects them, setting the state of ejection of each container and, if it
+  * is ejected or re-admitting, its load factor.
+  *
+  * @param lbResultStats the final metrics of the host, one per container
+  *                      (not published yet)
+  * @param scorer the scorer of the host, with the metrics of each container
+  * @param nowMillis the current epoch, in millisecs
+  */
+  public void eject(final List<LbCAdvisorResultStat> lbResultStats,
+                    final DockerLoadFactorScorer scorer, long nowMillis) {
+    int numContainers = lbResultStats.size();
+    MetricParsePlan parsePlan = scorer.getParsePlan();
+    int numMetrics = parsePlan.numMetrics();
+    ensureCapacity(numContainers, numMetrics);
+
+    ContainerRegistry registry = scorer.getRegistry();
+    for (int idx = 0; idx < numContainers; idx++) {
+      LbCAdvisorResultStat lbResultStat = lbResultStats.get(idx);
+      loadFactors[idx] = lbResultStat.lbFinalStat();
+      int handle = registry.lookup(lbResultStat.dockerId());
+      if (handle >= 0 && scorer.lastMetricValues(handle, scratch)) {
+        handles[idx] = handle;
+      } else {
+        handles[idx] = -1;
+        Arrays.fill(scratch, 0, numMetrics, 0.0);
+      }
+      System.arraycopy(scratch, 0, metricValues, idx * numMetrics,
+                       numMetrics);
+    }
+
+    if (numContainers >= minContainers) {
+      detect(numContainers, parsePlan);
+      ejectWorst(lbResultStats, nowMillis);
+    }
+
+    // forget the containers which are gone
+    if (!ejectionEnds.isEmpty()) {
+      Set<String> dockerIds = new HashSet<String>(2 * numContainers);
+      for (LbCAdvisorResultStat lbResultStat: lbResultStats) {
+        dockerIds.add(lbResultStat.dockerId());
+      }
+      ejectionEnds.keySet().retainAll(dockerIds);
+    }
+
+    for (LbCAdvisorResultStat lbResultStat: lbResultStats) {
+      applyState(lbResultStat, nowMillis);
+    }
+  }
+
+  /**
+  * Grows the reusable arrays to hold the containers of a cycle.
+  *
+  * @param numContainers the number of containers
+  * @param numMetrics the number of metrics per container
+  */
+  private void ensureCapacity(int numContainers, int numMetrics) {
+    if (numContainers > loadFactors.length) {
+      int newLength = Math.max(numContainers, 2 * loadFactors.length);
+      loadFactors = new double[newLength];
+      handles = new int[newLength];
+      zScores = new double[newLength];
+      outlierComponents = new int[newLength];
+    }
+    if (metricValues.length < loadFactors.length * numMetrics) {
+      metricValues = new double[loadFactors.length * numMetrics];
+    }
+    if (scratch.length < Math.max(loadFactors.length, numMetrics)) {
+      scratch = new double[Math.max(loadFactors.length, numMetrics)];
+    }
+  }
+
+  /**
+  * Computes the robust z-score of the load factor of each container, and
+  * how many of its weighted metrics are outliers.
+  *
+  * @param numContainers the number of containers
+  * @param parsePlan the plan of the metrics, with their weights
+  */
+  private void detect(int numContainers, final MetricParsePlan parsePlan) {
+    int numMetrics = parsePlan.numMetrics();
+    robustZScores(loadFactors, 0, 1, numContainers, zScores);
+    Arrays.fill(outlierComponents, 0, numContainers, 0);
+
+    for (int idx = 0; idx < numMetrics; idx++) {
+      if (parsePlan.weight(idx) == 0) {
+        continue;
+      }
+      double median = median(metricValues, idx, numMetrics, numContainers);
+      double mad = medianAbsoluteDeviation(metricValues, idx, numMetrics,
+                                           numContainers, median);
+      if (mad <= 0) {
+        continue;
+      }
+      for (int container = 0; container < numContainers; container++) {
+        double value = metricValues[container * numMetrics + idx];
+        // a weighted metric is an outlier on the side of more load
+        if (handles[container] >= 0
+            && parsePlan.weight(idx) * (value - median) > 0
+            && MAD_SCALE * Math.abs(value - median) / mad > threshold) {
+          outlierComponents[container]++;
+        }
+      }
+    }
+  }
+
+  /**
+  * Computes the robust z-scores of some values (0 for all if their MAD is
+  * 0: then no value stands out).
+  *
+  * @param values the values
+  * @param offset the index of the first value
+  * @param stride the distance between the values
+  * @param numValues the number of values
+  * @param out where to store the z-score of each value
+  */
+  private void robustZScores(final double[] values, int offset, int stride,
+                             int numValues, final double[] out) {
+    double median = median(values, offset, stride, numValues);
+    double mad = medianAbsoluteDeviation(values, offset, stride, numValues,
+                                         median);
+    for (int idx = 0; idx < numValues; idx++) {
+      out[idx] = (mad > 0)
+                     ? MAD_SCALE * (values[offset + idx * stride] - median)
+                       / mad
+                     : 0.0;
+    }
+  }
+
+  /**
+  * Gets the median of some values.
+  *
+  * @param values the values
+  * @param offset the index of the first value
+  * @param stride the distance between the values
+  * @param numValues the number of values (not 0)
+  * @return the median
+  */
+  private double median(final double[] values, int offset, int stride,
+                        int numValues) {
+    for (int idx = 0; idx < numValues; idx++) {
+      scratch[idx] = values[offset + idx * stride];
+    }
+    return sortedMedian(numValues);
+  }
+
+  /**
+  * Gets the median absolute deviation of some values from their median.
+  *
+  * @param values the values
+  * @param offset the index of the first value
+  * @param stride the distance between the values
+  * @param numValues the number of values (not 0)
+  * @param median the median of the values
+  * @return the median absolute deviation
+  */
+  private double medianAbsoluteDeviation(final double[] values, int offset,
+                                         int stride, int numValues,
+                                         double median) {
+    for (int idx = 0; idx < numValues; idx++) {
+      scratch[idx] = Math.abs(values[offset + idx * stride] - median);
+    }
+    return sortedMedian(numValues);
+  }
+
+  /**
+  * Sorts the first values of the scratch array, and gets their median.
+  *
+  * @param numValues the number of values (not 0)
+  * @return the median
+  */
+  private double sortedMedian(int numValues) {
+    Arrays.sort(scratch, 0, numValues);
+    int middle = numValues / 2;
+    return ((numValues & 1) != 0)
+               ? scratch[middle]
+               : (scratch[middle - 1] + scratch[middle]) / 2;
+  }
+
+  /**
+  * Ejects the outliers of the cycle, the worst first, without exceeding
+  * the maximum percentage of containers ejected at once.
+  *
+  * @param lbResultStats the final metrics, one per container
+  * @param nowMillis the current epoch, in millisecs
+  */
+  private void ejectWorst(final List<LbCAdvisorResultStat> lbResultStats,
+                          long nowMillis) {
+    int numContainers = lbResultStats.size();
+    int maxEjected = (maxEjectionPercent == 0)
+                         ? 0
+                         : Math.max(1, numContainers * maxEjectionPercent
+                                       / 100);
+
+    int numEjected = 0;
+    for (Map.Entry<String, Long> ejection: ejectionEnds.entrySet()) {
+      if (ejection.getValue() > nowMillis) {
+        numEjected++;
+      }
+    }
+
+    while (numEjected < maxEjected) {
+      int worst = -1;
+      for (int idx = 0; idx < numContainers; idx++) {
+        String dockerId = lbResultStats.get(idx).dockerId();
+        Long ejectionEnd = ejectionEnds.get(dockerId);
+        boolean ejected = (ejectionEnd != null && ejectionEnd > nowMillis);
+        if (!ejected && handles[idx] >= 0 && zScores[idx] > threshold
+            && outlierComponents[idx] >= minComponents
+            && (worst < 0 || zScores[idx] > zScores[worst])) {
+          worst = idx;
+        }
+      }
+      if (worst < 0) {
+        return;
+      }
+
+      String dockerId = lbResultStats.get(worst).dockerId();
+      ejectionEnds.put(dockerId, nowMillis + ejectionMillis);
+      numEjected++;
+      if (cycleLogger != null) {
+        cycleLogger.log(AsyncCycleLogger.Category.OUTLIER, dockerId,
+                        State.EJECTED.code(),
+                        "zScore=" + (float) zScores[worst]
+                        + " outlierMetrics=" + outlierComponents[worst]);
+      }
+    }
+  }
+
+  /**
+  * Sets the state of ejection of a container and, if it is ejected or
+  * re-admitting, its load factor.
+  *
+  * @param lbResultStat the final metrics of the container
+  * @param nowMillis the current epoch, in millisecs
+  */
+  private void applyState(final LbCAdvisorResultStat lbResultStat,
+                          long nowMillis) {
+    Long ejectionEnd = ejectionEnds.get(lbResultStat.dockerId());
+    if (ejectionEnd == null) {
+      lbResultStat.ejectionState(State.ADMITTED);
+      return;
+    }
+
+    if (nowMillis < ejectionEnd) {
+      lbResultStat.ejectionState(State.EJECTED);
+      lbResultStat.lbFinalStat(Math.max(lbResultStat.lbFinalStat(),
+                                        fullLoadFactor));
+      return;
+    }
+
+    long readmittedMillis = nowMillis - ejectionEnd;
+    if (readmittedMillis >= readmitMillis) {
+      ejectionEnds.remove(lbResultStat.dockerId());
+      lbResultStat.ejectionState(State.ADMITTED);
+      if (cycleLogger != null) {
+        cycleLogger.log(AsyncCycleLogger.Category.OUTLIER,
+                        lbResultStat.dockerId(), State.ADMITTED.code(),
+                        null);
+      }
+      return;
+    }
+
+    // from the full load factor down to its own one
+    int loadFactor = lbResultStat.lbFinalStat();
+    double progress = (double) readmittedMillis / readmitMillis;
+    lbResultStat.ejectionState(State.READMITTING);
+    lbResultStat.lbFinalStat(
+        Math.max(loadFactor,
+                 (int) (fullLoadFactor
+                        - (fullLoadFactor - (double) loadFactor) * progress))
+    );
+  }
+
+}
@@ -0,0 +1,105 @@
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+
+
+/**
+* Queries offline the history of the samples and load factors kept by the
+* agent in its MetricHistoryStore: without a docker-id, lists the
+* containers and the columns in it, and the bytes used by each resolution;
+* else prints the points of a column of the containers whose docker-ids
+* start with a prefix, in a range of time, one "docker-id epoch-millis
+* value" per line. (It can run while the agent appends to the store.)
+*
+* <p>Usage:
+* <pre>
+*   QueryMetricHistory &lt;history-dir&gt; [docker-id-prefix [column
+*                      [raw|1m|1h [from-epoch-millis [to-epoch-millis]]]]]
+* </pre>
+*
+* @author  Jose E. Nunez
+* @version 0.0.1
+* @since   2019-06-30
+*/
+public final class QueryMetricHistory {
+
+  /**
+  * Utility class: not instantiable.
+  */
+  private QueryMetricHistory() {
+  }
+
+  /**
+  * Main function: program entry point.
+  *
+  * @param args the command-line arguments (see the usage above)
+  * @throws IOException the store couldn't be opened
+  */
+  public static void main(final String[] args) throws IOException {
+
+    if (args.length < 1) {
+      System.err.println("Usage: QueryMetricHistory <history-dir> "
+                         + "[docker-id-prefix [column [raw|1m|1h "
+                         + "[from-epoch-millis [to-epoch-millis]]]]]");
+      System.exit(1);
+    }
+
+    ConfigRelativeWeightsMetrics weightsMetrics =
+        new ConfigRelativeWeightsMetrics();
+    weightsMetrics.loadWeightsFromPropFile("metric_weights.properties");
+    ConfigLbDockerCAdvisor config = new ConfigLbDockerCAdvisor();
+    if (new File("lb_docker_cadvisor.properties").exists()) {
+      config.loadFromPropFile("lb_docker_cadvisor.properties");
+    }
+
+    MetricHistoryStore history =
+        MetricHistoryStore.open(
+            new File(args[0]),
+            MetricSchema.loadFromPropFile("metric_schema.properties")
+                        .compile(weightsMetrics),
+            config
+        );
+    PrintStream output = System.out;
+
+    if (args.length < 2) {
+      output.println("columns: " + String.join(",", history.columns()));
+      for (MetricHistoryStore.Resolution resolution:
+               MetricHistoryStore.Resolution.values()) {
+        output.println(resolution + ": "
+                       + history.usedBytes(resolution) + " bytes, "
+                       + history.dockerIds(resolution).size()
+                       + " containers");
+      }
+      for (String dockerId:
+               history.dockerIds(MetricHistoryStore.Resolution.RAW)) {
+        output.println(dockerId);
+      }
+      return;
+    }
+
+    String column = (args.length >= 3)
+                        ? args[2] : MetricHistoryStore.LOAD_FACTOR_COLUMN;
+    MetricHistoryStore.Resolution resolution =
+        (args.length >= 4) ? MetricHistoryStore.Resolution.fromName(args[3])
+                           : MetricHistoryStore.Resolution.RAW;
+    if (resolution == null) {
+      System.err.println("ERROR: unknown resolution " + args[3]);
+      System.exit(1);
+    }
+    long fromMilli = (args.length >= 5) ? Long.parseLong(args[4])
+                                        : Long.MIN_VALUE;
+    long toMilli = (args.length >= 6) ? Long.parseLong(args[5])
+                                      : Long.MAX_VALUE;
+
+    for (String dockerId: history.dockerIds(resolution)) {
+      if (dockerId.startsWith(args[1])) {
+        history.query(dockerId, column, fromMilli, toMilli, resolution,
+                      (epochMilli, value) ->
+                          output.println(dockerId + " " + epochMilli + " "
+                                         + value));
+      }
+    }
+  }
+
+}
@@ -0,0 +1,372 @@
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+* Replays offline, as fast as possible, the raw responses from cAdvisor
+* captured by the CAdvisorResponseRecorder: drives them through
+* ConvertDockerBodyFromCAdvisor and the DockerLoadFactorScorer (with the
+* relative weights of any metric_weights.properties file), prints the
+* sequence of load factors that would have been given to the load-balancer,
+* and reports the throughput of the replay, and the bytes allocated by the
+* parsing and scoring of each cycle (after the first one, as warm-up). If
+* lb_docker_cadvisor.properties sets allocationFreeCycle, the responses are
+* replayed in that mode.
+*
+* <p>Usage:
+* <pre>
+*   ReplayCAdvisorCaptures &lt;capture-dir-or-segment&gt;
+*                          [metric_weights.properties] [output-file]
+* </pre>
+*
+* @author  Jose E. Nunez
+* @version 0.0.1
+* @since   2019-04-21
+*/
+public final class ReplayCAdvisorCaptures {
+
+  /**
+   * The scorer with the relative weights being replayed.
+   */
+  private final DockerLoadFactorScorer loadFactorScorer;
+
+  /**
+   * The parser of the responses straight into sampleWindows, in the
+   * allocation-free mode (null: parse them into JSON trees).
+   */
+  private final StreamingDockerStatsParser streamingParser;
+
+  /**
+   * The reusable holder of the new samples of the containers, in the
+   * allocation-free mode.
+   */
+  private final ContainerSampleWindows sampleWindows;
+
+  /**
+   * The bean to measure the bytes allocated by this thread (null if the JVM
+   * doesn't support it).
+   */
+  private final com.sun.management.ThreadMXBean allocationBean;
+
+  /**
+   * The bytes allocated by a measurement itself.
+   */
+  private long allocationMeasurementBytes = 0;
+
+  /**
+   * Number of bytes allocated by the parsing and scoring of the cycles
+   * after the first one.
+   */
+  private long steadyAllocatedBytes = 0;
+
+  /**
+   * Where to print the sequence of load factors.
+   */
+  private final PrintWriter weightsOutput;
+
+  /**
+   * The last memory capacity of the machine found in the captures.
+   */
+  private long machineMemCapacity = -1;
+
+  /**
+   * Number of records replayed.
+   */
+  private long numRecords = 0;
+
+  /**
+   * Number of collection cycles ("/api/v1.3/docker" responses) replayed.
+   */
+  private long numCycles = 0;
+
+  /**
+   * Number of load factors of containers calculated.
+   */
+  private long numContainerScores = 0;
+
+  /**
+   * Number of uncompressed bytes of the bodies replayed.
+   */
+  private long numBytes = 0;
+
+  /**
+  * Constructor.
+  *
+  * @param relWeightsMetrics the relative weights of the metrics to replay
+  * @param allocationFree whether to replay in the allocation-free mode
+  * @param output where to print the sequence of load factors
+  */
+  public ReplayCAdvisorCaptures(
+                final ConfigRelativeWeightsMetrics relWeightsMetrics,
+                boolean allocationFree,
+                final PrintWriter output
+  ) {
+    loadFactorScorer = new DockerLoadFactorScorer(
+        MetricSchema.loadFromPropFile("metric_schema.properties")
+                    .compile(relWeightsMetrics)
+    );
+    weightsOutput = output;
+
+    if (allocationFree) {
+      streamingParser = new StreamingDockerStatsParser(loadFactorScorer);
+      sampleWindows =
+          new ContainerSampleWindows(loadFactorScorer.getParsePlan()
+                                                     .numMetrics());
+    } else {
+      streamingParser = null;
+      sampleWindows = null;
+    }
+
+    ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    if (threadBean instanceof com.sun.management.ThreadMXBean
+        && ((com.sun.management.ThreadMXBean) threadBean)
+               .isThreadAllocatedMemorySupported()) {
+      allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+      allocationBean.setThreadAllocatedMemoryEnabled(true);
+      // calibrate: a measurement allocates a little itself
+      allocatedBytes();
+      long before = allocatedBytes();
+      allocationMeasurementBytes = allocatedBytes() - before;
+    } else {
+      allocationBean = null;
+    }
+  }
+
+  /**
+  * Get the bytes allocated so far by this thread.
+  *
+  * @return the bytes allocated, or 0 if they can't be measured
+  */
+  private long allocatedBytes() {
+    return (allocationBean != null)
+               ? allocationBean.getThreadAllocatedBytes(
+                     Thread.currentThread().getId()
+                 )
+               : 0;
+  }
+
+  /**
+  * Prints one load factor of the sequence.
+  *
+  * @param fetchEpochMilli when the response was fetched from cAdvisor
+  * @param dockerId the docker-id of the container
+  * @param loadFactor the load factor of the container
+  */
+  private void printLoadFactor(long fetchEpochMilli, final String dockerId,
+                               int loadFactor) {
+    weightsOutput.print(fetchEpochMilli);
+    weightsOutput.print(' ');
+    weightsOutput.print(dockerId);
+    weightsOutput.print(' ');
+    weightsOutput.println(loadFactor);
+  }
+
+  /**
+  * Lists the segments to replay, in the order they were recorded.
+  *
+  * @param captures a capture directory or a single segment file
+  * @return the list of segment files
+  */
+  protected static List<File> listSegments(final File captures) {
+    List<File> segments = new ArrayList<File>();
+
+    if (captures.isDirectory()) {
+      File[] files = captures.listFiles(
+          (dir, name) ->
+              name.startsWith(CAdvisorResponseRecorder.SEGMENT_PREFIX)
+              && name.endsWith(CAdvisorResponseRecorder.SEGMENT_SUFFIX)
+      );
+      if (files != null) {
+        // the segment names have the epoch when each one was started, and
+        // the sequence number of the segment in its recorder
+        Arrays.sort(files);
+        segments.addAll(Arrays.asList(files));
+      }
+    } else {
+      segments.add(captures);
+    }
+
+    return segments;
+  }
+
+  /**
+  * Replays one captured record.
+  *
+  * @param record the captured response from cAdvisor
+  */
+  protected void replayRecord(final CAdvisorCaptureRecord record) {
+    numRecords++;
+    numBytes += record.body().length();
+
+    if (record.kind() == CAdvisorCaptureRecord.KIND_MACHINE) {
+      machineMemCapacity =
+          new ConvertMachineBodyFromCAdvisor(record.body())
+                .getMemoryCapacity();
+
+    } else if (record.kind() == CAdvisorCaptureRecord.KIND_DOCKER) {
+      numCycles++;
+
+      long allocatedBefore = allocatedBytes();
+      List<LbCAdvisorResultStat> lbResultStats = null;
+
+      if (streamingParser != null) {
+        streamingParser.parse(record.body(), sampleWindows);
+        loadFactorScorer.scoreWindows(sampleWindows, machineMemCapacity);
+      } else {
+        List<DockerContainerPlusStats> dockerDescripts =
+            new ConvertDockerBodyFromCAdvisor(record.body())
+                  .getDockerContainersPlusStats(
+                      loadFactorScorer.getParsePlan(),
+                      loadFactorScorer.getRegistry(),
+                      loadFactorScorer::lastProcessedEpochMilli
+                  );
+
+        if (dockerDescripts != null) {
+          lbResultStats =
+              loadFactorScorer.scoreContainers(dockerDescripts,
+                                               machineMemCapacity);
+        }
+      }
+
+      if (numCycles > 1) {
+        steadyAllocatedBytes += allocatedBytes() - allocatedBefore
+                                - allocationMeasurementBytes;
+      }
+
+      if (lbResultStats != null) {
+        for (LbCAdvisorResultStat lbResultStat: lbResultStats) {
+          printLoadFactor(record.fetchEpochMilli(), lbResultStat.dockerId(),
+                          lbResultStat.lbFinalStat());
+        }
+        numContainerScores += lbResultStats.size();
+      } else {
+        ContainerRegistry registry = loadFactorScorer.getRegistry();
+        for (int idx = 0; idx < sampleWindows.numContainers(); idx++) {
+          int handle = sampleWindows.handle(idx);
+          printLoadFactor(record.fetchEpochMilli(), registry.dockerId(handle),
+                          loadFactorScorer.lastLoadFactor(handle));
+        }
+        numContainerScores += sampleWindows.numContainers();
+      }
+
+    } else {
+      System.err.println("WARN: unknown kind of captured record: "
+                         + record.kind());
+    }
+  }
+
+  /**
+  * Replays all the records of a segment.
+  *
+  * @param segmentFile the segment file to replay
+  * @throws IOException the segment couldn't be read
+  */
+  protected void replaySegment(final File segmentFile) throws IOException {
+    try (CAdvisorCaptureReader reader =
+             new CAdvisorCaptureReader(segmentFile)) {
+      CAdvisorCaptureRecord record;
+      while ((record = reader.next()) != null) {
+        replayRecord(record);
+      }
+    }
+  }
+
+  /**
+  * Prints the throughput of the replay to standard-error (so that it is not
+  * mixed with the sequence of load factors).
+  *
+  * @param elapsedNanos how long the replay took
+  */
+  protected void reportThroughput(long elapsedNanos) {
+    double elapsedSecs = Math.max(elapsedNanos, 1) / 1e9;
+
+    System.err.println(
+        String.format("Replayed %d records (%d cycles, %d container scores, "
+                      + "%.1f MB) in %.3f s: %.1f cycles/s, "
+                      + "%.1f container scores/s, %.1f MB/s",
+                      numRecords, numCycles, numContainerScores,
+                      numBytes / 1e6, elapsedSecs,
+                      numCycles / elapsedSecs,
+                      numContainerScores / elapsedSecs,
+                      numBytes / 1e6 / elapsedSecs)
+    );
+
+    if (allocationBean != null && numCycles > 1) {
+      System.err.println(
+          String.format("Allocated %.0f bytes per cycle parsing and scoring "
+                        + "(%s mode, after the first cycle)",
+                        (double) steadyAllocatedBytes / (numCycles - 1),
+                        (streamingParser != null) ? "allocation-free"
+                                                  : "JSON tree")
+      );
+    }
+  }
+
+  /**
+  * Main function: program entry point.
+  *
+  * @param args the capture directory or segment, and optionally the
+  *             properties file with the relative weights to replay and the
+  *             file where to write the sequence of load factors.
+  * @throws IOException a segment or the output file couldn't be accessed
+  */
+  public static void main(final String[] args) throws IOException {
+
+    if (args.length < 1) {
+      System.err.println("Usage: ReplayCAdvisorCaptures "
+                         + "<capture-dir-or-segment> "
+                         + "[metric_weights.properties] [output-file]");
+      System.exit(1);
+    }
+
+    ConfigRelativeWeightsMetrics weightsMetrics =
+        new ConfigRelativeWeightsMetrics();
+    weightsMetrics.loadWeightsFromPropFile(
+        (args.length >= 2) ? args[1] : "metric_weights.properties"
+    );
+
+    OutputStream out = (args.length >= 3)
+                           ? new FileOutputStream(args[2])
+                           : System.out;
+
+    try (PrintWriter output =
+             new PrintWriter(new BufferedWriter(
+                 new OutputStreamWriter(out, StandardCharsets.UTF_8),
+                 64 * 1024))) {
+
+      // the allocation-free mode, as in the agent
+      ConfigLbDockerCAdvisor config = new ConfigLbDockerCAdvisor();
+      if (new File("lb_docker_cadvisor.properties").exists()) {
+        config.loadFromPropFile("lb_docker_cadvisor.properties");
+      }
+
+      ReplayCAdvisorCaptures replay =
+          new ReplayCAdvisorCaptures(weightsMetrics,
+                                     config.allocationFreeCycle(), output);
+      replay.loadFactorScorer.setFleetNormalizer(
+          FleetMetricNormalizer.fromConfig(
+              config, replay.loadFactorScorer.getParsePlan().numMetrics())
+      );
+
+      long startNanos = System.nanoTime();
+      for (File segmentFile: listSegments(new File(args[0]))) {
+        replay.replaySegment(segmentFile);
+      }
+      output.flush();
+      replay.reportThroughput(System.nanoTime() - startNanos);
+    }
+  }
+
+}
@@ -14,6 +14,51 @@ public final class SnmpMOIdentifiers {
       new OID(STR_TABLE_BASE_OID + ".1");
   public static final OID CONTAINER_LB_METRIC_STAT =
       new OID(STR_TABLE_BASE_OID + ".2");
+  // the state of ejection of the container as an outlier of its host (1:
+  // admitted, 2: ejected, 3: re-admitting)
+  public static final OID CONTAINER_EJECTION_STATE =
+      new OID(STR_TABLE_BASE_OID + ".3");
+
+  // the table of the stages of the pipeline of the cycles, under
+  // .1.3.6.1.4.1.99999.3: its columns are the name of the stage, the depth
+  // and capacity of its input queue, its number of threads, its occupancy
+  // (per mille), the works it processed and the times the previous stage
+  // blocked on its full queue
+
+  public static final OID PIPELINE_TABLE_BASE_OID =
+      new OID(".1.3.6.1.4.1.99999.3");
+
+  // the tables of the aggregates of the load factors of the containers by
+  // host, under .1.3.6.1.4.1.99999.4, and by service (from their labels),
+  // under .1.3.6.1.4.1.99999.5: their columns are the host or service, the
+  // number of containers, the sum, mean, maximum and minimum of their load
+  // factors, and the docker-id of the least loaded one
+
+  public static final OID HOST_AGGREGATE_TABLE_OID =
+      new OID(".1.3.6.1.4.1.99999.4");
+  public static final OID SERVICE_AGGREGATE_TABLE_OID =
+      new OID(".1.3.6.1.4.1.99999.5");
+
+  // the table of the circuit breakers of the cAdvisor hosts, under
+  // .1.3.6.1.4.1.99999.6: its columns are the host, the state of its breaker
+  // (1: closed, 2: open, 3: half-open), its consecutive failed cycles, its
+  // total failed cycles and openings, the seconds since its last good cycle
+  // (the staleness of the final metrics served for it) and its backoff in
+  // millisecs
+
+  public static final OID BREAKER_TABLE_BASE_OID =
+      new OID(".1.3.6.1.4.1.99999.6");
+
+  // the notifications under .1.3.6.1.4.1.99999.2.0
+
+  private static final String STR_NOTIFICATIONS_BASE_OID =
+              ".1.3.6.1.4.1.99999.2.0";
+
+  // a container's load factor crossed a threshold (or changed too much):
+  // its varbinds are the CONTAINER_IDENTIFIER and CONTAINER_LB_METRIC_STAT
+  // of its row in the table
+  public static final OID LB_METRIC_STAT_CROSSING_NOTIFICATION =
+      new OID(STR_NOTIFICATIONS_BASE_OID + ".1");
 
   private SnmpMOIdentifiers() {
     // This is a utility class, exporting above OIDs
@@ -0,0 +1,353 @@
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntToLongFunction;
+
+
+/**
+* Parses the body of a "/api/v1.3/docker" response from cAdvisor in a
+* single forward pass over its chars, without building the JSON tree:
+* the metrics of the MetricParsePlan of the samples newer than the last ones
+* already processed for each container are written straight into a
+* reusable ContainerSampleWindows, so that, after warm-up, parsing a
+* response allocates nothing. The spec and labels of a container are only
+* parsed when it is new, or its spec cached in the ContainerRegistry
+* expired: else their subtrees are skipped. (This is the allocation-free
+* counterpart of ConvertDockerBodyFromCAdvisor#getDockerContainersPlusStats.)
+*
+* It is not thread-safe: each thread needs its own parser.
+*
+* @author  Jose E. Nunez
+* @version 0.0.1
+* @since   2019-06-02
+*/
+public final class StreamingDockerStatsParser {
+
+  /**
+   * The compiled plan of the metrics to extract.
+   */
+  private final MetricParsePlan plan;
+
+  /**
+   * The registry where to get the handle of each container.
+   */
+  private final ContainerRegistry registry;
+
+  /**
+   * Gives the epoch (in milliseconds) of the last sample already processed
+   * for the handle of a container (0 if none).
+   */
+  private final IntToLongFunction lastProcessedSample;
+
+  /**
+   * The cursor over the body of the response (reused).
+   */
+  private final JsonCharCursor cursor = new JsonCharCursor();
+
+  /**
+   * The service of the container being parsed, from its labels ("" if none
+   * found yet).
+   */
+  private String serviceName = "";
+
+  /**
+   * The priority of the label which gave serviceName (the index of its key,
+   * or the number of keys if none found yet).
+   */
+  private int servicePriority = 0;
+
+  /**
+   * The memory limit of the container being parsed, from its spec (-1 if
+   * unknown or unlimited).
+   */
+  private long memLimit = -1;
+
+  /**
+   * The CPU quota of the container being parsed, from its spec (-1 if
+   * unknown).
+   */
+  private long cpuQuota = -1;
+
+  /**
+   * The CPU period of the container being parsed, from its spec (-1 if
+   * unknown).
+   */
+  private long cpuPeriod = -1;
+
+  /**
+   * The creation time of the container being parsed, from its spec (null if
+   * unknown).
+   */
+  private String creationTime = null;
+
+  /**
+   * The aliases of the container being parsed (null if unknown).
+   */
+  private String[] aliases = null;
+
+  /**
+  * Constructor.
+  *
+  * @param scorer the scorer of the containers, with the plan of the metrics,
+  *               the registry of the containers and their last samples
+  *               processed
+  */
+  public StreamingDockerStatsParser(final DockerLoadFactorScorer scorer) {
+    plan = scorer.getParsePlan();
+    registry = scorer.getRegistry();
+    lastProcessedSample = scorer::lastProcessedEpochMilli;
+  }
+
+  /**
+  * Parses a response from cAdvisor.
+  *
+  * @param body the body of the "/api/v1.3/docker" response
+  * @param windows where to store the new samples of each container (it is
+  *                cleared first)
+  * @throws IllegalArgumentException the body is not valid JSON
+  */
+  public void parse(final CharSequence body,
+                    final ContainerSampleWindows windows) {
+    windows.clear();
+    cursor.reset(body);
+
+    if (!cursor.beginObject()) {
+      throw new IllegalArgumentException("Invalid JSON: expected '{'");
+    }
+    while (cursor.nextField()) {
+      int handle = registerContainerName();
+      if (handle >= 0 && cursor.beginObject()) {
+        parseContainer(windows.addContainer(handle), handle, windows);
+      } else {
+        cursor.skipValue();
+      }
+    }
+  }
+
+  /**
+  * Registers the docker-id in the name of a container just read, like
+  * "/docker/[id]" or "/system.slice/docker-[id].scope".
+  *
+  * @return the handle of the container, or -1 if it is not a docker
+  *         container
+  */
+  protected int registerContainerName() {
+    CharSequence text = cursor.text();
+    int start = cursor.stringStart();
+    int end = cursor.stringEnd();
+
+    if (cursor.stringStartsWith("/docker/")) {
+      return registry.register(text, start + "/docker/".length(), end);
+    }
+
+    int lastSlash = end - 1;
+    while (lastSlash >= start && text.charAt(lastSlash) != '/') {
+      lastSlash--;
+    }
+    int idStart = lastSlash + 1 + "docker-".length();
+    int idEnd = end - ".scope".length();
+    if (idStart < idEnd
+        && regionEquals(text, lastSlash + 1, "docker-")
+        && regionEquals(text, idEnd, ".scope")) {
+      return registry.register(text, idStart, idEnd);
+    }
+    return -1;
+  }
+
+  /**
+  * Whether some chars are equal to a string.
+  *
+  * @param text the chars
+  * @param start the start of the chars in text
+  * @param value the string
+  * @return true if they are equal
+  */
+  private static boolean regionEquals(final CharSequence text, int start,
+                                      final String value) {
+    for (int i = 0; i < value.length(); i++) {
+      if (text.charAt(start + i) != value.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+  * Parses the object of a container, after its "{".
+  *
+  * @param container the index of the container in the windows
+  * @param handle the handle of the container
+  * @param windows where to store the new samples of the container
+  */
+  protected void parseContainer(int container, int handle,
+                                final ContainerSampleWindows windows) {
+    long afterEpochMilli = lastProcessedSample.applyAsLong(handle);
+
+    // the spec and labels of a container don't change while it lives: they
+    // are parsed only for a new container, or when its spec cached expires
+    long nowNanos = System.nanoTime();
+    boolean parseSpec = registry.specNeedsRefresh(handle, nowNanos)
+                        || registry.serviceName(handle) == null;
+    serviceName = "";
+    servicePriority = registry.serviceLabelKeys().length;
+    memLimit = -1;
+    cpuQuota = -1;
+    cpuPeriod = -1;
+    creationTime = null;
+    aliases = null;
+
+    while (cursor.nextField()) {
+      if (cursor.stringEquals("stats") && cursor.beginArray()) {
+        while (cursor.nextElement()) {
+          parseSample(afterEpochMilli, windows);
+        }
+      } else if (!parseSpec) {
+        cursor.skipValue();
+      } else if (cursor.stringEquals("labels") && cursor.beginObject()) {
+        parseServiceLabels();
+      } else if (cursor.stringEquals("aliases") && cursor.beginArray()) {
+        parseAliases();
+      } else if (cursor.stringEquals("spec") && cursor.beginObject()) {
+        parseSpec();
+      } else {
+        cursor.skipValue();
+      }
+    }
+
+    if (parseSpec) {
+      registry.spec(handle, memLimit, cpuQuota, cpuPeriod, creationTime,
+                    aliases, nowNanos);
+      registry.serviceName(handle, serviceName);
+    }
+    windows.memLimit(container, registry.memLimit(handle));
+  }
+
+  /**
+  * Parses the spec of a container, after its "{": its labels, memory limit,
+  * CPU quota and period, and creation time.
+  */
+  protected void parseSpec() {
+    while (cursor.nextField()) {
+      if (cursor.stringEquals("labels") && cursor.beginObject()) {
+        parseServiceLabels();
+      } else if (cursor.stringEquals("creation_time") && cursor.isString()) {
+        cursor.readString();
+        creationTime = cursor.text().subSequence(cursor.stringStart(),
+                                                 cursor.stringEnd())
+                                    .toString();
+      } else if (cursor.stringEquals("memory") && cursor.beginObject()) {
+        while (cursor.nextField()) {
+          if (cursor.stringEquals("limit") && cursor.isNumber()) {
+            memLimit = specLong(cursor.readDouble());
+          } else {
+            cursor.skipValue();
+          }
+        }
+      } else if (cursor.stringEquals("cpu") && cursor.beginObject()) {
+        while (cursor.nextField()) {
+          if (cursor.stringEquals("quota") && cursor.isNumber()) {
+            cpuQuota = specLong(cursor.readDouble());
+          } else if (cursor.stringEquals("period") && cursor.isNumber()) {
+            cpuPeriod = specLong(cursor.readDouble());
+          } else {
+            cursor.skipValue();
+          }
+        }
+      } else {
+        cursor.skipValue();
+      }
+    }
+  }
+
+  /**
+  * Converts a number of the spec of a container to a long.
+  *
+  * @param value the number
+  * @return the number, or -1 if it doesn't fit in a long (e.g., the memory
+  *         limit "unlimited" is 2^64 - 1)
+  */
+  private static long specLong(double value) {
+    return (value < Long.MAX_VALUE) ? (long) value : -1;
+  }
+
+  /**
+  * Parses the aliases of a container, after their "[".
+  */
+  protected void parseAliases() {
+    List<String> names = new ArrayList<String>(2);
+    while (cursor.nextElement()) {
+      if (cursor.isString()) {
+        cursor.readString();
+        names.add(cursor.text().subSequence(cursor.stringStart(),
+                                            cursor.stringEnd())
+                                .toString());
+      } else {
+        cursor.skipValue();
+      }
+    }
+    aliases = names.toArray(new String[names.size()]);
+  }
+
+  /**
+  * Parses the labels of a container, after their "{", keeping the value of
+  * the service label of highest priority in serviceName. (The String is
+  * only created once per container.)
+  */
+  protected void parseServiceLabels() {
+    String[] labelKeys = registry.serviceLabelKeys();
+
+    while (cursor.nextField()) {
+      int priority = 0;
+      while (priority < servicePriority
+             && !cursor.stringEquals(labelKeys[priority])) {
+        priority++;
+      }
+      if (priority < servicePriority && cursor.isString()) {
+        cursor.readString();
+        serviceName = cursor.text().subSequence(cursor.stringStart(),
+                                                cursor.stringEnd())
+                                   .toString();
+        servicePriority = priority;
+      } else {
+        cursor.skipValue();
+      }
+    }
+  }
+
+  /**
+  * Parses a "stats" sample, keeping it only if it is newer than the last
+  * one already processed. (cAdvisor writes the "timestamp" first, so the
+  * rest of an older sample is just skipped.)
+  *
+  * @param afterEpochMilli the epoch of the last sample already processed
+  * @param windows where to store the sample
+  */
+  protected void parseSample(long afterEpochMilli,
+                             final ContainerSampleWindows windows) {
+    if (!cursor.beginObject()) {
+      cursor.skipValue();
+      return;
+    }
+
+    int offset = windows.beginSample();
+    long epochMilli = 0;
+    boolean alreadyProcessed = false;
+
+    while (cursor.nextField()) {
+      if (cursor.stringEquals("timestamp") && cursor.isString()) {
+        cursor.readString();
+        epochMilli = cursor.stringAsEpochMilli();
+        alreadyProcessed = (epochMilli != 0 && epochMilli <= afterEpochMilli);
+      } else if (alreadyProcessed) {
+        cursor.skipValue();
+      } else {
+        plan.extractField(cursor, windows.values(), offset);
+      }
+    }
+
+    if (!alreadyProcessed) {
+      windows.commitSample(epochMilli);
+    }
+  }
+
+}
@@ -0,0 +1,386 @@
+
+import java.util.Arrays;
+
+
+/**
+* A chunk of a multi-column time series (the samples of a docker container:
+* the values of its metrics and its load factor at each timestamp),
+* compressed like Gorilla (Pelkonen et al., VLDB 2015): the timestamps by
+* their delta-of-delta, and each column by the XOR of its value with the
+* previous one, in a single bit stream with the columns of each sample
+* after its timestamp. Regular timestamps and unchanged values take a
+* single bit each.
+*
+* It is appended to while open, and then written to a segment of the
+* MetricHistoryTier; decode() reads back one column of a chunk.
+*
+* @author  Jose E. Nunez
+* @version 0.0.1
+* @since   2019-06-30
+*/
+public final class TimeSeriesChunk {
+
+  /**
+  * Consumes the points of a time series (in increasing timestamps).
+  */
+  public interface PointConsumer {
+
+    /**
+    * Consumes a point.
+    *
+    * @param epochMilli the timestamp of the point
+    * @param value the value of the point
+    */
+    void accept(long epochMilli, double value);
+  }
+
+  /**
+   * The number of columns of each sample.
+   */
+  private final int numColumns;
+
+  /**
+   * The bit stream.
+   */
+  private byte[] bits = new byte[256];
+
+  /**
+   * The number of bits written.
+   */
+  private int numBits = 0;
+
+  /**
+   * The number of samples appended.
+   */
+  private int numSamples = 0;
+
+  /**
+   * The timestamp of the first sample.
+   */
+  private long firstEpochMilli = 0;
+
+  /**
+   * The timestamp of the last sample.
+   */
+  private long lastEpochMilli = 0;
+
+  /**
+   * The delta between the last two timestamps.
+   */
+  private long lastDelta = 0;
+
+  /**
+   * The bits of the last value of each column.
+   */
+  private final long[] lastValues;
+
+  /**
+   * The leading zeros of the last XOR written of each column.
+   */
+  private final int[] lastLeading;
+
+  /**
+   * The trailing zeros of the last XOR written of each column.
+   */
+  private final int[] lastTrailing;
+
+  /**
+  * Constructor.
+  *
+  * @param columns the number of columns of each sample
+  */
+  public TimeSeriesChunk(int columns) {
+    numColumns = columns;
+    lastValues = new long[columns];
+    lastLeading = new int[columns];
+    lastTrailing = new int[columns];
+  }
+
+  /**
+  * Empties the chunk, to be reused.
+  */
+  public void clear() {
+    numBits = 0;
+    numSamples = 0;
+    Arrays.fill(bits, (byte) 0);
+  }
+
+  /**
+  * Appends a sample.
+  *
+  * @param epochMilli the timestamp of the sample (greater than the last one)
+  * @param values the values of its columns
+  * @param offset the index of the first column in values
+  */
+  public void append(long epochMilli, final double[] values, int offset) {
+    if (numSamples == 0) {
+      firstEpochMilli = epochMilli;
+      writeBits(epochMilli, 64);
+      for (int col = 0; col < numColumns; col++) {
+        lastValues[col] = Double.doubleToRawLongBits(values[offset + col]);
+        lastLeading[col] = Integer.MAX_VALUE;
+        lastTrailing[col] = 0;
+        writeBits(lastValues[col], 64);
+      }
+      lastDelta = 0;
+    } else {
+      long delta = epochMilli - lastEpochMilli;
+      writeDeltaOfDelta(delta - lastDelta);
+      lastDelta = delta;
+      for (int col = 0; col < numColumns; col++) {
+        writeXor(col, Double.doubleToRawLongBits(values[offset + col]));
+      }
+    }
+    lastEpochMilli = epochMilli;
+    numSamples++;
+  }
+
+  /**
+  * Writes the delta-of-delta of a timestamp: '0' for 0, and else a prefix
+  * of 2 to 4 bits with 7, 9, 12 or 64 bits of the value.
+  *
+  * @param dod the delta-of-delta
+  */
+  private void writeDeltaOfDelta(long dod) {
+    if (dod == 0) {
+      writeBits(0, 1);
+    } else if (dod >= -63 && dod <= 64) {
+      writeBits(0b10, 2);
+      writeBits(dod + 63, 7);
+    } else if (dod >= -255 && dod <= 256) {
+      writeBits(0b110, 3);
+      writeBits(dod + 255, 9);
+    } else if (dod >= -2047 && dod <= 2048) {
+      writeBits(0b1110, 4);
+      writeBits(dod + 2047, 12);
+    } else {
+      writeBits(0b1111, 4);
+      writeBits(dod, 64);
+    }
+  }
+
+  /**
+  * Writes the XOR of a value with the last one of its column: '0' if it is
+  * the same; '10' and the meaningful bits if they fit in the window of the
+  * last XOR; or else '11', 5 bits of leading zeros, 6 bits of length and the
+  * meaningful bits.
+  *
+  * @param col the column
+  * @param value the bits of the value
+  */
+  private void writeXor(int col, long value) {
+    long xor = value ^ lastValues[col];
+    lastValues[col] = value;
+
+    if (xor == 0) {
+      writeBits(0, 1);
+      return;
+    }
+
+    int leading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+    int trailing = Long.numberOfTrailingZeros(xor);
+
+    if (leading >= lastLeading[col] && trailing >= lastTrailing[col]) {
+      writeBits(0b10, 2);
+      writeBits(xor >>> lastTrailing[col],
+                64 - lastLeading[col] - lastTrailing[col]);
+    } else {
+      int length = 64 - leading - trailing;
+      writeBits(0b11, 2);
+      writeBits(leading, 5);
+      writeBits(length - 1, 6);
+      writeBits(xor >>> trailing, length);
+      lastLeading[col] = leading;
+      lastTrailing[col] = trailing;
+    }
+  }
+
+  /**
+  * Writes the lowest bits of a value, most significant first.
+  *
+  * @param value the value
+  * @param count the number of bits (from 1 to 64)
+  */
+  private void writeBits(long value, int count) {
+    if (numBits + count > bits.length * 8) {
+      bits = Arrays.copyOf(bits, Math.max(bits.length * 2,
+                                          (numBits + count) / 8 + 1));
+    }
+    // a byte at a time
+    int remaining = count;
+    while (remaining > 0) {
+      int free = 8 - (numBits & 7);
+      int taken = Math.min(free, remaining);
+      int part = (int) (value >>> (remaining - taken)) & ((1 << taken) - 1);
+      bits[numBits >>> 3] |= (byte) (part << (free - taken));
+      numBits += taken;
+      remaining -= taken;
+    }
+  }
+
+  /**
+  * Decodes one column of a chunk, passing its points in a range of time to
+  * a consumer.
+  *
+  * @param chunkBits the bit stream of the chunk
+  * @param samples the number of samples of the chunk
+  * @param columns the number of columns of the chunk
+  * @param column the column to decode
+  * @param fromMilli the start of the range (inclusive)
+  * @param toMilli the end of the range (inclusive)
+  * @param consumer the consumer of the points
+  * @return the number of points passed to the consumer
+  */
+  public static int decode(final byte[] chunkBits, int samples, int columns,
+                           int column, long fromMilli, long toMilli,
+                           final PointConsumer consumer) {
+    BitReader reader = new BitReader(chunkBits);
+    long[] values = new long[columns];
+    int[] leading = new int[columns];
+    int[] trailing = new int[columns];
+
+    long epochMilli = reader.read(64);
+    for (int col = 0; col < columns; col++) {
+      values[col] = reader.read(64);
+    }
+    long delta = 0;
+    int numPoints = 0;
+
+    for (int sample = 0; sample < samples; sample++) {
+      if (sample > 0) {
+        delta += readDeltaOfDelta(reader);
+        epochMilli += delta;
+        for (int col = 0; col < columns; col++) {
+          if (reader.read(1) == 0) {
+            continue;
+          }
+          if (reader.read(1) != 0) {
+            leading[col] = (int) reader.read(5);
+            trailing[col] = 64 - leading[col] - (int) reader.read(6) - 1;
+          }
+          values[col] ^= reader.read(64 - leading[col] - trailing[col])
+                         << trailing[col];
+        }
+      }
+      if (epochMilli > toMilli) {
+        break;
+      }
+      if (epochMilli >= fromMilli) {
+        consumer.accept(epochMilli, Double.longBitsToDouble(values[column]));
+        numPoints++;
+      }
+    }
+    return numPoints;
+  }
+
+  /**
+  * Reads a delta-of-delta of a timestamp.
+  *
+  * @param reader the reader of the bit stream
+  * @return the delta-of-delta
+  */
+  private static long readDeltaOfDelta(final BitReader reader) {
+    if (reader.read(1) == 0) {
+      return 0;
+    } else if (reader.read(1) == 0) {
+      return reader.read(7) - 63;
+    } else if (reader.read(1) == 0) {
+      return reader.read(9) - 255;
+    } else if (reader.read(1) == 0) {
+      return reader.read(12) - 2047;
+    }
+    return reader.read(64);
+  }
+
+  /**
+  * Reads a bit stream, most significant bit first.
+  */
+  private static final class BitReader {
+
+    /**
+     * The bit stream.
+     */
+    private final byte[] bits;
+
+    /**
+     * The position of the next bit.
+     */
+    private int position = 0;
+
+    /**
+    * Constructor.
+    *
+    * @param bitStream the bit stream
+    */
+    private BitReader(final byte[] bitStream) {
+      bits = bitStream;
+    }
+
+    /**
+    * Reads some bits.
+    *
+    * @param count the number of bits (from 0 to 64)
+    * @return the bits, as the lowest ones of the value
+    */
+    private long read(int count) {
+      long value = 0;
+      int remaining = count;
+      while (remaining > 0) {
+        int available = 8 - (position & 7);
+        int taken = Math.min(available, remaining);
+        int part = (bits[position >>> 3] >>> (available - taken))
+                   & ((1 << taken) - 1);
+        value = (value << taken) | part;
+        position += taken;
+        remaining -= taken;
+      }
+      return value;
+    }
+  }
+
+  /**
+  * Get the number of samples appended.
+  *
+  * @return the number of samples
+  */
+  public int numSamples() {
+    return numSamples;
+  }
+
+  /**
+  * Get the timestamp of the first sample.
+  *
+  * @return the timestamp of the first sample
+  */
+  public long firstEpochMilli() {
+    return firstEpochMilli;
+  }
+
+  /**
+  * Get the timestamp of the last sample.
+  *
+  * @return the timestamp of the last sample
+  */
+  public long lastEpochMilli() {
+    return lastEpochMilli;
+  }
+
+  /**
+  * Get the number of bytes of the bit stream.
+  *
+  * @return the number of bytes written
+  */
+  public int numBytes() {
+    return (numBits + 7) >>> 3;
+  }
+
+  /**
+  * Get the bit stream (only its first numBytes() are written).
+  *
+  * @return the bit stream
+  */
+  public byte[] bits() {
+    return bits;
+  }
+
+}
@@ -0,0 +1,163 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.Scanner;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+* Checks that a steady-state cycle of the allocation-free mode (the
+* response of cAdvisor parsed by the StreamingDockerStatsParser into the
+* ContainerSampleWindows, and scored there) allocates next to nothing once
+* warmed up, measured by the bytes allocated by this thread.
+*
+* @author  Jose E. Nunez
+* @version 0.0.1
+* @since   2019-05-26
+*/
+public class AllocationFreeCycleTest {
+
+  /**
+   * The number of cycles to warm up the parser and the scorer (their arrays
+   * grow to the size of the responses).
+   */
+  private static final int WARM_UP_CYCLES = 20;
+
+  /**
+   * The number of cycles measured.
+   */
+  private static final int MEASURED_CYCLES = 50;
+
+  /**
+   * The bytes that a measured cycle may allocate at most (the JIT may still
+   * compile a method in a cycle, which allocates a few hundred bytes once).
+   */
+  private static final long MAX_BYTES_PER_CYCLE = 1024;
+
+  /**
+   * The bytes that the measured cycles may allocate on average.
+   */
+  private static final long MAX_AVERAGE_BYTES_PER_CYCLE = 64;
+
+  /**
+   * The memory capacity of the machine scored.
+   */
+  private static final long MACHINE_MEM_CAPACITY = 8L << 30;
+
+  /**
+   * The bean to measure the bytes allocated by this thread.
+   */
+  private com.sun.management.ThreadMXBean allocationBean;
+
+  /**
+   * The responses of the cycles: the recorded response, with its samples
+   * one hour later in each cycle (built before measuring).
+   */
+  private String[] bodies;
+
+  /**
+  * Loads the recorded "/api/v1.3/docker" response from cAdvisor.
+  *
+  * @return the body of the response
+  * @throws IOException the response couldn't be read
+  */
+  private static String recordedBody() throws IOException {
+    try (InputStream in = AllocationFreeCycleTest.class
+                              .getResourceAsStream("/cadvisor-docker.json");
+         Scanner scanner = new Scanner(in, StandardCharsets.UTF_8.name())) {
+      return scanner.useDelimiter("\\A").next();
+    }
+  }
+
+  /**
+  * Prepares the bean and the responses of the cycles.
+  *
+  * @throws IOException the recorded response couldn't be read
+  */
+  @Before
+  public void setUp() throws IOException {
+    ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    Assume.assumeTrue(threadBean instanceof com.sun.management.ThreadMXBean);
+    allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+    Assume.assumeTrue(allocationBean.isThreadAllocatedMemorySupported());
+    allocationBean.setThreadAllocatedMemoryEnabled(true);
+
+    String recorded = recordedBody();
+    bodies = new String[WARM_UP_CYCLES + MEASURED_CYCLES];
+    for (int cycle = 0; cycle < bodies.length; cycle++) {
+      // newer samples in each cycle, like a live cAdvisor
+      bodies[cycle] =
+          recorded.replace("2018-10-15T00:",
+                           String.format("2018-10-%02dT%02d:",
+                                         15 + cycle / 24, cycle % 24));
+    }
+  }
+
+  /**
+  * Get the bytes allocated so far by this thread.
+  *
+  * @return the bytes allocated
+  */
+  private long allocatedBytes() {
+    return allocationBean.getThreadAllocatedBytes(
+               Thread.currentThread().getId()
+           );
+  }
+
+  /**
+  * A steady-state cycle parses and scores in place without allocating.
+  */
+  @Test
+  public void steadyStateCycleAllocatesNothing() {
+    DockerLoadFactorScorer scorer = new DockerLoadFactorScorer(
+        MetricSchema.loadFromPropFile("metric_schema.properties")
+                    .compile(new ConfigRelativeWeightsMetrics())
+    );
+    StreamingDockerStatsParser parser =
+        new StreamingDockerStatsParser(scorer);
+    ContainerSampleWindows sampleWindows =
+        new ContainerSampleWindows(scorer.getParsePlan().numMetrics());
+
+    for (int cycle = 0; cycle < WARM_UP_CYCLES; cycle++) {
+      parser.parse(bodies[cycle], sampleWindows);
+      scorer.scoreWindows(sampleWindows, MACHINE_MEM_CAPACITY);
+    }
+    assertEquals(4, sampleWindows.numContainers());
+
+    // a measurement allocates a little itself
+    allocatedBytes();
+    long calibration = allocatedBytes();
+    calibration = allocatedBytes() - calibration;
+
+    long maxCycleBytes = 0;
+    long totalBytes = 0;
+    for (int cycle = WARM_UP_CYCLES; cycle < bodies.length; cycle++) {
+      long before = allocatedBytes();
+      parser.parse(bodies[cycle], sampleWindows);
+      scorer.scoreWindows(sampleWindows, MACHINE_MEM_CAPACITY);
+      long cycleBytes = allocatedBytes() - before - calibration;
+
+      maxCycleBytes = Math.max(maxCycleBytes, cycleBytes);
+      totalBytes += cycleBytes;
+    }
+
+    assertEquals(4, sampleWindows.numContainers());
+    assertTrue("a cycle allocated " + maxCycleBytes + " bytes",
+               maxCycleBytes <= MAX_BYTES_PER_CYCLE);
+    assertTrue("the cycles allocated " + totalBytes / MEASURED_CYCLES
+               + " bytes each on average",
+               totalBytes / MEASURED_CYCLES <= MAX_AVERAGE_BYTES_PER_CYCLE);
+    for (int idx = 0; idx < sampleWindows.numContainers(); idx++) {
+      assertTrue(scorer.lastLoadFactor(sampleWindows.handle(idx)) >= 0);
+    }
+  }
+
+}
@@ -0,0 +1,214 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+/**
+* Builds the cgroup v2 directory of a container, as the systemd cgroup
+* driver does ("system.slice/docker-[id].scope"), and checks the values of
+* the metrics that the CgroupV2Collector maps from its files, by their paths
+* in the samples of cAdvisor.
+*
+* @author  Jose E. Nunez
+* @version 0.0.1
+* @since   2019-07-07
+*/
+public class CgroupV2CollectorTest {
+
+  /**
+   * The docker-id of the container.
+   */
+  private static final String DOCKER_ID =
+      "0123456789abcdef0123456789abcdef0123456789abcdef0123456789abcdef";
+
+  /**
+   * The schema of the metrics sampled: a metric of each file, and one which
+   * isn't in the cgroups.
+   */
+  private static final String SCHEMA =
+      "metrics=cpuUsage, cfsThrottledPeriods, cfsThrottledTime, memUsage,"
+      + " memWorkingSet, ioReadBytes, ioTotalBytes, ioTotalIos, cpuPressure,"
+      + " cpuPressureTotal, memPressure, rxDropped\n"
+      + "cpuUsage.path=cpu.usage.total\n"
+      + "cfsThrottledPeriods.path=cpu.cfs.throttled_periods\n"
+      + "cfsThrottledTime.path=cpu.cfs.throttled_time\n"
+      + "memUsage.path=memory.usage\n"
+      + "memWorkingSet.path=memory.working_set\n"
+      + "ioReadBytes.path=diskio.io_service_bytes[].stats.Read\n"
+      + "ioTotalBytes.path=diskio.io_service_bytes[].stats.Total\n"
+      + "ioTotalIos.path=diskio.io_serviced[].stats.Total\n"
+      + "cpuPressure.path=cpu.psi.some.avg10\n"
+      + "cpuPressureTotal.path=cpu.psi.full.total\n"
+      + "memPressure.path=memory.psi.full.avg10\n"
+      + "rxDropped.path=network.rx_dropped\n";
+
+  /**
+   * The directory of the root of the cgroup hierarchy.
+   */
+  @Rule
+  public TemporaryFolder cgroupRoot = new TemporaryFolder();
+
+  /**
+   * The compiled plan of the metrics.
+   */
+  private MetricParsePlan plan;
+
+  /**
+  * Writes a file.
+  *
+  * @param dir the directory of the file
+  * @param name the name of the file
+  * @param content the content of the file
+  * @throws IOException it couldn't be written
+  */
+  private static void write(final File dir, final String name,
+                            final String content) throws IOException {
+    Files.write(new File(dir, name).toPath(),
+                content.getBytes(StandardCharsets.US_ASCII));
+  }
+
+  /**
+  * Builds the cgroup of the container, without memory.pressure (like a
+  * kernel without PSI for the memory) and with no memory limit.
+  *
+  * @throws IOException the files couldn't be written
+  */
+  @Before
+  public void setUp() throws IOException {
+    write(cgroupRoot.getRoot(), "metric_schema.properties", SCHEMA);
+    String schemaFile =
+        new File(cgroupRoot.getRoot(), "metric_schema.properties").getPath();
+    plan = MetricSchema.loadFromPropFile(schemaFile)
+                       .compile(new ConfigRelativeWeightsMetrics());
+
+    File scope = new File(cgroupRoot.getRoot(),
+                          "system.slice/docker-" + DOCKER_ID + ".scope");
+    assertTrue(scope.mkdirs());
+
+    write(scope, "cpu.stat",
+          "usage_usec 5000000\n"
+          + "user_usec 3000000\n"
+          + "system_usec 2000000\n"
+          + "nr_periods 400\n"
+          + "nr_throttled 40\n"
+          + "throttled_usec 1500000\n");
+    write(scope, "memory.current", "104857600\n");
+    write(scope, "memory.stat",
+          "anon 50331648\n"
+          + "file 33554432\n"
+          + "inactive_file 20971520\n"
+          + "active_file 12582912\n");
+    write(scope, "io.stat",
+          "8:0 rbytes=4096 wbytes=8192 rios=4 wios=8 dbytes=0 dios=0\n"
+          + "8:16 rbytes=1024 wbytes=0 rios=1 wios=0 dbytes=0 dios=0\n");
+    write(scope, "cpu.pressure",
+          "some avg10=12.50 avg60=3.25 avg300=0.75 total=987654\n"
+          + "full avg10=1.00 avg60=0.50 avg300=0.10 total=123456\n");
+    write(scope, "io.pressure",
+          "some avg10=0.00 avg60=0.00 avg300=0.00 total=0\n"
+          + "full avg10=0.00 avg60=0.00 avg300=0.00 total=0\n");
+    write(scope, "memory.max", "max\n");
+    write(scope, "cpu.max", "50000 100000\n");
+  }
+
+  /**
+  * Get the dense index of a metric of the plan.
+  *
+  * @param name the name of the metric
+  * @return its index
+  */
+  private int metric(final String name) {
+    for (int idx = 0; idx < plan.numMetrics(); idx++) {
+      if (plan.name(idx).equals(name)) {
+        return idx;
+      }
+    }
+    throw new IllegalArgumentException("No metric " + name);
+  }
+
+  /**
+  * The files of the container are mapped to the metrics of cAdvisor, its
+  * spec is cached, and the missing pressure file is taken as 0.
+  */
+  @Test
+  public void mapsTheFilesOfTheScope() {
+    CgroupV2Collector collector =
+        new CgroupV2Collector(cgroupRoot.getRoot().getPath(), plan);
+    ContainerRegistry registry = new ContainerRegistry();
+    ContainerSampleWindows windows =
+        new ContainerSampleWindows(plan.numMetrics());
+
+    collector.collect(windows, registry);
+
+    assertEquals(1, windows.numContainers());
+    int handle = windows.handle(0);
+    assertEquals(DOCKER_ID, registry.dockerId(handle));
+    assertEquals("", registry.serviceName(handle));
+    // "max": no memory limit
+    assertEquals(-1, windows.memLimit(0));
+    assertEquals(-1, registry.memLimit(handle));
+    assertEquals(50000, registry.cpuQuota(handle));
+    assertEquals(100000, registry.cpuPeriod(handle));
+
+    assertEquals(1, windows.numSamples(0));
+    double[] values = windows.values();
+    int offset = windows.firstSample(0) * plan.numMetrics();
+
+    // the times in nanosecs, like cAdvisor
+    assertEquals(5000000000.0, values[offset + metric("cpuUsage")], 0);
+    assertEquals(40, values[offset + metric("cfsThrottledPeriods")], 0);
+    assertEquals(1500000000.0, values[offset + metric("cfsThrottledTime")],
+                 0);
+    assertEquals(104857600, values[offset + metric("memUsage")], 0);
+    assertEquals(104857600 - 20971520,
+                 values[offset + metric("memWorkingSet")], 0);
+    // summed over the devices
+    assertEquals(4096 + 1024, values[offset + metric("ioReadBytes")], 0);
+    assertEquals(4096 + 8192 + 1024,
+                 values[offset + metric("ioTotalBytes")], 0);
+    assertEquals(4 + 8 + 1, values[offset + metric("ioTotalIos")], 0);
+    assertEquals(12.5, values[offset + metric("cpuPressure")], 1e-9);
+    assertEquals(123456, values[offset + metric("cpuPressureTotal")], 0);
+    // memory.pressure is missing
+    assertEquals(0, values[offset + metric("memPressure")], 0);
+    // not in the cgroups
+    assertEquals(0, values[offset + metric("rxDropped")], 0);
+  }
+
+  /**
+  * A container whose scope is removed is dropped in the next cycle.
+  *
+  * @throws IOException the scope couldn't be removed
+  */
+  @Test
+  public void dropsTheScopeRemoved() throws IOException {
+    CgroupV2Collector collector =
+        new CgroupV2Collector(cgroupRoot.getRoot().getPath(), plan);
+    ContainerRegistry registry = new ContainerRegistry();
+    ContainerSampleWindows windows =
+        new ContainerSampleWindows(plan.numMetrics());
+
+    collector.collect(windows, registry);
+    assertEquals(1, windows.numContainers());
+
+    File scope = new File(cgroupRoot.getRoot(),
+                          "system.slice/docker-" + DOCKER_ID + ".scope");
+    for (File file: scope.listFiles()) {
+      Files.delete(file.toPath());
+    }
+    Files.delete(scope.toPath());
+
+    collector.collect(windows, registry);
+    assertEquals(0, windows.numContainers());
+  }
+
+}
@@ -0,0 +1,289 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.junit.After;
+import org.junit.Test;
+
+
+/**
+* Runs a cluster of three ClusterCoordinators on the loopback, and checks
+* the split of the cAdvisor hosts among them, the rebalance when a member
+* stops, and that every member publishes the whole fleet from the
+* FleetWeightSnapshots of the others.
+*
+* The collectors of the hosts query a closed port, so the results of each
+* host are given to its owner as its collector would.
+*
+* @author  Jose E. Nunez
+* @version 0.0.1
+* @since   2019-06-30
+*/
+public class ClusterCoordinatorTest {
+
+  /**
+   * The number of cAdvisor hosts of the fleet.
+   */
+  private static final int NUM_HOSTS = 24;
+
+  /**
+   * The interval between the snapshots, in millisecs.
+   */
+  private static final int INTERVAL_MILLIS = 100;
+
+  /**
+   * The timeout of the members, in millisecs.
+   */
+  private static final int MEMBER_TIMEOUT_MILLIS = 600;
+
+  /**
+   * How long to wait for the cluster to converge, in millisecs.
+   */
+  private static final long CONVERGE_MILLIS = 15000;
+
+  /**
+   * The cAdvisor hosts of the fleet.
+   */
+  private final List<String> fleetHosts = new ArrayList<String>();
+
+  /**
+   * The addresses of the members.
+   */
+  private final List<String> members = new ArrayList<String>();
+
+  /**
+   * The coordinator of each member.
+   */
+  private final Map<String, ClusterCoordinator> coordinators =
+      new HashMap<String, ClusterCoordinator>();
+
+  /**
+   * The hosts whose collectors each member created, in order (guarded by
+   * itself).
+   */
+  private final Map<String, List<String>> createdCollectors =
+      new HashMap<String, List<String>>();
+
+  /**
+   * The fleet last published by each member: the final metric of each host.
+   */
+  private final Map<String, Map<String, Integer>> publishedFleets =
+      Collections.synchronizedMap(new HashMap<String, Map<String, Integer>>());
+
+  /**
+  * Get a free port of the loopback.
+  *
+  * @return the port
+  * @throws IOException no port could be bound
+  */
+  private static int freePort() throws IOException {
+    try (ServerSocket socket = new ServerSocket(0)) {
+      return socket.getLocalPort();
+    }
+  }
+
+  /**
+  * A docker-id of 64 hex chars for the container of a host.
+  *
+  * @param host the host
+  * @return the docker-id
+  */
+  private static String dockerIdOf(final String host) {
+    return String.format("%064x", host.hashCode() & 0xffffffffL);
+  }
+
+  /**
+  * Creates and starts the coordinators of all the members.
+  *
+  * @param numMembers the number of members
+  * @throws IOException a coordinator couldn't bind its socket
+  */
+  private void startCluster(int numMembers) throws IOException {
+    for (int idx = 1; idx <= NUM_HOSTS; idx++) {
+      // nothing listens on port 1 of the loopback
+      fleetHosts.add("127.0.1." + idx + ":1");
+    }
+    for (int idx = 0; idx < numMembers; idx++) {
+      members.add("127.0.0.1:" + freePort());
+    }
+
+    StringBuilder clusterMembers = new StringBuilder();
+    for (String member: members) {
+      clusterMembers.append(member).append(',');
+    }
+
+    for (final String member: members) {
+      ConfigLbDockerCAdvisor config = new ConfigLbDockerCAdvisor();
+      config.clusterSelf(member)
+            .clusterMembers(clusterMembers.toString())
+            .clusterIntervalMillis(INTERVAL_MILLIS)
+            .clusterMemberTimeoutMillis(MEMBER_TIMEOUT_MILLIS)
+            .subscribeContainerEvents(false);
+
+      final List<String> created = new ArrayList<String>();
+      createdCollectors.put(member, created);
+
+      ClusterCoordinator coordinator = new ClusterCoordinator(
+          config, fleetHosts,
+          (host, port) -> {
+            synchronized (created) {
+              created.add(host + ":" + port);
+            }
+            return new BackendThreadQueryCAdvisor(host, port, null, 60000);
+          }
+      );
+      coordinator.addResultStatsSink(lbResultStats -> {
+        Map<String, Integer> fleet = new HashMap<String, Integer>();
+        for (LbCAdvisorResultStat lbResultStat: lbResultStats) {
+          fleet.put(lbResultStat.host(), lbResultStat.lbFinalStat());
+        }
+        publishedFleets.put(member, fleet);
+      });
+      coordinators.put(member, coordinator);
+    }
+
+    for (ClusterCoordinator coordinator: coordinators.values()) {
+      coordinator.start();
+    }
+  }
+
+  /**
+  * Get the hosts whose collectors a member created.
+  *
+  * @param member the member
+  * @return the hosts, in order
+  */
+  private List<String> createdBy(final String member) {
+    List<String> created = createdCollectors.get(member);
+    synchronized (created) {
+      return new ArrayList<String>(created);
+    }
+  }
+
+  /**
+  * Waits until the members alive own the hosts of their ring, and all of
+  * them publish the whole fleet with the final metric given, which each
+  * owner gives to its hosts (as their collectors would).
+  *
+  * @param alive the members alive
+  * @param lbFinalStat the final metric of all the hosts
+  * @throws InterruptedException interrupted while waiting
+  */
+  private void awaitFleet(final List<String> alive, int lbFinalStat)
+      throws InterruptedException {
+    ConsistentHashRing ring =
+        new ConsistentHashRing(alive, ConsistentHashRing.DEFAULT_VIRTUAL_NODES);
+    Map<String, Integer> expectedFleet = new HashMap<String, Integer>();
+    for (String host: fleetHosts) {
+      expectedFleet.put(host, lbFinalStat);
+    }
+
+    long deadline = System.currentTimeMillis() + CONVERGE_MILLIS;
+    while (true) {
+      for (String host: fleetHosts) {
+        // ignored until the owner has started the collector of the host
+        coordinators.get(ring.ownerOf(host)).publishLocal(
+            host,
+            Collections.singletonList(new LbCAdvisorResultStat()
+                                          .dockerId(dockerIdOf(host))
+                                          .lbFinalStat(lbFinalStat)
+                                          .host(host))
+        );
+      }
+
+      boolean converged = true;
+      for (String member: alive) {
+        converged &= expectedFleet.equals(publishedFleets.get(member));
+      }
+      if (converged) {
+        return;
+      }
+      assertTrue("the fleet wasn't published by all of " + alive
+                 + ": " + publishedFleets,
+                 System.currentTimeMillis() < deadline);
+      Thread.sleep(INTERVAL_MILLIS);
+    }
+  }
+
+  /**
+  * Checks that each host is collected by the member which owns it in the
+  * ring of the members alive.
+  *
+  * @param alive the members alive
+  */
+  private void assertSplit(final List<String> alive) {
+    ConsistentHashRing ring =
+        new ConsistentHashRing(alive, ConsistentHashRing.DEFAULT_VIRTUAL_NODES);
+    for (String member: alive) {
+      TreeSet<String> owned = new TreeSet<String>();
+      for (String host: fleetHosts) {
+        if (member.equals(ring.ownerOf(host))) {
+          owned.add(host);
+        }
+      }
+      assertFalse(member + " owns no host", owned.isEmpty());
+      assertEquals(owned, new TreeSet<String>(createdBy(member)));
+    }
+  }
+
+  /**
+  * Stops all the coordinators.
+  */
+  @After
+  public void tearDown() {
+    for (ClusterCoordinator coordinator: coordinators.values()) {
+      coordinator.interrupt();
+    }
+  }
+
+  /**
+  * The hosts are split among the members, every member publishes the whole
+  * fleet, and the hosts of a member which stops move to the others.
+  *
+  * @throws Exception the cluster couldn't be started, or interrupted
+  */
+  @Test
+  public void splitsRebalancesAndSharesTheFleet() throws Exception {
+    startCluster(3);
+
+    awaitFleet(members, 1);
+    assertSplit(members);
+
+    Map<String, List<String>> createdBefore =
+        new HashMap<String, List<String>>();
+    for (String member: members) {
+      createdBefore.put(member, createdBy(member));
+    }
+
+    String stopped = members.get(2);
+    List<String> survivors = Arrays.asList(members.get(0), members.get(1));
+    coordinators.get(stopped).interrupt();
+
+    awaitFleet(survivors, 2);
+
+    for (String member: survivors) {
+      List<String> created = createdBy(member);
+      // the hosts a survivor owned stay with it, only the stopped one's move
+      assertEquals(createdBefore.get(member),
+                   created.subList(0, createdBefore.get(member).size()));
+      for (String host: created.subList(createdBefore.get(member).size(),
+                                        created.size())) {
+        assertTrue(host + " didn't move from " + stopped,
+                   createdBefore.get(stopped).contains(host));
+      }
+    }
+    assertSplit(survivors);
+    assertEquals(createdBefore.get(stopped), createdBy(stopped));
+  }
+
+}
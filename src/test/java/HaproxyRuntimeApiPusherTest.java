@@ -0,0 +1,178 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+/**
+* Pushes the weights of two cycles through the HaproxyRuntimeApiPusher to a
+* HaproxyRuntimeApiStandIn, and checks the connections and the commands
+* which reach it.
+*
+* @author  Jose E. Nunez
+* @version 0.0.1
+* @since   2019-07-07
+*/
+public class HaproxyRuntimeApiPusherTest {
+
+  /**
+   * The docker-id of the container of be_web/web1.
+   */
+  private static final String WEB1_ID =
+      "cfc0fb6f62f9" + String.format("%052d", 1);
+
+  /**
+   * The docker-id of the container of be_web/web2.
+   */
+  private static final String WEB2_ID =
+      "a1b2c3d4e5f6" + String.format("%052d", 2);
+
+  /**
+   * The directory of the property file of the agent.
+   */
+  @Rule
+  public TemporaryFolder configDir = new TemporaryFolder();
+
+  /**
+   * The stand-in of HAProxy.
+   */
+  private HaproxyRuntimeApiStandIn haproxy;
+
+  /**
+   * The pusher to the stand-in.
+   */
+  private HaproxyRuntimeApiPusher pusher;
+
+  /**
+  * Get the final metric of a container.
+  *
+  * @param dockerId the docker-id of the container
+  * @param loadFactor its load factor ("d-3" units)
+  * @return the final metric
+  */
+  private static LbCAdvisorResultStat stat(final String dockerId,
+                                           int loadFactor) {
+    return new LbCAdvisorResultStat().dockerId(dockerId)
+                                     .lbFinalStat(loadFactor);
+  }
+
+  /**
+  * Get the commands of a connection in order (the pusher sends them in the
+  * order of the properties of the servers, which isn't defined).
+  *
+  * @param commands the commands
+  * @return the commands sorted
+  */
+  private static List<String> sorted(final List<String> commands) {
+    List<String> result = new ArrayList<String>(commands);
+    Collections.sort(result);
+    return result;
+  }
+
+  /**
+  * Starts the stand-in, and configures the pusher to it.
+  *
+  * @throws IOException the stand-in couldn't be started, or the property
+  *                     file written
+  */
+  @Before
+  public void setUp() throws IOException {
+    haproxy = new HaproxyRuntimeApiStandIn(
+                  0, Arrays.asList("be_web/web1", "be_web/web2")
+              );
+    haproxy.start();
+
+    File propFile = new File(configDir.getRoot(),
+                             "lb_docker_cadvisor.properties");
+    String properties =
+        "haproxyRuntimeApi=127.0.0.1:" + haproxy.port() + "\n"
+        + "haproxyRuntimeMaxWeight=100\n"
+        + "agentCheckFullLoadFactor=100000\n"
+        + "haproxyRuntimeServer." + WEB1_ID.substring(0, 12)
+        + "=be_web/web1\n"
+        + "haproxyRuntimeServer." + WEB2_ID.substring(0, 12)
+        + "=be_web/web2\n";
+    Files.write(propFile.toPath(),
+                properties.getBytes(StandardCharsets.US_ASCII));
+
+    ConfigLbDockerCAdvisor config = new ConfigLbDockerCAdvisor();
+    config.loadFromPropFile(propFile.getPath());
+    pusher = new HaproxyRuntimeApiPusher(config, null);
+    assertTrue(pusher.hasServers());
+  }
+
+  /**
+  * Stops the stand-in.
+  *
+  * @throws IOException its socket couldn't be closed
+  */
+  @After
+  public void tearDown() throws IOException {
+    haproxy.close();
+  }
+
+  /**
+  * Each cycle pushes only the weights which changed, in one connection,
+  * and a cycle without changes doesn't connect.
+  */
+  @Test
+  public void pushesTheWeightsWhichChanged() {
+    // cycle 1: both weights are new
+    pusher.push(Arrays.asList(stat(WEB1_ID, 25000), stat(WEB2_ID, 50000)));
+    // cycle 2: only web2 changes
+    pusher.push(Arrays.asList(stat(WEB1_ID, 25000), stat(WEB2_ID, 90000)));
+    // cycle 3: nothing changes
+    pusher.push(Arrays.asList(stat(WEB1_ID, 25000), stat(WEB2_ID, 90000)));
+
+    List<List<String>> connections = haproxy.connections();
+    assertEquals(2, connections.size());
+    assertEquals(Arrays.asList("set server be_web/web1 weight 75",
+                               "set server be_web/web2 weight 50"),
+                 sorted(connections.get(0)));
+    assertEquals(Collections.singletonList("set server be_web/web2 weight 10"),
+                 connections.get(1));
+
+    assertEquals(2, pusher.numPushes());
+    assertEquals(3, pusher.numCommands());
+    assertEquals(0, pusher.numFailures());
+  }
+
+  /**
+  * The weights rejected by HAProxy are pushed again in the next cycle.
+  *
+  * @throws IOException the stand-in couldn't be restarted
+  */
+  @Test
+  public void pushesAgainTheWeightsRejected() throws IOException {
+    haproxy.close();
+    haproxy = new HaproxyRuntimeApiStandIn(
+                  haproxy.port(), Collections.singletonList("be_web/web1")
+              );
+    haproxy.start();
+
+    pusher.push(Arrays.asList(stat(WEB1_ID, 0), stat(WEB2_ID, 0)));
+    pusher.push(Arrays.asList(stat(WEB1_ID, 0), stat(WEB2_ID, 0)));
+
+    List<List<String>> connections = haproxy.connections();
+    assertEquals(2, connections.size());
+    assertEquals(connections.get(0), connections.get(1));
+    assertEquals(Arrays.asList("set server be_web/web1 weight 100",
+                               "set server be_web/web2 weight 100"),
+                 sorted(connections.get(1)));
+    assertEquals(2, pusher.numFailures());
+  }
+
+}
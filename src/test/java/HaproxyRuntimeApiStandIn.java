@@ -0,0 +1,258 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+
+/**
+* A local stand-in of the runtime API of HAProxy, to test the
+* HaproxyRuntimeApiPusher without an HAProxy: it listens on a TCP port of
+* the loopback and, like HAProxy in its non-interactive mode, reads one line
+* of commands separated by ";" per connection, answers them and closes the
+* connection. The commands received are kept, by connection.
+*
+* "set server [backend]/[server] weight [n]" succeeds (with an empty reply)
+* if the server is one of those given (or if none is given), and n is from
+* 0 to 256. "show stat" answers the CSV of the statistics of the servers
+* whose weight was set, with 100 more requests each time, and a response
+* time ("rtime") which grows as their weight drops (to try the
+* LatencyWeightTuner). Any other command is answered with an error, like
+* HAProxy does.
+*
+* It can also be run by hand, printing each command received as an
+* "epoch-millis command" line:
+* <pre>
+*   HaproxyRuntimeApiStandIn &lt;port&gt; [backend/server ...]
+* </pre>
+*
+* @author  Jose E. Nunez
+* @version 0.0.1
+* @since   2019-07-07
+*/
+public final class HaproxyRuntimeApiStandIn extends Thread {
+
+  /**
+   * The socket where the connections are accepted.
+   */
+  private final ServerSocket serverSocket;
+
+  /**
+   * The known servers, as "backend/server" (empty: any).
+   */
+  private final Set<String> servers;
+
+  /**
+   * The weight last set to each server, as "backend/server" (only used by
+   * the thread which answers).
+   */
+  private final Map<String, Integer> weights = new TreeMap<String, Integer>();
+
+  /**
+   * The number of requests "served" by each server (only used by the thread
+   * which answers).
+   */
+  private final Map<String, Long> requests = new TreeMap<String, Long>();
+
+  /**
+   * The commands received, by connection (guarded by itself).
+   */
+  private final List<List<String>> connections =
+      new ArrayList<List<String>>();
+
+  /**
+  * Constructor: binds the socket on the loopback.
+  *
+  * @param port the port (0: any free one, see port())
+  * @param knownServers the known servers, as "backend/server" (empty: any)
+  * @throws IOException the port couldn't be bound
+  */
+  public HaproxyRuntimeApiStandIn(int port,
+                                  final Collection<String> knownServers)
+      throws IOException {
+    super("HaproxyRuntimeApiStandIn: stand-in of the HAProxy runtime API");
+    setDaemon(true);
+
+    servers = new HashSet<String>(knownServers);
+    serverSocket = new ServerSocket();
+    serverSocket.setReuseAddress(true);
+    serverSocket.bind(new InetSocketAddress("127.0.0.1", port));
+  }
+
+  /**
+  * Get the port where the connections are accepted.
+  *
+  * @return the port
+  */
+  public int port() {
+    return serverSocket.getLocalPort();
+  }
+
+  /**
+  * Get the commands received so far.
+  *
+  * @return the commands, by connection
+  */
+  public List<List<String>> connections() {
+    synchronized (connections) {
+      return new ArrayList<List<String>>(connections);
+    }
+  }
+
+  /**
+  * Stops accepting connections.
+  *
+  * @throws IOException the socket couldn't be closed
+  */
+  public void close() throws IOException {
+    serverSocket.close();
+  }
+
+  /**
+  * run() method of the class: answers the connections until it is closed.
+  */
+  @Override
+  public void run() {
+    while (!serverSocket.isClosed()) {
+      try {
+        answerNext();
+      } catch (IOException ex) {
+        if (!serverSocket.isClosed()) {
+          ex.printStackTrace();
+        }
+      }
+    }
+  }
+
+  /**
+  * Accepts the next connection, and answers its line of commands.
+  *
+  * @return the commands received
+  * @throws IOException the connection failed
+  */
+  public List<String> answerNext() throws IOException {
+    try (Socket socket = serverSocket.accept()) {
+      BufferedReader input =
+          new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                                                   StandardCharsets.US_ASCII));
+      String line = input.readLine();
+      List<String> commands = new ArrayList<String>();
+      if (line == null) {
+        return commands;
+      }
+
+      StringBuilder reply = new StringBuilder();
+      for (String command: line.split(";")) {
+        command = command.trim();
+        commands.add(command);
+        reply.append(execute(command));
+      }
+      synchronized (connections) {
+        connections.add(Collections.unmodifiableList(commands));
+      }
+
+      OutputStream output = socket.getOutputStream();
+      output.write(reply.append('\n').toString()
+                        .getBytes(StandardCharsets.US_ASCII));
+      output.flush();
+      return commands;
+    }
+  }
+
+  /**
+  * Executes a command, like HAProxy.
+  *
+  * @param command the command
+  * @return the reply of the command ("" if it succeeded)
+  */
+  private String execute(final String command) {
+    if (command.equals("show stat")) {
+      return showStat();
+    }
+    String[] words = command.split("\\s+");
+    if (words.length != 5 || !words[0].equals("set")
+        || !words[1].equals("server") || !words[3].equals("weight")) {
+      return "Unknown command.\n";
+    }
+    if (words[2].indexOf('/') <= 0) {
+      return "Require 'backend/server'.\n";
+    }
+    if (!servers.isEmpty() && !servers.contains(words[2])) {
+      return "No such server.\n";
+    }
+    try {
+      int weight = Integer.parseInt(words[4]);
+      if (weight < 0 || weight > 256) {
+        return "Absolute weight can only be between 0 and 256 inclusive.\n";
+      }
+      weights.put(words[2], weight);
+    } catch (NumberFormatException ex) {
+      return "Require <weight> or <weight%>.\n";
+    }
+    return "";
+  }
+
+  /**
+  * Answers "show stat" with the statistics of the servers whose weight was
+  * set: 100 more requests each time, and a response time in millisecs of
+  * 10 plus 4 per point of weight under 100.
+  *
+  * @return the CSV of the statistics (only some of the columns of HAProxy)
+  */
+  private String showStat() {
+    StringBuilder csv = new StringBuilder();
+    csv.append("# pxname,svname,stot,econ,eresp,weight,rtime,\n");
+    for (Map.Entry<String, Integer> server: weights.entrySet()) {
+      long served = requests.getOrDefault(server.getKey(), 0L) + 100;
+      requests.put(server.getKey(), served);
+      int weight = server.getValue();
+      String[] names = server.getKey().split("/", 2);
+      csv.append(names[0]).append(',').append(names[1]).append(',')
+         .append(served).append(",0,0,").append(weight).append(',')
+         .append(10 + 4 * Math.max(0, 100 - weight)).append(",\n");
+    }
+    return csv.append('\n').toString();
+  }
+
+  /**
+  * Main function: runs the stand-in by hand.
+  *
+  * @param args the command-line arguments (see the usage above)
+  * @throws IOException the port couldn't be bound
+  */
+  public static void main(final String[] args) throws IOException {
+
+    if (args.length < 1) {
+      System.err.println("Usage: HaproxyRuntimeApiStandIn <port> "
+                         + "[backend/server ...]");
+      System.exit(1);
+    }
+
+    HaproxyRuntimeApiStandIn standIn = new HaproxyRuntimeApiStandIn(
+        Integer.parseInt(args[0]),
+        Arrays.asList(args).subList(1, args.length)
+    );
+    while (true) {
+      try {
+        for (String command: standIn.answerNext()) {
+          System.out.println(System.currentTimeMillis() + " " + command);
+        }
+      } catch (IOException ex) {
+        ex.printStackTrace();
+      }
+    }
+  }
+
+}